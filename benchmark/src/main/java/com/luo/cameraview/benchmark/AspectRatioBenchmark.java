@@ -0,0 +1,73 @@
+package com.luo.cameraview.benchmark;
+
+import com.luo.cameraview.base.AspectRatio;
+import com.luo.cameraview.base.Size;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AspectRatio的创建, 解析和匹配, 每次调用处理整张尺寸表
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AspectRatioBenchmark {
+
+    @Param({DeviceSizeTables.PIXEL_2, DeviceSizeTables.GALAXY_S7, DeviceSizeTables.REDMI_NOTE_5})
+    public String device;
+
+    private Size[] mSizes;
+    private String[] mStrings;
+    private AspectRatio mRatio;
+
+    @Setup
+    public void setUp() {
+        mSizes = DeviceSizeTables.pictureSizes(device);
+        mStrings = new String[mSizes.length];
+        for (int i = 0; i < mSizes.length; i++) {
+            mStrings[i] = mSizes[i].getWidth() + ":" + mSizes[i].getHeight();
+        }
+        mRatio = AspectRatio.of(4, 3);
+    }
+
+    @Benchmark
+    public void of(Blackhole blackhole) {
+        for (Size size : mSizes) {
+            blackhole.consume(AspectRatio.of(size.getWidth(), size.getHeight()));
+        }
+    }
+
+    @Benchmark
+    public void parse(Blackhole blackhole) {
+        for (String s : mStrings) {
+            blackhole.consume(AspectRatio.parse(s));
+        }
+    }
+
+    @Benchmark
+    public int matches() {
+        int count = 0;
+        for (Size size : mSizes) {
+            if (mRatio.matches(size)) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
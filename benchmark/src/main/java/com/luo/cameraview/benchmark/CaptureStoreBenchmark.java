@@ -0,0 +1,82 @@
+package com.luo.cameraview.benchmark;
+
+import com.luo.cameraview.store.CaptureStore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CaptureStore的持续写入吞吐量, 阻塞模式下生产者的速度等于存储的速度.
+ * 段文件写在java.io.tmpdir下, 需要测量真实磁盘时用-Djava.io.tmpdir指定目录(tmpfs上fsync几乎没有开销).
+ * batch为1时每张图片单独同步, 相当于每张图片写一个文件再fsync; 吞吐量(MB/s) = ops/s * recordSize
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CaptureStoreBenchmark {
+
+    @Param({"262144", "2097152"})
+    public int recordSize;
+
+    @Param({"1", "8"})
+    public int batch;
+
+    private File mDirectory;
+    private CaptureStore mStore;
+    private byte[] mJpeg;
+
+    @Setup
+    public void setUp() throws IOException {
+        mDirectory = new File(System.getProperty("java.io.tmpdir"), "capture-store-" + System.nanoTime());
+        mStore = new CaptureStore(mDirectory)
+                .setBackpressure(CaptureStore.BACKPRESSURE_BLOCK)
+                .setBatch(batch, 0);
+        mStore.open();
+        mJpeg = new byte[recordSize];
+        new Random(42).nextBytes(mJpeg);
+    }
+
+    /**
+     * 每轮结束后删除已经写完的段, 避免占满临时目录
+     */
+    @TearDown(Level.Iteration)
+    public void trim() {
+        mStore.trim(mStore.getLastPersistedSequence());
+    }
+
+    @TearDown
+    public void tearDown() {
+        mStore.close();
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    @Benchmark
+    public long append() {
+        return mStore.append(mJpeg);
+    }
+}
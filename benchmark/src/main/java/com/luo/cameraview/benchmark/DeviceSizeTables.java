@@ -0,0 +1,83 @@
+package com.luo.cameraview.benchmark;
+
+import com.luo.cameraview.base.Size;
+
+/**
+ * 从真机StreamConfigurationMap中导出的尺寸表, 顺序和getOutputSizes()的返回一致.
+ * 预览大小已经按1920x1080过滤过, 和CameraInfoCache中的处理一致
+ */
+final class DeviceSizeTables {
+
+    static final String PIXEL_2 = "pixel2";
+    static final String GALAXY_S7 = "galaxyS7";
+    static final String REDMI_NOTE_5 = "redmiNote5";
+
+    private static final int[] PIXEL_2_PREVIEW = {
+            1920, 1080, 1600, 1200, 1440, 1080, 1280, 960, 1280, 720, 1024, 768,
+            800, 600, 720, 480, 640, 480, 640, 360, 352, 288, 320, 240, 176, 144
+    };
+
+    private static final int[] PIXEL_2_PICTURE = {
+            4032, 3024, 4000, 3000, 3840, 2160, 3264, 2448, 3200, 2400, 2976, 2976,
+            2592, 1944, 2688, 1512, 2048, 1536, 1920, 1080, 1600, 1200, 1440, 1080,
+            1280, 960, 1280, 720, 1024, 768, 800, 600, 720, 480, 640, 480,
+            640, 360, 352, 288, 320, 240, 176, 144
+    };
+
+    private static final int[] GALAXY_S7_PREVIEW = {
+            1920, 1080, 1440, 1080, 1088, 1088, 1280, 720, 1056, 704, 1024, 768,
+            960, 720, 800, 450, 720, 720, 720, 480, 640, 480, 352, 288, 320, 240,
+            256, 144, 176, 144
+    };
+
+    private static final int[] GALAXY_S7_PICTURE = {
+            4032, 3024, 4032, 2268, 3024, 3024, 3984, 2988, 3264, 2448, 3264, 1836,
+            2448, 2448, 2304, 2304, 2048, 1152, 1920, 1080, 1440, 1080, 1088, 1088,
+            1280, 720, 960, 720, 1024, 768, 800, 450, 720, 720, 720, 480, 640, 480,
+            352, 288, 320, 240, 256, 144, 176, 144
+    };
+
+    private static final int[] REDMI_NOTE_5_PREVIEW = {
+            1920, 1080, 1440, 720, 1280, 960, 1280, 720, 1280, 640, 1088, 1088,
+            960, 720, 960, 540, 720, 720, 720, 480, 640, 480, 640, 360, 480, 360,
+            352, 288, 320, 240, 176, 144
+    };
+
+    private static final int[] REDMI_NOTE_5_PICTURE = {
+            4000, 3000, 4000, 2250, 4000, 2000, 3840, 2160, 3264, 2448, 3000, 3000,
+            2976, 2976, 2560, 1920, 2688, 1512, 2592, 1944, 2592, 1296, 2304, 1728,
+            2160, 1080, 2048, 1536, 1920, 1080, 1600, 1200, 1440, 1080, 1440, 720,
+            1280, 960, 1280, 720, 1280, 640, 1088, 1088, 1024, 768, 960, 720,
+            960, 540, 720, 720, 720, 480, 640, 480, 640, 360, 352, 288, 320, 240
+    };
+
+    private DeviceSizeTables() {
+    }
+
+    static Size[] previewSizes(String device) {
+        return toSizes(select(device, PIXEL_2_PREVIEW, GALAXY_S7_PREVIEW, REDMI_NOTE_5_PREVIEW));
+    }
+
+    static Size[] pictureSizes(String device) {
+        return toSizes(select(device, PIXEL_2_PICTURE, GALAXY_S7_PICTURE, REDMI_NOTE_5_PICTURE));
+    }
+
+    private static int[] select(String device, int[] pixel2, int[] galaxyS7, int[] redmiNote5) {
+        if (PIXEL_2.equals(device)) {
+            return pixel2;
+        } else if (GALAXY_S7.equals(device)) {
+            return galaxyS7;
+        } else if (REDMI_NOTE_5.equals(device)) {
+            return redmiNote5;
+        }
+        throw new IllegalArgumentException("Unknown device: " + device);
+    }
+
+    private static Size[] toSizes(int[] table) {
+        Size[] sizes = new Size[table.length / 2];
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = new Size(table[i * 2], table[i * 2 + 1]);
+        }
+        return sizes;
+    }
+}
@@ -0,0 +1,106 @@
+package com.luo.cameraview.benchmark;
+
+import com.luo.cameraview.backend.FakeCameraBackend;
+import com.luo.cameraview.backend.ICameraBackend;
+import com.luo.cameraview.backend.StillCaptureController;
+import com.luo.cameraview.frame.IFrame;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 在模拟的HAL上执行完整的拍照流程.
+ * SampleTime给出从takePicture()到图像输出的延时分布, Throughput给出连续拍照的吞吐量.
+ * 帧间隔越短, 结果越接近拍照流程本身的开销.
+ * <p>
+ * 测量的是{@link StillCaptureController}, 不是Camera2: Camera2不经过ICameraBackend,
+ * 两者共用对焦曝光的状态机和照片的排队, 但Camera2本身的开销和真实HAL的延时需要在设备上测量
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.SampleTime, Mode.Throughput})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FakeCaptureBenchmark {
+
+    /**
+     * 帧间隔, 单位微秒. 33333是30fps
+     */
+    @Param({"1000", "33333"})
+    public long frameIntervalMicros;
+
+    /**
+     * converged: 对焦后直接拍照; flashRequired: 需要预拍
+     */
+    @Param({"converged", "flashRequired"})
+    public String scene;
+
+    private FakeCameraBackend mBackend;
+    private StillCaptureController mController;
+
+    @Setup(Level.Trial)
+    public void setUp() throws InterruptedException {
+        mBackend = new FakeCameraBackend()
+                .setOpenLatency(0)
+                .setFrameInterval(TimeUnit.MICROSECONDS.toNanos(frameIntervalMicros))
+                .setImageLatency(TimeUnit.MICROSECONDS.toNanos(frameIntervalMicros))
+                .setFlashRequired("flashRequired".equals(scene));
+        mController = new StillCaptureController(mBackend);
+        final CountDownLatch opened = new CountDownLatch(1);
+        mController.start(new ICameraBackend.StateCallback() {
+            @Override
+            public void onOpened() {
+                opened.countDown();
+            }
+
+            @Override
+            public void onClosed() {
+            }
+
+            @Override
+            public void onError(String message) {
+            }
+        });
+        if (!opened.await(10, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("Fake camera did not open");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        //各阶段的分位数, 用于定位延时来自哪个状态
+        System.out.println(mController.getCaptureMetrics());
+        mController.stop();
+    }
+
+    @Benchmark
+    public void takePicture() throws InterruptedException {
+        final CountDownLatch taken = new CountDownLatch(1);
+        if (!mController.takePicture(new StillCaptureController.PictureCallback() {
+            @Override
+            public void onPictureTaken(IFrame image, long latencyNanos) {
+                taken.countDown();
+            }
+        })) {
+            throw new IllegalStateException("Capture queue is full");
+        }
+        if (!taken.await(10, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("Capture timed out");
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.luo.cameraview.benchmark;
+
+import com.luo.cameraview.frame.FrameResampler;
+import com.luo.cameraview.frame.IFrame;
+import com.luo.cameraview.frame.YuvConverter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 从预览帧生成模型输入: FrameResampler一次完成裁剪, 缩放, 旋转和转换,
+ * 对比先用YuvConverter转换整帧ARGB(还不包括之后的旋转和缩放).
+ * resampleRgb和resampleFloat的耗时应该只随outputSize变化, 和resolution无关
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameResamplerBenchmark {
+
+    @Param({"1920x1080", "4032x3024"})
+    public String resolution;
+
+    @Param({"224", "320"})
+    public int outputSize;
+
+    @Param({"0", "1"})
+    public int filter;
+
+    private IFrame mFrame;
+    private FrameResampler mResampler;
+    private YuvConverter mConverter;
+    private byte[] mRgb;
+    private float[] mValues;
+    private int[] mArgb;
+
+    @Setup
+    public void setUp() {
+        String[] parts = resolution.split("x");
+        int width = Integer.parseInt(parts[0]);
+        int height = Integer.parseInt(parts[1]);
+        mFrame = new YuvConverterBenchmark.SyntheticFrame(width, height, 2);
+        //中间的正方形区域, 旋转90度, 和竖屏下的后置摄像头相同
+        int crop = Math.min(width, height);
+        mResampler = new FrameResampler(outputSize, outputSize)
+                .setFilter(filter)
+                .setCrop((width - crop) / 2, (height - crop) / 2, crop, crop)
+                .setRotation(90);
+        mConverter = new YuvConverter(null, YuvConverter.DEFAULT_PARALLEL_THRESHOLD);
+        mRgb = new byte[outputSize * outputSize * 3];
+        mValues = new float[mRgb.length];
+        mArgb = new int[width * height];
+    }
+
+    @Benchmark
+    public byte[] resampleRgb() {
+        mResampler.toRgb(mFrame, mRgb);
+        return mRgb;
+    }
+
+    @Benchmark
+    public float[] resampleFloat() {
+        mResampler.toFloat(mFrame, mValues);
+        return mValues;
+    }
+
+    @Benchmark
+    public int[] fullArgb() {
+        mConverter.toArgb(mFrame, mArgb);
+        return mArgb;
+    }
+}
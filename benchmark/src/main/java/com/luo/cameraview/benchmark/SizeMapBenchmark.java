@@ -0,0 +1,86 @@
+package com.luo.cameraview.benchmark;
+
+import com.luo.cameraview.base.AspectRatio;
+import com.luo.cameraview.base.Size;
+import com.luo.cameraview.base.SizeMap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SizeMap的填充和查询, 以及Size的排序
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SizeMapBenchmark {
+
+    @Param({DeviceSizeTables.PIXEL_2, DeviceSizeTables.GALAXY_S7, DeviceSizeTables.REDMI_NOTE_5})
+    public String device;
+
+    private Size[] mSizes;
+    private SizeMap mSizeMap;
+    private SizeMap mReusedSizeMap;
+    private AspectRatio[] mRatios;
+
+    @Setup
+    public void setUp() {
+        mSizes = DeviceSizeTables.pictureSizes(device);
+        mSizeMap = fill(new SizeMap(), mSizes);
+        mReusedSizeMap = new SizeMap();
+        mRatios = mSizeMap.ratios().toArray(new AspectRatio[0]);
+    }
+
+    /**
+     * 每次打开摄像头都会重新填充
+     */
+    @Benchmark
+    public SizeMap add() {
+        mReusedSizeMap.clear();
+        return fill(mReusedSizeMap, mSizes);
+    }
+
+    @Benchmark
+    public void sizes(Blackhole blackhole) {
+        for (AspectRatio ratio : mRatios) {
+            blackhole.consume(mSizeMap.sizes(ratio));
+        }
+    }
+
+    @Benchmark
+    public void largest(Blackhole blackhole) {
+        for (AspectRatio ratio : mRatios) {
+            blackhole.consume(mSizeMap.largest(ratio));
+        }
+    }
+
+    @Benchmark
+    public Size[] sortSizes() {
+        Size[] sizes = mSizes.clone();
+        Arrays.sort(sizes);
+        return sizes;
+    }
+
+    private static SizeMap fill(SizeMap sizeMap, Size[] sizes) {
+        for (Size size : sizes) {
+            sizeMap.add(size);
+        }
+        return sizeMap;
+    }
+}
@@ -0,0 +1,89 @@
+package com.luo.cameraview.benchmark;
+
+import com.luo.cameraview.base.AspectRatio;
+import com.luo.cameraview.base.Size;
+import com.luo.cameraview.base.SizeMap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 打开摄像头时的尺寸选择: Camera2.collectCameraInfo()的过滤和chooseOptimalSize()
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SizeSelectionBenchmark {
+
+    @Param({DeviceSizeTables.PIXEL_2, DeviceSizeTables.GALAXY_S7, DeviceSizeTables.REDMI_NOTE_5})
+    public String device;
+
+    /**
+     * 预览界面的大小, 竖屏
+     */
+    @Param({"1080x1920", "720x1280", "1440x2560"})
+    public String surface;
+
+    private Size[] mPreviewSizes;
+    private Size[] mPictureSizes;
+    private SizeMap mPreviewSizeMap;
+    private SizeMap mPictureSizeMap;
+    private SizeMap mFilteredPreviewSizeMap;
+    private AspectRatio mRatio;
+    private int mSurfaceWidth;
+    private int mSurfaceHeight;
+
+    @Setup
+    public void setUp() {
+        mPreviewSizes = DeviceSizeTables.previewSizes(device);
+        mPictureSizes = DeviceSizeTables.pictureSizes(device);
+        mPreviewSizeMap = new SizeMap();
+        mPictureSizeMap = new SizeMap();
+        mFilteredPreviewSizeMap = new SizeMap();
+        collect(mFilteredPreviewSizeMap, mPictureSizeMap);
+        mRatio = AspectRatio.of(16, 9);
+        int position = surface.indexOf('x');
+        mSurfaceWidth = Integer.parseInt(surface.substring(0, position));
+        mSurfaceHeight = Integer.parseInt(surface.substring(position + 1));
+    }
+
+    @Benchmark
+    public SizeMap collectCameraInfo() {
+        collect(mPreviewSizeMap, mPictureSizeMap);
+        return mPreviewSizeMap;
+    }
+
+    @Benchmark
+    public Size chooseOptimalSize() {
+        return mFilteredPreviewSizeMap.chooseOptimalSize(mRatio, mSurfaceWidth, mSurfaceHeight);
+    }
+
+    /**
+     * 和Camera2.collectCameraInfo()一致
+     */
+    private void collect(SizeMap previewSizes, SizeMap pictureSizes) {
+        previewSizes.clear();
+        for (Size size : mPreviewSizes) {
+            previewSizes.add(size);
+        }
+        pictureSizes.clear();
+        for (Size size : mPictureSizes) {
+            pictureSizes.add(size);
+        }
+        previewSizes.retainRatios(pictureSizes);
+    }
+}
@@ -0,0 +1,158 @@
+package com.luo.cameraview.benchmark;
+
+import com.luo.cameraview.base.JpegHeaders;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * 拍照后生成缩略图的几种方式, 在不同分辨率下比较.
+ * <p>
+ * JVM上没有BitmapFactory, 用ImageIO解码代替, 绝对值和设备上不同, 但各方式之间的比例是一致的:
+ * exifThumbnail只解析文件头并解码内嵌的小图; subsampledDecode相当于inSampleSize降采样解码;
+ * fullDecode是之前在主线程完整解码的做法.
+ * ImageIO的降采样仍然完整解码DCT系数, 设备上libjpeg在解码时按比例缩放, subsampledDecode会更快一些
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ThumbnailBenchmark {
+
+    @Param({"1920x1080", "4032x3024", "4608x3456"})
+    public String resolution;
+
+    /**
+     * 缩略图长边
+     */
+    @Param({"320"})
+    public int maxSize;
+
+    private byte[] mJpeg;
+    private int mSampleSize;
+
+    @Setup
+    public void setUp() throws IOException {
+        String[] parts = resolution.split("x");
+        int width = Integer.parseInt(parts[0]);
+        int height = Integer.parseInt(parts[1]);
+        BufferedImage image = createImage(width, height);
+        int thumbnailWidth = maxSize;
+        int thumbnailHeight = maxSize * height / width;
+        BufferedImage thumbnail = new BufferedImage(thumbnailWidth, thumbnailHeight, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = thumbnail.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        graphics.drawImage(image, 0, 0, thumbnailWidth, thumbnailHeight, null);
+        graphics.dispose();
+        mJpeg = insertExif(encode(image), encode(thumbnail));
+        mSampleSize = JpegHeaders.computeSampleSize(width, height, maxSize);
+    }
+
+    @Benchmark
+    public BufferedImage exifThumbnail() throws IOException {
+        ByteBuffer jpeg = ByteBuffer.wrap(mJpeg);
+        ByteBuffer thumbnail = JpegHeaders.parse(jpeg).getThumbnail(jpeg);
+        return ImageIO.read(new ByteArrayInputStream(thumbnail.array(),
+                thumbnail.arrayOffset() + thumbnail.position(), thumbnail.remaining()));
+    }
+
+    @Benchmark
+    public BufferedImage subsampledDecode() throws IOException {
+        ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(mJpeg));
+        ImageReader reader = ImageIO.getImageReaders(input).next();
+        try {
+            reader.setInput(input);
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceSubsampling(mSampleSize, mSampleSize, 0, 0);
+            return reader.read(0, param);
+        } finally {
+            reader.dispose();
+            input.close();
+        }
+    }
+
+    @Benchmark
+    public BufferedImage fullDecode() throws IOException {
+        return ImageIO.read(new ByteArrayInputStream(mJpeg));
+    }
+
+    /**
+     * 渐变加噪声, 压缩率接近真实照片
+     */
+    private static BufferedImage createImage(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(42);
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int r = (x * 255 / width + random.nextInt(16)) & 0xFF;
+                int g = (y * 255 / height + random.nextInt(16)) & 0xFF;
+                int b = ((x + y) * 127 / (width + height) + random.nextInt(16)) & 0xFF;
+                row[x] = (r << 16) | (g << 8) | b;
+            }
+            image.setRGB(0, y, width, 1, row, 0, width);
+        }
+        return image;
+    }
+
+    private static byte[] encode(BufferedImage image) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (!ImageIO.write(image, "jpg", out)) {
+            throw new IOException("No JPEG writer");
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * 在SOI后面插入只包含缩略图的EXIF段, 和HAL输出的JPEG结构相同
+     */
+    private static byte[] insertExif(byte[] jpeg, byte[] thumbnail) {
+        int ifd1 = 8 + 2 + 4;
+        int data = ifd1 + 2 + 12 * 2 + 4;
+        ByteBuffer app1 = ByteBuffer.allocate(4 + 6 + data + thumbnail.length).order(ByteOrder.LITTLE_ENDIAN);
+        app1.put((byte) 0xFF).put((byte) 0xE1);
+        app1.order(ByteOrder.BIG_ENDIAN).putShort((short) (app1.capacity() - 2)).order(ByteOrder.LITTLE_ENDIAN);
+        app1.put(new byte[]{'E', 'x', 'i', 'f', 0, 0});
+        app1.putShort((short) 0x4949).putShort((short) 42).putInt(8);
+        //IFD0没有标签, 只有指向IFD1的偏移
+        app1.putShort((short) 0).putInt(ifd1);
+        app1.putShort((short) 2);
+        app1.putShort((short) 0x0201).putShort((short) 4).putInt(1).putInt(data);
+        app1.putShort((short) 0x0202).putShort((short) 4).putInt(1).putInt(thumbnail.length);
+        app1.putInt(0);
+        app1.put(thumbnail);
+        byte[] result = new byte[jpeg.length + app1.capacity()];
+        result[0] = jpeg[0];
+        result[1] = jpeg[1];
+        System.arraycopy(app1.array(), 0, result, 2, app1.capacity());
+        System.arraycopy(jpeg, 2, result, 2 + app1.capacity(), jpeg.length - 2);
+        return result;
+    }
+}
@@ -0,0 +1,181 @@
+package com.luo.cameraview.benchmark;
+
+import com.luo.cameraview.frame.IFrame;
+import com.luo.cameraview.frame.YuvConverter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * YUV_420_888转换的单线程和fork-join并行耗时.
+ * pixelStride为1是平面布局(I420类), 为2是设备上常见的半平面布局
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class YuvConverterBenchmark {
+
+    @Param({"640x480", "1920x1080", "4032x3024"})
+    public String resolution;
+
+    @Param({"1", "2"})
+    public int pixelStride;
+
+    @Param({"false", "true"})
+    public boolean parallel;
+
+    private IFrame mFrame;
+    private YuvConverter mConverter;
+    private ForkJoinPool mPool;
+    private byte[] mYuv;
+    private int[] mArgb;
+
+    @Setup
+    public void setUp() {
+        String[] parts = resolution.split("x");
+        int width = Integer.parseInt(parts[0]);
+        int height = Integer.parseInt(parts[1]);
+        mFrame = new SyntheticFrame(width, height, pixelStride);
+        mPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        mConverter = new YuvConverter(parallel ? mPool : null, YuvConverter.DEFAULT_PARALLEL_THRESHOLD);
+        mYuv = new byte[YuvConverter.nv21Size(width, height)];
+        mArgb = new int[width * height];
+    }
+
+    @TearDown
+    public void tearDown() {
+        mPool.shutdown();
+    }
+
+    @Benchmark
+    public byte[] nv21() {
+        mConverter.toNv21(mFrame, mYuv);
+        return mYuv;
+    }
+
+    @Benchmark
+    public byte[] i420() {
+        mConverter.toI420(mFrame, mYuv);
+        return mYuv;
+    }
+
+    @Benchmark
+    public int[] argb() {
+        mConverter.toArgb(mFrame, mArgb);
+        return mArgb;
+    }
+
+    /**
+     * 随机内容的direct缓冲区, 行跨度按64字节对齐
+     */
+    static class SyntheticFrame implements IFrame {
+        private final int mWidth;
+        private final int mHeight;
+        private final Plane[] mPlanes;
+
+        SyntheticFrame(int width, int height, int pixelStride) {
+            mWidth = width;
+            mHeight = height;
+            int rowStride = (width + 63) & ~63;
+            int chromaRowStride = pixelStride == 1 ? rowStride / 2 : rowStride;
+            int chromaLength = chromaRowStride * ((height + 1) / 2);
+            Random random = new Random(42);
+            ByteBuffer y = randomBuffer(rowStride * height, random);
+            ByteBuffer u;
+            ByteBuffer v;
+            if (pixelStride == 1) {
+                u = randomBuffer(chromaLength, random);
+                v = randomBuffer(chromaLength, random);
+            } else {
+                ByteBuffer uv = randomBuffer(chromaLength + 1, random);
+                u = uv.duplicate();
+                v = uv.duplicate();
+                v.position(1);
+                v = v.slice();
+            }
+            mPlanes = new Plane[]{
+                    new SyntheticPlane(y, rowStride, 1),
+                    new SyntheticPlane(u, chromaRowStride, pixelStride),
+                    new SyntheticPlane(v, chromaRowStride, pixelStride),
+            };
+        }
+
+        private static ByteBuffer randomBuffer(int length, Random random) {
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+            ByteBuffer buffer = ByteBuffer.allocateDirect(length);
+            buffer.put(data);
+            buffer.clear();
+            return buffer;
+        }
+
+        @Override
+        public int getWidth() {
+            return mWidth;
+        }
+
+        @Override
+        public int getHeight() {
+            return mHeight;
+        }
+
+        @Override
+        public long getTimestamp() {
+            return 0;
+        }
+
+        @Override
+        public Plane[] getPlanes() {
+            return mPlanes;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static class SyntheticPlane implements IFrame.Plane {
+        private final ByteBuffer mBuffer;
+        private final int mRowStride;
+        private final int mPixelStride;
+
+        SyntheticPlane(ByteBuffer buffer, int rowStride, int pixelStride) {
+            mBuffer = buffer;
+            mRowStride = rowStride;
+            mPixelStride = pixelStride;
+        }
+
+        @Override
+        public ByteBuffer getBuffer() {
+            return mBuffer;
+        }
+
+        @Override
+        public int getRowStride() {
+            return mRowStride;
+        }
+
+        @Override
+        public int getPixelStride() {
+            return mPixelStride;
+        }
+    }
+}
@@ -41,4 +41,22 @@ public interface Constants {
      * 防红眼模式
      */
     int FLASH_REDEYE = 4;
+
+    /**
+     * 帧率由模板决定
+     */
+    int FPS_POLICY_DEFAULT = 0;
+    /**
+     * 尽量固定的最高帧率, 用于运动分析
+     */
+    int FPS_POLICY_FIXED_HIGH = 1;
+
+    /**
+     * 缩略图使用拍照请求中JPEG_THUMBNAIL_SIZE生成的EXIF缩略图, 没有时降采样解码
+     */
+    int THUMBNAIL_EXIF = 0;
+    /**
+     * 缩略图总是从完整的JPEG降采样解码, 不再让HAL生成EXIF缩略图
+     */
+    int THUMBNAIL_DECODE = 1;
 }
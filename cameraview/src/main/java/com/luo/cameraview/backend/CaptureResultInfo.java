@@ -0,0 +1,53 @@
+package com.luo.cameraview.backend;
+
+/**
+ * 一帧的捕获结果, 对应CaptureResult中拍照流程用到的字段.
+ * AF和AE状态的取值和CaptureResult中的常量一致, 没有上报时为null
+ */
+public class CaptureResultInfo {
+
+    public static final int AF_STATE_INACTIVE = 0;
+    public static final int AF_STATE_PASSIVE_SCAN = 1;
+    public static final int AF_STATE_PASSIVE_FOCUSED = 2;
+    public static final int AF_STATE_ACTIVE_SCAN = 3;
+    public static final int AF_STATE_FOCUSED_LOCKED = 4;
+    public static final int AF_STATE_NOT_FOCUSED_LOCKED = 5;
+
+    public static final int AE_STATE_INACTIVE = 0;
+    public static final int AE_STATE_SEARCHING = 1;
+    public static final int AE_STATE_CONVERGED = 2;
+    public static final int AE_STATE_LOCKED = 3;
+    public static final int AE_STATE_FLASH_REQUIRED = 4;
+    public static final int AE_STATE_PRECAPTURE = 5;
+
+    private final long mFrameNumber;
+    private final long mSensorTimestamp;
+    private final Integer mAfState;
+    private final Integer mAeState;
+
+    public CaptureResultInfo(long frameNumber, long sensorTimestamp, Integer afState, Integer aeState) {
+        mFrameNumber = frameNumber;
+        mSensorTimestamp = sensorTimestamp;
+        mAfState = afState;
+        mAeState = aeState;
+    }
+
+    public long getFrameNumber() {
+        return mFrameNumber;
+    }
+
+    /**
+     * @return 单位纳秒
+     */
+    public long getSensorTimestamp() {
+        return mSensorTimestamp;
+    }
+
+    public Integer getAfState() {
+        return mAfState;
+    }
+
+    public Integer getAeState() {
+        return mAeState;
+    }
+}
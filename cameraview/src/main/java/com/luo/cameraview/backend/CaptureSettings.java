@@ -0,0 +1,66 @@
+package com.luo.cameraview.backend;
+
+/**
+ * 提交给{@link ICameraBackend}的请求参数, 对应CaptureRequest中拍照流程用到的字段.
+ * 取值和CameraDevice, CaptureRequest中的常量一致.
+ * <p>
+ * 和CaptureRequest.Builder一样可以反复修改, 提交时后端会保存一份拷贝
+ */
+public class CaptureSettings {
+
+    public static final int TEMPLATE_PREVIEW = 1;
+    public static final int TEMPLATE_STILL_CAPTURE = 2;
+    public static final int TEMPLATE_RECORD = 3;
+
+    public static final int TRIGGER_IDLE = 0;
+    public static final int TRIGGER_START = 1;
+    public static final int TRIGGER_CANCEL = 2;
+
+    private final int mTemplate;
+    private int mAfTrigger = TRIGGER_IDLE;
+    private int mAePrecaptureTrigger = TRIGGER_IDLE;
+    private int mJpegOrientation;
+
+    public CaptureSettings(int template) {
+        mTemplate = template;
+    }
+
+    public CaptureSettings copy() {
+        CaptureSettings settings = new CaptureSettings(mTemplate);
+        settings.mAfTrigger = mAfTrigger;
+        settings.mAePrecaptureTrigger = mAePrecaptureTrigger;
+        settings.mJpegOrientation = mJpegOrientation;
+        return settings;
+    }
+
+    public int getTemplate() {
+        return mTemplate;
+    }
+
+    public CaptureSettings setAfTrigger(int afTrigger) {
+        mAfTrigger = afTrigger;
+        return this;
+    }
+
+    public int getAfTrigger() {
+        return mAfTrigger;
+    }
+
+    public CaptureSettings setAePrecaptureTrigger(int aePrecaptureTrigger) {
+        mAePrecaptureTrigger = aePrecaptureTrigger;
+        return this;
+    }
+
+    public int getAePrecaptureTrigger() {
+        return mAePrecaptureTrigger;
+    }
+
+    public CaptureSettings setJpegOrientation(int jpegOrientation) {
+        mJpegOrientation = jpegOrientation;
+        return this;
+    }
+
+    public int getJpegOrientation() {
+        return mJpegOrientation;
+    }
+}
@@ -0,0 +1,201 @@
+package com.luo.cameraview.backend;
+
+import com.luo.cameraview.metrics.CaptureMetrics;
+
+/**
+ * 拍照时对焦和曝光的状态机, 根据每一帧的AF和AE状态决定何时拍照.
+ * <p>
+ * 不依赖具体的摄像头实现: Camera2把CaptureResult中的状态传进来,
+ * 在JVM上测试时由{@link FakeCameraBackend}的结果驱动.
+ * <p>
+ * 有的设备永远不会上报对焦锁定或预拍结束, 所以每个等待的状态都有期限,
+ * 期限按传感器时间戳计算, 从进入状态后的第一帧开始, 超时后直接拍照.
+ * 不是线程安全的, 应该在后端的回调线程中调用
+ */
+public abstract class CaptureStateMachine {
+
+    public static final int STATE_PREVIEW = 0;
+    public static final int STATE_LOCKING = 1;
+    public static final int STATE_LOCKED = 2;
+    public static final int STATE_PRECAPTURE = 3;
+    public static final int STATE_WAITING = 4;
+    public static final int STATE_CAPTURING = 5;
+
+    private static final int STATE_COUNT = 6;
+
+    /**
+     * 对焦和曝光默认的等待期限
+     */
+    public static final long DEFAULT_TIMEOUT_NANOS = 1000000000L;
+
+    private final CaptureMetrics mCaptureMetrics;
+    private int mState;
+    /**
+     * 进入当前状态的时间
+     */
+    private long mStateEnteredNanos;
+    /**
+     * 进入当前状态后第一帧的传感器时间戳, 0表示还没有收到
+     */
+    private long mStateBaseTimestamp;
+    private final long[] mDeadlines = new long[STATE_COUNT];
+
+    /**
+     * @param captureMetrics 记录每个状态的耗时, 可以为null
+     */
+    public CaptureStateMachine(CaptureMetrics captureMetrics) {
+        mCaptureMetrics = captureMetrics;
+        mDeadlines[STATE_LOCKING] = DEFAULT_TIMEOUT_NANOS;
+        mDeadlines[STATE_PRECAPTURE] = DEFAULT_TIMEOUT_NANOS;
+        mDeadlines[STATE_WAITING] = DEFAULT_TIMEOUT_NANOS;
+    }
+
+    /**
+     * 设置状态的等待期限
+     *
+     * @param state         {@link #STATE_LOCKING}, {@link #STATE_PRECAPTURE}或{@link #STATE_WAITING}
+     * @param deadlineNanos 小于等于0时不限制
+     */
+    public void setDeadline(int state, long deadlineNanos) {
+        mDeadlines[state] = deadlineNanos;
+    }
+
+    public int getState() {
+        return mState;
+    }
+
+    public void setState(int state) {
+        long now = CaptureMetrics.now();
+        if (mState != state && mCaptureMetrics != null) {
+            recordState(mState, now - mStateEnteredNanos);
+        }
+        mState = state;
+        mStateEnteredNanos = now;
+        mStateBaseTimestamp = 0;
+    }
+
+    /**
+     * 记录离开的状态的耗时
+     */
+    private void recordState(int oldState, long durationNanos) {
+        switch (oldState) {
+            case STATE_LOCKING:
+                mCaptureMetrics.record(CaptureMetrics.STAGE_LOCKING, durationNanos);
+                break;
+            case STATE_LOCKED:
+            case STATE_PRECAPTURE:
+                mCaptureMetrics.record(CaptureMetrics.STAGE_PRECAPTURE, durationNanos);
+                break;
+            case STATE_WAITING:
+                mCaptureMetrics.record(CaptureMetrics.STAGE_WAITING, durationNanos);
+                break;
+            case STATE_CAPTURING:
+                mCaptureMetrics.record(CaptureMetrics.STAGE_CAPTURING, durationNanos);
+                break;
+        }
+    }
+
+    /**
+     * 处理一帧的结果
+     *
+     * @param afState         没有上报时为null
+     * @param aeState         没有上报时为null
+     * @param sensorTimestamp 没有上报时为0, 不检查期限
+     */
+    public void process(Integer afState, Integer aeState, long sensorTimestamp) {
+        if (sensorTimestamp > 0 && checkDeadline(sensorTimestamp)) {
+            return;
+        }
+        switch (mState) {
+            case STATE_LOCKING: {
+                if (afState == null) {
+                    break;
+                }
+                if (afState == CaptureResultInfo.AF_STATE_FOCUSED_LOCKED ||
+                        afState == CaptureResultInfo.AF_STATE_NOT_FOCUSED_LOCKED) {
+                    if (aeState == null || aeState == CaptureResultInfo.AE_STATE_CONVERGED) {
+                        setState(STATE_CAPTURING);
+                        onReady();
+                    } else {
+                        setState(STATE_LOCKED);
+                        onPrecaptureRequired();
+                    }
+                }
+                break;
+            }
+            case STATE_PRECAPTURE: {
+                //等待自动曝光开始预拍, 有的设备不会上报PRECAPTURE
+                if (aeState == null || aeState == CaptureResultInfo.AE_STATE_PRECAPTURE ||
+                        aeState == CaptureResultInfo.AE_STATE_FLASH_REQUIRED ||
+                        aeState == CaptureResultInfo.AE_STATE_CONVERGED) {
+                    setState(STATE_WAITING);
+                }
+                break;
+            }
+            case STATE_WAITING: {
+                //预拍结束
+                if (aeState == null || aeState != CaptureResultInfo.AE_STATE_PRECAPTURE) {
+                    setState(STATE_CAPTURING);
+                    onReady();
+                }
+                break;
+            }
+        }
+    }
+
+    /**
+     * 检查当前状态是否超过期限, 超时后直接拍照
+     *
+     * @param sensorTimestamp
+     * @return 是否超时
+     */
+    private boolean checkDeadline(long sensorTimestamp) {
+        long deadline = mDeadlines[mState];
+        if (deadline <= 0) {
+            return false;
+        }
+        if (mStateBaseTimestamp == 0) {
+            mStateBaseTimestamp = sensorTimestamp;
+            return false;
+        }
+        long elapsed = sensorTimestamp - mStateBaseTimestamp;
+        if (elapsed < deadline) {
+            return false;
+        }
+        int stage;
+        switch (mState) {
+            case STATE_LOCKING:
+                stage = CaptureMetrics.STAGE_LOCKING;
+                break;
+            case STATE_PRECAPTURE:
+                stage = CaptureMetrics.STAGE_PRECAPTURE;
+                break;
+            default:
+                stage = CaptureMetrics.STAGE_WAITING;
+                break;
+        }
+        setState(STATE_CAPTURING);
+        onTimeout(stage, elapsed);
+        onReady();
+        return true;
+    }
+
+    /**
+     * 等待超时, 之后会调用{@link #onReady()}
+     *
+     * @param stage        {@link CaptureMetrics}中的STAGE_*常量
+     * @param elapsedNanos
+     */
+    public void onTimeout(int stage, long elapsedNanos) {
+    }
+
+    /**
+     * 对焦已经锁定, 需要触发自动曝光的预拍, 实现中应该把状态设置为{@link #STATE_PRECAPTURE}
+     */
+    public abstract void onPrecaptureRequired();
+
+    /**
+     * 可以拍照了
+     */
+    public abstract void onReady();
+}
@@ -0,0 +1,450 @@
+package com.luo.cameraview.backend;
+
+import com.luo.cameraview.frame.IFrame;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 在JVM中模拟的摄像头HAL, 用于在没有手机的情况下测试拍照流程的延时和吞吐量.
+ * <p>
+ * 模拟的内容:
+ * <ul>
+ * <li>打开摄像头的延时</li>
+ * <li>固定帧间隔的帧时钟, 每一帧执行一个请求, 单次请求优先于重复请求</li>
+ * <li>自动对焦: AF触发后扫描若干帧再锁定</li>
+ * <li>自动曝光: 打开后收敛若干帧, 预拍触发后持续若干帧</li>
+ * <li>拍照请求完成后延时输出图像, 预览请求输出YUV_420_888的预览帧</li>
+ * <li>拍照请求失败, 不输出图像</li>
+ * </ul>
+ * 参数应该在{@link #open(StateCallback)}之前设置. 同样的参数得到同样的状态序列,
+ * 只有时间戳来自真实的时钟. 关闭后不能再次打开.
+ */
+public class FakeCameraBackend implements ICameraBackend {
+
+    private long mOpenLatencyNanos = TimeUnit.MILLISECONDS.toNanos(150);
+    private long mFrameIntervalNanos = TimeUnit.MILLISECONDS.toNanos(33);
+    private long mImageLatencyNanos = TimeUnit.MILLISECONDS.toNanos(50);
+    private int mAeConvergenceFrames = 4;
+    private int mAfScanFrames = 5;
+    private int mAePrecaptureFrames = 3;
+    private boolean mFlashRequired;
+    private boolean mFocusSucceeds = true;
+    private boolean mAfStateReported = true;
+    private int mFailedStillCaptures;
+    private int mImageBytes = 1 << 20;
+    private int mPreviewWidth = 640;
+    private int mPreviewHeight = 480;
+
+    private final ScheduledThreadPoolExecutor mExecutor;
+
+    // 以下字段只在模拟线程中访问
+    private final ArrayDeque<Request> mCaptureQueue = new ArrayDeque<Request>();
+    private Request mRepeating;
+    private ImageCallback mImageCallback;
+    private ImageCallback mFrameCallback;
+    private ScheduledFuture<?> mFrameClock;
+    private StateCallback mStateCallback;
+    private long mFrameNumber;
+    private int mAfState = CaptureResultInfo.AF_STATE_INACTIVE;
+    private int mAfScanRemaining;
+    private int mAeState;
+    private int mAeRemaining;
+    private ByteBuffer mImageBuffer;
+    private ByteBuffer[] mPreviewPlanes;
+
+    public FakeCameraBackend() {
+        mExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "FakeCamera");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public FakeCameraBackend setOpenLatency(long nanos) {
+        mOpenLatencyNanos = nanos;
+        return this;
+    }
+
+    /**
+     * 帧间隔, 决定预览帧率和每个请求的执行时间
+     *
+     * @param nanos
+     * @return
+     */
+    public FakeCameraBackend setFrameInterval(long nanos) {
+        mFrameIntervalNanos = nanos;
+        return this;
+    }
+
+    /**
+     * 拍照请求完成到输出图像的延时, 模拟JPEG编码
+     *
+     * @param nanos
+     * @return
+     */
+    public FakeCameraBackend setImageLatency(long nanos) {
+        mImageLatencyNanos = nanos;
+        return this;
+    }
+
+    /**
+     * 打开后自动曝光收敛需要的帧数
+     *
+     * @param frames
+     * @return
+     */
+    public FakeCameraBackend setAeConvergenceFrames(int frames) {
+        mAeConvergenceFrames = frames;
+        return this;
+    }
+
+    /**
+     * AF触发后扫描的帧数
+     *
+     * @param frames
+     * @return
+     */
+    public FakeCameraBackend setAfScanFrames(int frames) {
+        mAfScanFrames = frames;
+        return this;
+    }
+
+    /**
+     * 预拍触发后AE处于PRECAPTURE的帧数
+     *
+     * @param frames
+     * @return
+     */
+    public FakeCameraBackend setAePrecaptureFrames(int frames) {
+        mAePrecaptureFrames = frames;
+        return this;
+    }
+
+    /**
+     * 模拟暗光环境, 收敛后AE状态为FLASH_REQUIRED, 拍照需要预拍
+     *
+     * @param flashRequired
+     * @return
+     */
+    public FakeCameraBackend setFlashRequired(boolean flashRequired) {
+        mFlashRequired = flashRequired;
+        return this;
+    }
+
+    /**
+     * 对焦是否成功, 失败时锁定为NOT_FOCUSED_LOCKED
+     *
+     * @param focusSucceeds
+     * @return
+     */
+    public FakeCameraBackend setFocusSucceeds(boolean focusSucceeds) {
+        mFocusSucceeds = focusSucceeds;
+        return this;
+    }
+
+    /**
+     * 模拟不上报AF状态的设备, 结果中的AF状态为null
+     *
+     * @param reported
+     * @return
+     */
+    public FakeCameraBackend setAfStateReported(boolean reported) {
+        mAfStateReported = reported;
+        return this;
+    }
+
+    /**
+     * 接下来的若干次拍照请求失败, 没有图像输出
+     *
+     * @param count
+     * @return
+     */
+    public FakeCameraBackend setFailedStillCaptures(int count) {
+        mFailedStillCaptures = count;
+        return this;
+    }
+
+    /**
+     * 拍照输出的图像大小
+     *
+     * @param bytes
+     * @return
+     */
+    public FakeCameraBackend setImageBytes(int bytes) {
+        mImageBytes = bytes;
+        return this;
+    }
+
+    public FakeCameraBackend setPreviewSize(int width, int height) {
+        mPreviewWidth = width;
+        mPreviewHeight = height;
+        return this;
+    }
+
+    @Override
+    public void open(final StateCallback callback) {
+        mExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                mStateCallback = callback;
+                mFrameNumber = 0;
+                mAfState = CaptureResultInfo.AF_STATE_INACTIVE;
+                mAeState = CaptureResultInfo.AE_STATE_SEARCHING;
+                mAeRemaining = mAeConvergenceFrames;
+                mImageBuffer = ByteBuffer.allocateDirect(mImageBytes);
+                int lumaSize = mPreviewWidth * mPreviewHeight;
+                mPreviewPlanes = new ByteBuffer[]{
+                        ByteBuffer.allocateDirect(lumaSize),
+                        ByteBuffer.allocateDirect(lumaSize / 2 - 1),
+                        ByteBuffer.allocateDirect(lumaSize / 2 - 1)
+                };
+                mFrameClock = mExecutor.scheduleAtFixedRate(new Runnable() {
+                    @Override
+                    public void run() {
+                        onFrame();
+                    }
+                }, 0, mFrameIntervalNanos, TimeUnit.NANOSECONDS);
+                callback.onOpened();
+            }
+        }, mOpenLatencyNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void setRepeatingRequest(final CaptureSettings request, final CaptureCallback callback) {
+        final Request repeating = new Request(request.copy(), callback);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mRepeating = repeating;
+            }
+        });
+    }
+
+    @Override
+    public void stopRepeating() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mRepeating = null;
+            }
+        });
+    }
+
+    @Override
+    public void capture(CaptureSettings request, CaptureCallback callback) {
+        final Request capture = new Request(request.copy(), callback);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mCaptureQueue.add(capture);
+            }
+        });
+    }
+
+    @Override
+    public void setImageCallback(final ImageCallback callback) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mImageCallback = callback;
+            }
+        });
+    }
+
+    @Override
+    public void setFrameCallback(final ImageCallback callback) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mFrameCallback = callback;
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (mFrameClock != null) {
+                    mFrameClock.cancel(false);
+                    mFrameClock = null;
+                }
+                mCaptureQueue.clear();
+                mRepeating = null;
+                StateCallback callback = mStateCallback;
+                mStateCallback = null;
+                if (callback != null) {
+                    callback.onClosed();
+                }
+            }
+        });
+        mExecutor.shutdown();
+    }
+
+    /**
+     * 帧时钟, 每一帧执行一个请求
+     */
+    private void onFrame() {
+        Request request = mCaptureQueue.poll();
+        if (request == null) {
+            request = mRepeating;
+        }
+        if (request == null) {
+            //没有请求时传感器空闲
+            return;
+        }
+        final long timestamp = System.nanoTime();
+        CaptureSettings settings = request.mSettings;
+        boolean still = settings.getTemplate() == CaptureSettings.TEMPLATE_STILL_CAPTURE;
+        if (still && mFailedStillCaptures > 0) {
+            mFailedStillCaptures--;
+            if (request.mCallback != null) {
+                request.mCallback.onCaptureFailed(settings, false);
+            }
+            return;
+        }
+        update3A(settings);
+        CaptureResultInfo result = new CaptureResultInfo(mFrameNumber++, timestamp,
+                mAfStateReported ? Integer.valueOf(mAfState) : null, mAeState);
+        if (request.mCallback != null) {
+            request.mCallback.onCaptureCompleted(settings, result);
+        }
+        if (still) {
+            mExecutor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    ImageCallback callback = mImageCallback;
+                    if (callback != null) {
+                        callback.onImageAvailable(new FakeFrame(mPreviewWidth, mPreviewHeight, timestamp,
+                                new ByteBuffer[]{mImageBuffer}, 0, 0));
+                    }
+                }
+            }, mImageLatencyNanos, TimeUnit.NANOSECONDS);
+        } else if (mFrameCallback != null) {
+            mFrameCallback.onImageAvailable(new FakeFrame(mPreviewWidth, mPreviewHeight, timestamp,
+                    mPreviewPlanes, mPreviewWidth, 2));
+        }
+    }
+
+    /**
+     * 根据请求中的触发器推进AF和AE的状态
+     */
+    private void update3A(CaptureSettings settings) {
+        switch (settings.getAfTrigger()) {
+            case CaptureSettings.TRIGGER_START:
+                mAfState = CaptureResultInfo.AF_STATE_ACTIVE_SCAN;
+                mAfScanRemaining = mAfScanFrames;
+                break;
+            case CaptureSettings.TRIGGER_CANCEL:
+                mAfState = CaptureResultInfo.AF_STATE_INACTIVE;
+                //解锁后自动曝光回到场景的稳定状态
+                mAeState = steadyAeState();
+                break;
+        }
+        if (mAfState == CaptureResultInfo.AF_STATE_ACTIVE_SCAN && mAfScanRemaining-- <= 0) {
+            mAfState = mFocusSucceeds ? CaptureResultInfo.AF_STATE_FOCUSED_LOCKED
+                    : CaptureResultInfo.AF_STATE_NOT_FOCUSED_LOCKED;
+        }
+
+        if (settings.getAePrecaptureTrigger() == CaptureSettings.TRIGGER_START) {
+            mAeState = CaptureResultInfo.AE_STATE_PRECAPTURE;
+            mAeRemaining = mAePrecaptureFrames;
+        } else if (mAeState == CaptureResultInfo.AE_STATE_SEARCHING && mAeRemaining-- <= 0) {
+            mAeState = steadyAeState();
+        } else if (mAeState == CaptureResultInfo.AE_STATE_PRECAPTURE && mAeRemaining-- <= 0) {
+            //预拍结束后曝光保持收敛直到解锁
+            mAeState = CaptureResultInfo.AE_STATE_CONVERGED;
+        }
+    }
+
+    private int steadyAeState() {
+        return mFlashRequired ? CaptureResultInfo.AE_STATE_FLASH_REQUIRED : CaptureResultInfo.AE_STATE_CONVERGED;
+    }
+
+    private static class Request {
+        final CaptureSettings mSettings;
+        final CaptureCallback mCallback;
+
+        Request(CaptureSettings settings, CaptureCallback callback) {
+            mSettings = settings;
+            mCallback = callback;
+        }
+    }
+
+    private static class FakeFrame implements IFrame {
+        private final int mWidth;
+        private final int mHeight;
+        private final long mTimestamp;
+        private final Plane[] mPlanes;
+
+        FakeFrame(int width, int height, long timestamp, ByteBuffer[] buffers, int rowStride, int chromaPixelStride) {
+            mWidth = width;
+            mHeight = height;
+            mTimestamp = timestamp;
+            mPlanes = new Plane[buffers.length];
+            for (int i = 0; i < buffers.length; i++) {
+                mPlanes[i] = new FakePlane(buffers[i].duplicate(), rowStride, i == 0 ? 1 : chromaPixelStride);
+            }
+        }
+
+        @Override
+        public int getWidth() {
+            return mWidth;
+        }
+
+        @Override
+        public int getHeight() {
+            return mHeight;
+        }
+
+        @Override
+        public long getTimestamp() {
+            return mTimestamp;
+        }
+
+        @Override
+        public Plane[] getPlanes() {
+            return mPlanes;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static class FakePlane implements IFrame.Plane {
+        private final ByteBuffer mBuffer;
+        private final int mRowStride;
+        private final int mPixelStride;
+
+        FakePlane(ByteBuffer buffer, int rowStride, int pixelStride) {
+            mBuffer = buffer;
+            mRowStride = rowStride;
+            mPixelStride = pixelStride;
+        }
+
+        @Override
+        public ByteBuffer getBuffer() {
+            return mBuffer;
+        }
+
+        @Override
+        public int getRowStride() {
+            return mRowStride;
+        }
+
+        @Override
+        public int getPixelStride() {
+            return mPixelStride;
+        }
+    }
+}
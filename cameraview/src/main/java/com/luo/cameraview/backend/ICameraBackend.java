@@ -0,0 +1,79 @@
+package com.luo.cameraview.backend;
+
+import com.luo.cameraview.frame.IFrame;
+
+/**
+ * 摄像头后端, 只包含拍照流程需要的操作.
+ * 所有回调都在后端自己的线程中按顺序执行, 方法可以在任意线程调用
+ */
+public interface ICameraBackend {
+
+    /**
+     * 设备状态的回调
+     */
+    interface StateCallback {
+        void onOpened();
+
+        void onClosed();
+
+        void onError(String message);
+    }
+
+    /**
+     * 请求完成的回调
+     */
+    interface CaptureCallback {
+        void onCaptureCompleted(CaptureSettings request, CaptureResultInfo result);
+
+        /**
+         * 请求失败, 没有结果
+         *
+         * @param request
+         * @param imageCaptured 是否仍然会输出图像
+         */
+        void onCaptureFailed(CaptureSettings request, boolean imageCaptured);
+    }
+
+    /**
+     * 输出图像的回调, 图像只在回调中有效, 不需要调用close()
+     */
+    interface ImageCallback {
+        void onImageAvailable(IFrame image);
+    }
+
+    void open(StateCallback callback);
+
+    /**
+     * 设置重复请求, 替换之前的重复请求
+     *
+     * @param request
+     * @param callback
+     */
+    void setRepeatingRequest(CaptureSettings request, CaptureCallback callback);
+
+    void stopRepeating();
+
+    /**
+     * 提交单次请求, 优先于重复请求执行
+     *
+     * @param request
+     * @param callback
+     */
+    void capture(CaptureSettings request, CaptureCallback callback);
+
+    /**
+     * 拍照的图像输出
+     *
+     * @param callback
+     */
+    void setImageCallback(ImageCallback callback);
+
+    /**
+     * 预览帧输出, 为null时不输出
+     *
+     * @param callback
+     */
+    void setFrameCallback(ImageCallback callback);
+
+    void close();
+}
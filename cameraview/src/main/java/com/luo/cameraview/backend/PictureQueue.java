@@ -0,0 +1,233 @@
+package com.luo.cameraview.backend;
+
+import com.luo.cameraview.metrics.CaptureMetrics;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * 拍照请求的排队和失败处理, Camera2和{@link StillCaptureController}共用.
+ * <p>
+ * 上一次拍照没有结束时最多排队{@link #MAX_QUEUED_PICTURES}张, 解锁后按顺序继续;
+ * 图像按拍照顺序输出, 对应等待图像的队列头部的照片;
+ * 拍照请求失败且没有图像时, 这张照片从等待图像的队列中去掉, 否则会错配后面拍照的图像.
+ * <p>
+ * 等待图像的队列可以在输出图像的线程中读取, 其它方法只在执行拍照流程的线程中调用
+ *
+ * @param <T>
+ */
+public class PictureQueue<T extends PictureQueue.Picture> {
+
+    /**
+     * 等待上一次拍照结束的最大照片数
+     */
+    public static final int MAX_QUEUED_PICTURES = 4;
+
+    /**
+     * 一次拍照请求, 各阶段的开始时间保存在每次请求中
+     */
+    public static class Picture {
+        /**
+         * 调用takePicture()的时间
+         */
+        private final long mShutterNanos;
+        /**
+         * 提交拍照请求的时间, 0表示还没有提交. 在拍照流程的线程中设置, 在输出图像的线程中读取
+         */
+        private volatile long mStillCaptureStartNanos;
+
+        public Picture() {
+            mShutterNanos = CaptureMetrics.now();
+        }
+
+        public long getShutterNanos() {
+            return mShutterNanos;
+        }
+
+        public long getStillCaptureStartNanos() {
+            return mStillCaptureStartNanos;
+        }
+
+        public void setStillCaptureStartNanos(long stillCaptureStartNanos) {
+            mStillCaptureStartNanos = stillCaptureStartNanos;
+        }
+    }
+
+    /**
+     * 等待上一次拍照结束的照片
+     */
+    private final ArrayDeque<T> mQueuedPictures = new ArrayDeque<T>();
+    /**
+     * 等待图像的照片, 按拍照顺序排列
+     */
+    private final Queue<T> mPendingPictures = new ConcurrentLinkedQueue<T>();
+    /**
+     * 正在拍的单张照片
+     */
+    private T mCapturingPicture;
+
+    /**
+     * 照片开始等待图像, 调用者随后开始拍照
+     *
+     * @param picture
+     */
+    public void add(T picture) {
+        mPendingPictures.add(picture);
+    }
+
+    /**
+     * 连拍的照片一起等待图像
+     *
+     * @param pictures
+     */
+    public void addAll(Collection<T> pictures) {
+        mPendingPictures.addAll(pictures);
+    }
+
+    /**
+     * 上一次拍照还没有结束, 照片排队等待{@link #finishCapture()}
+     *
+     * @param picture
+     * @return 排队的照片已满时返回false, 照片没有加入
+     */
+    public boolean enqueue(T picture) {
+        if (mQueuedPictures.size() >= MAX_QUEUED_PICTURES) {
+            return false;
+        }
+        mPendingPictures.add(picture);
+        mQueuedPictures.add(picture);
+        return true;
+    }
+
+    /**
+     * 还不能开始的照片放回排队的头部
+     *
+     * @param picture
+     */
+    public void requeue(T picture) {
+        mQueuedPictures.addFirst(picture);
+    }
+
+    /**
+     * @return 下一张排队的照片, 没有时返回null
+     */
+    public T pollQueued() {
+        return mQueuedPictures.poll();
+    }
+
+    public boolean hasQueuedPictures() {
+        return !mQueuedPictures.isEmpty();
+    }
+
+    /**
+     * 取出一张排队的照片并不再等待图像, 由调用者回调失败
+     *
+     * @return 没有排队的照片时返回null
+     */
+    public T pollRejected() {
+        T picture = mQueuedPictures.poll();
+        if (picture != null) {
+            mPendingPictures.remove(picture);
+        }
+        return picture;
+    }
+
+    /**
+     * 开始拍一张照片
+     *
+     * @param picture
+     */
+    public void startCapture(T picture) {
+        mCapturingPicture = picture;
+    }
+
+    /**
+     * 提交拍照请求时调用, 记录提交的时间
+     *
+     * @param startNanos
+     * @return 正在拍的照片, 可能为null
+     */
+    public T onCaptureSubmitted(long startNanos) {
+        T picture = mCapturingPicture;
+        if (picture != null) {
+            picture.setStillCaptureStartNanos(startNanos);
+        }
+        return picture;
+    }
+
+    /**
+     * 拍照请求失败, 没有图像时这张照片不再等待图像
+     *
+     * @param picture
+     * @param imageCaptured 是否仍然会输出图像
+     * @return 这张照片不会有图像, 调用者需要回调失败
+     */
+    public boolean onCaptureFailed(T picture, boolean imageCaptured) {
+        return !imageCaptured && picture != null && mPendingPictures.remove(picture);
+    }
+
+    /**
+     * 解锁并恢复预览后调用, 结束当前的照片
+     *
+     * @return 下一张排队的照片, 调用者继续拍照; 没有时返回null
+     */
+    public T finishCapture() {
+        mCapturingPicture = null;
+        return mQueuedPictures.poll();
+    }
+
+    /**
+     * 拍照流程被中止, 还没有提交拍照请求的照片放回排队的头部重新开始,
+     * 已经提交的由拍照请求的失败回调处理
+     */
+    public void requeueAborted() {
+        T picture = mCapturingPicture;
+        if (picture != null && picture.getStillCaptureStartNanos() == 0) {
+            mQueuedPictures.addFirst(picture);
+        }
+        mCapturingPicture = null;
+    }
+
+    /**
+     * 在输出图像的线程中调用
+     *
+     * @return 图像对应的照片, 没有等待图像的照片时返回null
+     */
+    public T pollImage() {
+        return mPendingPictures.poll();
+    }
+
+    public boolean hasPendingImages() {
+        return !mPendingPictures.isEmpty();
+    }
+
+    /**
+     * @param picture
+     * @return 照片是否还在等待图像
+     */
+    public boolean removePending(T picture) {
+        return mPendingPictures.remove(picture);
+    }
+
+    public void removeAllPending(Collection<T> pictures) {
+        mPendingPictures.removeAll(pictures);
+    }
+
+    /**
+     * 清空排队和正在拍的照片, 等待图像的照片由调用者用{@link #pollImage()}取出处理
+     */
+    public void clearQueued() {
+        mQueuedPictures.clear();
+        mCapturingPicture = null;
+    }
+
+    /**
+     * 丢弃所有的照片
+     */
+    public void clear() {
+        clearQueued();
+        mPendingPictures.clear();
+    }
+}
@@ -0,0 +1,245 @@
+package com.luo.cameraview.backend;
+
+import com.luo.cameraview.frame.IFrame;
+import com.luo.cameraview.metrics.CaptureMetrics;
+import com.luo.cameraview.metrics.CaptureTimeoutListener;
+
+/**
+ * 在{@link ICameraBackend}上执行和Camera2相同的拍照流程:
+ * 锁定对焦, 需要时预拍, 拍照, 解锁并恢复预览. 每个阶段的耗时记录在{@link CaptureMetrics}中.
+ * <p>
+ * 排队和失败的处理由和Camera2共用的{@link PictureQueue}完成,
+ * 拍照请求失败且没有图像时这张照片直接丢弃, 回调图片数据的请求没有失败回调
+ */
+public class StillCaptureController {
+
+    /**
+     * 拍照完成的回调, 在后端的线程中执行
+     */
+    public interface PictureCallback {
+        /**
+         * @param image        只在回调中有效
+         * @param latencyNanos 从takePicture()到图像输出的时间
+         */
+        void onPictureTaken(IFrame image, long latencyNanos);
+    }
+
+    private final ICameraBackend mBackend;
+    private final CaptureMetrics mCaptureMetrics = new CaptureMetrics();
+    private final CaptureSettings mPreviewSettings = new CaptureSettings(CaptureSettings.TEMPLATE_PREVIEW);
+    private final CaptureStateMachine mStateMachine;
+    private final Object mLock = new Object();
+
+    /**
+     * 等待图像的照片在后端的线程中取出, 其它操作在mLock中进行
+     */
+    private final PictureQueue<PendingPicture> mPictures = new PictureQueue<PendingPicture>();
+    private boolean mOpened;
+    private volatile CaptureTimeoutListener mTimeoutListener;
+
+    private final ICameraBackend.CaptureCallback mPreviewCallback = new ICameraBackend.CaptureCallback() {
+        @Override
+        public void onCaptureCompleted(CaptureSettings request, CaptureResultInfo result) {
+            synchronized (mLock) {
+                mStateMachine.process(result.getAfState(), result.getAeState(), result.getSensorTimestamp());
+            }
+        }
+
+        @Override
+        public void onCaptureFailed(CaptureSettings request, boolean imageCaptured) {
+        }
+    };
+
+    private final ICameraBackend.ImageCallback mImageCallback = new ICameraBackend.ImageCallback() {
+        @Override
+        public void onImageAvailable(IFrame image) {
+            //图像按拍照顺序输出, 对应队列头部的照片
+            PendingPicture pending = mPictures.pollImage();
+            if (pending != null) {
+                mCaptureMetrics.recordSince(CaptureMetrics.STAGE_IMAGE_AVAILABLE, pending.getStillCaptureStartNanos());
+                long start = CaptureMetrics.now();
+                pending.mCallback.onPictureTaken(image, start - pending.getShutterNanos());
+                mCaptureMetrics.recordSince(CaptureMetrics.STAGE_DISPATCH, start);
+                mCaptureMetrics.markCaptureEnd(pending.getShutterNanos());
+            }
+        }
+    };
+
+    public StillCaptureController(ICameraBackend backend) {
+        mBackend = backend;
+        mStateMachine = new CaptureStateMachine(mCaptureMetrics) {
+            @Override
+            public void onPrecaptureRequired() {
+                setState(STATE_PRECAPTURE);
+                mBackend.capture(mPreviewSettings.copy()
+                        .setAePrecaptureTrigger(CaptureSettings.TRIGGER_START), mPreviewCallback);
+            }
+
+            @Override
+            public void onReady() {
+                captureStillPicture();
+            }
+
+            @Override
+            public void onTimeout(int stage, long elapsedNanos) {
+                CaptureTimeoutListener listener = mTimeoutListener;
+                if (listener != null) {
+                    listener.onCaptureTimeout(stage, elapsedNanos);
+                }
+            }
+        };
+    }
+
+    /**
+     * 设置对焦和曝光的等待期限, 小于等于0时不限制
+     *
+     * @param focusTimeoutNanos
+     * @param exposureTimeoutNanos
+     */
+    public void setTimeouts(long focusTimeoutNanos, long exposureTimeoutNanos) {
+        synchronized (mLock) {
+            mStateMachine.setDeadline(CaptureStateMachine.STATE_LOCKING, focusTimeoutNanos);
+            mStateMachine.setDeadline(CaptureStateMachine.STATE_PRECAPTURE, exposureTimeoutNanos);
+            mStateMachine.setDeadline(CaptureStateMachine.STATE_WAITING, exposureTimeoutNanos);
+        }
+    }
+
+    /**
+     * 超时回调在后端的线程中执行
+     *
+     * @param listener
+     */
+    public void setTimeoutListener(CaptureTimeoutListener listener) {
+        mTimeoutListener = listener;
+    }
+
+    /**
+     * 打开摄像头并开始预览
+     *
+     * @param callback 可以为null
+     */
+    public void start(final ICameraBackend.StateCallback callback) {
+        mBackend.setImageCallback(mImageCallback);
+        mBackend.open(new ICameraBackend.StateCallback() {
+            @Override
+            public void onOpened() {
+                synchronized (mLock) {
+                    mOpened = true;
+                    mBackend.setRepeatingRequest(mPreviewSettings, mPreviewCallback);
+                }
+                if (callback != null) {
+                    callback.onOpened();
+                }
+            }
+
+            @Override
+            public void onClosed() {
+                synchronized (mLock) {
+                    mOpened = false;
+                    //回调图片数据的请求没有失败回调, 直接丢弃
+                    mPictures.clear();
+                    mStateMachine.setState(CaptureStateMachine.STATE_PREVIEW);
+                }
+                if (callback != null) {
+                    callback.onClosed();
+                }
+            }
+
+            @Override
+            public void onError(String message) {
+                if (callback != null) {
+                    callback.onError(message);
+                }
+            }
+        });
+    }
+
+    public void stop() {
+        mBackend.close();
+    }
+
+    /**
+     * 拍照, 上一次拍照没有结束时排队等待
+     *
+     * @param callback
+     * @return 摄像头没有打开或者排队的照片已满时返回false
+     */
+    public boolean takePicture(PictureCallback callback) {
+        synchronized (mLock) {
+            if (!mOpened) {
+                return false;
+            }
+            PendingPicture pending = new PendingPicture(callback);
+            if (mStateMachine.getState() != CaptureStateMachine.STATE_PREVIEW) {
+                //上一次拍照还没有结束, 排队等待unlockFocus()
+                return mPictures.enqueue(pending);
+            }
+            mPictures.add(pending);
+            startStillCapture(pending);
+            return true;
+        }
+    }
+
+    public CaptureMetrics getCaptureMetrics() {
+        return mCaptureMetrics;
+    }
+
+    /**
+     * 开始一次拍照的流程
+     *
+     * @param pending
+     */
+    private void startStillCapture(PendingPicture pending) {
+        mPictures.startCapture(pending);
+        lockFocus();
+    }
+
+    private void lockFocus() {
+        mStateMachine.setState(CaptureStateMachine.STATE_LOCKING);
+        mBackend.capture(mPreviewSettings.copy().setAfTrigger(CaptureSettings.TRIGGER_START), mPreviewCallback);
+    }
+
+    private void captureStillPicture() {
+        mBackend.stopRepeating();//停止预览
+        final long start = CaptureMetrics.now();
+        final PendingPicture pending = mPictures.onCaptureSubmitted(start);
+        mBackend.capture(new CaptureSettings(CaptureSettings.TEMPLATE_STILL_CAPTURE), new ICameraBackend.CaptureCallback() {
+            @Override
+            public void onCaptureCompleted(CaptureSettings request, CaptureResultInfo result) {
+                synchronized (mLock) {
+                    mCaptureMetrics.recordSince(CaptureMetrics.STAGE_STILL_CAPTURE, start);
+                    unlockFocus();
+                }
+            }
+
+            @Override
+            public void onCaptureFailed(CaptureSettings request, boolean imageCaptured) {
+                synchronized (mLock) {
+                    mCaptureMetrics.recordSince(CaptureMetrics.STAGE_STILL_CAPTURE, start);
+                    //没有图像输出时这张照片直接丢弃
+                    mPictures.onCaptureFailed(pending, imageCaptured);
+                    unlockFocus();
+                }
+            }
+        });
+    }
+
+    private void unlockFocus() {
+        mBackend.capture(mPreviewSettings.copy().setAfTrigger(CaptureSettings.TRIGGER_CANCEL), mPreviewCallback);
+        mBackend.setRepeatingRequest(mPreviewSettings, mPreviewCallback);
+        mStateMachine.setState(CaptureStateMachine.STATE_PREVIEW);
+        PendingPicture next = mPictures.finishCapture();
+        if (next != null) {
+            //继续排队的拍照
+            startStillCapture(next);
+        }
+    }
+
+    private static final class PendingPicture extends PictureQueue.Picture {
+        final PictureCallback mCallback;
+
+        PendingPicture(PictureCallback callback) {
+            mCallback = callback;
+        }
+    }
+}
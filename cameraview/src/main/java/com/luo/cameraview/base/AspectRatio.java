@@ -3,12 +3,18 @@ package com.luo.cameraview.base;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.support.annotation.NonNull;
-import android.support.v4.util.SparseArrayCompat;
+
+import java.util.Arrays;
 
 public class AspectRatio implements Comparable<AspectRatio>, Parcelable {
 
-    private final static SparseArrayCompat<SparseArrayCompat<AspectRatio>>
-            sCache = new SparseArrayCompat<SparseArrayCompat<AspectRatio>>(16);
+    /**
+     * 约分后的(x, y)打包成long, 按升序保存, 查找是二分查找.
+     * of()会在摄像头线程和主线程中调用, 所以需要同步
+     */
+    private static long[] sCacheKeys = new long[16];
+    private static AspectRatio[] sCacheValues = new AspectRatio[16];
+    private static int sCacheSize;
 
     private final int mX;
     private final int mY;
@@ -37,19 +43,23 @@ public class AspectRatio implements Comparable<AspectRatio>, Parcelable {
         int gcd = gcd(x, y);
         x /= gcd;
         y /= gcd;
-        SparseArrayCompat<AspectRatio> arrayX = sCache.get(x);
-        if (arrayX == null) {
-            AspectRatio ratio = new AspectRatio(x, y);
-            arrayX = new SparseArrayCompat<AspectRatio>();
-            arrayX.put(y, ratio);
-            sCache.put(x, arrayX);
-            return ratio;
-        } else {
-            AspectRatio ratio = arrayX.get(y);
-            if (ratio == null) {
-                ratio = new AspectRatio(x, y);
-                arrayX.put(y, ratio);
+        long key = ((long) x << 32) | (y & 0xFFFFFFFFL);
+        synchronized (AspectRatio.class) {
+            int index = Arrays.binarySearch(sCacheKeys, 0, sCacheSize, key);
+            if (index >= 0) {
+                return sCacheValues[index];
             }
+            index = -index - 1;
+            if (sCacheSize == sCacheKeys.length) {
+                sCacheKeys = Arrays.copyOf(sCacheKeys, sCacheSize * 2);
+                sCacheValues = Arrays.copyOf(sCacheValues, sCacheSize * 2);
+            }
+            System.arraycopy(sCacheKeys, index, sCacheKeys, index + 1, sCacheSize - index);
+            System.arraycopy(sCacheValues, index, sCacheValues, index + 1, sCacheSize - index);
+            AspectRatio ratio = new AspectRatio(x, y);
+            sCacheKeys[index] = key;
+            sCacheValues[index] = ratio;
+            sCacheSize++;
             return ratio;
         }
     }
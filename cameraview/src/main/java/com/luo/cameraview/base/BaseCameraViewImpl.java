@@ -1,10 +1,37 @@
 package com.luo.cameraview.base;
 
+import android.os.Handler;
+import android.os.Looper;
 import android.view.View;
 
+import com.luo.cameraview.metrics.CaptureMetrics;
+import com.luo.cameraview.metrics.CaptureMetricsListener;
+import com.luo.cameraview.store.CaptureStore;
+
+import java.util.concurrent.Executor;
+
 public abstract class BaseCameraViewImpl implements ICameraView {
     protected final Callback mCallback;
     protected final ICameraPreview mCameraPreview;
+    /**
+     * 拍照各阶段的耗时统计
+     */
+    protected final CaptureMetrics mCaptureMetrics = new CaptureMetrics();
+
+    /**
+     * 执行对外回调的Executor, 默认切换到主线程
+     */
+    private volatile Executor mCallbackExecutor = new Executor() {
+        private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+        @Override
+        public void execute(Runnable command) {
+            mMainHandler.post(command);
+        }
+    };
+
+    private volatile PictureBufferCallback mPictureBufferCallback;
+    private volatile CaptureStore mCaptureStore;
 
     protected BaseCameraViewImpl(Callback callback, ICameraPreview cameraPreview) {
         mCallback = callback;
@@ -15,4 +42,145 @@ public abstract class BaseCameraViewImpl implements ICameraView {
     public View getView() {
         return mCameraPreview.getView();
     }
+
+    @Override
+    public void setCallbackExecutor(Executor executor) {
+        if (executor == null) {
+            throw new NullPointerException("executor == null");
+        }
+        mCallbackExecutor = executor;
+    }
+
+    @Override
+    public Executor getCallbackExecutor() {
+        return mCallbackExecutor;
+    }
+
+    @Override
+    public void setPictureBufferCallback(PictureBufferCallback callback) {
+        mPictureBufferCallback = callback;
+    }
+
+    @Override
+    public void setCaptureStore(CaptureStore store) {
+        mCaptureStore = store;
+    }
+
+    @Override
+    public CaptureStore getCaptureStore() {
+        return mCaptureStore;
+    }
+
+    @Override
+    public CaptureMetrics getCaptureMetrics() {
+        return mCaptureMetrics;
+    }
+
+    @Override
+    public void setCaptureMetricsListener(CaptureMetricsListener listener) {
+        mCaptureMetrics.setListener(listener);
+    }
+
+    /**
+     * 在回调Executor上通知摄像头已经打开
+     */
+    protected void dispatchCameraOpened() {
+        mCallbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mCallback.onCameraOpened();
+            }
+        });
+    }
+
+    /**
+     * 在回调Executor上通知摄像头已经关闭
+     */
+    protected void dispatchCameraClosed() {
+        mCallbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mCallback.onCameraClosed();
+            }
+        });
+    }
+
+    /**
+     * 在回调Executor上回调图片数据
+     *
+     * @param data
+     * @param captureStartNanos 这次拍照开始的时间, 用于记录总耗时
+     */
+    protected void dispatchPictureTaken(final byte[] data, final long captureStartNanos) {
+        CaptureStore store = mCaptureStore;
+        if (store != null) {
+            appendToStore(store, data, captureStartNanos);
+            return;
+        }
+        final long dispatchStart = CaptureMetrics.now();
+        mCallbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mCallback.onPictureTaken(data);
+                mCaptureMetrics.recordSince(CaptureMetrics.STAGE_DISPATCH, dispatchStart);
+                mCaptureMetrics.markCaptureEnd(captureStartNanos);
+            }
+        });
+    }
+
+    /**
+     * 回调图片数据.
+     * 设置了{@link CaptureStore}时拷贝出byte[]并立即释放, 再加入store;
+     * 否则设置了{@link PictureBufferCallback}时直接交出缓冲区, 由使用者负责释放;
+     * 否则在当前线程拷贝出byte[]并立即释放, 再回调{@link Callback#onPictureTaken(byte[])}
+     *
+     * @param picture
+     * @param captureStartNanos 这次拍照开始的时间, 用于记录总耗时
+     */
+    protected void dispatchPictureTaken(final PictureBuffer picture, final long captureStartNanos) {
+        final PictureBufferCallback callback = mPictureBufferCallback;
+        if (callback == null || mCaptureStore != null) {
+            byte[] data;
+            try {
+                data = picture.toByteArray();
+            } finally {
+                picture.release();
+            }
+            dispatchPictureTaken(data, captureStartNanos);
+            return;
+        }
+        final long dispatchStart = CaptureMetrics.now();
+        mCallbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                callback.onPictureTaken(picture);
+                mCaptureMetrics.recordSince(CaptureMetrics.STAGE_DISPATCH, dispatchStart);
+                mCaptureMetrics.markCaptureEnd(captureStartNanos);
+            }
+        });
+    }
+
+    /**
+     * 在当前线程(I/O线程)加入store, 阻塞模式下队列满时会阻塞, 后续的拍照随之变慢.
+     * 分析和零延时拍照的帧在单独的线程中取出, 不受影响
+     *
+     * @param store
+     * @param data
+     * @param captureStartNanos
+     */
+    private void appendToStore(CaptureStore store, byte[] data, long captureStartNanos) {
+        long dispatchStart = CaptureMetrics.now();
+        try {
+            store.append(data);
+        } catch (IllegalStateException e) {
+            //store已经关闭
+            e.printStackTrace();
+        } catch (IllegalArgumentException e) {
+            //图片为空或者段文件放不下
+            e.printStackTrace();
+            store.markDropped();
+        }
+        mCaptureMetrics.recordSince(CaptureMetrics.STAGE_DISPATCH, dispatchStart);
+        mCaptureMetrics.markCaptureEnd(captureStartNanos);
+    }
 }
@@ -0,0 +1,91 @@
+package com.luo.cameraview.base;
+
+import java.util.Collection;
+
+/**
+ * 预览帧率范围, 对应CONTROL_AE_TARGET_FPS_RANGE
+ */
+public class FpsRange {
+
+    private final int mLower;
+    private final int mUpper;
+
+    public FpsRange(int lower, int upper) {
+        if (lower <= 0 || lower > upper) {
+            throw new IllegalArgumentException("Invalid fps range: [" + lower + ", " + upper + "]");
+        }
+        mLower = lower;
+        mUpper = upper;
+    }
+
+    public int getLower() {
+        return mLower;
+    }
+
+    public int getUpper() {
+        return mUpper;
+    }
+
+    /**
+     * 是否是固定帧率
+     */
+    public boolean isFixed() {
+        return mLower == mUpper;
+    }
+
+    /**
+     * 用于运动分析的帧率: 最高帧率中下限最高的范围, 即尽量固定的最高帧率
+     *
+     * @param ranges
+     * @return ranges为空时返回null
+     */
+    public static FpsRange chooseFixedHigh(Collection<FpsRange> ranges) {
+        FpsRange best = null;
+        for (FpsRange range : ranges) {
+            if (best == null || range.mUpper > best.mUpper
+                    || (range.mUpper == best.mUpper && range.mLower > best.mLower)) {
+                best = range;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 高速会话使用的帧率: 上限为fps的范围中, 预览用下限最低的, 录像用固定帧率
+     *
+     * @param ranges
+     * @param fps
+     * @param fixed  是否需要固定帧率
+     * @return 没有上限为fps的范围时返回null
+     */
+    public static FpsRange chooseHighSpeed(Collection<FpsRange> ranges, int fps, boolean fixed) {
+        FpsRange best = null;
+        for (FpsRange range : ranges) {
+            if (range.mUpper != fps) {
+                continue;
+            }
+            if (best == null || (fixed ? range.mLower > best.mLower : range.mLower < best.mLower)) {
+                best = range;
+            }
+        }
+        return best;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        FpsRange range = (FpsRange) o;
+        return mLower == range.mLower && mUpper == range.mUpper;
+    }
+
+    @Override
+    public int hashCode() {
+        return mLower * 31 + mUpper;
+    }
+
+    @Override
+    public String toString() {
+        return "[" + mLower + ", " + mUpper + "]";
+    }
+}
@@ -1,8 +1,23 @@
 package com.luo.cameraview.base;
 
+import android.graphics.Bitmap;
 import android.view.View;
 
+import com.luo.cameraview.frame.AnalyzerRate;
+import com.luo.cameraview.frame.AnalyzerStats;
+import com.luo.cameraview.frame.IFrameAnalyzer;
+import com.luo.cameraview.metrics.CaptureMetrics;
+import com.luo.cameraview.metrics.CaptureMetricsListener;
+import com.luo.cameraview.metrics.CaptureTimeoutListener;
+import com.luo.cameraview.metrics.RecordingStats;
+import com.luo.cameraview.metrics.StartupTrace;
+import com.luo.cameraview.store.CaptureStore;
+
+import java.io.File;
+import java.io.IOException;
+
 import java.util.Set;
+import java.util.concurrent.Executor;
 
 public interface ICameraView {
 
@@ -25,6 +40,112 @@ public interface ICameraView {
         void onPictureTaken(byte[] data);
     }
 
+    /**
+     * 零拷贝的拍照回调, 设置后不再回调{@link Callback#onPictureTaken(byte[])}
+     */
+    interface PictureBufferCallback {
+        /**
+         * 摄像头获取到数据的回调, 使用完后必须调用{@link PictureBuffer#release()}
+         *
+         * @param picture
+         */
+        void onPictureTaken(PictureBuffer picture);
+    }
+
+    /**
+     * 拍照后缩略图的回调
+     */
+    interface ThumbnailCallback {
+        /**
+         * 缩略图已生成, 和拍照回调, 写文件并行生成
+         *
+         * @param thumbnail   缩略图, 没有旋转
+         * @param orientation EXIF中的方向, 显示时需要顺时针旋转的角度
+         */
+        void onThumbnailReady(Bitmap thumbnail, int orientation);
+    }
+
+    /**
+     * 启动完成的回调
+     */
+    interface StartupCallback {
+        /**
+         * 第一帧预览完成
+         *
+         * @param trace 启动各阶段的耗时
+         */
+        void onFirstFrame(StartupTrace trace);
+    }
+
+    /**
+     * 批量修改预览参数, 例如 edit().flash(..).autoFocus(..).apply().
+     * 和当前值相同的修改会被忽略, 一帧之内多次apply()只提交一次重复请求
+     */
+    interface SettingsEditor {
+        SettingsEditor flash(int flash);
+
+        SettingsEditor autoFocus(boolean autoFocus);
+
+        /**
+         * 提交修改, 可以在任意线程调用, getter立即返回新的值
+         */
+        void apply();
+    }
+
+    /**
+     * 录像的回调
+     */
+    interface RecordingCallback {
+        /**
+         * CaptureSession已经开始向编码器输出
+         */
+        void onRecordingStarted(File file);
+
+        /**
+         * 文件已经写完
+         *
+         * @param stats 帧数, 丢帧和码率
+         */
+        void onRecordingStopped(File file, RecordingStats stats);
+
+        void onRecordingFailed(File file, IOException e);
+    }
+
+    /**
+     * 连拍结束的回调
+     */
+    interface BurstCallback {
+        /**
+         * 连拍的所有请求都已完成, 图片仍然通过拍照回调返回
+         *
+         * @param count           拍摄的张数
+         * @param framesPerSecond 按传感器时间戳计算的持续帧率
+         */
+        void onBurstCompleted(int count, float framesPerSecond);
+    }
+
+    /**
+     * 拍照直接写入文件的回调
+     */
+    interface PictureFileCallback {
+        /**
+         * 图片写入文件成功
+         *
+         * @param file         目标文件
+         * @param bytes        写入的字节数
+         * @param latencyNanos 写文件耗时, 单位纳秒
+         */
+        void onPictureSaved(File file, long bytes, long latencyNanos);
+
+        /**
+         * 图片写入文件失败
+         *
+         * @param file
+         * @param e
+         */
+        void onPictureSaveFailed(File file, IOException e);
+    }
+
     View getView();
 
     /**
@@ -34,6 +155,15 @@ public interface ICameraView {
      */
     boolean start();
 
+    /**
+     * 开启摄像头, 第一帧预览完成后回调.
+     * 只同步选择摄像头, 打开摄像头, 收集摄像头信息和准备ImageReader在摄像头线程中同时进行
+     *
+     * @param callback 可以为null
+     * @return 没有可用的摄像头时返回false
+     */
+    boolean start(StartupCallback callback);
+
     /**
      * 关闭摄像头
      */
@@ -53,6 +183,14 @@ public interface ICameraView {
      */
     void setFacing(int facing);
 
+    /**
+     * 是否预热另一个摄像头.
+     * 打开后会在后台提前选择另一个摄像头并校验预览和图片大小, 切换摄像头时只需要打开摄像头
+     *
+     * @param enabled
+     */
+    void setPrewarmEnabled(boolean enabled);
+
     /**
      * 获取摄像头的类型:前置,后置,外置
      *
@@ -80,6 +218,13 @@ public interface ICameraView {
      */
     AspectRatio getAspectRation();
 
+    /**
+     * 开始批量修改预览参数
+     *
+     * @return
+     */
+    SettingsEditor edit();
+
     /**
      * 设置自动对焦
      *
@@ -113,10 +258,228 @@ public interface ICameraView {
      */
     void takePicture();
 
+    /**
+     * 拍照并直接写入文件, 不经过{@link Callback#onPictureTaken(byte[])}
+     *
+     * @param file     目标文件
+     * @param callback 写入结果的回调
+     */
+    void takePicture(File file, PictureFileCallback callback);
+
+    /**
+     * 连拍, 只锁定一次对焦和曝光, 图片通过拍照回调依次返回
+     *
+     * @param count 拍摄的张数
+     */
+    void takePictureBurst(int count);
+
+    /**
+     * 连拍, 结束后通过callback返回持续帧率
+     *
+     * @param count    拍摄的张数
+     * @param callback 连拍结束的回调, 可以为null
+     */
+    void takePictureBurst(int count, BurstCallback callback);
+
+    /**
+     * 开始录像, 帧从摄像头直接输出到H.264编码器, 只有视频轨.
+     * 录像时不能拍照, 也没有帧分析和零延时拍照
+     *
+     * @param file 输出的MP4文件
+     */
+    void startRecording(File file);
+
+    /**
+     * 开始录像
+     *
+     * @param file
+     * @param callback 可以为null
+     */
+    void startRecording(File file, RecordingCallback callback);
+
+    /**
+     * 结束录像, 文件在后台写完后回调
+     */
+    void stopRecording();
+
+    boolean isRecording();
+
     /**
      * 设置显示的角度
      *
      * @param displayOrientation
      */
     void setDisplayOrientation(int displayOrientation);
+
+    /**
+     * 设置执行{@link Callback}回调的Executor, 默认在主线程回调
+     *
+     * @param executor
+     */
+    void setCallbackExecutor(Executor executor);
+
+    /**
+     * 获取执行{@link Callback}回调的Executor
+     *
+     * @return
+     */
+    Executor getCallbackExecutor();
+
+    /**
+     * 设置零拷贝的拍照回调, 设置为null时恢复为{@link Callback#onPictureTaken(byte[])}回调
+     *
+     * @param callback
+     */
+    void setPictureBufferCallback(PictureBufferCallback callback);
+
+    /**
+     * 设置持久化拍照结果的CaptureStore, 设置后拍照和连拍的图片直接加入store, 不再回调拍照回调,
+     * 拍照的JPEG质量使用{@link CaptureStore#getJpegQuality()}. store的打开和关闭由调用者负责
+     *
+     * @param store 设置为null时恢复为拍照回调
+     */
+    void setCaptureStore(CaptureStore store);
+
+    /**
+     * @return 没有设置时返回null
+     */
+    CaptureStore getCaptureStore();
+
+    /**
+     * 设置拍照后的缩略图回调, 缩略图在工作线程池中生成, 不需要在主线程解码完整的JPEG
+     *
+     * @param callback 设置为null时不再生成缩略图
+     * @param maxSize  缩略图长边
+     * @param mode     {@link com.luo.cameraview.Constants#THUMBNAIL_EXIF}
+     *                 或{@link com.luo.cameraview.Constants#THUMBNAIL_DECODE}
+     */
+    void setThumbnailCallback(ThumbnailCallback callback, int maxSize, int mode);
+
+    /**
+     * 添加预览帧分析器, 第一个分析器添加时会增加一路YUV_420_888输出
+     *
+     * @param analyzer
+     */
+    void addFrameAnalyzer(IFrameAnalyzer analyzer);
+
+    /**
+     * 按目标帧率添加预览帧分析器, 已经添加过时只修改帧率.
+     * 慢的分析器按最近的处理耗时跳帧, 分析不会阻塞摄像头线程
+     *
+     * @param analyzer
+     * @param rate     例如{@link AnalyzerRate#fps(float)}
+     */
+    void addFrameAnalyzer(IFrameAnalyzer analyzer, AnalyzerRate rate);
+
+    /**
+     * 移除预览帧分析器, 没有分析器时会去掉YUV_420_888输出
+     *
+     * @param analyzer
+     */
+    void removeFrameAnalyzer(IFrameAnalyzer analyzer);
+
+    /**
+     * 预览帧分析器的队列深度, 丢帧数和处理耗时
+     *
+     * @param analyzer
+     * @return 没有添加该分析器时返回null
+     */
+    AnalyzerStats getFrameAnalyzerStats(IFrameAnalyzer analyzer);
+
+    /**
+     * 预览帧需要顺时针旋转的角度, 用于{@link com.luo.cameraview.frame.FrameResampler#setRotation(int)}
+     *
+     * @return 相机还没打开时返回0
+     */
+    int getFrameRotation();
+
+    /**
+     * 设置零延时拍照(ZSL)模式.
+     * 打开后持续缓存全分辨率的帧, 拍照时直接返回最接近按下快门时刻的一帧
+     *
+     * @param enabled      是否打开
+     * @param memoryBudget 缓存帧可以使用的内存, 单位字节, 决定缓存的帧数
+     */
+    void setZeroShutterLag(boolean enabled, long memoryBudget);
+
+    /**
+     * 是否打开了零延时拍照模式
+     *
+     * @return
+     */
+    boolean getZeroShutterLag();
+
+    /**
+     * 摄像头支持的预览帧率范围
+     *
+     * @return 摄像头没有打开时为空
+     */
+    Set<FpsRange> getSupportedFpsRanges();
+
+    /**
+     * 摄像头支持的高速会话帧率范围, 需要Android 6.0
+     *
+     * @return 不支持高速会话时为空
+     */
+    Set<FpsRange> getSupportedHighSpeedFpsRanges();
+
+    /**
+     * 设置帧率策略, 高速会话中不生效
+     *
+     * @param policy {@link com.luo.cameraview.Constants#FPS_POLICY_DEFAULT}或
+     *               {@link com.luo.cameraview.Constants#FPS_POLICY_FIXED_HIGH}
+     */
+    void setFpsPolicy(int policy);
+
+    int getFpsPolicy();
+
+    /**
+     * 使用受限高速会话预览, 例如120或240. 高速会话只有预览输出, 不能拍照, 也没有帧分析和零延时拍照
+     *
+     * @param fps 0表示使用普通会话
+     */
+    void setHighSpeedFps(int fps);
+
+    /**
+     * 当前请求的帧率范围
+     *
+     * @return 使用模板默认值并且模板没有指定时为null
+     */
+    FpsRange getFpsRange();
+
+    /**
+     * 按传感器时间戳计算的实际预览帧率
+     *
+     * @return 还没有预览帧时为0
+     */
+    float getPreviewFrameRate();
+
+    /**
+     * 设置拍照等待对焦和曝光的期限, 按传感器时间戳计算, 超时后直接拍照
+     *
+     * @param focusTimeoutNanos    小于等于0时不限制
+     * @param exposureTimeoutNanos 小于等于0时不限制
+     */
+    void setCaptureTimeouts(long focusTimeoutNanos, long exposureTimeoutNanos);
+
+    /**
+     * 设置拍照超时的监听, 在回调线程中执行
+     *
+     * @param listener
+     */
+    void setCaptureTimeoutListener(CaptureTimeoutListener listener);
+
+    /**
+     * 获取拍照各阶段的耗时统计
+     *
+     * @return
+     */
+    CaptureMetrics getCaptureMetrics();
+
+    /**
+     * 设置拍照各阶段耗时的监听
+     *
+     * @param listener
+     */
+    void setCaptureMetricsListener(CaptureMetricsListener listener);
 }
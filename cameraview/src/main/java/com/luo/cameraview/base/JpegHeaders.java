@@ -0,0 +1,247 @@
+package com.luo.cameraview.base;
+
+import java.nio.ByteBuffer;
+
+/**
+ * JPEG文件头中生成缩略图需要的信息: 图片尺寸, EXIF方向和EXIF中内嵌的缩略图位置.
+ * <p>
+ * 只扫描SOS之前的段, 不解码图像数据, 也不拷贝缓冲区, 用绝对位置读取, 不改变buffer的position.
+ * 不依赖Android, 可以在JVM上测试和做基准测试
+ */
+public final class JpegHeaders {
+
+    private static final int MARKER_SOI = 0xD8;
+    private static final int MARKER_SOS = 0xDA;
+    private static final int MARKER_EOI = 0xD9;
+    private static final int MARKER_APP1 = 0xE1;
+
+    private static final int TAG_ORIENTATION = 0x0112;
+    private static final int TAG_THUMBNAIL_OFFSET = 0x0201;
+    private static final int TAG_THUMBNAIL_LENGTH = 0x0202;
+
+    private static final int TYPE_SHORT = 3;
+    private static final int TYPE_LONG = 4;
+
+    private int mWidth;
+    private int mHeight;
+    private int mOrientation;
+    private int mThumbnailOffset = -1;
+    private int mThumbnailLength;
+
+    private JpegHeaders() {
+    }
+
+    /**
+     * 解析JPEG文件头, 从buffer的position开始
+     *
+     * @param jpeg
+     * @return 不是JPEG或者没有找到SOF段时返回null
+     */
+    public static JpegHeaders parse(ByteBuffer jpeg) {
+        int base = jpeg.position();
+        int limit = jpeg.limit();
+        if (limit - base < 4 || u8(jpeg, base) != 0xFF || u8(jpeg, base + 1) != MARKER_SOI) {
+            return null;
+        }
+        JpegHeaders headers = new JpegHeaders();
+        boolean foundFrame = false;
+        int position = base + 2;
+        while (position + 4 <= limit) {
+            if (u8(jpeg, position) != 0xFF) {
+                return null;
+            }
+            int marker = u8(jpeg, position + 1);
+            if (marker == 0xFF) {
+                //填充字节
+                position++;
+                continue;
+            }
+            if (marker == MARKER_SOS || marker == MARKER_EOI) {
+                break;
+            }
+            int length = u16(jpeg, position + 2, false);
+            int segment = position + 4;
+            int segmentEnd = position + 2 + length;
+            if (length < 2 || segmentEnd > limit) {
+                return null;
+            }
+            if (isStartOfFrame(marker) && segmentEnd - segment >= 5) {
+                headers.mHeight = u16(jpeg, segment + 1, false);
+                headers.mWidth = u16(jpeg, segment + 3, false);
+                foundFrame = true;
+            } else if (marker == MARKER_APP1) {
+                headers.parseExif(jpeg, segment, segmentEnd, base);
+            }
+            position = segmentEnd;
+        }
+        return foundFrame ? headers : null;
+    }
+
+    /**
+     * 选择解码的inSampleSize: 2的幂, 保证缩小后长边不小于maxSize
+     *
+     * @param width
+     * @param height
+     * @param maxSize 缩略图长边
+     * @return
+     */
+    public static int computeSampleSize(int width, int height, int maxSize) {
+        int longer = Math.max(width, height);
+        int sampleSize = 1;
+        while (longer / (sampleSize * 2) >= maxSize) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * EXIF中记录的方向, 显示时需要顺时针旋转的角度
+     *
+     * @return 0, 90, 180或270
+     */
+    public int getOrientation() {
+        return mOrientation;
+    }
+
+    public boolean hasThumbnail() {
+        return mThumbnailOffset >= 0;
+    }
+
+    /**
+     * EXIF中内嵌的JPEG缩略图, 和jpeg共享数据
+     *
+     * @param jpeg 传给{@link #parse(ByteBuffer)}的同一个buffer
+     * @return 没有缩略图时返回null
+     */
+    public ByteBuffer getThumbnail(ByteBuffer jpeg) {
+        if (mThumbnailOffset < 0) {
+            return null;
+        }
+        ByteBuffer thumbnail = jpeg.duplicate();
+        int start = jpeg.position() + mThumbnailOffset;
+        thumbnail.limit(start + mThumbnailLength);
+        thumbnail.position(start);
+        return thumbnail.slice();
+    }
+
+    private void parseExif(ByteBuffer jpeg, int start, int end, int base) {
+        //"Exif\0\0"后面是TIFF头
+        if (end - start < 14 || u16(jpeg, start, false) != 0x4578 || u16(jpeg, start + 2, false) != 0x6966
+                || u16(jpeg, start + 4, false) != 0) {
+            return;
+        }
+        int tiff = start + 6;
+        boolean littleEndian;
+        int byteOrder = u16(jpeg, tiff, false);
+        if (byteOrder == 0x4949) {
+            littleEndian = true;
+        } else if (byteOrder == 0x4D4D) {
+            littleEndian = false;
+        } else {
+            return;
+        }
+        if (u16(jpeg, tiff + 2, littleEndian) != 42) {
+            return;
+        }
+        int ifd0 = tiff + s32(jpeg, tiff + 4, littleEndian);
+        int next = parseIfd(jpeg, ifd0, tiff, end, littleEndian);
+        if (next > 0) {
+            parseIfd(jpeg, tiff + next, tiff, end, littleEndian);
+        }
+        if (mThumbnailOffset >= 0) {
+            //偏移量相对TIFF头, 转换为相对JPEG开头, 越界时忽略缩略图
+            if (mThumbnailLength <= 0 || mThumbnailOffset > end - tiff
+                    || mThumbnailLength > end - tiff - mThumbnailOffset) {
+                mThumbnailOffset = -1;
+                mThumbnailLength = 0;
+            } else {
+                mThumbnailOffset = tiff + mThumbnailOffset - base;
+            }
+        }
+    }
+
+    /**
+     * 读取一个IFD中需要的标签
+     *
+     * @return 下一个IFD相对TIFF头的偏移, 没有时返回0
+     */
+    private int parseIfd(ByteBuffer jpeg, int ifd, int tiff, int end, boolean littleEndian) {
+        if (ifd < tiff || ifd + 2 > end) {
+            return 0;
+        }
+        int count = u16(jpeg, ifd, littleEndian);
+        int entries = ifd + 2;
+        if (entries + count * 12 + 4 > end) {
+            return 0;
+        }
+        for (int i = 0; i < count; i++) {
+            int entry = entries + i * 12;
+            int tag = u16(jpeg, entry, littleEndian);
+            int type = u16(jpeg, entry + 2, littleEndian);
+            int value;
+            if (type == TYPE_SHORT) {
+                value = u16(jpeg, entry + 8, littleEndian);
+            } else if (type == TYPE_LONG) {
+                value = s32(jpeg, entry + 8, littleEndian);
+            } else {
+                continue;
+            }
+            switch (tag) {
+                case TAG_ORIENTATION:
+                    mOrientation = toDegrees(value);
+                    break;
+                case TAG_THUMBNAIL_OFFSET:
+                    mThumbnailOffset = value;
+                    break;
+                case TAG_THUMBNAIL_LENGTH:
+                    mThumbnailLength = value;
+                    break;
+            }
+        }
+        return s32(jpeg, entries + count * 12, littleEndian);
+    }
+
+    private static int toDegrees(int exifOrientation) {
+        switch (exifOrientation) {
+            case 3:
+                return 180;
+            case 6:
+                return 90;
+            case 8:
+                return 270;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * SOF0~SOF15, 不包括DHT(C4), JPG(C8)和DAC(CC)
+     */
+    private static boolean isStartOfFrame(int marker) {
+        return marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+    }
+
+    private static int u8(ByteBuffer buffer, int index) {
+        return buffer.get(index) & 0xFF;
+    }
+
+    private static int u16(ByteBuffer buffer, int index, boolean littleEndian) {
+        int b0 = u8(buffer, index);
+        int b1 = u8(buffer, index + 1);
+        return littleEndian ? (b1 << 8) | b0 : (b0 << 8) | b1;
+    }
+
+    private static int s32(ByteBuffer buffer, int index, boolean littleEndian) {
+        int first = u16(buffer, index, littleEndian);
+        int second = u16(buffer, index + 2, littleEndian);
+        return littleEndian ? (second << 16) | first : (first << 16) | second;
+    }
+}
@@ -0,0 +1,114 @@
+package com.luo.cameraview.base;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 拍照得到的JPEG数据.
+ * <p>
+ * {@link #getBuffer()}返回底层图片缓冲区的只读视图, 数据没有经过拷贝.
+ * 使用完后必须调用{@link #release()}, 否则底层的Image不会归还给ImageReader, 后续拍照会被阻塞.
+ * 需要同时交给多个使用者时用{@link #share()}, 所有PictureBuffer都释放后才释放底层资源.
+ */
+public class PictureBuffer implements Closeable {
+
+    /**
+     * 释放底层资源(例如Image)的回调
+     */
+    public interface Releaser {
+        void release();
+    }
+
+    private final ByteBuffer mBuffer;
+    private final Reference mReference;
+    private final AtomicBoolean mReleased = new AtomicBoolean();
+
+    public PictureBuffer(ByteBuffer buffer, Releaser releaser) {
+        this(buffer.asReadOnlyBuffer(), new Reference(releaser));
+    }
+
+    private PictureBuffer(ByteBuffer buffer, Reference reference) {
+        mBuffer = buffer;
+        mReference = reference;
+    }
+
+    /**
+     * 创建共享同一数据的PictureBuffer, 各自独立释放
+     *
+     * @return
+     */
+    public PictureBuffer share() {
+        if (mReleased.get()) {
+            throw new IllegalStateException("PictureBuffer already released");
+        }
+        mReference.mCount.incrementAndGet();
+        return new PictureBuffer(mBuffer, mReference);
+    }
+
+    /**
+     * 获取JPEG数据的只读视图, 每次调用返回独立的position/limit
+     *
+     * @return
+     */
+    public ByteBuffer getBuffer() {
+        if (mReleased.get()) {
+            throw new IllegalStateException("PictureBuffer already released");
+        }
+        return mBuffer.duplicate();
+    }
+
+    /**
+     * 获取JPEG数据的长度
+     *
+     * @return
+     */
+    public int size() {
+        return mBuffer.remaining();
+    }
+
+    /**
+     * 拷贝出一份JPEG数据, 用于兼容{@link ICameraView.Callback#onPictureTaken(byte[])}
+     *
+     * @return
+     */
+    public byte[] toByteArray() {
+        ByteBuffer buffer = getBuffer();
+        byte[] data = new byte[buffer.remaining()];
+        buffer.get(data);
+        return data;
+    }
+
+    public boolean isReleased() {
+        return mReleased.get();
+    }
+
+    /**
+     * 释放底层的Image, 多次调用只有第一次生效.
+     * 有共享的PictureBuffer时, 最后一个释放时才释放底层的Image
+     */
+    public void release() {
+        if (mReleased.compareAndSet(false, true) && mReference.mCount.decrementAndGet() == 0
+                && mReference.mReleaser != null) {
+            mReference.mReleaser.release();
+        }
+    }
+
+    @Override
+    public void close() {
+        release();
+    }
+
+    /**
+     * 共享同一数据的PictureBuffer的引用计数
+     */
+    private static class Reference {
+        final AtomicInteger mCount = new AtomicInteger(1);
+        final Releaser mReleaser;
+
+        Reference(Releaser releaser) {
+            mReleaser = releaser;
+        }
+    }
+}
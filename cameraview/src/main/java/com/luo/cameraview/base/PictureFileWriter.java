@@ -0,0 +1,120 @@
+package com.luo.cameraview.base;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 把{@link PictureBuffer}直接通过FileChannel写入文件.
+ * <p>
+ * 写文件在单独的有界线程池中执行, 队列满时直接回调失败, 不会阻塞摄像头线程和I/O线程.
+ * 写完后释放PictureBuffer, 整个过程不会在Java堆上拷贝图片数据.
+ */
+public class PictureFileWriter {
+
+    /**
+     * 默认最多排队的写文件任务数
+     */
+    public static final int DEFAULT_QUEUE_CAPACITY = 4;
+
+    private final ThreadPoolExecutor mExecutor;
+
+    public PictureFileWriter() {
+        this(DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * 正在写的一张加上排队的queueCapacity张, 最多同时持有queueCapacity + 1张图片.
+     * 图片来自ImageReader时queueCapacity + 1不应超过maxImages - 1, 保证总有一个空位取出下一张图片
+     *
+     * @param queueCapacity
+     */
+    public PictureFileWriter(int queueCapacity) {
+        mExecutor = new ThreadPoolExecutor(1, 1, 5, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "PictureFileWriter");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        //空闲时退出线程, 不需要显式关闭
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * 异步写入文件, 无论成功失败都会释放picture
+     *
+     * @param picture          图片数据
+     * @param file             目标文件
+     * @param callback         写入结果的回调
+     * @param callbackExecutor 执行回调的Executor
+     */
+    public void write(final PictureBuffer picture, final File file,
+                      final ICameraView.PictureFileCallback callback, final Executor callbackExecutor) {
+        try {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    long start = System.nanoTime();
+                    final long bytes;
+                    try {
+                        bytes = writeFully(picture.getBuffer(), file);
+                    } catch (IOException e) {
+                        dispatchFailure(file, e, callback, callbackExecutor);
+                        return;
+                    } catch (RuntimeException e) {
+                        //其他异常同样回调失败, 在finally中释放, 不能让Image一直占着ImageReader
+                        dispatchFailure(file, new IOException("Failed to write picture", e), callback, callbackExecutor);
+                        return;
+                    } finally {
+                        picture.release();
+                    }
+                    final long latencyNanos = System.nanoTime() - start;
+                    callbackExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onPictureSaved(file, bytes, latencyNanos);
+                        }
+                    });
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            picture.release();
+            dispatchFailure(file, new IOException("Picture write queue is full", e), callback, callbackExecutor);
+        }
+    }
+
+    private static long writeFully(ByteBuffer buffer, File file) throws IOException {
+        FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            FileChannel channel = outputStream.getChannel();
+            long bytes = 0;
+            while (buffer.hasRemaining()) {
+                bytes += channel.write(buffer);
+            }
+            return bytes;
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    private static void dispatchFailure(final File file, final IOException e,
+                                        final ICameraView.PictureFileCallback callback, Executor callbackExecutor) {
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                callback.onPictureSaveFailed(file, e);
+            }
+        });
+    }
+}
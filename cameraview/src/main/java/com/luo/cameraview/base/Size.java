@@ -1,10 +1,7 @@
 package com.luo.cameraview.base;
 
-import android.os.Build;
 import android.support.annotation.NonNull;
 
-import java.util.Objects;
-
 public class Size implements Comparable<Size> {
 
     private final int mWidth;
@@ -1,52 +1,327 @@
 package com.luo.cameraview.base;
 
-import android.os.Build;
-import android.support.annotation.RequiresApi;
-import android.util.ArrayMap;
-
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
-@RequiresApi(api = Build.VERSION_CODES.KITKAT)
+/**
+ * 按比例分组保存的尺寸.
+ * <p>
+ * 比例用约分后的(x, y)打包成long作为索引, 索引按升序保存在数组中, 查找比例是二分查找;
+ * 同一比例的尺寸打包成(width << 32 | height)按升序保存在long数组中,
+ * 因为比例相同, 按宽度排序和按面积排序是一致的, 各种范围查询都是二分查找.
+ * {@link #ratios()}和{@link #sizes(AspectRatio)}返回的都是不可修改的快照.
+ * <p>
+ * 不是线程安全的, 修改和查询(包括{@link #ratios()})都应该在同一个线程中进行,
+ * 其他线程只使用该线程生成的快照.
+ */
 public class SizeMap {
-    private final ArrayMap<AspectRatio, SortedSet<Size>> mRatios = new ArrayMap<AspectRatio, SortedSet<Size>>();
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    private long[] mKeys = new long[INITIAL_CAPACITY];
+    private Bucket[] mBuckets = new Bucket[INITIAL_CAPACITY];
+    private int mCount;
+
+    /**
+     * ratios()的快照, 修改后在下一次调用ratios()时重新生成
+     */
+    private Set<AspectRatio> mRatios;
 
     public boolean add(Size size) {
-        for (AspectRatio ratio : mRatios.keySet()) {
-            if (ratio.matches(size)) {
-                SortedSet<Size> sizes = mRatios.get(ratio);
-                if (sizes.contains(size)) {
-                    return false;
-                } else {
-                    sizes.add(size);
-                    return true;
-                }
-            }
+        int width = size.getWidth();
+        int height = size.getHeight();
+        long key = ratioKey(width, height);
+        int index = Arrays.binarySearch(mKeys, 0, mCount, key);
+        if (index < 0) {
+            index = -index - 1;
+            insertBucket(index, key, new Bucket(AspectRatio.of(width, height)));
         }
-        SortedSet<Size> sizes = new TreeSet<Size>();
-        sizes.add(size);
-        mRatios.put(AspectRatio.of(size.getWidth(), size.getHeight()), sizes);
-        return true;
+        if (mBuckets[index].add(pack(width, height))) {
+            mRatios = null;
+            return true;
+        }
+        return false;
     }
 
     public void remove(AspectRatio ratio) {
-        mRatios.remove(ratio);
+        int index = indexOf(ratio);
+        if (index < 0) {
+            return;
+        }
+        System.arraycopy(mKeys, index + 1, mKeys, index, mCount - index - 1);
+        System.arraycopy(mBuckets, index + 1, mBuckets, index, mCount - index - 1);
+        mCount--;
+        mBuckets[mCount] = null;
+        mRatios = null;
     }
 
+    /**
+     * 所有比例的快照, 按(x, y)升序排列, 之后的修改不会影响返回的集合.
+     * 快照在调用的线程中生成, 只能在修改的线程中调用
+     *
+     * @return
+     */
     public Set<AspectRatio> ratios() {
-        return mRatios.keySet();
+        Set<AspectRatio> ratios = mRatios;
+        if (ratios == null) {
+            Set<AspectRatio> snapshot = new LinkedHashSet<AspectRatio>(mCount * 2);
+            for (int i = 0; i < mCount; i++) {
+                snapshot.add(mBuckets[i].mRatio);
+            }
+            ratios = Collections.unmodifiableSet(snapshot);
+            mRatios = ratios;
+        }
+        return ratios;
     }
 
+    /**
+     * 该比例所有尺寸的快照, 从小到大排列
+     *
+     * @param ratio
+     * @return 没有该比例时返回null
+     */
     public SortedSet<Size> sizes(AspectRatio ratio) {
-        return mRatios.get(ratio);
+        int index = indexOf(ratio);
+        if (index < 0) {
+            return null;
+        }
+        Bucket bucket = mBuckets[index];
+        SortedSet<Size> sizes = new TreeSet<Size>();
+        for (int i = 0; i < bucket.mSize; i++) {
+            sizes.add(unpack(bucket.mSizes[i]));
+        }
+        return Collections.unmodifiableSortedSet(sizes);
+    }
+
+    /**
+     * 宽不小于width并且高不小于height的最小尺寸
+     *
+     * @param ratio
+     * @param width
+     * @param height
+     * @return 没有该比例或没有满足条件的尺寸时返回null
+     */
+    public Size smallestCovering(AspectRatio ratio, int width, int height) {
+        int index = indexOf(ratio);
+        if (index < 0) {
+            return null;
+        }
+        Bucket bucket = mBuckets[index];
+        //同一比例下宽和高都随下标递增, 分别二分查找后取较大的下标
+        int byWidth = bucket.firstWidthAtLeast(width);
+        int byHeight = bucket.firstHeightAtLeast(height);
+        int i = Math.max(byWidth, byHeight);
+        return i < bucket.mSize ? unpack(bucket.mSizes[i]) : null;
+    }
+
+    /**
+     * 像素数不超过maxPixels的最大尺寸
+     *
+     * @param ratio
+     * @param maxPixels
+     * @return 没有该比例或没有满足条件的尺寸时返回null
+     */
+    public Size largestWithin(AspectRatio ratio, long maxPixels) {
+        int index = indexOf(ratio);
+        if (index < 0) {
+            return null;
+        }
+        Bucket bucket = mBuckets[index];
+        int low = 0;
+        int high = bucket.mSize - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long packed = bucket.mSizes[mid];
+            if ((long) width(packed) * height(packed) <= maxPixels) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found < 0 ? null : unpack(bucket.mSizes[found]);
+    }
+
+    /**
+     * 该比例的最大尺寸
+     *
+     * @param ratio
+     * @return 没有该比例时返回null
+     */
+    public Size largest(AspectRatio ratio) {
+        int index = indexOf(ratio);
+        if (index < 0) {
+            return null;
+        }
+        Bucket bucket = mBuckets[index];
+        return unpack(bucket.mSizes[bucket.mSize - 1]);
+    }
+
+    /**
+     * 能覆盖预览界面的最小尺寸, 不区分横竖, 没有时取该比例的最大尺寸
+     *
+     * @param ratio
+     * @param surfaceWidth
+     * @param surfaceHeight
+     * @return 没有该比例时返回null
+     */
+    public Size chooseOptimalSize(AspectRatio ratio, int surfaceWidth, int surfaceHeight) {
+        int surfaceLonger = Math.max(surfaceWidth, surfaceHeight);
+        int surfaceShorter = Math.min(surfaceWidth, surfaceHeight);
+        Size size = smallestCovering(ratio, surfaceLonger, surfaceShorter);
+        return size != null ? size : largest(ratio);
+    }
+
+    /**
+     * 移除other中没有的比例, 两边的索引都是有序的, 一次归并完成
+     *
+     * @param other
+     * @return 是否移除了比例
+     */
+    public boolean retainRatios(SizeMap other) {
+        int count = 0;
+        int j = 0;
+        for (int i = 0; i < mCount; i++) {
+            long key = mKeys[i];
+            while (j < other.mCount && other.mKeys[j] < key) {
+                j++;
+            }
+            if (j < other.mCount && other.mKeys[j] == key) {
+                mKeys[count] = key;
+                mBuckets[count] = mBuckets[i];
+                count++;
+            }
+        }
+        if (count == mCount) {
+            return false;
+        }
+        Arrays.fill(mBuckets, count, mCount, null);
+        mCount = count;
+        mRatios = null;
+        return true;
     }
 
     public void clear() {
-        mRatios.clear();
+        Arrays.fill(mBuckets, 0, mCount, null);
+        mCount = 0;
+        mRatios = null;
     }
 
     public boolean isEmpty() {
-        return mRatios.isEmpty();
+        return mCount == 0;
+    }
+
+    private int indexOf(AspectRatio ratio) {
+        if (ratio == null) {
+            return -1;
+        }
+        int index = Arrays.binarySearch(mKeys, 0, mCount, ratioKey(ratio.getX(), ratio.getY()));
+        return index < 0 ? -1 : index;
+    }
+
+    private void insertBucket(int index, long key, Bucket bucket) {
+        if (mCount == mKeys.length) {
+            mKeys = Arrays.copyOf(mKeys, mCount * 2);
+            mBuckets = Arrays.copyOf(mBuckets, mCount * 2);
+        }
+        System.arraycopy(mKeys, index, mKeys, index + 1, mCount - index);
+        System.arraycopy(mBuckets, index, mBuckets, index + 1, mCount - index);
+        mKeys[index] = key;
+        mBuckets[index] = bucket;
+        mCount++;
+    }
+
+    /**
+     * 约分后的比例打包成long, 不需要创建AspectRatio
+     */
+    static long ratioKey(int x, int y) {
+        int gcd = gcd(x, y);
+        return pack(x / gcd, y / gcd);
+    }
+
+    private static int gcd(int x, int y) {
+        while (y != 0) {
+            int temp = y;
+            y = x % y;
+            x = temp;
+        }
+        return x;
+    }
+
+    private static long pack(int width, int height) {
+        return ((long) width << 32) | (height & 0xFFFFFFFFL);
+    }
+
+    private static int width(long packed) {
+        return (int) (packed >>> 32);
+    }
+
+    private static int height(long packed) {
+        return (int) packed;
+    }
+
+    private static Size unpack(long packed) {
+        return new Size(width(packed), height(packed));
+    }
+
+    /**
+     * 同一比例的尺寸, 按宽度升序保存
+     */
+    private static class Bucket {
+        final AspectRatio mRatio;
+        long[] mSizes = new long[INITIAL_CAPACITY];
+        int mSize;
+
+        Bucket(AspectRatio ratio) {
+            mRatio = ratio;
+        }
+
+        boolean add(long packed) {
+            int index = Arrays.binarySearch(mSizes, 0, mSize, packed);
+            if (index >= 0) {
+                return false;
+            }
+            index = -index - 1;
+            if (mSize == mSizes.length) {
+                mSizes = Arrays.copyOf(mSizes, mSize * 2);
+            }
+            System.arraycopy(mSizes, index, mSizes, index + 1, mSize - index);
+            mSizes[index] = packed;
+            mSize++;
+            return true;
+        }
+
+        int firstWidthAtLeast(int width) {
+            int low = 0;
+            int high = mSize;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (width(mSizes[mid]) < width) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        int firstHeightAtLeast(int height) {
+            int low = 0;
+            int high = mSize;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (height(mSizes[mid]) < height) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
     }
 }
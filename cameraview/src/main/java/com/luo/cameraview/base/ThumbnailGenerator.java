@@ -0,0 +1,201 @@
+package com.luo.cameraview.base;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import com.luo.cameraview.Constants;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 拍照后生成缩略图.
+ * <p>
+ * 在多线程的工作线程池中解码, 和拍照回调, 写文件并行执行, 连拍时多张图片同时解码.
+ * 优先解码EXIF中内嵌的缩略图, 只有几十KB; 没有时按inSampleSize降采样解码完整的JPEG.
+ * 队列满时丢弃缩略图, 不会阻塞I/O线程. 排队的任务不持有Image, 不会占满拍照的ImageReader.
+ */
+public class ThumbnailGenerator {
+
+    private static final String TAG = "ThumbnailGenerator";
+
+    /**
+     * 默认最多排队的缩略图任务数
+     */
+    public static final int DEFAULT_QUEUE_CAPACITY = 8;
+
+    private static final int MAX_THREADS = 4;
+
+    private final int mMaxSize;
+    private final int mMode;
+    private final ThreadPoolExecutor mExecutor;
+
+    /**
+     * @param maxSize 缩略图长边
+     * @param mode    {@link Constants#THUMBNAIL_EXIF}或{@link Constants#THUMBNAIL_DECODE}
+     */
+    public ThumbnailGenerator(int maxSize, int mode) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+        }
+        mMaxSize = maxSize;
+        mMode = mode;
+        //留一个核给摄像头和I/O线程
+        int threads = Math.max(1, Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors() - 1));
+        mExecutor = new ThreadPoolExecutor(threads, threads, 5, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(DEFAULT_QUEUE_CAPACITY), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ThumbnailGenerator");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    public int getMaxSize() {
+        return mMaxSize;
+    }
+
+    public int getMode() {
+        return mMode;
+    }
+
+    /**
+     * 异步生成缩略图, 不持有picture, 返回后调用者可以立即释放.
+     * Image的缓冲区不在排队和解码时占用: 只需要EXIF缩略图时拷贝缩略图, 否则拷贝完整的JPEG
+     *
+     * @param picture          图片数据
+     * @param callback         缩略图的回调
+     * @param callbackExecutor 执行回调的Executor
+     */
+    public void generate(PictureBuffer picture, final ICameraView.ThumbnailCallback callback,
+                         final Executor callbackExecutor) {
+        if (mExecutor.getQueue().remainingCapacity() == 0) {
+            //队列已满, 不用再拷贝
+            Log.w(TAG, "Thumbnail queue is full, dropped");
+            return;
+        }
+        ByteBuffer jpeg = picture.getBuffer();
+        final JpegHeaders headers = JpegHeaders.parse(jpeg);
+        if (headers == null) {
+            Log.w(TAG, "Not a JPEG picture");
+            return;
+        }
+        final boolean exifThumbnail = mMode == Constants.THUMBNAIL_EXIF && headers.hasThumbnail();
+        final ByteBuffer data;
+        final PictureBuffer shared;
+        if (exifThumbnail) {
+            //EXIF缩略图只有几十KB
+            data = copy(headers.getThumbnail(jpeg));
+            shared = null;
+        } else if (jpeg.isDirect()) {
+            //Image的缓冲区, 拷贝后立即归还给ImageReader, 不影响后面的拍照
+            data = copy(jpeg);
+            shared = null;
+        } else {
+            //已经在Java堆上, 共享即可
+            data = jpeg;
+            shared = picture.share();
+        }
+        try {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    final Bitmap thumbnail;
+                    try {
+                        thumbnail = decode(data, headers, exifThumbnail);
+                    } finally {
+                        if (shared != null) {
+                            shared.release();
+                        }
+                    }
+                    if (thumbnail == null) {
+                        Log.w(TAG, "Failed to decode thumbnail");
+                        return;
+                    }
+                    final int orientation = headers.getOrientation();
+                    callbackExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onThumbnailReady(thumbnail, orientation);
+                        }
+                    });
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            if (shared != null) {
+                shared.release();
+            }
+            Log.w(TAG, "Thumbnail queue is full, dropped");
+        }
+    }
+
+    /**
+     * 停止接收新的任务, 已经排队的任务继续执行
+     */
+    public void shutdown() {
+        mExecutor.shutdown();
+    }
+
+    /**
+     * @param jpeg          EXIF缩略图或完整的JPEG
+     * @param headers
+     * @param exifThumbnail jpeg是否是EXIF缩略图
+     * @return
+     */
+    private Bitmap decode(ByteBuffer jpeg, JpegHeaders headers, boolean exifThumbnail) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        if (!exifThumbnail) {
+            options.inSampleSize = JpegHeaders.computeSampleSize(headers.getWidth(), headers.getHeight(), mMaxSize);
+        }
+        if (jpeg.hasArray()) {
+            return BitmapFactory.decodeByteArray(jpeg.array(), jpeg.arrayOffset() + jpeg.position(),
+                    jpeg.remaining(), options);
+        }
+        //共享的只读缓冲区, 通过流读取, 不再拷贝
+        return BitmapFactory.decodeStream(new ByteBufferInputStream(jpeg), null, options);
+    }
+
+    private static ByteBuffer copy(ByteBuffer buffer) {
+        byte[] data = new byte[buffer.remaining()];
+        buffer.duplicate().get(data);
+        return ByteBuffer.wrap(data);
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer mBuffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            mBuffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return mBuffer.hasRemaining() ? mBuffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!mBuffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(len, mBuffer.remaining());
+            mBuffer.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return mBuffer.remaining();
+        }
+    }
+}
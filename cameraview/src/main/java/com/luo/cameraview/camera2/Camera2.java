@@ -7,30 +7,65 @@ import android.graphics.ImageFormat;
 import android.hardware.camera2.CameraAccessException;
 import android.hardware.camera2.CameraCaptureSession;
 import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraConstrainedHighSpeedCaptureSession;
 import android.hardware.camera2.CameraDevice;
 import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CaptureFailure;
 import android.hardware.camera2.CaptureRequest;
 import android.hardware.camera2.CaptureResult;
 import android.hardware.camera2.TotalCaptureResult;
 import android.hardware.camera2.params.StreamConfigurationMap;
 import android.media.Image;
 import android.media.ImageReader;
+import android.media.MediaCodec;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.util.Log;
+import android.util.Range;
+import android.util.SparseArray;
 import android.util.SparseIntArray;
 import android.view.Surface;
 
 import com.luo.cameraview.Constants;
+import com.luo.cameraview.backend.CaptureStateMachine;
+import com.luo.cameraview.backend.PictureQueue;
 import com.luo.cameraview.base.AspectRatio;
 import com.luo.cameraview.base.BaseCameraViewImpl;
+import com.luo.cameraview.base.FpsRange;
 import com.luo.cameraview.base.ICameraPreview;
+import com.luo.cameraview.base.PictureBuffer;
+import com.luo.cameraview.base.PictureFileWriter;
+import com.luo.cameraview.base.ThumbnailGenerator;
 import com.luo.cameraview.base.Size;
 import com.luo.cameraview.base.SizeMap;
-
+import com.luo.cameraview.frame.AnalyzerRate;
+import com.luo.cameraview.frame.AnalyzerStats;
+import com.luo.cameraview.frame.FrameDispatcher;
+import com.luo.cameraview.frame.FrameResampler;
+import com.luo.cameraview.frame.IFrameAnalyzer;
+import com.luo.cameraview.metrics.CaptureMetrics;
+import com.luo.cameraview.metrics.CaptureTimeoutListener;
+import com.luo.cameraview.metrics.RecordingStats;
+import com.luo.cameraview.metrics.StartupTrace;
+import com.luo.cameraview.store.CaptureStore;
+
+import java.io.File;
+import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
-import java.util.SortedSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 拍照流程:
@@ -51,6 +86,10 @@ import java.util.SortedSet;
  * 4.通过上面第三步所调用方法返回的CaptureRequest.Builder设置拍照的各种参数, 比如对焦模式,曝光模式等
  * 5.调用CaptureRequest.Builder的build()方法即可拿到CaptureRequest对象,
  * 接下来程序通过CameraCaptureSession的setRepeatingRequest()方法开始预览, 或调用capture()方法进行拍照
+ * <p>
+ * 线程模型:
+ * CameraDevice, CameraCaptureSession的回调都在摄像头线程中执行, 摄像头的可变状态也只在该线程中访问;
+ * 拍照的ImageReader的回调在I/O线程中执行, 分析和零延时拍照的ImageReader的回调在帧线程中执行; 对外的{@link Callback}回调通过{@link #setCallbackExecutor}设置的Executor执行.
  */
 @TargetApi(21)
 public class Camera2 extends BaseCameraViewImpl {
@@ -68,14 +107,39 @@ public class Camera2 extends BaseCameraViewImpl {
     }
 
     /**
-     * Max preview width that is guaranteed by Camera2 API
+     * 一个分析器时分析用ImageReader最多同时持有的帧数:
+     * 分析中的一帧, 等待分析的一帧, 以及刚从ImageReader取出的一帧.
+     * 每多一个分析器, 可能多一帧正在分析的旧帧, 最多{@link #ANALYSIS_MAX_IMAGES_LIMIT}帧
+     */
+    private static final int ANALYSIS_MAX_IMAGES = 3;
+    private static final int ANALYSIS_MAX_IMAGES_LIMIT = 6;
+
+    /**
+     * 连拍时拍照用ImageReader的maxImages上限, 超过后依赖I/O线程及时取走图片
+     */
+    private static final int BURST_MAX_IMAGES = 8;
+
+    /**
+     * 零延时拍照默认的内存预算
+     */
+    private static final long DEFAULT_ZSL_MEMORY_BUDGET = 64 * 1024 * 1024;
+
+    /**
+     * 还没有收到预览帧时假定的帧间隔, 30fps
+     */
+    private static final long DEFAULT_FRAME_INTERVAL_NANOS = 33333333L;
+
+    /**
+     * 拍照用ImageReader默认的maxImages: 正在拍的和排队的照片都可能不拷贝直接交出,
+     * 再留一个空位保证acquireNextImage()不会失败. 缓冲区按需分配, 没有积压时不会全部占用内存
      */
-    private static final int MAX_PREVIEW_WIDTH = 1920;
+    private static final int PICTURE_MAX_IMAGES = PictureQueue.MAX_QUEUED_PICTURES + 2;
 
+    private static final int VIDEO_FRAME_RATE = 30;
     /**
-     * Max preview height that is guaranteed by Camera2 API
+     * 录像的码率按每像素每帧的比特数计算, 1080p30约为15Mbps
      */
-    private static final int MAX_PREVIEW_HEIGHT = 1080;
+    private static final float VIDEO_BITS_PER_PIXEL = 0.25f;
 
     /**
      * 摄像头管理器.<br>
@@ -92,12 +156,28 @@ public class Camera2 extends BaseCameraViewImpl {
      * 类似原来的CameraInfo
      */
     private CameraCharacteristics mCameraCharacteristics;
+    /**
+     * 摄像头信息缓存, 进程内共享
+     */
+    private final CameraInfoCache mCameraInfoCache;
+    /**
+     * 当前摄像头的预览大小和图片大小
+     */
+    private CameraInfoCache.CameraInfo mCameraInfo;
+    /**
+     * 是否预热另一个摄像头
+     */
+    private volatile boolean mPrewarmEnabled;
+    /**
+     * 已经预热的另一个摄像头, 切换时只需要打开摄像头
+     */
+    private PrewarmedCamera mPrewarmedCamera;
     /**
      * 代表系统摄像头.
      * 类似原来的Camera.
      * 每个CameraDevice自己会负责建立CameraCaptureSession以及建立CaptureRequest
      */
-    private CameraDevice mCamera;
+    private volatile CameraDevice mCamera;
     /**
      * 该类是非常重要的API.
      * 当程序需要预览,拍照时, 都需要先通过该类的实例创建Session.
@@ -119,28 +199,169 @@ public class Camera2 extends BaseCameraViewImpl {
      * CameraRequestBuilder则负责生成CameraRequest对象
      */
     private CaptureRequest.Builder mPreviewRequestBuilder;
-    private ImageReader mImageReader;
-    private final SizeMap mPreviewSizes = new SizeMap();
-    private final SizeMap mPictureSizes = new SizeMap();
-    private int mFacing;
-    private AspectRatio mAspectRatio = Constants.DEFAULT_ASPECT_RATION;
-    private boolean mAutoFocus;
-    private int mFlash;
-    private int mDisplayOrientation;
+    private SharedImageReader mPictureReader;
+    /**
+     * 拍照用ImageReader当前的maxImages
+     */
+    private int mPictureMaxImages = PICTURE_MAX_IMAGES;
+    /**
+     * 正在进行的连拍, 没有连拍时为null
+     */
+    private Burst mBurst;
+    /**
+     * 预览的帧间隔, 由相邻两帧的传感器时间戳计算, 只在摄像头线程中访问
+     */
+    private long mFrameIntervalNanos = DEFAULT_FRAME_INTERVAL_NANOS;
+    private long mLastFrameTimestamp;
+    /**
+     * 上一次提交重复请求的时间
+     */
+    private long mLastRepeatingRequestNanos;
+    /**
+     * 已经安排了重复请求的更新, 之后的修改合并到这一次
+     */
+    private boolean mRepeatingUpdatePending;
+    /**
+     * 当前重复请求中的参数, 用于去掉没有变化的提交和提交失败时回滚
+     */
+    private int mAppliedFlash;
+    private boolean mAppliedAutoFocus;
+    private int mAppliedFpsPolicy;
+
+    /**
+     * 预先生成的拍照流程请求, 只在摄像头线程中访问
+     */
+    private final SparseArray<CaptureRequest> mStillCaptureRequests = new SparseArray<CaptureRequest>();
+    private CaptureRequest mLockFocusRequest;
+    private CaptureRequest mPrecaptureRequest;
+    private CaptureRequest mUnlockFocusRequest;
+
+    /**
+     * 等待上一次拍照结束或者CaptureSession配置完成的照片和正在拍的照片只在摄像头线程中访问,
+     * 等待ImageReader返回图片的照片在I/O线程中取出
+     */
+    private final PictureQueue<PendingPicture> mPictures = new PictureQueue<PendingPicture>();
+    private volatile CaptureTimeoutListener mCaptureTimeoutListener;
+
+    /**
+     * 帧率策略, Constants.FPS_POLICY_*
+     */
+    private volatile int mFpsPolicy = Constants.FPS_POLICY_DEFAULT;
+    /**
+     * 高速会话的帧率, 0表示不使用高速会话
+     */
+    private volatile int mHighSpeedFps;
+    /**
+     * 当前会话是否是受限高速会话, 只在摄像头线程中修改
+     */
+    private volatile boolean mHighSpeedSession;
+    /**
+     * 预览模板默认的帧率范围
+     */
+    private Range<Integer> mTemplateFpsRange;
+    private volatile FpsRange mFpsRange;
+    private volatile float mPreviewFrameRate;
+
+    private volatile ThumbnailGenerator mThumbnailGenerator;
+    private volatile ThumbnailCallback mThumbnailCallback;
+    /**
+     * 拍照请求中的JPEG_THUMBNAIL_SIZE, null时使用模板的默认值, 只在摄像头线程中访问
+     */
+    private android.util.Size mThumbnailSize;
+
+    /**
+     * 正在进行的录像, 只在摄像头线程中修改
+     */
+    private volatile VideoRecorder mVideoRecorder;
+    /**
+     * 录像开始时回调, 回调后置为null
+     */
+    private RecordingCallback mRecordingCallback;
+    /**
+     * 已经停止输出但可能还在CaptureSession中的录像, 不包含它的CaptureSession配置完成后才结束编码
+     */
+    private VideoRecorder mRetiredRecorder;
+    /**
+     * 最近一次配置的CaptureSession(包括正在配置的)中编码器的Surface, 没有时为null
+     */
+    private Surface mSessionRecorderSurface;
+    /**
+     * 正在进行的启动过程, 第一帧预览完成后置为null
+     */
+    private StartupTrace mStartupTrace;
+    private StartupCallback mStartupCallback;
+    private SizeMap mPreviewSizes = new SizeMap();
+    private SizeMap mPictureSizes = new SizeMap();
+    /**
+     * 预览支持的比例, 在摄像头线程中收集完成后发布, 其他线程只读取这个快照
+     */
+    private volatile Set<AspectRatio> mSupportedRatios = Collections.emptySet();
+    /**
+     * mPrepareTask已经提交还没有执行完, 这时mSupportedRatios还是旧的
+     */
+    private volatile boolean mPreparing;
+    private volatile int mFacing;
+    private volatile AspectRatio mAspectRatio = Constants.DEFAULT_ASPECT_RATION;
+    private volatile boolean mAutoFocus;
+    private volatile int mFlash;
+    private volatile int mDisplayOrientation;
+
+    /**
+     * 摄像头线程.
+     * CameraDevice, CameraCaptureSession的回调都在该线程中执行, 摄像头的状态也只在该线程中修改
+     */
+    private HandlerThread mCameraThread;
+    private volatile Handler mCameraHandler;
+    /**
+     * I/O线程.
+     * ImageReader的回调在该线程中执行, 读取图片数据不会阻塞摄像头线程
+     */
+    private HandlerThread mIoThread;
+    private Handler mIoHandler;
+    /**
+     * 帧线程.
+     * 分析和零延时拍照的ImageReader的回调在该线程中执行, I/O线程因为CaptureStore阻塞时预览帧照常取出
+     */
+    private HandlerThread mFrameThread;
+    private Handler mFrameHandler;
+
+    /**
+     * 把图片直接写入文件, 同时写入和排队的图片不超过默认maxImages - 1
+     */
+    private final PictureFileWriter mPictureFileWriter = new PictureFileWriter(PICTURE_MAX_IMAGES - 2);
+
+    /**
+     * 预览帧分析的ImageReader, 只在有分析器时创建
+     */
+    private SharedImageReader mAnalysisImageReader;
+    private final FrameDispatcher mFrameDispatcher = new FrameDispatcher();
+
+    /**
+     * 零延时拍照
+     */
+    private volatile boolean mZslEnabled;
+    private volatile long mZslMemoryBudget = DEFAULT_ZSL_MEMORY_BUDGET;
+    private SharedImageReader mZslImageReader;
+    private ZeroShutterLag mZeroShutterLag;
+    /**
+     * 带有零延时拍照或分析输出的CaptureSession配置失败过, 重新打开摄像头前不再加入该输出
+     */
+    private boolean mZslSessionFailed;
+    private boolean mAnalysisSessionFailed;
 
     private final CameraDevice.StateCallback mCameraDeviceCallback = new CameraDevice.StateCallback() {
         @Override
         public void onOpened(@NonNull CameraDevice camera) {
             mCamera = camera;// 获取到摄像头设备
-            mCallback.onCameraOpened();//回调摄像头已经打开
+            if (mStartupTrace != null) {
+                mStartupTrace.end(StartupTrace.PHASE_OPEN_CAMERA);
+            }
+            dispatchCameraOpened();//回调摄像头已经打开
             startCaptureSession();//开始进行预览
-        }
-
-        @Override
-        public void onClosed(@NonNull CameraDevice camera) {
-            super.onClosed(camera);
-            mCallback.onCameraClosed();//回调摄像头关闭
-
+            if (mPrewarmEnabled) {
+                //开始预览后再预热另一个摄像头
+                mCameraHandler.post(mPrewarmTask);
+            }
         }
 
         @Override
@@ -166,22 +387,75 @@ public class Camera2 extends BaseCameraViewImpl {
             }
 
             mCaptureSession = session;
+            if (mSessionRecorderSurface != getRecorderSurface()) {
+                //配置过程中开始或结束了录像, 重新配置
+                restartCaptureSession();
+                return;
+            }
+            //新的CaptureSession不再输出到停止的编码器
+            stopRetiredRecorder();
+            if (mStartupTrace != null) {
+                mStartupTrace.end(StartupTrace.PHASE_CONFIGURE_SESSION);
+                mStartupTrace.begin(StartupTrace.PHASE_FIRST_FRAME);
+            }
             updateAutoFocus();//更新自动对焦
             updateFlash();//更新闪光模式
 
             try {
                 //进行预览
-                mCaptureSession.setRepeatingRequest(
-                        mPreviewRequestBuilder.build(), mPictureCaptureCallback, null);
+                setRepeatingPreview();
+                onRepeatingRequestSubmitted();
             } catch (CameraAccessException e) {
                 e.printStackTrace();
                 Log.e(TAG, "Failed to start camera preview because it couldn't access camera", e);
             }
+
+            if (mHighSpeedSession || mVideoRecorder != null) {
+                //新的CaptureSession不能拍照
+                rejectQueuedPictures("Still capture is not available in this capture session");
+            }
+            if (mBurst != null && !mBurst.started) {
+                //ImageReader扩容后重新配置了CaptureSession, 继续连拍
+                startBurst();
+            } else if (!isCaptureInFlight() && isSessionReady()) {
+                //继续配置过程中排队的拍照
+                PendingPicture next = mPictures.pollQueued();
+                if (next != null) {
+                    startStillCapture(next);
+                }
+            }
+            if (mVideoRecorder != null && mRecordingCallback != null) {
+                //编码器的Surface已经是CaptureSession的输出, 开始录像
+                final RecordingCallback callback = mRecordingCallback;
+                final File file = mVideoRecorder.getFile();
+                mRecordingCallback = null;
+                getCallbackExecutor().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onRecordingStarted(file);
+                    }
+                });
+            }
         }
 
         @Override
         public void onConfigureFailed(@NonNull CameraCaptureSession session) {
+            //输出组合不被支持时, 依次去掉零延时拍照和分析的输出重试
+            if (mZslImageReader != null) {
+                Log.w(TAG, "Failed to configure capture session, retrying without zero shutter lag");
+                mZslSessionFailed = true;
+                startCaptureSession();
+                return;
+            }
+            if (mAnalysisImageReader != null) {
+                Log.w(TAG, "Failed to configure capture session, retrying without frame analysis");
+                mAnalysisSessionFailed = true;
+                startCaptureSession();
+                return;
+            }
             Log.e(TAG, "Failed to configure capture session");
+            mSessionRecorderSurface = null;
+            stopRetiredRecorder();
         }
 
         @Override
@@ -193,554 +467,2364 @@ public class Camera2 extends BaseCameraViewImpl {
         }
     };
 
-    PictureCaptureCallback mPictureCaptureCallback = new Camera2.PictureCaptureCallback() {
+    PictureCaptureCallback mPictureCaptureCallback = new Camera2.PictureCaptureCallback(mCaptureMetrics) {
+        @Override
+        public void onCaptureCompleted(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, @NonNull TotalCaptureResult result) {
+            super.onCaptureCompleted(session, request, result);
+            Long timestamp = result.get(CaptureResult.SENSOR_TIMESTAMP);
+            if (timestamp != null) {
+                if (mLastFrameTimestamp != 0 && timestamp > mLastFrameTimestamp) {
+                    mFrameIntervalNanos = timestamp - mLastFrameTimestamp;
+                    //实际帧率, 指数平滑
+                    float frameRate = 1e9f / mFrameIntervalNanos;
+                    float previous = mPreviewFrameRate;
+                    mPreviewFrameRate = previous == 0 ? frameRate : previous * 0.9f + frameRate * 0.1f;
+                }
+                mLastFrameTimestamp = timestamp;
+            }
+            if (mStartupTrace != null) {
+                //第一帧预览完成, 启动结束
+                finishStartup();
+            }
+        }
+
         @Override
         public void onPrecaptureRequired() {
             //trigger:触发
-            mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER, CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER_START);
             setState(STATE_PRECAPTURE);
             try {
-                mCaptureSession.capture(mPreviewRequestBuilder.build(), this, null);
-                mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER, CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER_IDLE);
+                mCaptureSession.capture(mPrecaptureRequest, this, mCameraHandler);
             } catch (CameraAccessException e) {
                 e.printStackTrace();
             }
         }
 
+        @Override
+        void onTimeout(final int stage, final long elapsedNanos) {
+            Log.w(TAG, "Capture timed out in " + CaptureMetrics.getStageName(stage));
+            final CaptureTimeoutListener listener = mCaptureTimeoutListener;
+            if (listener != null) {
+                getCallbackExecutor().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onCaptureTimeout(stage, elapsedNanos);
+                    }
+                });
+            }
+        }
+
         @Override
         public void onReady() {
+            if (mBurst != null) {
+                //连拍
+                captureStillBurst();
+                return;
+            }
             //捕获静态图片
             captureStillPicture();
         }
     };
 
-    private final ImageReader.OnImageAvailableListener mOnImageAvailableListener = new ImageReader.OnImageAvailableListener() {
-        @Override
-        public void onImageAvailable(ImageReader reader) {
-            // java1.7特性，叫做try-with-resource，
-            // 实现了AutoCloseable接口的实例可以放在try(...)中在离开try块时将自动调用close()方法。
-            // 该方法调用可以看做在finally块中，所以资源的释放一定会执行，不过能不能成功释放还是得看close方法是否正常返回。
-            // 所有实现Closeable的类声明都可以写在里面,最常见于流操作,socket操作,新版的httpclient也可以;
-            // 需要注意的是,try()的括号中可以写多行声明,每个声明的变量类型都必须是Closeable的子类,用分号隔开
-            /*
-            try(
-                InputStream is = new FileInputStream("...");
-                OutputStream os = new FileOutputStream("...");
-            ){
-                //...
-            }catch (IOException e) {
-                //...
-            }
-             */
+    /**
+     * 在I/O线程中取出拍照的图片, 交给写文件或回调
+     *
+     * @param pictureReader
+     */
+    private void onPictureAvailable(final SharedImageReader pictureReader) {
+        if (!pictureReader.retain()) {
+            //ImageReader已经关闭
+            return;
+        }
+        boolean handedOut = false;
+        try {
             //从ImageReader的队列获取下一个图像
-            try (Image image = reader.acquireNextImage()) {
-                //Image.getPlanes(): 获取图片的像素平面数组
-                //像素平面数组的数量是由图片格式决定的,
-                //如果图片的格式是{@link android.graphics.ImageFormat#PRIVATE PRIVATE},
-                //则获取的数据为空, 因为不能访问到图片的像素数据, 可以通过该方法校验图片格式
-                //此处就是用于校验图片格式
-                Image.Plane[] planes = image.getPlanes();
-                if (planes.length > 0) {
-                    ByteBuffer buffer = planes[0].getBuffer();
-                    //ByteBuffer.remaining()，此方法最给力，返回剩余的可用长度，此长度为实际读取的数据长度，最大自然是底层数组的长度
-                    byte[] data = new byte[buffer.remaining()];
-                    buffer.get(data);
-                    //回调图片的数据
-                    mCallback.onPictureTaken(data);
+            final Image image;
+            try {
+                image = pictureReader.reader.acquireNextImage();
+            } catch (IllegalStateException e) {
+                //交出的图片已经占满maxImages, 图片留在队列中, 下一次回调时按顺序取出
+                Log.w(TAG, "Too many pictures held, maxImages " + pictureReader.reader.getMaxImages(), e);
+                return;
+            }
+            if (image == null) {
+                return;
+            }
+            //图片按拍照顺序返回, 对应队列头部的请求
+            PendingPicture pending = mPictures.pollImage();
+            if (pending != null) {
+                mCaptureMetrics.recordSince(CaptureMetrics.STAGE_IMAGE_AVAILABLE, pending.getStillCaptureStartNanos());
+            }
+            if (!mPictures.hasPendingImages() && pictureReader.reader.getMaxImages() > PICTURE_MAX_IMAGES) {
+                //连拍的最后一张图片已经取出
+                runOnCameraThread(mShrinkPictureReaderTask);
+            }
+            //Image.getPlanes(): 获取图片的像素平面数组
+            //像素平面数组的数量是由图片格式决定的,
+            //如果图片的格式是{@link android.graphics.ImageFormat#PRIVATE PRIVATE},
+            //则获取的数据为空, 因为不能访问到图片的像素数据, 可以通过该方法校验图片格式
+            //此处就是用于校验图片格式
+            Image.Plane[] planes = image.getPlanes();
+            if (planes.length == 0) {
+                image.close();
+                if (pending != null) {
+                    failPicture(pending, new IOException("Picture has no data"));
                 }
+                return;
             }
-        }
-    };
-
-    private void captureStillPicture() {
-        try {
-            CaptureRequest.Builder captureRequestBuilder = mCamera.createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE);
-            //Add a surface to the list of targets for this request
-            captureRequestBuilder.addTarget(mImageReader.getSurface());
-            //AF:auto focus 自动聚焦
-            captureRequestBuilder.set(CaptureRequest.CONTROL_AF_MODE, mPreviewRequestBuilder.get(CaptureRequest.CONTROL_AF_MODE));
-            switch (mFlash) {
-                case Constants.FLASH_OFF:
-                    //AE:auto exposure 自动曝光
-                    captureRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON);
-                    //FLASH_MODE:闪光模式
-                    captureRequestBuilder.set(CaptureRequest.FLASH_MODE, CaptureRequest.FLASH_MODE_OFF);
-                    break;
-                case Constants.FLASH_ON:
-                    captureRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON_ALWAYS_FLASH);
-                    break;
-                case Constants.FLASH_TORCH:
-                    captureRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON);
-                    captureRequestBuilder.set(CaptureRequest.FLASH_MODE, CaptureRequest.FLASH_MODE_TORCH);//开启手电筒
-                    break;
-                case Constants.FLASH_AUTO:
-                    captureRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON_AUTO_FLASH);
-                    break;
-                case Constants.FLASH_REDEYE:
-                    captureRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON_AUTO_FLASH);
-                    break;
+            ByteBuffer buffer = planes[0].getBuffer();
+            PictureBuffer picture;
+            if (pictureReader.hasSpareImage()) {
+                //直接交出planes[0]的缓冲区, 不再拷贝到新的byte[]中,
+                //Image在PictureBuffer.release()时才关闭, ImageReader在所有图片释放后才关闭
+                picture = new PictureBuffer(buffer, new PictureBuffer.Releaser() {
+                    @Override
+                    public void release() {
+                        image.close();
+                        pictureReader.release();
+                    }
+                });
+                handedOut = true;
+            } else {
+                //交出的图片太多, 拷贝后立即关闭Image, 保证下一张图片可以取出
+                ByteBuffer copy = ByteBuffer.allocate(buffer.remaining());
+                copy.put(buffer);
+                copy.flip();
+                image.close();
+                picture = new PictureBuffer(copy, null);
+            }
+            generateThumbnail(picture);
+            if (pending != null && pending.mFile != null) {
+                //直接写入文件
+                mPictureFileWriter.write(picture, pending.mFile, pending.mCallback, getCallbackExecutor());
+            } else {
+                dispatchPictureTaken(picture, pending == null ? 0 : pending.getShutterNanos());
+            }
+        } finally {
+            if (!handedOut) {
+                pictureReader.release();
             }
-            Integer sensorOrientation = mCameraCharacteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
-            captureRequestBuilder.set(CaptureRequest.JPEG_ORIENTATION, (sensorOrientation + mDisplayOrientation * (mFacing == Constants.FACING_FRONT ? 1 : -1)) % 360);
+        }
+    }
 
-            mCaptureSession.stopRepeating();//停止预览
-            //进行捕获图片
-            mCaptureSession.capture(captureRequestBuilder.build(), new CameraCaptureSession.CaptureCallback() {
-                @Override
-                public void onCaptureCompleted(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, @NonNull TotalCaptureResult result) {
-                    super.onCaptureCompleted(session, request, result);
-                    unlockFocus();
-                }
-            }, null);
-        } catch (CameraAccessException e) {
-            e.printStackTrace();
+    /**
+     * 设置了缩略图回调时, 在工作线程中生成缩略图, 不等待完整的图片交付.
+     * 生成器在排队前拷贝需要的数据, 不持有Image
+     *
+     * @param picture
+     */
+    private void generateThumbnail(PictureBuffer picture) {
+        ThumbnailGenerator generator = mThumbnailGenerator;
+        ThumbnailCallback callback = mThumbnailCallback;
+        if (generator != null && callback != null) {
+            generator.generate(picture, callback, getCallbackExecutor());
         }
     }
 
-    private void unlockFocus() {
-        mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER, CaptureRequest.CONTROL_AF_TRIGGER_CANCEL);
+    /**
+     * 在帧线程中取出分析的帧, 每一帧占ImageReader的一个引用, 分析器都处理完关闭帧时释放
+     *
+     * @param analysisReader
+     */
+    private void onFrameAvailable(SharedImageReader analysisReader) {
+        if (!analysisReader.retain()) {
+            //ImageReader已经关闭
+            return;
+        }
+        Image image;
         try {
-            mCaptureSession.capture(mPreviewRequestBuilder.build(), mPictureCaptureCallback, null);
-            updateAutoFocus();
-            updateFlash();
-            mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER, CaptureRequest.CONTROL_AF_TRIGGER_IDLE);
-            mCaptureSession.setRepeatingRequest(mPreviewRequestBuilder.build(), mPictureCaptureCallback, null);
-            mPictureCaptureCallback.setState(PictureCaptureCallback.STATE_PREVIEW);
-        } catch (CameraAccessException e) {
-            e.printStackTrace();
+            image = analysisReader.reader.acquireNextImage();
+        } catch (IllegalStateException e) {
+            //已经达到maxImages, 丢弃这一帧
+            analysisReader.release();
+            return;
         }
+        if (image == null) {
+            analysisReader.release();
+            return;
+        }
+        mFrameDispatcher.dispatch(new ImageFrame(image, analysisReader));
     }
 
     /**
-     * 更新闪光模式
+     * 当前参数下的拍照请求, 没有缓存时创建.
+     * 请求按(闪光模式, 对焦模式, JPEG方向, JPEG质量)缓存, 重新配置CaptureSession时清空
+     *
+     * @return
+     * @throws CameraAccessException
      */
-    private void updateFlash() {
-        switch (mFlash) {
+    private CaptureRequest getStillCaptureRequest() throws CameraAccessException {
+        int flash = mFlash;
+        Integer afMode = mPreviewRequestBuilder.get(CaptureRequest.CONTROL_AF_MODE);
+        int orientation = getJpegOrientation();
+        int quality = getJpegQuality();
+        int key = (quality << 20) | (flash << 16) | ((afMode == null ? 0 : afMode) << 9) | orientation;
+        CaptureRequest request = mStillCaptureRequests.get(key);
+        if (request == null) {
+            request = createStillCaptureRequestBuilder(flash, afMode, orientation, quality).build();
+            mStillCaptureRequests.put(key, request);
+        }
+        return request;
+    }
+
+    private CaptureRequest.Builder createStillCaptureRequestBuilder(int flash, Integer afMode, int orientation, int quality) throws CameraAccessException {
+        CaptureRequest.Builder captureRequestBuilder = mCamera.createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE);
+        //Add a surface to the list of targets for this request
+        captureRequestBuilder.addTarget(mPictureReader.reader.getSurface());
+        //AF:auto focus 自动聚焦
+        captureRequestBuilder.set(CaptureRequest.CONTROL_AF_MODE, afMode);
+        //和预览相同的帧率范围, 拍照时自动曝光不切换帧率
+        captureRequestBuilder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE,
+                mPreviewRequestBuilder.get(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE));
+        switch (flash) {
             case Constants.FLASH_OFF:
-                mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON);
-                mPreviewRequestBuilder.set(CaptureRequest.FLASH_MODE, CaptureRequest.FLASH_MODE_OFF);
+                //AE:auto exposure 自动曝光
+                captureRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON);
+                //FLASH_MODE:闪光模式
+                captureRequestBuilder.set(CaptureRequest.FLASH_MODE, CaptureRequest.FLASH_MODE_OFF);
                 break;
             case Constants.FLASH_ON:
-                mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON);
-                mPreviewRequestBuilder.set(CaptureRequest.FLASH_MODE, CaptureRequest.FLASH_MODE_OFF);
+                captureRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON_ALWAYS_FLASH);
                 break;
             case Constants.FLASH_TORCH:
-                mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON);
-                mPreviewRequestBuilder.set(CaptureRequest.FLASH_MODE, CaptureRequest.FLASH_MODE_TORCH);
+                captureRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON);
+                captureRequestBuilder.set(CaptureRequest.FLASH_MODE, CaptureRequest.FLASH_MODE_TORCH);//开启手电筒
                 break;
             case Constants.FLASH_AUTO:
-                mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON_AUTO_FLASH);
-                mPreviewRequestBuilder.set(CaptureRequest.FLASH_MODE, CaptureRequest.FLASH_MODE_OFF);
+                captureRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON_AUTO_FLASH);
                 break;
             case Constants.FLASH_REDEYE:
-                mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON_AUTO_FLASH_REDEYE);
-                mPreviewRequestBuilder.set(CaptureRequest.FLASH_MODE, CaptureRequest.FLASH_MODE_OFF);
+                captureRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON_AUTO_FLASH);
                 break;
         }
+        captureRequestBuilder.set(CaptureRequest.JPEG_ORIENTATION, orientation);
+        if (quality > 0) {
+            captureRequestBuilder.set(CaptureRequest.JPEG_QUALITY, (byte) quality);
+        }
+        if (mThumbnailSize != null) {
+            captureRequestBuilder.set(CaptureRequest.JPEG_THUMBNAIL_SIZE, mThumbnailSize);
+        }
+        return captureRequestBuilder;
     }
 
     /**
-     * 更新自动对焦
+     * 用当前的预览参数预先生成对焦, 预拍和解锁的触发请求
      */
-    private void updateAutoFocus() {
-        if (mAutoFocus) {
-            int[] modes = mCameraCharacteristics.get(CameraCharacteristics.CONTROL_AF_AVAILABLE_MODES);
-            if (modes == null || modes.length == 0 ||
-                    (modes.length == 1 && modes[0] == CameraCharacteristics.CONTROL_AF_MODE_OFF)) {
-                mAutoFocus = false;
-                mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_OFF);
-            } else {
-                mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
-            }
-        } else {
-            mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_OFF);
-        }
+    private void prepareTriggerRequests() {
+        mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER, CaptureRequest.CONTROL_AF_TRIGGER_START);
+        mLockFocusRequest = mPreviewRequestBuilder.build();
+        mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER, CaptureRequest.CONTROL_AF_TRIGGER_CANCEL);
+        mUnlockFocusRequest = mPreviewRequestBuilder.build();
+        mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER, CaptureRequest.CONTROL_AF_TRIGGER_IDLE);
+        mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER, CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER_START);
+        mPrecaptureRequest = mPreviewRequestBuilder.build();
+        mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER, CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER_IDLE);
     }
 
+    /**
+     * CaptureSession重新配置后输出目标可能变化, 清空所有预先生成的请求
+     */
+    private void clearPreparedRequests() {
+        mStillCaptureRequests.clear();
+        mLockFocusRequest = null;
+        mUnlockFocusRequest = null;
+        mPrecaptureRequest = null;
+    }
 
     /**
-     * 开始进行预览
+     * 在帧线程中把零延时拍照的帧加入环形缓冲区
+     *
+     * @param zslReader
+     * @param zsl
      */
-    private void startCaptureSession() {
-        if (!isCameraOpened() || !mCameraPreview.isReady() || mImageReader == null) {
+    private void onZslImageAvailable(SharedImageReader zslReader, ZeroShutterLag zsl) {
+        if (!zslReader.retain()) {
+            //ImageReader已经关闭
             return;
         }
-        Size previewSize = chooseOptimalSize();
-        mCameraPreview.setBufferSize(previewSize.getWidth(), previewSize.getHeight());
-        Surface surface = mCameraPreview.getSurface();
+        Image image;
         try {
-            mPreviewRequestBuilder = mCamera.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
-            mPreviewRequestBuilder.addTarget(surface);
-            mCamera.createCaptureSession(Arrays.asList(surface, mImageReader.getSurface()), mCameraCaptureSessionCallback, null);
-        } catch (CameraAccessException e) {
-            e.printStackTrace();
-            throw new RuntimeException("Failed to start camera session");
+            image = zslReader.reader.acquireNextImage();
+        } catch (IllegalStateException e) {
+            //正在编码的帧还没有关闭, 丢弃这一帧
+            zslReader.release();
+            return;
         }
-
-    }
-
-    private Size chooseOptimalSize() {
-        int surfaceLonger, surfaceShorter;
-        int surfaceWidth = mCameraPreview.getWidth();
-        int surfaceHeight = mCameraPreview.getHeight();
-        if (surfaceWidth < surfaceHeight) {
-            surfaceLonger = surfaceHeight;
-            surfaceShorter = surfaceWidth;
-        } else {
-            surfaceLonger = surfaceWidth;
-            surfaceShorter = surfaceHeight;
+        if (image == null) {
+            zslReader.release();
+            return;
         }
+        zsl.add(image);
+    }
 
-        SortedSet<Size> candidates = mPreviewSizes.sizes(mAspectRatio);
-        for (Size size : candidates) {
-            if (size.getWidth() >= surfaceLonger && size.getHeight() >= surfaceShorter) {
-                return size;
-            }
-        }
-        return candidates.last();
+    /**
+     * 设置了CaptureStore时按它的队列状态选择JPEG质量
+     *
+     * @return 0表示使用HAL的默认质量
+     */
+    private int getJpegQuality() {
+        CaptureStore store = getCaptureStore();
+        return store == null ? 0 : store.getJpegQuality();
     }
 
-    protected Camera2(Callback callback, ICameraPreview cameraPreview, Context context) {
-        super(callback, cameraPreview);
-        mCameraManager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
-        mCameraPreview.setCallback(new ICameraPreview.Callback() {
-            @Override
-            public void onSurfaceChanged() {
-                startCaptureSession();
-            }
-        });
+    /**
+     * 计算图片的方向
+     *
+     * @return
+     */
+    private int getJpegOrientation() {
+        Integer sensorOrientation = mCameraCharacteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+        return (sensorOrientation + mDisplayOrientation * (mFacing == Constants.FACING_FRONT ? 1 : -1) + 360) % 360;
     }
 
-    @Override
-    public boolean start() {
-        //选择摄像头
-        if (!chooseCameraIdByFacing()) {
+    private void captureStillPicture() {
+        if (mCaptureSession == null) {
+            //CaptureSession正在重新配置, 还没提交的拍照已经重新排队
+            return;
+        }
+        try {
+            CaptureRequest request = getStillCaptureRequest();
+
+            mCaptureSession.stopRepeating();//停止预览
+            final long start = CaptureMetrics.now();
+            final PendingPicture pending = mPictures.onCaptureSubmitted(start);
+            //进行捕获图片
+            mCaptureSession.capture(request, new CameraCaptureSession.CaptureCallback() {
+                @Override
+                public void onCaptureCompleted(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, @NonNull TotalCaptureResult result) {
+                    super.onCaptureCompleted(session, request, result);
+                    mCaptureMetrics.recordSince(CaptureMetrics.STAGE_STILL_CAPTURE, start);
+                    if (session == mCaptureSession) {
+                        unlockFocus();
+                    }
+                }
+
+                @Override
+                public void onCaptureFailed(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, @NonNull CaptureFailure failure) {
+                    super.onCaptureFailed(session, request, failure);
+                    mCaptureMetrics.recordSince(CaptureMetrics.STAGE_STILL_CAPTURE, start);
+                    //没有图片输出时ImageReader不会回调, 这张照片直接失败
+                    if (mPictures.onCaptureFailed(pending, failure.wasImageCaptured())) {
+                        IOException e = new IOException("Still capture failed, reason " + failure.getReason());
+                        Log.w(TAG, e.getMessage());
+                        failPicture(pending, e);
+                    }
+                    //CaptureSession重新配置时中止的请求, 新的CaptureSession配置完成后继续排队的拍照
+                    if (session == mCaptureSession) {
+                        unlockFocus();
+                    }
+                }
+            }, mCameraHandler);
+        } catch (CameraAccessException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 对焦和曝光锁定后, 一次提交连拍的所有请求
+     */
+    private void captureStillBurst() {
+        final Burst burst = mBurst;
+        try {
+            CaptureRequest request = getStillCaptureRequest();
+            List<CaptureRequest> requests = new ArrayList<CaptureRequest>(burst.count);
+            for (int i = 0; i < burst.count; i++) {
+                requests.add(request);
+            }
+            mCaptureSession.stopRepeating();//停止预览
+            long start = CaptureMetrics.now();
+            for (PendingPicture pending : burst.pictures) {
+                pending.setStillCaptureStartNanos(start);
+            }
+            mCaptureSession.captureBurst(requests, new CameraCaptureSession.CaptureCallback() {
+                @Override
+                public void onCaptureCompleted(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, @NonNull TotalCaptureResult result) {
+                    super.onCaptureCompleted(session, request, result);
+                    Long timestamp = result.get(CaptureResult.SENSOR_TIMESTAMP);
+                    if (burst.onCaptureCompleted(timestamp == null ? System.nanoTime() : timestamp)) {
+                        finishBurst(burst, session);
+                    }
+                }
+
+                @Override
+                public void onCaptureFailed(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, @NonNull CaptureFailure failure) {
+                    super.onCaptureFailed(session, request, failure);
+                    if (!failure.wasImageCaptured()) {
+                        //这一帧没有图片, 去掉一个等待图片的请求, 否则会错配后面拍照的图片
+                        removeBurstPicture(burst);
+                    }
+                    if (burst.onCaptureCompleted(System.nanoTime())) {
+                        finishBurst(burst, session);
+                    }
+                }
+            }, mCameraHandler);
+        } catch (CameraAccessException e) {
+            e.printStackTrace();
+            Log.e(TAG, "Failed to capture burst", e);
+            mBurst = null;
+            mPictureMaxImages = PICTURE_MAX_IMAGES;
+            //所有帧都不会有图片
+            mPictures.removeAllPending(burst.pictures);
+            unlockFocus();
+        }
+    }
+
+    /**
+     * 从等待图片的队列中去掉连拍的一个请求, 连拍的请求都回调图片数据, 去掉哪一个都一样
+     *
+     * @param burst
+     */
+    private void removeBurstPicture(Burst burst) {
+        for (PendingPicture pending : burst.pictures) {
+            if (mPictures.removePending(pending)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 连拍结束, 回调帧率并恢复预览
+     *
+     * @param burst
+     * @param session 连拍所在的CaptureSession, 已经被替换时不再恢复预览
+     */
+    private void finishBurst(final Burst burst, CameraCaptureSession session) {
+        if (mBurst == burst) {
+            mBurst = null;
+        }
+        //图片都取出后ImageReader缩回默认大小
+        mPictureMaxImages = PICTURE_MAX_IMAGES;
+        if (burst.callback != null) {
+            final float framesPerSecond = burst.getFramesPerSecond();
+            getCallbackExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    burst.callback.onBurstCompleted(burst.count, framesPerSecond);
+                }
+            });
+        }
+        if (session == mCaptureSession) {
+            unlockFocus();
+        }
+    }
+
+    private void unlockFocus() {
+        if (mCaptureSession == null || mUnlockFocusRequest == null) {
+            //CaptureSession正在重新配置, onConfigured中继续排队的拍照
+            return;
+        }
+        try {
+            mCaptureSession.capture(mUnlockFocusRequest, mPictureCaptureCallback, mCameraHandler);
+            updateAutoFocus();
+            updateFlash();
+            updateFpsPolicy();
+            setRepeatingPreview();
+            onRepeatingRequestSubmitted();
+            mPictureCaptureCallback.setState(PictureCaptureCallback.STATE_PREVIEW);
+            PendingPicture next = mPictures.finishCapture();
+            if (next != null) {
+                //继续排队的拍照
+                startStillCapture(next);
+            } else {
+                shrinkPictureReader();
+            }
+        } catch (CameraAccessException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 连拍扩容的ImageReader在所有图片取出后缩回默认大小, 不再占用连拍的缓冲区.
+     * 只在摄像头线程中调用
+     */
+    private void shrinkPictureReader() {
+        SharedImageReader pictureReader = mPictureReader;
+        if (pictureReader == null || pictureReader.reader.getMaxImages() <= mPictureMaxImages) {
+            return;
+        }
+        if (mPictures.hasPendingImages() || isCaptureInFlight() || mPictures.hasQueuedPictures()
+                || mHighSpeedSession || mVideoRecorder != null) {
+            //还有图片没有取出, 最后一张图片取出后再检查
+            return;
+        }
+        restartCaptureSession();
+    }
+
+    private final Runnable mShrinkPictureReaderTask = new Runnable() {
+        @Override
+        public void run() {
+            shrinkPictureReader();
+        }
+    };
+
+    /**
+     * 更新闪光模式
+     */
+    private void updateFlash() {
+        switch (mFlash) {
+            case Constants.FLASH_OFF:
+                mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON);
+                mPreviewRequestBuilder.set(CaptureRequest.FLASH_MODE, CaptureRequest.FLASH_MODE_OFF);
+                break;
+            case Constants.FLASH_ON:
+                mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON);
+                mPreviewRequestBuilder.set(CaptureRequest.FLASH_MODE, CaptureRequest.FLASH_MODE_OFF);
+                break;
+            case Constants.FLASH_TORCH:
+                mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON);
+                mPreviewRequestBuilder.set(CaptureRequest.FLASH_MODE, CaptureRequest.FLASH_MODE_TORCH);
+                break;
+            case Constants.FLASH_AUTO:
+                mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON_AUTO_FLASH);
+                mPreviewRequestBuilder.set(CaptureRequest.FLASH_MODE, CaptureRequest.FLASH_MODE_OFF);
+                break;
+            case Constants.FLASH_REDEYE:
+                mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON_AUTO_FLASH_REDEYE);
+                mPreviewRequestBuilder.set(CaptureRequest.FLASH_MODE, CaptureRequest.FLASH_MODE_OFF);
+                break;
+        }
+    }
+
+    /**
+     * 更新自动对焦
+     */
+    private void updateAutoFocus() {
+        if (mAutoFocus) {
+            int[] modes = mCameraCharacteristics.get(CameraCharacteristics.CONTROL_AF_AVAILABLE_MODES);
+            if (modes == null || modes.length == 0 ||
+                    (modes.length == 1 && modes[0] == CameraCharacteristics.CONTROL_AF_MODE_OFF)) {
+                mAutoFocus = false;
+                mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_OFF);
+            } else {
+                //高速会话只能使用录像的连续对焦
+                mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_MODE, mHighSpeedSession
+                        ? CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_VIDEO : CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
+            }
+        } else {
+            mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_OFF);
+        }
+    }
+
+
+    /**
+     * 开始进行预览
+     */
+    private void startCaptureSession() {
+        if (!isCameraOpened() || mPictureReader == null) {
+            return;
+        }
+        if (!mCameraPreview.isReady()) {
+            //等待预览Surface创建后在onSurfaceChanged()中继续
+            if (mStartupTrace != null) {
+                mStartupTrace.begin(StartupTrace.PHASE_WAIT_SURFACE);
+            }
+            return;
+        }
+        if (mStartupTrace != null) {
+            mStartupTrace.end(StartupTrace.PHASE_WAIT_SURFACE);
+            mStartupTrace.begin(StartupTrace.PHASE_CONFIGURE_SESSION);
+        }
+        if (mHighSpeedFps > 0 && mVideoRecorder == null
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M && startHighSpeedSession()) {
+            return;
+        }
+        mHighSpeedSession = false;
+        Size previewSize = chooseOptimalSize();
+        mCameraPreview.setBufferSize(previewSize.getWidth(), previewSize.getHeight());
+        Surface surface = mCameraPreview.getSurface();
+        prepareImageReader();
+        VideoRecorder recorder = mVideoRecorder;
+        if (recorder == null) {
+            prepareAnalysisImageReader(previewSize);
+            prepareZslImageReader();
+        } else {
+            //录像时输出数量有限, 不输出分析帧和零延时拍照的帧
+            closeAnalysisImageReader();
+            closeZslImageReader();
+        }
+        try {
+            mPreviewRequestBuilder = mCamera.createCaptureRequest(
+                    recorder == null ? CameraDevice.TEMPLATE_PREVIEW : CameraDevice.TEMPLATE_RECORD);
+            clearPreparedRequests();
+            //图片比例或摄像头可能已经改变
+            updateThumbnailSize();
+            mTemplateFpsRange = mPreviewRequestBuilder.get(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE);
+            applyFpsPolicy();
+            mPreviewRequestBuilder.addTarget(surface);
+            List<Surface> outputs = new ArrayList<Surface>(4);
+            outputs.add(surface);
+            outputs.add(mPictureReader.reader.getSurface());
+            if (mAnalysisImageReader != null) {
+                //分析的帧跟随预览一起输出
+                Surface analysisSurface = mAnalysisImageReader.reader.getSurface();
+                mPreviewRequestBuilder.addTarget(analysisSurface);
+                outputs.add(analysisSurface);
+            }
+            if (mZslImageReader != null) {
+                //零延时拍照的帧也跟随预览持续输出
+                Surface zslSurface = mZslImageReader.reader.getSurface();
+                mPreviewRequestBuilder.addTarget(zslSurface);
+                outputs.add(zslSurface);
+            }
+            if (recorder != null) {
+                //帧直接输出到编码器
+                Surface recorderSurface = recorder.getInputSurface();
+                mPreviewRequestBuilder.addTarget(recorderSurface);
+                outputs.add(recorderSurface);
+            }
+            mSessionRecorderSurface = recorder == null ? null : recorder.getInputSurface();
+            mCamera.createCaptureSession(outputs, mCameraCaptureSessionCallback, mCameraHandler);
+        } catch (CameraAccessException e) {
+            e.printStackTrace();
+            throw new RuntimeException("Failed to start camera session");
+        }
+
+    }
+
+    /**
+     * 配置受限高速会话, 只输出预览, 请求以createHighSpeedRequestList()的批次重复提交
+     *
+     * @return 设备不支持要求的帧率时返回false, 使用普通会话
+     */
+    @TargetApi(Build.VERSION_CODES.M)
+    private boolean startHighSpeedSession() {
+        StreamConfigurationMap map = mCameraCharacteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        FpsRange range = FpsRange.chooseHighSpeed(getSupportedHighSpeedFpsRanges(), mHighSpeedFps, false);
+        if (map == null || range == null) {
+            Log.w(TAG, "High speed " + mHighSpeedFps + "fps is not supported, using a regular session");
+            return false;
+        }
+        Range<Integer> fpsRange = new Range<Integer>(range.getLower(), range.getUpper());
+        //高速会话的预览大小只能从该帧率支持的大小中选择, 优先当前比例的最大尺寸
+        android.util.Size best = null;
+        for (android.util.Size size : map.getHighSpeedVideoSizesFor(fpsRange)) {
+            boolean matches = mAspectRatio.matches(new Size(size.getWidth(), size.getHeight()));
+            boolean bestMatches = best != null && mAspectRatio.matches(new Size(best.getWidth(), best.getHeight()));
+            if (best == null || (matches && !bestMatches)
+                    || (matches == bestMatches && size.getWidth() * size.getHeight() > best.getWidth() * best.getHeight())) {
+                best = size;
+            }
+        }
+        if (best == null) {
+            return false;
+        }
+        closeAnalysisImageReader();
+        closeZslImageReader();
+        mCameraPreview.setBufferSize(best.getWidth(), best.getHeight());
+        Surface surface = mCameraPreview.getSurface();
+        try {
+            mPreviewRequestBuilder = mCamera.createCaptureRequest(CameraDevice.TEMPLATE_RECORD);
+            clearPreparedRequests();
+            mPreviewRequestBuilder.addTarget(surface);
+            mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, fpsRange);
+            mFpsRange = range;
+            mHighSpeedSession = true;
+            mSessionRecorderSurface = null;
+            mCamera.createConstrainedHighSpeedCaptureSession(Collections.singletonList(surface),
+                    mCameraCaptureSessionCallback, mCameraHandler);
+        } catch (CameraAccessException e) {
+            e.printStackTrace();
+            throw new RuntimeException("Failed to start high speed camera session");
+        }
+        return true;
+    }
+
+    /**
+     * 按帧率策略设置预览的帧率范围, 只用于普通会话
+     */
+    private void applyFpsPolicy() {
+        FpsRange range = null;
+        if (mFpsPolicy == Constants.FPS_POLICY_FIXED_HIGH) {
+            range = FpsRange.chooseFixedHigh(getSupportedFpsRanges());
+        }
+        if (range != null) {
+            mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE,
+                    new Range<Integer>(range.getLower(), range.getUpper()));
+            mFpsRange = range;
+        } else {
+            //恢复模板的帧率
+            mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, mTemplateFpsRange);
+            mFpsRange = mTemplateFpsRange == null ? null
+                    : new FpsRange(mTemplateFpsRange.getLower(), mTemplateFpsRange.getUpper());
+        }
+    }
+
+    /**
+     * 提交预览的重复请求, 高速会话中提交一个批次
+     *
+     * @throws CameraAccessException
+     */
+    private void setRepeatingPreview() throws CameraAccessException {
+        if (mHighSpeedSession && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            setRepeatingHighSpeedBurst();
+        } else {
+            mCaptureSession.setRepeatingRequest(mPreviewRequestBuilder.build(), mPictureCaptureCallback, mCameraHandler);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.M)
+    private void setRepeatingHighSpeedBurst() throws CameraAccessException {
+        CameraConstrainedHighSpeedCaptureSession session = (CameraConstrainedHighSpeedCaptureSession) mCaptureSession;
+        session.setRepeatingBurst(session.createHighSpeedRequestList(mPreviewRequestBuilder.build()),
+                mPictureCaptureCallback, mCameraHandler);
+    }
+
+    /**
+     * 有分析器时准备YUV_420_888的ImageReader, 大小不超过预览大小
+     *
+     * @param previewSize
+     */
+    private void prepareAnalysisImageReader(Size previewSize) {
+        closeAnalysisImageReader();
+        if (!mFrameDispatcher.hasAnalyzers() || mAnalysisSessionFailed) {
+            return;
+        }
+        Size analysisSize = previewSize;
+        StreamConfigurationMap map = mCameraCharacteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        if (map != null) {
+            int best = 0;
+            for (android.util.Size size : map.getOutputSizes(ImageFormat.YUV_420_888)) {
+                int width = size.getWidth();
+                int height = size.getHeight();
+                if (width <= previewSize.getWidth() && height <= previewSize.getHeight()
+                        && width * height > best && mAspectRatio.matches(new Size(width, height))) {
+                    best = width * height;
+                    analysisSize = new Size(width, height);
+                }
+            }
+        }
+        final SharedImageReader analysisReader = new SharedImageReader(ImageReader.newInstance(analysisSize.getWidth(),
+                analysisSize.getHeight(), ImageFormat.YUV_420_888, Math.min(ANALYSIS_MAX_IMAGES_LIMIT,
+                        ANALYSIS_MAX_IMAGES + mFrameDispatcher.getAnalyzerCount() - 1)));
+        analysisReader.reader.setOnImageAvailableListener(new ImageReader.OnImageAvailableListener() {
+            @Override
+            public void onImageAvailable(ImageReader reader) {
+                onFrameAvailable(analysisReader);
+            }
+        }, mFrameHandler);
+        mAnalysisImageReader = analysisReader;
+    }
+
+    /**
+     * 关闭还没开始分析的帧, 正在分析的帧关闭后ImageReader才真正关闭
+     */
+    private void closeAnalysisImageReader() {
+        mFrameDispatcher.clear();
+        if (mAnalysisImageReader != null) {
+            mAnalysisImageReader.close();
+            mAnalysisImageReader = null;
+        }
+    }
+
+    /**
+     * 打开零延时拍照时准备全分辨率YUV_420_888的ImageReader, 根据内存预算决定缓存的帧数
+     */
+    private void prepareZslImageReader() {
+        closeZslImageReader();
+        if (!mZslEnabled || mZslSessionFailed) {
+            return;
+        }
+        if (mCameraInfo.hardwareLevel != CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_3) {
+            //预览, JPEG和全分辨率YUV同时输出只在LEVEL_3上有保证
+            Log.w(TAG, "Zero shutter lag needs hardware level 3, using regular capture");
+            return;
+        }
+        StreamConfigurationMap map = mCameraCharacteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        if (map == null) {
+            return;
+        }
+        Size largest = null;
+        for (android.util.Size size : map.getOutputSizes(ImageFormat.YUV_420_888)) {
+            Size candidate = new Size(size.getWidth(), size.getHeight());
+            if (mAspectRatio.matches(candidate) && (largest == null || candidate.compareTo(largest) > 0)) {
+                largest = candidate;
+            }
+        }
+        if (largest == null) {
+            Log.w(TAG, "No YUV_420_888 size for zero shutter lag: " + mAspectRatio);
+            return;
+        }
+        int capacity = ZeroShutterLag.capacityFor(mZslMemoryBudget, largest.getWidth(), largest.getHeight());
+        //环形缓冲区的帧, 正在编码的一帧, 以及刚从ImageReader取出的一帧
+        final SharedImageReader zslReader = new SharedImageReader(ImageReader.newInstance(largest.getWidth(),
+                largest.getHeight(), ImageFormat.YUV_420_888, capacity + 2));
+        final ZeroShutterLag zsl = new ZeroShutterLag(capacity, zslReader);
+        zslReader.reader.setOnImageAvailableListener(new ImageReader.OnImageAvailableListener() {
+            @Override
+            public void onImageAvailable(ImageReader reader) {
+                onZslImageAvailable(zslReader, zsl);
+            }
+        }, mFrameHandler);
+        mZeroShutterLag = zsl;
+        mZslImageReader = zslReader;
+    }
+
+    /**
+     * 关闭环形缓冲区中的帧, 正在编码的帧编码完后ImageReader才真正关闭
+     */
+    private void closeZslImageReader() {
+        if (mZeroShutterLag != null) {
+            mZeroShutterLag.close();
+            mZeroShutterLag = null;
+        }
+        if (mZslImageReader != null) {
+            mZslImageReader.close();
+            mZslImageReader = null;
+        }
+    }
+
+    /**
+     * 关闭当前的CaptureSession并重新开始预览
+     */
+    private void restartCaptureSession() {
+        if (mCaptureSession == null) {
+            return;
+        }
+        //不显式关闭旧的CaptureSession, 直接创建新的CaptureSession时系统会关闭旧的,
+        //没有变化的输出可以复用, 比先close()再创建快
+        try {
+            mCaptureSession.stopRepeating();
+            mCaptureSession.abortCaptures();
+        } catch (CameraAccessException e) {
+            e.printStackTrace();
+        }
+        mCaptureSession = null;
+        requeueAbortedCapture();
+        startCaptureSession();
+    }
+
+    /**
+     * 重新配置CaptureSession会中止正在进行的拍照.
+     * 还没有提交拍照请求的照片和连拍在新的CaptureSession配置完成后重新开始,
+     * 已经提交的由拍照请求的失败回调处理
+     */
+    private void requeueAbortedCapture() {
+        mPictures.requeueAborted();
+        Burst burst = mBurst;
+        if (burst != null && burst.started && burst.pictures.get(0).getStillCaptureStartNanos() == 0) {
+            burst.started = false;
+        }
+        mPictureCaptureCallback.setState(PictureCaptureCallback.STATE_PREVIEW);
+    }
+
+    /**
+     * CaptureSession已经配置完成, 拍照流程的请求已经生成
+     */
+    private boolean isSessionReady() {
+        return mCaptureSession != null && mLockFocusRequest != null && mUnlockFocusRequest != null;
+    }
+
+    private Size chooseOptimalSize() {
+        //能覆盖预览界面的最小尺寸, 没有时取最大尺寸
+        return mPreviewSizes.chooseOptimalSize(mAspectRatio,
+                mCameraPreview.getWidth(), mCameraPreview.getHeight());
+    }
+
+    protected Camera2(Callback callback, ICameraPreview cameraPreview, Context context) {
+        super(callback, cameraPreview);
+        mCameraManager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+        mCameraInfoCache = CameraInfoCache.getInstance(context);
+        mCameraPreview.setCallback(new ICameraPreview.Callback() {
+            @Override
+            public void onSurfaceChanged() {
+                runOnCameraThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        startCaptureSession();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * 开启摄像头线程, I/O线程和帧线程
+     */
+    private void startBackgroundThreads() {
+        if (mCameraThread != null) {
+            return;
+        }
+        mCameraThread = new HandlerThread("CameraBackground");
+        mCameraThread.start();
+        mIoThread = new HandlerThread("CameraIO");
+        mIoThread.start();
+        mIoHandler = new Handler(mIoThread.getLooper());
+        mFrameThread = new HandlerThread("CameraFrames");
+        mFrameThread.start();
+        mFrameHandler = new Handler(mFrameThread.getLooper());
+        mCameraHandler = new Handler(mCameraThread.getLooper());
+    }
+
+    /**
+     * 退出摄像头线程, I/O线程和帧线程, 已经提交的任务会先执行完
+     */
+    private void stopBackgroundThreads() {
+        if (mCameraThread == null) {
+            return;
+        }
+        mCameraHandler = null;
+        mCameraThread.quitSafely();
+        mCameraThread = null;
+        mIoThread.quitSafely();
+        mIoThread = null;
+        mIoHandler = null;
+        mFrameThread.quitSafely();
+        mFrameThread = null;
+        mFrameHandler = null;
+    }
+
+    /**
+     * 在摄像头线程中执行, 如果摄像头线程还没有开启则直接执行
+     *
+     * @param runnable
+     */
+    private void runOnCameraThread(Runnable runnable) {
+        Handler handler = mCameraHandler;
+        if (handler == null || handler.getLooper() == Looper.myLooper()) {
+            runnable.run();
+        } else {
+            handler.post(runnable);
+        }
+    }
+
+    /**
+     * 在摄像头线程中执行并等待返回结果
+     *
+     * @param callable
+     * @param <T>
+     * @return
+     */
+    private <T> T callOnCameraThread(Callable<T> callable) {
+        Handler handler = mCameraHandler;
+        try {
+            if (handler == null || handler.getLooper() == Looper.myLooper()) {
+                return callable.call();
+            }
+            FutureTask<T> task = new FutureTask<T>(callable);
+            if (!handler.post(task)) {
+                throw new IllegalStateException("Camera thread is not running");
+            }
+            return task.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for camera thread", e);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public boolean start() {
+        return start(null);
+    }
+
+    @Override
+    public boolean start(final StartupCallback callback) {
+        final StartupTrace trace = new StartupTrace();
+        startBackgroundThreads();
+        return callOnCameraThread(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                mStartupTrace = trace;
+                mStartupCallback = callback;
+                return startOnCameraThread();
+            }
+        });
+    }
+
+    /**
+     * 在摄像头线程中打开摄像头.
+     * 选择摄像头后立即调用openCamera(), 在等待onOpened()的同时收集摄像头信息和准备ImageReader
+     *
+     * @return
+     */
+    private boolean startOnCameraThread() {
+        //选择摄像头
+        if (mStartupTrace != null) {
+            mStartupTrace.begin(StartupTrace.PHASE_CHOOSE_CAMERA);
+        }
+        if (!chooseCameraIdByFacing()) {
+            mStartupTrace = null;
+            mStartupCallback = null;
+            return false;
+        }
+        if (mStartupTrace != null) {
+            mStartupTrace.end(StartupTrace.PHASE_CHOOSE_CAMERA);
+        }
+        //先提交准备任务再打开摄像头, 保证onOpened()回调时ImageReader已经准备好
+        mPreparing = true;
+        mCameraHandler.post(mPrepareTask);
+        //开启摄像头
+        startOpeningCamera();
+        return true;
+    }
+
+    private final Runnable mPrepareTask = new Runnable() {
+        @Override
+        public void run() {
+            StartupTrace trace = mStartupTrace;
+            //收集摄像头信息
+            if (trace != null) {
+                trace.begin(StartupTrace.PHASE_COLLECT_INFO);
+            }
+            try {
+                collectCameraInfo();
+            } finally {
+                //比例已经发布, 不再需要等待
+                mPreparing = false;
+            }
+            if (trace != null) {
+                trace.end(StartupTrace.PHASE_COLLECT_INFO);
+                trace.begin(StartupTrace.PHASE_PREPARE_IMAGE_READER);
+            }
+            //准备ImageReader
+            prepareImageReader();
+            if (trace != null) {
+                trace.end(StartupTrace.PHASE_PREPARE_IMAGE_READER);
+            }
+        }
+    };
+
+    /**
+     * 第一帧预览完成, 回调启动耗时
+     */
+    private void finishStartup() {
+        final StartupTrace trace = mStartupTrace;
+        final StartupCallback callback = mStartupCallback;
+        mStartupTrace = null;
+        mStartupCallback = null;
+        trace.finish();
+        Log.d(TAG, trace.toString());
+        if (callback != null) {
+            getCallbackExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onFirstFrame(trace);
+                }
+            });
+        }
+    }
+
+    /**
+     * 1.打开摄像头, 在CameraDevice.StateCallback回调中获取到CameraDevice对象, 并调用预览
+     */
+    @SuppressLint("MissingPermission")
+    private void startOpeningCamera() {
+        if (mStartupTrace != null) {
+            mStartupTrace.begin(StartupTrace.PHASE_OPEN_CAMERA);
+        }
+        try {
+            mCameraManager.openCamera(mCameraId, mCameraDeviceCallback, mCameraHandler);
+        } catch (CameraAccessException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 3.准备ImageReader
+     */
+    private void prepareImageReader() {
+        //获取支持该比例的最大宽高
+        Size largest = mPictureSizes.largest(mAspectRatio);
+        if (mPictureReader != null) {
+            ImageReader reader = mPictureReader.reader;
+            if (reader.getWidth() == largest.getWidth() && reader.getHeight() == largest.getHeight()
+                    && reader.getMaxImages() == mPictureMaxImages) {
+                //大小没有变化, 继续使用原来的ImageReader, CaptureSession可以复用该输出
+                return;
+            }
+            //交出的图片还没有释放时延迟到最后一张释放后关闭
+            mPictureReader.close();
+        }
+        //获取ImageReader
+        final SharedImageReader pictureReader = new SharedImageReader(ImageReader.newInstance(largest.getWidth(),
+                largest.getHeight(), ImageFormat.JPEG, mPictureMaxImages));
+        //注册当ImageReader获取到新图像时的监听
+        pictureReader.reader.setOnImageAvailableListener(new ImageReader.OnImageAvailableListener() {
+            @Override
+            public void onImageAvailable(ImageReader reader) {
+                onPictureAvailable(pictureReader);
+            }
+        }, mIoHandler);
+        mPictureReader = pictureReader;
+    }
+
+    /**
+     * 2. 手机摄像头相关信息, 预览大小和图片大小都来自{@link CameraInfoCache}
+     */
+    private void collectCameraInfo() {
+        collectCameraInfo(mCameraInfo, mPreviewSizes, mPictureSizes);
+        mSupportedRatios = mPreviewSizes.ratios();
+
+        //如果预览的比例不支持当前设置的比例, 自动获取支持比例中的第一个
+        if (!mSupportedRatios.contains(mAspectRatio)) {
+            mAspectRatio = mSupportedRatios.iterator().next();
+        }
+    }
+
+    /**
+     * 收集指定摄像头的预览大小和图片大小
+     *
+     * @param info
+     * @param previewSizes
+     * @param pictureSizes
+     */
+    private void collectCameraInfo(CameraInfoCache.CameraInfo info, SizeMap previewSizes, SizeMap pictureSizes) {
+        previewSizes.clear();
+        for (Size size : info.getPreviewSizes(mCameraPreview.getOutputClass())) {
+            previewSizes.add(size);
+        }
+
+        pictureSizes.clear();
+        //手机图片的信息
+        collectPictureSizes(pictureSizes, info);
+
+        //保证图片比例和预览的比例一致
+        previewSizes.retainRatios(pictureSizes);
+        if (previewSizes.isEmpty()) {
+            throw new IllegalStateException("No preview size matches a picture size: " + info.id);
+        }
+    }
+
+    /**
+     * 2.1. 手机图片的信息
+     *
+     * @param pictureSizes
+     * @param info
+     */
+    private void collectPictureSizes(SizeMap pictureSizes, CameraInfoCache.CameraInfo info) {
+        for (Size size : info.getPictureSizes()) {
+            pictureSizes.add(size);
+        }
+    }
+
+    /**
+     * 1.通过Facing选择CameraId, 并获得CameraCharacteristics摄像头特性对象,
+     * 获取到摄像头ID, 获取到摄像头的类型mFacing:前置,后置,外置.
+     * 摄像头列表和特性都从{@link CameraInfoCache}获取, 只有第一次会枚举所有摄像头
+     *
+     * @return
+     */
+    private boolean chooseCameraIdByFacing() {
+        int internalFacing = INTERNAL_FACINGS.get(mFacing);
+        try {
+            List<CameraInfoCache.CameraInfo> infos = mCameraInfoCache.getCameraInfos();
+            if (infos.isEmpty()) {
+                throw new RuntimeException("No camera available");
+            }
+            for (CameraInfoCache.CameraInfo info : infos) {
+                //CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_LEGACY: 向后兼容模式
+                if (info.hardwareLevel == -1 || info.hardwareLevel == CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_LEGACY) {
+                    continue;
+                }
+
+                //CameraCharacteristics.LENS_FACING: 相对于屏幕的摄像头
+                if (info.lensFacing == -1) {
+                    throw new NullPointerException("Unexpected state: LENS_FACING null");
+                }
+
+                if (info.lensFacing == internalFacing) {
+                    selectCamera(info);
+                    return true;
+                }
+            }
+
+            // 没有找到设定的摄像头, 直接获取第一个摄像头ID
+            CameraInfoCache.CameraInfo first = infos.get(0);
+            if (first.hardwareLevel == -1 || first.hardwareLevel == CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_LEGACY) {
+                return false;
+            }
+            if (first.lensFacing == -1) {
+                throw new NullPointerException("Unexpected state: LENS_FACING null");
+            }
+            selectCamera(first);
+
+            //设置mFacing, 通过获取到摄像头
+            for (int i = 0, count = INTERNAL_FACINGS.size(); i < count; i++) {
+                if (INTERNAL_FACINGS.valueAt(i) == first.lensFacing) {
+                    mFacing = INTERNAL_FACINGS.keyAt(i);
+                    return true;
+                }
+            }
+
+            mFacing = Constants.FACING_BACK;
+            return true;
+        } catch (CameraAccessException e) {
+            e.printStackTrace();
+            throw new RuntimeException("Failed to get a list of camera devices", e);
+        }
+    }
+
+    /**
+     * 选中摄像头, 只获取该摄像头的CameraCharacteristics
+     *
+     * @param info
+     * @throws CameraAccessException
+     */
+    private void selectCamera(CameraInfoCache.CameraInfo info) throws CameraAccessException {
+        mCameraId = info.id;
+        mCameraInfo = info;
+        mCameraCharacteristics = mCameraInfoCache.getCharacteristics(info.id);
+    }
+
+    @Override
+    public void stop() {
+        if (mCameraHandler == null) {
+            return;
+        }
+        //等摄像头在摄像头线程中关闭后再退出线程, 保证返回时摄像头已经释放
+        callOnCameraThread(new Callable<Void>() {
+            @Override
+            public Void call() {
+                closeCamera();
+                return null;
+            }
+        });
+        stopBackgroundThreads();
+    }
+
+    /**
+     * 在摄像头线程中关闭摄像头
+     */
+    private void closeCamera() {
+        //启动未完成时关闭, 不再回调
+        mStartupTrace = null;
+        mStartupCallback = null;
+        if (mCameraHandler != null) {
+            mCameraHandler.removeCallbacks(mRepeatingUpdateTask);
+        }
+        mRepeatingUpdatePending = false;
+        mLastFrameTimestamp = 0;
+        mPreviewFrameRate = 0;
+        mHighSpeedSession = false;
+        mFpsRange = null;
+        clearPreparedRequests();
+        mPictures.clearQueued();
+        mBurst = null;
+        mPictureMaxImages = PICTURE_MAX_IMAGES;
+        mZslSessionFailed = false;
+        mAnalysisSessionFailed = false;
+        mPictureCaptureCallback.setState(PictureCaptureCallback.STATE_PREVIEW);
+        if (mCaptureSession != null) {
+            mCaptureSession.close();
+            mCaptureSession = null;
+        }
+        if (mVideoRecorder != null) {
+            //关闭摄像头时结束录像, 文件仍然可用
+            mVideoRecorder.stop();
+            mVideoRecorder = null;
+            mRecordingCallback = null;
+        }
+        mSessionRecorderSurface = null;
+        stopRetiredRecorder();
+
+        if (mCamera != null) {
+            mCamera.close();
+            mCamera = null;
+            dispatchCameraClosed();//回调摄像头关闭
+        }
+
+        if (mPictureReader != null) {
+            mPictureReader.close();
+            mPictureReader = null;
+        }
+
+        closeAnalysisImageReader();
+        closeZslImageReader();
+        failPendingPictures();
+    }
+
+    /**
+     * 摄像头关闭时, 还没有拿到图片的写文件请求回调失败
+     */
+    private void failPendingPictures() {
+        PendingPicture pending;
+        while ((pending = mPictures.pollImage()) != null) {
+            failPicture(pending, new IOException("Camera closed before the picture was taken"));
+        }
+    }
+
+    @Override
+    public boolean isCameraOpened() {
+        return mCamera != null;
+    }
+
+    @Override
+    public void setFacing(int facing) {
+        if (mFacing == facing) {
+            return;
+        }
+        final int previousFacing = mFacing;
+        mFacing = facing;
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                if (isCameraOpened()) {
+                    //关闭摄像头,然后重新打开, 用于切换摄像头
+                    PrewarmedCamera prewarmed = mPrewarmedCamera;
+                    closeCamera();
+                    if (prewarmed != null && prewarmed.facing == mFacing) {
+                        //已经预热过, 只需要打开摄像头
+                        switchToPrewarmedCamera(prewarmed, previousFacing);
+                        prepareImageReader();
+                        startOpeningCamera();
+                    } else {
+                        startOnCameraThread();
+                    }
+                }
+            }
+        });
+    }
+
+    @Override
+    public void setPrewarmEnabled(boolean enabled) {
+        mPrewarmEnabled = enabled;
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                if (!mPrewarmEnabled) {
+                    mPrewarmedCamera = null;
+                } else if (isCameraOpened()) {
+                    prewarmOtherFacing();
+                }
+            }
+        });
+    }
+
+    private final Runnable mPrewarmTask = new Runnable() {
+        @Override
+        public void run() {
+            prewarmOtherFacing();
+        }
+    };
+
+    /**
+     * 预热另一个摄像头: 选择摄像头ID, 获取摄像头特性, 收集并校验预览大小和图片大小
+     */
+    private void prewarmOtherFacing() {
+        if (!mPrewarmEnabled || !isCameraOpened()) {
+            return;
+        }
+        int otherFacing = mFacing == Constants.FACING_BACK ? Constants.FACING_FRONT : Constants.FACING_BACK;
+        if (mPrewarmedCamera != null && mPrewarmedCamera.facing == otherFacing) {
+            return;
+        }
+        mPrewarmedCamera = null;
+        int internalFacing = INTERNAL_FACINGS.get(otherFacing);
+        try {
+            for (CameraInfoCache.CameraInfo info : mCameraInfoCache.getCameraInfos()) {
+                if (info.hardwareLevel == -1 || info.hardwareLevel == CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_LEGACY
+                        || info.lensFacing != internalFacing) {
+                    continue;
+                }
+                PrewarmedCamera prewarmed = new PrewarmedCamera(otherFacing, info,
+                        mCameraInfoCache.getCharacteristics(info.id), new SizeMap(), new SizeMap());
+                collectCameraInfo(info, prewarmed.previewSizes, prewarmed.pictureSizes);
+                mPrewarmedCamera = prewarmed;
+                return;
+            }
+        } catch (CameraAccessException | RuntimeException e) {
+            Log.w(TAG, "Failed to prewarm camera", e);
+        }
+    }
+
+    /**
+     * 切换到预热过的摄像头, 当前摄像头的信息保留为新的预热摄像头
+     *
+     * @param prewarmed
+     * @param previousFacing
+     */
+    private void switchToPrewarmedCamera(PrewarmedCamera prewarmed, int previousFacing) {
+        mPrewarmedCamera = new PrewarmedCamera(previousFacing, mCameraInfo, mCameraCharacteristics,
+                mPreviewSizes, mPictureSizes);
+        mCameraId = prewarmed.info.id;
+        mCameraInfo = prewarmed.info;
+        mCameraCharacteristics = prewarmed.characteristics;
+        mPictureSizes = prewarmed.pictureSizes;
+        mPreviewSizes = prewarmed.previewSizes;
+        mSupportedRatios = mPreviewSizes.ratios();
+        if (!mSupportedRatios.contains(mAspectRatio)) {
+            mAspectRatio = mSupportedRatios.iterator().next();
+        }
+    }
+
+    @Override
+    public int getFacing() {
+        return mFacing;
+    }
+
+    @Override
+    public Set<AspectRatio> getSupportedAspectRatios() {
+        if (mPreparing) {
+            //start()返回时摄像头信息可能还在收集, 排在mPrepareTask之后读取
+            return callOnCameraThread(new Callable<Set<AspectRatio>>() {
+                @Override
+                public Set<AspectRatio> call() {
+                    return mSupportedRatios;
+                }
+            });
+        }
+        return mSupportedRatios;
+    }
+
+    @Override
+    public boolean setAspectRation(final AspectRatio ratio) {
+        return callOnCameraThread(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return setAspectRatioOnCameraThread(ratio);
+            }
+        });
+    }
+
+    private boolean setAspectRatioOnCameraThread(AspectRatio ratio) {
+        if (ratio == null || ratio.equals(mAspectRatio) ||
+                !mPreviewSizes.ratios().contains(ratio)) {
+            //TODO : Better error handling
             return false;
         }
-        //收集摄像头信息
-        collectCameraInfo();
-        //准备ImageReader
-        prepareImageReader();
-        //开启摄像头
-        startOpeningCamera();
+        //设置比例, 只重新配置CaptureSession的输出, 不关闭摄像头
+        mAspectRatio = ratio;
+        //重新开始预览
+        restartCaptureSession();
         return true;
     }
 
+    @Override
+    public AspectRatio getAspectRation() {
+        return mAspectRatio;
+    }
+
+    @Override
+    public SettingsEditor edit() {
+        return new Editor();
+    }
+
+    @Override
+    public void setAutoFocus(boolean autoFocus) {
+        edit().autoFocus(autoFocus).apply();
+    }
+
+    @Override
+    public boolean getAutoFocus() {
+        return mAutoFocus;
+    }
+
+    @Override
+    public void setFlash(int flash) {
+        edit().flash(flash).apply();
+    }
+
     /**
-     * 1.打开摄像头, 在CameraDevice.StateCallback回调中获取到CameraDevice对象, 并调用预览
+     * 安排一次重复请求的更新, 距离上一次提交不足一帧时延后到下一帧.
+     * 只在摄像头线程中调用
      */
-    @SuppressLint("MissingPermission")
-    private void startOpeningCamera() {
+    private void scheduleRepeatingRequest() {
+        if (mRepeatingUpdatePending || mCameraHandler == null) {
+            //同一帧内的修改合并到已经安排的更新中
+            return;
+        }
+        mRepeatingUpdatePending = true;
+        long delayNanos = mLastRepeatingRequestNanos + mFrameIntervalNanos - System.nanoTime();
+        //总是post, 让已经排队的其它修改先执行
+        mCameraHandler.postDelayed(mRepeatingUpdateTask,
+                delayNanos <= 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(delayNanos + 999999));
+    }
+
+    private final Runnable mRepeatingUpdateTask = new Runnable() {
+        @Override
+        public void run() {
+            mRepeatingUpdatePending = false;
+            submitRepeatingRequest();
+        }
+    };
+
+    /**
+     * 用最新的参数提交重复请求, 参数没有变化时不提交
+     */
+    private void submitRepeatingRequest() {
+        if (mPreviewRequestBuilder == null || mCaptureSession == null) {
+            //CaptureSession配置完成时会使用最新的参数
+            return;
+        }
+        if (isCaptureInFlight()) {
+            //拍照和连拍过程中不能恢复预览, unlockFocus()时会使用最新的参数
+            return;
+        }
+        boolean fpsPolicyChanged = mFpsPolicy != mAppliedFpsPolicy;
+        if (mFlash == mAppliedFlash && mAutoFocus == mAppliedAutoFocus && !fpsPolicyChanged) {
+            return;
+        }
+        updateAutoFocus();
+        updateFlash();
+        updateFpsPolicy();
         try {
-            mCameraManager.openCamera(mCameraId, mCameraDeviceCallback, null);
+            setRepeatingPreview();
+            onRepeatingRequestSubmitted();
         } catch (CameraAccessException e) {
             e.printStackTrace();
+            //回滚到当前生效的参数
+            mFlash = mAppliedFlash;
+            mAutoFocus = mAppliedAutoFocus;
+            updateAutoFocus();
+            updateFlash();
+            if (fpsPolicyChanged && !mHighSpeedSession) {
+                mFpsPolicy = mAppliedFpsPolicy;
+                applyFpsPolicy();
+                mStillCaptureRequests.clear();
+            }
+        }
+    }
+
+    /**
+     * 帧率策略变化时更新预览请求的帧率范围, 缓存的拍照请求随之失效.
+     * 高速会话的帧率由会话决定, 重新配置普通会话时使用新的策略
+     */
+    private void updateFpsPolicy() {
+        if (mHighSpeedSession || mFpsPolicy == mAppliedFpsPolicy) {
+            return;
+        }
+        applyFpsPolicy();
+        mStillCaptureRequests.clear();
+    }
+
+    /**
+     * 记录重复请求中生效的参数
+     */
+    private void onRepeatingRequestSubmitted() {
+        mLastRepeatingRequestNanos = System.nanoTime();
+        if (!mHighSpeedSession && (mLockFocusRequest == null || mFlash != mAppliedFlash
+                || mAutoFocus != mAppliedAutoFocus || mFpsPolicy != mAppliedFpsPolicy)) {
+            //参数变化后预先生成拍照流程的请求, 按下快门时不再创建请求
+            prepareTriggerRequests();
+            try {
+                getStillCaptureRequest();
+            } catch (CameraAccessException e) {
+                e.printStackTrace();
+            }
+        }
+        mAppliedFlash = mFlash;
+        mAppliedAutoFocus = mAutoFocus;
+        mAppliedFpsPolicy = mFpsPolicy;
+    }
+
+    @Override
+    public int getFlash() {
+        return mFlash;
+    }
+
+    @Override
+    public void takePicture() {
+        takePicture(new PendingPicture(null, null));
+    }
+
+    @Override
+    public void takePicture(File file, PictureFileCallback callback) {
+        if (file == null || callback == null) {
+            throw new NullPointerException("file == null || callback == null");
         }
+        takePicture(new PendingPicture(file, callback));
+    }
+
+    @Override
+    public void takePictureBurst(int count) {
+        takePictureBurst(count, null);
+    }
+
+    @Override
+    public void takePictureBurst(final int count, final BurstCallback callback) {
+        if (count <= 0) {
+            throw new IllegalArgumentException("count must be positive: " + count);
+        }
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                if (!isSessionReady() || mHighSpeedSession || mVideoRecorder != null || isCaptureInFlight()) {
+                    Log.w(TAG, "Camera is not ready for burst capture");
+                    return;
+                }
+                Burst burst = new Burst(count, callback);
+                mPictures.addAll(burst.pictures);
+                mBurst = burst;
+                int maxImages = Math.min(count, BURST_MAX_IMAGES);
+                if (maxImages > mPictureMaxImages) {
+                    //ImageReader的队列不够连拍使用, 扩容后在onConfigured中继续
+                    mPictureMaxImages = maxImages;
+                    restartCaptureSession();
+                } else {
+                    startBurst();
+                }
+            }
+        });
+    }
+
+    /**
+     * 开始连拍, 只锁定一次对焦和曝光
+     */
+    private void startBurst() {
+        mBurst.started = true;
+        if (mAutoFocus) {
+            lockFocus();
+        } else {
+            captureStillBurst();
+        }
+    }
+
+    private void takePicture(final PendingPicture pending) {
+        //按下快门的时刻, 和REALTIME时间源的传感器时间戳可以直接比较
+        final long shutterTime = SystemClock.elapsedRealtimeNanos();
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                if (!isCameraOpened()) {
+                    rejectPicture(pending, "Camera is not opened");
+                    return;
+                }
+                if (mHighSpeedSession) {
+                    //高速会话没有拍照的输出
+                    rejectPicture(pending, "Still capture is not available in a high speed session");
+                    return;
+                }
+                if (mVideoRecorder != null) {
+                    //拍照会停止重复请求, 录像中断
+                    rejectPicture(pending, "Still capture is not available while recording");
+                    return;
+                }
+                if (takeZslPicture(pending, shutterTime)) {
+                    return;
+                }
+                if (isCaptureInFlight() || !isSessionReady()) {
+                    //上一次拍照还没有结束, 排队等待unlockFocus(); CaptureSession正在配置, 排队等待onConfigured
+                    if (!mPictures.enqueue(pending)) {
+                        rejectPicture(pending, "Too many pictures in flight");
+                    }
+                    return;
+                }
+                mPictures.add(pending);
+                startStillCapture(pending);
+            }
+        });
+    }
+
+    /**
+     * 是否正在拍照或连拍, 只在摄像头线程中调用
+     */
+    private boolean isCaptureInFlight() {
+        return mBurst != null || mPictureCaptureCallback.getState() != PictureCaptureCallback.STATE_PREVIEW;
+    }
+
+    /**
+     * 开始一次单张拍照的流程
+     *
+     * @param pending
+     */
+    private void startStillCapture(PendingPicture pending) {
+        if (!isSessionReady()) {
+            //CaptureSession正在重新配置, 在onConfigured中继续
+            mPictures.requeue(pending);
+            return;
+        }
+        mPictures.startCapture(pending);
+        if (mAutoFocus) {
+            lockFocus();
+        } else {
+            //不需要对焦时直接拍照, 状态用于判断是否正在拍照
+            mPictureCaptureCallback.setState(PictureCaptureCallback.STATE_CAPTURING);
+            captureStillPicture();
+        }
+    }
+
+    /**
+     * 排队的照片都回调失败
+     *
+     * @param reason
+     */
+    private void rejectQueuedPictures(String reason) {
+        PendingPicture pending;
+        while ((pending = mPictures.pollRejected()) != null) {
+            rejectPicture(pending, reason);
+        }
+    }
+
+    private void rejectPicture(PendingPicture pending, String reason) {
+        Log.w(TAG, reason + ", rejecting takePicture()");
+        failPicture(pending, new IOException(reason));
+    }
+
+    /**
+     * 写文件的拍照请求回调失败, 回调图片数据的请求没有失败回调
+     *
+     * @param pending
+     * @param e
+     */
+    private void failPicture(final PendingPicture pending, final IOException e) {
+        if (pending.mFile == null) {
+            return;
+        }
+        getCallbackExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                pending.mCallback.onPictureSaveFailed(pending.mFile, e);
+            }
+        });
+    }
+
+    @Override
+    public Set<FpsRange> getSupportedFpsRanges() {
+        Set<FpsRange> ranges = new LinkedHashSet<FpsRange>();
+        CameraCharacteristics characteristics = mCameraCharacteristics;
+        if (characteristics == null) {
+            return ranges;
+        }
+        Range<Integer>[] available = characteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
+        if (available != null) {
+            for (Range<Integer> range : available) {
+                ranges.add(new FpsRange(range.getLower(), range.getUpper()));
+            }
+        }
+        return ranges;
+    }
+
+    @Override
+    public Set<FpsRange> getSupportedHighSpeedFpsRanges() {
+        Set<FpsRange> ranges = new LinkedHashSet<FpsRange>();
+        CameraCharacteristics characteristics = mCameraCharacteristics;
+        if (characteristics == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            return ranges;
+        }
+        int[] capabilities = characteristics.get(CameraCharacteristics.REQUEST_AVAILABLE_CAPABILITIES);
+        boolean supported = false;
+        if (capabilities != null) {
+            for (int capability : capabilities) {
+                if (capability == CameraCharacteristics.REQUEST_AVAILABLE_CAPABILITIES_CONSTRAINED_HIGH_SPEED_VIDEO) {
+                    supported = true;
+                    break;
+                }
+            }
+        }
+        StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        if (!supported || map == null) {
+            return ranges;
+        }
+        for (Range<Integer> range : map.getHighSpeedVideoFpsRanges()) {
+            ranges.add(new FpsRange(range.getLower(), range.getUpper()));
+        }
+        return ranges;
+    }
+
+    @Override
+    public void setFpsPolicy(final int policy) {
+        if (mFpsPolicy == policy) {
+            return;
+        }
+        mFpsPolicy = policy;
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                //和闪光模式一样合并到重复请求的更新中, 拍照过程中延后到unlockFocus(),
+                //配置CaptureSession时会使用新的策略
+                scheduleRepeatingRequest();
+            }
+        });
+    }
+
+    @Override
+    public int getFpsPolicy() {
+        return mFpsPolicy;
+    }
+
+    @Override
+    public void setHighSpeedFps(int fps) {
+        if (fps < 0) {
+            throw new IllegalArgumentException("fps must not be negative: " + fps);
+        }
+        if (mHighSpeedFps == fps) {
+            return;
+        }
+        mHighSpeedFps = fps;
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                //切换普通会话和高速会话需要重新配置
+                restartCaptureSession();
+            }
+        });
+    }
+
+    @Override
+    public FpsRange getFpsRange() {
+        return mFpsRange;
+    }
+
+    @Override
+    public float getPreviewFrameRate() {
+        return mPreviewFrameRate;
+    }
+
+    @Override
+    public void startRecording(File file) {
+        startRecording(file, null);
+    }
+
+    @Override
+    public void startRecording(final File file, final RecordingCallback callback) {
+        if (file == null) {
+            throw new NullPointerException("file == null");
+        }
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                if (mVideoRecorder != null || !isCameraOpened() || mHighSpeedSession) {
+                    failRecording(file, callback, new IOException("Camera is not ready for recording"));
+                    return;
+                }
+                Size size = chooseVideoSize();
+                int bitRate = (int) (size.getWidth() * size.getHeight() * VIDEO_FRAME_RATE * VIDEO_BITS_PER_PIXEL);
+                try {
+                    mVideoRecorder = new VideoRecorder(file, size.getWidth(), size.getHeight(), VIDEO_FRAME_RATE,
+                            bitRate, getJpegOrientation(), createRecorderCallback(callback));
+                } catch (IOException e) {
+                    failRecording(file, callback, e);
+                    return;
+                }
+                mRecordingCallback = callback;
+                //加入编码器的Surface需要重新配置CaptureSession, 在onConfigured中通知开始.
+                //正在配置时在onConfigured中重新配置
+                restartCaptureSession();
+            }
+        });
+    }
+
+    @Override
+    public void stopRecording() {
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                VideoRecorder recorder = mVideoRecorder;
+                if (recorder == null) {
+                    return;
+                }
+                mVideoRecorder = null;
+                mRecordingCallback = null;
+                if (mSessionRecorderSurface != recorder.getInputSurface()) {
+                    //编码器的Surface不在任何CaptureSession中
+                    recorder.stop();
+                    return;
+                }
+                //先停止向编码器输出, 不包含它的CaptureSession配置完成后再结束编码.
+                //正在配置时在onConfigured中重新配置
+                mRetiredRecorder = recorder;
+                restartCaptureSession();
+            }
+        });
+    }
+
+    private Surface getRecorderSurface() {
+        VideoRecorder recorder = mVideoRecorder;
+        return recorder == null ? null : recorder.getInputSurface();
     }
 
     /**
-     * 3.准备ImageReader
+     * 结束已经不在CaptureSession中的录像
      */
-    private void prepareImageReader() {
-        if (mImageReader != null) {
-            mImageReader.close();
+    private void stopRetiredRecorder() {
+        if (mRetiredRecorder != null) {
+            mRetiredRecorder.stop();
+            mRetiredRecorder = null;
         }
-        //获取支持该比例的最大宽高
-        Size largest = mPictureSizes.sizes(mAspectRatio).last();
-        //获取ImageReader
-        mImageReader = ImageReader.newInstance(largest.getWidth(), largest.getHeight(), ImageFormat.JPEG, 2);
-        //注册当ImageReader获取到新图像时的监听
-        mImageReader.setOnImageAvailableListener(mOnImageAvailableListener, null);
+    }
+
+    @Override
+    public boolean isRecording() {
+        return mVideoRecorder != null;
     }
 
     /**
-     * 2. 手机摄像头相关信息
+     * 编码器支持的当前比例的最大尺寸, 不超过1920x1080
+     *
+     * @return
      */
-    private void collectCameraInfo() {
-        //CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP:
-        //Format;Size;Hardware Level;Notes
-        // 该相机设备支持的可用流配置Format;还包括最小帧持续时间和每个格式/大小组合的延迟时间。
+    private Size chooseVideoSize() {
+        Size best = null;
         StreamConfigurationMap map = mCameraCharacteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
-        if (map == null) {
-            throw new IllegalStateException("Failed to get configuration map:" + mCameraId);
-        }
-
-        mPreviewSizes.clear();
-        for (android.util.Size size : map.getOutputSizes(mCameraPreview.getOutputClass())) {
-            int width = size.getWidth();
-            int height = size.getHeight();
-            if (width <= MAX_PREVIEW_WIDTH && height <= MAX_PREVIEW_HEIGHT) {
-                mPreviewSizes.add(new Size(width, height));
+        if (map != null) {
+            for (android.util.Size size : map.getOutputSizes(MediaCodec.class)) {
+                Size candidate = new Size(size.getWidth(), size.getHeight());
+                if (size.getWidth() <= 1920 && size.getHeight() <= 1080 && mAspectRatio.matches(candidate)
+                        && (best == null || candidate.compareTo(best) > 0)) {
+                    best = candidate;
+                }
             }
+        }
+        return best != null ? best : chooseOptimalSize();
+    }
 
-            mPictureSizes.clear();
-            //手机图片的信息
-            collectPictureSizes(mPictureSizes, map);
-
-            //保证图片比例和预览的比例一致
-            for (AspectRatio ratio : mPreviewSizes.ratios()) {
-                if (!mPictureSizes.ratios().contains(ratio)) {
-                    mPreviewSizes.remove(ratio);
+    private VideoRecorder.Callback createRecorderCallback(final RecordingCallback callback) {
+        return new VideoRecorder.Callback() {
+            @Override
+            public void onFinished(VideoRecorder recorder, final RecordingStats stats) {
+                if (callback == null) {
+                    return;
                 }
+                final File file = recorder.getFile();
+                getCallbackExecutor().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onRecordingStopped(file, stats);
+                    }
+                });
             }
 
-            //如果预览的比例不支持当前设置的比例, 自动获取支持比例中的第一个
-            if (!mPreviewSizes.ratios().contains(mAspectRatio)) {
-                mAspectRatio = mPreviewSizes.ratios().iterator().next();
+            @Override
+            public void onFailed(VideoRecorder recorder, IOException e) {
+                failRecording(recorder.getFile(), callback, e);
             }
+        };
+    }
+
+    private void failRecording(final File file, final RecordingCallback callback, final IOException e) {
+        Log.e(TAG, "Recording failed: " + file, e);
+        if (callback == null) {
+            return;
         }
+        getCallbackExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                callback.onRecordingFailed(file, e);
+            }
+        });
+    }
 
+    @Override
+    public void setCaptureTimeouts(final long focusTimeoutNanos, final long exposureTimeoutNanos) {
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                mPictureCaptureCallback.setDeadline(PictureCaptureCallback.STATE_LOCKING, focusTimeoutNanos);
+                mPictureCaptureCallback.setDeadline(PictureCaptureCallback.STATE_PRECAPTURE, exposureTimeoutNanos);
+                mPictureCaptureCallback.setDeadline(PictureCaptureCallback.STATE_WAITING, exposureTimeoutNanos);
+            }
+        });
     }
 
-    /**
-     * 2.1. 手机图片的信息
-     *
-     * @param pictureSizes
-     * @param map
-     */
-    private void collectPictureSizes(SizeMap pictureSizes, StreamConfigurationMap map) {
-        for (android.util.Size size : map.getOutputSizes(ImageFormat.JPEG)) {
-            mPictureSizes.add(new Size(size.getWidth(), size.getHeight()));
-        }
+    @Override
+    public void setCaptureTimeoutListener(CaptureTimeoutListener listener) {
+        mCaptureTimeoutListener = listener;
     }
 
     /**
-     * 1.通过Facing选择CameraId, 并获得CameraCharacteristics摄像头特性对象,
-     * 获取到摄像头ID, 获取到摄像头的类型mFacing:前置,后置,外置
+     * 零延时拍照: 从环形缓冲区取出最接近按下快门时刻的一帧, 在后台编码
      *
-     * @return
+     * @param pending
+     * @param shutterTime
+     * @return 缓冲区中没有可用的帧时返回false, 需要走普通拍照流程
      */
-    private boolean chooseCameraIdByFacing() {
-        int internalFacing = INTERNAL_FACINGS.get(mFacing);
-        try {
-            String[] ids = mCameraManager.getCameraIdList();
-            if (ids.length == 0) {
-                throw new RuntimeException("No camera available");
+    private boolean takeZslPicture(final PendingPicture pending, long shutterTime) {
+        if (mZeroShutterLag == null) {
+            return false;
+        }
+        long timestamp = -1;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            Integer source = mCameraCharacteristics.get(CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE);
+            if (source != null && source == CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE_REALTIME) {
+                timestamp = shutterTime;
             }
-            for (String id : ids) {
-                //通过摄像头的ID获取对应摄像头的特性
-                CameraCharacteristics characteristics = mCameraManager.getCameraCharacteristics(id);
-                Integer level = characteristics.get(CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL);
-                //CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_LEGACY: 向后兼容模式
-                if (level == null || level == CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_LEGACY) {
-                    continue;
-                }
-
-                //CameraCharacteristics.LENS_FACING: 相对于屏幕的摄像头
-                Integer internal = characteristics.get(CameraCharacteristics.LENS_FACING);
-                if (internal == null) {
-                    throw new NullPointerException("Unexpected state: LENS_FACING null");
-                }
-
-                if (internal == internalFacing) {
-                    mCameraId = id;
-                    mCameraCharacteristics = characteristics;
-                    return true;
+        }
+        //时间戳无法和系统时间比较时取最新的一帧
+        Image image = mZeroShutterLag.take(timestamp);
+        if (image == null) {
+            return false;
+        }
+        mZeroShutterLag.encode(image, getJpegOrientation(), getJpegQuality(), new ZeroShutterLag.EncodeCallback() {
+            @Override
+            public void onEncoded(byte[] jpeg) {
+                PictureBuffer picture = new PictureBuffer(ByteBuffer.wrap(jpeg), null);
+                generateThumbnail(picture);
+                if (pending.mFile != null) {
+                    mPictureFileWriter.write(picture, pending.mFile, pending.mCallback, getCallbackExecutor());
+                } else {
+                    dispatchPictureTaken(jpeg, pending.getShutterNanos());
                 }
             }
 
-            // 没有找到设定的摄像头, 直接获取第一个摄像头ID
-            mCameraId = ids[0];
-            mCameraCharacteristics = mCameraManager.getCameraCharacteristics(mCameraId);
-            Integer level = mCameraCharacteristics.get(CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL);
-            if (level == null || level == CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_LEGACY) {
-                return false;
+            @Override
+            public void onEncodeFailed(IOException e) {
+                Log.w(TAG, "Zero shutter lag picture failed", e);
+                failPicture(pending, e);
             }
+        });
+        return true;
+    }
 
-            Integer internal = mCameraCharacteristics.get(CameraCharacteristics.LENS_FACING);
-            if (internal == null) {
-                throw new NullPointerException("Unexpected state: LENS_FACING null");
+    @Override
+    public void setZeroShutterLag(final boolean enabled, final long memoryBudget) {
+        if (memoryBudget <= 0) {
+            throw new IllegalArgumentException("memoryBudget must be positive: " + memoryBudget);
+        }
+        if (mZslEnabled == enabled && mZslMemoryBudget == memoryBudget) {
+            return;
+        }
+        mZslEnabled = enabled;
+        mZslMemoryBudget = memoryBudget;
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                //增加或去掉零延时拍照的输出, 需要重新配置CaptureSession
+                restartCaptureSession();
             }
+        });
+    }
 
-            //设置mFacing, 通过获取到摄像头
-            for (int i = 0, count = INTERNAL_FACINGS.size(); i < count; i++) {
-                if (INTERNAL_FACINGS.valueAt(i) == internal) {
-                    mFacing = INTERNAL_FACINGS.keyAt(i);
-                    return true;
-                }
-            }
+    @Override
+    public boolean getZeroShutterLag() {
+        return mZslEnabled;
+    }
 
-            mFacing = Constants.FACING_BACK;
-            return true;
+    /**
+     * Locks the focus as the first step for a still image capture
+     * 锁住焦点是拍照的第一步
+     */
+    private void lockFocus() {
+        //AF: 自动对焦
+        //AE: 自动曝光
+        if (mCaptureSession == null || mLockFocusRequest == null) {
+            //CaptureSession正在重新配置, 在onConfigured中继续
+            return;
+        }
+        mPictureCaptureCallback.setState(PictureCaptureCallback.STATE_LOCKING);
+        try {
+            //拍照
+            mCaptureSession.capture(mLockFocusRequest, mPictureCaptureCallback, mCameraHandler);
         } catch (CameraAccessException e) {
             e.printStackTrace();
-            throw new RuntimeException("Failed to get a list of camera devices", e);
+            Log.e(TAG, "Failed to lock focus", e);
         }
     }
 
     @Override
-    public void stop() {
-        if (mCaptureSession != null) {
-            mCaptureSession.close();
-            mCaptureSession = null;
+    public void setThumbnailCallback(ThumbnailCallback callback, int maxSize, int mode) {
+        ThumbnailGenerator old = mThumbnailGenerator;
+        if (callback == null) {
+            mThumbnailCallback = null;
+            mThumbnailGenerator = null;
+        } else {
+            mThumbnailGenerator = new ThumbnailGenerator(maxSize, mode);
+            mThumbnailCallback = callback;
         }
-
-        if (mCamera != null) {
-            mCamera.close();
-            mCamera = null;
+        if (old != null) {
+            old.shutdown();
         }
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                if (mCameraCharacteristics != null) {
+                    updateThumbnailSize();
+                }
+            }
+        });
+    }
 
-        if (mImageReader != null) {
-            mImageReader.close();
-            mImageReader = null;
+    /**
+     * 根据缩略图的设置选择JPEG_THUMBNAIL_SIZE, 拍照请求需要重新生成
+     */
+    private void updateThumbnailSize() {
+        ThumbnailGenerator generator = mThumbnailGenerator;
+        android.util.Size size = null;
+        if (generator != null) {
+            if (generator.getMode() == Constants.THUMBNAIL_DECODE) {
+                //(0, 0)表示HAL不生成EXIF缩略图, 缩短拍照的编码时间
+                size = new android.util.Size(0, 0);
+            } else {
+                size = chooseThumbnailSize(generator.getMaxSize());
+            }
         }
+        mThumbnailSize = size;
+        mStillCaptureRequests.clear();
     }
 
-    @Override
-    public boolean isCameraOpened() {
-        return mCamera != null;
+    /**
+     * 和图片比例相同, 长边不小于maxSize的最小缩略图尺寸, 没有时取该比例的最大尺寸
+     *
+     * @param maxSize
+     * @return 没有相同比例的尺寸时返回null, 使用默认值
+     */
+    private android.util.Size chooseThumbnailSize(int maxSize) {
+        android.util.Size[] sizes = mCameraCharacteristics.get(CameraCharacteristics.JPEG_AVAILABLE_THUMBNAIL_SIZES);
+        if (sizes == null) {
+            return null;
+        }
+        android.util.Size covering = null;
+        android.util.Size largest = null;
+        for (android.util.Size size : sizes) {
+            if (size.getWidth() == 0 || !mAspectRatio.matches(new Size(size.getWidth(), size.getHeight()))) {
+                continue;
+            }
+            int longer = Math.max(size.getWidth(), size.getHeight());
+            if (longer >= maxSize && (covering == null || size.getWidth() < covering.getWidth())) {
+                covering = size;
+            }
+            if (largest == null || size.getWidth() > largest.getWidth()) {
+                largest = size;
+            }
+        }
+        return covering != null ? covering : largest;
     }
 
     @Override
-    public void setFacing(int facing) {
-        if (mFacing == facing) {
-            return;
-        }
-        mFacing = facing;
-        if (isCameraOpened()) {
-            //关闭摄像头,然后重新打开, 用于切换摄像头
-            stop();
-            start();
-        }
+    public void addFrameAnalyzer(IFrameAnalyzer analyzer) {
+        addFrameAnalyzer(analyzer, AnalyzerRate.everyFrame());
     }
 
     @Override
-    public int getFacing() {
-        return mFacing;
+    public void addFrameAnalyzer(IFrameAnalyzer analyzer, AnalyzerRate rate) {
+        boolean first = !mFrameDispatcher.hasAnalyzers();
+        mFrameDispatcher.addAnalyzer(analyzer, rate);
+        if (first) {
+            //增加分析输出, 需要重新配置CaptureSession
+            runOnCameraThread(new Runnable() {
+                @Override
+                public void run() {
+                    restartCaptureSession();
+                }
+            });
+        }
     }
 
     @Override
-    public Set<AspectRatio> getSupportedAspectRatios() {
-        return mPreviewSizes.ratios();
+    public AnalyzerStats getFrameAnalyzerStats(IFrameAnalyzer analyzer) {
+        return mFrameDispatcher.getAnalyzerStats(analyzer);
     }
 
     @Override
-    public boolean setAspectRation(AspectRatio ratio) {
-        if (ratio == null || ratio.equals(mAspectRatio) ||
-                !mPreviewSizes.ratios().contains(ratio)) {
-            //TODO : Better error handling
-            return false;
-        }
-        //设置比例
-        mAspectRatio = ratio;
-        prepareImageReader();
-        if (mCaptureSession != null) {
-            mCaptureSession.close();
-            mCaptureSession = null;
-            //重新开始预览
-            startCaptureSession();
+    public int getFrameRotation() {
+        CameraCharacteristics characteristics = mCameraCharacteristics;
+        if (characteristics == null) {
+            return 0;
         }
-        return true;
+        Integer sensorOrientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+        return FrameResampler.computeRotation(sensorOrientation == null ? 0 : sensorOrientation,
+                mDisplayOrientation, mFacing == Constants.FACING_FRONT);
     }
 
     @Override
-    public AspectRatio getAspectRation() {
-        return mAspectRatio;
+    public void removeFrameAnalyzer(IFrameAnalyzer analyzer) {
+        mFrameDispatcher.removeAnalyzer(analyzer);
+        if (!mFrameDispatcher.hasAnalyzers()) {
+            runOnCameraThread(new Runnable() {
+                @Override
+                public void run() {
+                    if (mAnalysisImageReader != null) {
+                        restartCaptureSession();
+                    }
+                }
+            });
+        }
     }
 
     @Override
-    public void setAutoFocus(boolean autoFocus) {
-        if (mAutoFocus = autoFocus) {
-            return;
-        }
-        mAutoFocus = autoFocus;
-        if (mPreviewRequestBuilder != null) {
-            updateAutoFocus();
-            if (mCaptureSession != null) {
+    public void setDisplayOrientation(int displayOrientation) {
+        mDisplayOrientation = displayOrientation;
+        mCameraPreview.setDisplayOrientation(mDisplayOrientation);
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                if (mCaptureSession == null || mPreviewRequestBuilder == null) {
+                    return;
+                }
+                //方向变化后预先生成拍照请求
                 try {
-                    //开始预览
-                    mCaptureSession.setRepeatingRequest(mPreviewRequestBuilder.build(), mPictureCaptureCallback, null);
+                    getStillCaptureRequest();
                 } catch (CameraAccessException e) {
                     e.printStackTrace();
-                    mAutoFocus = !mAutoFocus;
                 }
             }
-        }
+        });
     }
 
-    @Override
-    public boolean getAutoFocus() {
-        return mAutoFocus;
-    }
+    /**
+     * 批量修改预览参数, apply()时只记录有变化的参数
+     */
+    private final class Editor implements SettingsEditor {
+        private int mNewFlash;
+        private boolean mNewAutoFocus;
+        private boolean mFlashChanged;
+        private boolean mAutoFocusChanged;
 
-    @Override
-    public void setFlash(int flash) {
-        if (mFlash == flash) {
-            return;
+        @Override
+        public SettingsEditor flash(int flash) {
+            mNewFlash = flash;
+            mFlashChanged = true;
+            return this;
         }
 
-        int saved = mFlash;
-        mFlash = flash;
-
-        if (mPreviewRequestBuilder != null) {
-            updateFlash();
-            if (mCaptureSession != null) {
-                try {
-                    //设置预览
-                    mCaptureSession.setRepeatingRequest(mPreviewRequestBuilder.build(), mPictureCaptureCallback, null);
+        @Override
+        public SettingsEditor autoFocus(boolean autoFocus) {
+            mNewAutoFocus = autoFocus;
+            mAutoFocusChanged = true;
+            return this;
+        }
 
-                } catch (CameraAccessException e) {
-                    e.printStackTrace();
-                    mFlash = saved;
-                }
+        @Override
+        public void apply() {
+            boolean changed = false;
+            if (mFlashChanged && mFlash != mNewFlash) {
+                mFlash = mNewFlash;
+                changed = true;
             }
+            if (mAutoFocusChanged && mAutoFocus != mNewAutoFocus) {
+                mAutoFocus = mNewAutoFocus;
+                changed = true;
+            }
+            if (!changed) {
+                return;
+            }
+            runOnCameraThread(new Runnable() {
+                @Override
+                public void run() {
+                    scheduleRepeatingRequest();
+                }
+            });
         }
     }
 
-    @Override
-    public int getFlash() {
-        return mFlash;
-    }
+    /**
+     * 一次连拍的状态, 只在摄像头线程中访问
+     */
+    private static final class Burst {
+        final int count;
+        final BurstCallback callback;
+        /**
+         * 每一帧等待图片的请求
+         */
+        final List<PendingPicture> pictures;
+        boolean started;
+        private int mCompleted;
+        private long mFirstTimestamp;
+        private long mLastTimestamp;
+
+        Burst(int count, BurstCallback callback) {
+            this.count = count;
+            this.callback = callback;
+            pictures = new ArrayList<PendingPicture>(count);
+            for (int i = 0; i < count; i++) {
+                pictures.add(new PendingPicture(null, null));
+            }
+        }
 
-    @Override
-    public void takePicture() {
-        if (mAutoFocus) {
-            lockFocus();
-        } else {
-            captureStillPicture();
+        /**
+         * @param timestamp 传感器时间戳
+         * @return 是否所有请求都已完成
+         */
+        boolean onCaptureCompleted(long timestamp) {
+            if (mCompleted == 0) {
+                mFirstTimestamp = timestamp;
+            }
+            mLastTimestamp = timestamp;
+            mCompleted++;
+            return mCompleted == count;
+        }
+
+        float getFramesPerSecond() {
+            long duration = mLastTimestamp - mFirstTimestamp;
+            if (mCompleted < 2 || duration <= 0) {
+                return 0;
+            }
+            return (mCompleted - 1) * 1e9f / duration;
         }
     }
 
     /**
-     * Locks the focus as the first step for a still image capture
-     * 锁住焦点是拍照的第一步
+     * 预热过的摄像头
      */
-    private void lockFocus() {
-        //AF: 自动对焦
-        //AE: 自动曝光
-        mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER, CaptureRequest.CONTROL_AF_TRIGGER_START);
-        mPictureCaptureCallback.setState(PictureCaptureCallback.STATE_LOCKING);
-        try {
-            //拍照
-            mCaptureSession.capture(mPreviewRequestBuilder.build(), mPictureCaptureCallback, null);
-        } catch (CameraAccessException e) {
-            e.printStackTrace();
-            Log.e(TAG, "Failed to lock focus", e);
+    private static final class PrewarmedCamera {
+        final int facing;
+        final CameraInfoCache.CameraInfo info;
+        final CameraCharacteristics characteristics;
+        final SizeMap previewSizes;
+        final SizeMap pictureSizes;
+
+        PrewarmedCamera(int facing, CameraInfoCache.CameraInfo info, CameraCharacteristics characteristics,
+                        SizeMap previewSizes, SizeMap pictureSizes) {
+            this.facing = facing;
+            this.info = info;
+            this.characteristics = characteristics;
+            this.previewSizes = previewSizes;
+            this.pictureSizes = pictureSizes;
         }
     }
 
-    @Override
-    public void setDisplayOrientation(int displayOrientation) {
-        mDisplayOrientation = displayOrientation;
-        mCameraPreview.setDisplayOrientation(mDisplayOrientation);
+    /**
+     * 一次拍照请求, mFile为null时通过回调返回图片数据
+     */
+    private static final class PendingPicture extends PictureQueue.Picture {
+        final File mFile;
+        final PictureFileCallback mCallback;
+
+        PendingPicture(File file, PictureFileCallback callback) {
+            mFile = file;
+            mCallback = callback;
+        }
     }
 
     private static abstract class PictureCaptureCallback extends CameraCaptureSession.CaptureCallback {
-        static final int STATE_PREVIEW = 0;
-        static final int STATE_LOCKING = 1;
-        static final int STATE_LOCKED = 2;
-        static final int STATE_PRECAPTURE = 3;
-        static final int STATE_WAITING = 4;
-        static final int STATE_CAPTURING = 5;
+        static final int STATE_PREVIEW = CaptureStateMachine.STATE_PREVIEW;
+        static final int STATE_LOCKING = CaptureStateMachine.STATE_LOCKING;
+        static final int STATE_LOCKED = CaptureStateMachine.STATE_LOCKED;
+        static final int STATE_PRECAPTURE = CaptureStateMachine.STATE_PRECAPTURE;
+        static final int STATE_WAITING = CaptureStateMachine.STATE_WAITING;
+        static final int STATE_CAPTURING = CaptureStateMachine.STATE_CAPTURING;
+
+        /**
+         * 状态的判断和JVM上的测试共用同一个状态机
+         */
+        private final CaptureStateMachine mStateMachine;
+
+        public PictureCaptureCallback(CaptureMetrics captureMetrics) {
+            super();
+            mStateMachine = new CaptureStateMachine(captureMetrics) {
+                @Override
+                public void onPrecaptureRequired() {
+                    PictureCaptureCallback.this.onPrecaptureRequired();
+                }
 
-        private int mState;
+                @Override
+                public void onReady() {
+                    PictureCaptureCallback.this.onReady();
+                }
 
-        public PictureCaptureCallback() {
-            super();
+                @Override
+                public void onTimeout(int stage, long elapsedNanos) {
+                    PictureCaptureCallback.this.onTimeout(stage, elapsedNanos);
+                }
+            };
         }
 
         void setState(int state) {
-            mState = state;
+            mStateMachine.setState(state);
+        }
+
+        void setDeadline(int state, long deadlineNanos) {
+            mStateMachine.setDeadline(state, deadlineNanos);
+        }
+
+        /**
+         * 等待对焦或曝光超时, 之后会直接拍照
+         *
+         * @param stage
+         * @param elapsedNanos
+         */
+        void onTimeout(int stage, long elapsedNanos) {
+        }
+
+        int getState() {
+            return mStateMachine.getState();
         }
 
         @Override
@@ -757,43 +2841,9 @@ public class Camera2 extends BaseCameraViewImpl {
 
         private void process(CaptureResult result) {
             //进行状态判断处理
-            switch (mState) {
-                case STATE_LOCKING: {
-                    Integer af = result.get(CaptureResult.CONTROL_AF_STATE);
-                    if (af == null) {
-                        break;
-                    }
-                    if (af == CaptureResult.CONTROL_AF_STATE_FOCUSED_LOCKED ||
-                            af == CaptureResult.CONTROL_AF_STATE_NOT_FOCUSED_LOCKED) {
-                        Integer ae = result.get(CaptureResult.CONTROL_AE_STATE);
-                        if (ae == null || ae == CaptureResult.CONTROL_AE_STATE_CONVERGED) {
-                            setState(STATE_CAPTURING);
-                            onReady();
-                        } else {
-                            setState(STATE_LOCKED);
-                            onPrecaptureRequired();
-                        }
-                    }
-                    break;
-                }
-                case STATE_CAPTURING: {
-                    Integer ae = result.get(CaptureResult.CONTROL_AE_STATE);
-                    if (ae == null || ae == CaptureResult.CONTROL_AE_STATE_PRECAPTURE ||
-                            ae == CaptureResult.CONTROL_AE_STATE_FLASH_REQUIRED ||
-                            ae == CaptureResult.CONTROL_AE_STATE_CONVERGED) {
-                        setState(STATE_WAITING);
-                    }
-                }
-                break;
-                case STATE_WAITING: {
-                    Integer ae = result.get(CaptureResult.CONTROL_AE_STATE);
-                    if (ae == null || ae != CaptureResult.CONTROL_AE_STATE_PRECAPTURE) {
-                        setState(STATE_CAPTURING);
-                        onReady();
-                    }
-                }
-                break;
-            }
+            Long timestamp = result.get(CaptureResult.SENSOR_TIMESTAMP);
+            mStateMachine.process(result.get(CaptureResult.CONTROL_AF_STATE), result.get(CaptureResult.CONTROL_AE_STATE),
+                    timestamp == null ? 0 : timestamp);
         }
 
         public abstract void onPrecaptureRequired();
@@ -0,0 +1,359 @@
+package com.luo.cameraview.camera2;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.graphics.SurfaceTexture;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.os.Build;
+import android.util.Log;
+import android.view.SurfaceHolder;
+
+import com.luo.cameraview.base.Size;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * 摄像头信息缓存, 进程内共享.
+ * <p>
+ * 第一次使用时枚举所有摄像头, 缓存每个摄像头的类型, 硬件级别, 预览大小和图片大小,
+ * 以及已经获取过的CameraCharacteristics, 之后的start()和setFacing()不再调用getCameraIdList()
+ * 和逐个调用getCameraCharacteristics().
+ * <p>
+ * 打开磁盘快照后, 枚举结果会按Build.FINGERPRINT保存到缓存目录, 冷启动时直接读取快照,
+ * 只需要获取选中摄像头的CameraCharacteristics.
+ */
+@TargetApi(21)
+public class CameraInfoCache {
+
+    private static final String TAG = "CameraInfoCache";
+
+    private static final String SNAPSHOT_FILE = "camera_info_cache";
+    /**
+     * 快照格式的版本, 写在文件的第一行, 格式变化时只修改这里, 旧版本的快照读取时被丢弃
+     */
+    private static final String SNAPSHOT_VERSION = "v2";
+    private static final String SNAPSHOT_CHARSET = "UTF-8";
+
+    /**
+     * Max preview width that is guaranteed by Camera2 API
+     */
+    private static final int MAX_PREVIEW_WIDTH = 1920;
+
+    /**
+     * Max preview height that is guaranteed by Camera2 API
+     */
+    private static final int MAX_PREVIEW_HEIGHT = 1080;
+
+    private static final Class<?>[] PREVIEW_OUTPUT_CLASSES = {SurfaceTexture.class, SurfaceHolder.class};
+
+    private static CameraInfoCache sInstance;
+
+    /**
+     * 一个摄像头的信息, 创建后不再修改
+     */
+    public static class CameraInfo {
+        final String id;
+        /**
+         * CameraCharacteristics.LENS_FACING, 为null时是-1
+         */
+        final int lensFacing;
+        /**
+         * CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL, 为null时是-1
+         */
+        final int hardwareLevel;
+        final Map<String, List<Size>> previewSizes;
+        final List<Size> pictureSizes;
+
+        CameraInfo(String id, int lensFacing, int hardwareLevel,
+                   Map<String, List<Size>> previewSizes, List<Size> pictureSizes) {
+            this.id = id;
+            this.lensFacing = lensFacing;
+            this.hardwareLevel = hardwareLevel;
+            this.previewSizes = previewSizes;
+            this.pictureSizes = pictureSizes;
+        }
+
+        /**
+         * 预览大小, 已经去掉超过1920x1080的大小
+         *
+         * @param outputClass 预览的输出类型, 见ICameraPreview.getOutputClass()
+         * @return
+         */
+        List<Size> getPreviewSizes(Class<?> outputClass) {
+            List<Size> sizes = previewSizes.get(outputClass.getName());
+            return sizes == null ? Collections.<Size>emptyList() : sizes;
+        }
+
+        List<Size> getPictureSizes() {
+            return pictureSizes;
+        }
+    }
+
+    private final CameraManager mCameraManager;
+    private final File mSnapshotFile;
+    private boolean mDiskSnapshotEnabled;
+    private List<CameraInfo> mCameraInfos;
+    private final Map<String, CameraCharacteristics> mCharacteristics = new HashMap<String, CameraCharacteristics>();
+
+    private CameraInfoCache(Context context) {
+        mCameraManager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+        mSnapshotFile = new File(context.getCacheDir(), SNAPSHOT_FILE);
+    }
+
+    public static synchronized CameraInfoCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new CameraInfoCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * 是否把枚举结果保存到磁盘, 冷启动时读取
+     *
+     * @param enabled
+     */
+    public synchronized void setDiskSnapshotEnabled(boolean enabled) {
+        mDiskSnapshotEnabled = enabled;
+        if (!enabled) {
+            mSnapshotFile.delete();
+        }
+    }
+
+    /**
+     * 清空缓存, 包括磁盘快照
+     */
+    public synchronized void invalidate() {
+        mCameraInfos = null;
+        mCharacteristics.clear();
+        mSnapshotFile.delete();
+    }
+
+    /**
+     * 获取所有摄像头的信息, 只在第一次调用时枚举
+     *
+     * @return
+     * @throws CameraAccessException
+     */
+    public synchronized List<CameraInfo> getCameraInfos() throws CameraAccessException {
+        if (mCameraInfos != null) {
+            return mCameraInfos;
+        }
+        if (mDiskSnapshotEnabled) {
+            mCameraInfos = readSnapshot();
+            if (mCameraInfos != null) {
+                return mCameraInfos;
+            }
+        }
+        String[] ids = mCameraManager.getCameraIdList();
+        List<CameraInfo> infos = new ArrayList<CameraInfo>(ids.length);
+        for (String id : ids) {
+            infos.add(createCameraInfo(id, getCharacteristics(id)));
+        }
+        mCameraInfos = Collections.unmodifiableList(infos);
+        if (mDiskSnapshotEnabled) {
+            writeSnapshot(mCameraInfos);
+        }
+        return mCameraInfos;
+    }
+
+    /**
+     * 获取摄像头特性, 每个摄像头只获取一次
+     *
+     * @param id
+     * @return
+     * @throws CameraAccessException
+     */
+    public synchronized CameraCharacteristics getCharacteristics(String id) throws CameraAccessException {
+        CameraCharacteristics characteristics = mCharacteristics.get(id);
+        if (characteristics == null) {
+            try {
+                characteristics = mCameraManager.getCameraCharacteristics(id);
+            } catch (IllegalArgumentException e) {
+                //快照中的摄像头已经不存在, 下次重新枚举
+                invalidate();
+                throw e;
+            }
+            mCharacteristics.put(id, characteristics);
+        }
+        return characteristics;
+    }
+
+    private static CameraInfo createCameraInfo(String id, CameraCharacteristics characteristics) {
+        Integer facing = characteristics.get(CameraCharacteristics.LENS_FACING);
+        Integer level = characteristics.get(CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL);
+        StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        Map<String, List<Size>> previewSizes = new HashMap<String, List<Size>>();
+        List<Size> pictureSizes = new ArrayList<Size>();
+        if (map != null) {
+            for (Class<?> outputClass : PREVIEW_OUTPUT_CLASSES) {
+                List<Size> sizes = new ArrayList<Size>();
+                android.util.Size[] outputSizes = map.getOutputSizes(outputClass);
+                if (outputSizes != null) {
+                    for (android.util.Size size : outputSizes) {
+                        if (size.getWidth() <= MAX_PREVIEW_WIDTH && size.getHeight() <= MAX_PREVIEW_HEIGHT) {
+                            sizes.add(new Size(size.getWidth(), size.getHeight()));
+                        }
+                    }
+                }
+                previewSizes.put(outputClass.getName(), Collections.unmodifiableList(sizes));
+            }
+            for (android.util.Size size : map.getOutputSizes(ImageFormat.JPEG)) {
+                pictureSizes.add(new Size(size.getWidth(), size.getHeight()));
+            }
+        }
+        return new CameraInfo(id, facing == null ? -1 : facing, level == null ? -1 : level,
+                previewSizes, Collections.unmodifiableList(pictureSizes));
+    }
+
+    /**
+     * 读取磁盘快照, 设备指纹不一致, 记录数或校验和不对, 或者格式错误时返回null
+     */
+    private List<CameraInfo> readSnapshot() {
+        if (!mSnapshotFile.exists()) {
+            return null;
+        }
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(mSnapshotFile), SNAPSHOT_CHARSET));
+            if (!SNAPSHOT_VERSION.equals(reader.readLine()) || !Build.FINGERPRINT.equals(reader.readLine())) {
+                return null;
+            }
+            int count = Integer.parseInt(reader.readLine());
+            CRC32 crc = new CRC32();
+            List<CameraInfo> infos = new ArrayList<CameraInfo>(count);
+            for (int n = 0; n < count; n++) {
+                String line = reader.readLine();
+                if (line == null) {
+                    //在某一行的末尾截断
+                    return null;
+                }
+                crc.update((line + '\n').getBytes(SNAPSHOT_CHARSET));
+                // id \t facing \t level \t SurfaceTexture大小 \t SurfaceHolder大小 \t 图片大小
+                String[] fields = line.split("\t", -1);
+                if (fields.length != 3 + PREVIEW_OUTPUT_CLASSES.length + 1) {
+                    return null;
+                }
+                Map<String, List<Size>> previewSizes = new HashMap<String, List<Size>>();
+                for (int i = 0; i < PREVIEW_OUTPUT_CLASSES.length; i++) {
+                    previewSizes.put(PREVIEW_OUTPUT_CLASSES[i].getName(), parseSizes(fields[3 + i]));
+                }
+                infos.add(new CameraInfo(fields[0], Integer.parseInt(fields[1]), Integer.parseInt(fields[2]),
+                        previewSizes, parseSizes(fields[fields.length - 1])));
+            }
+            //最后一行是所有记录的CRC32, 之后不能再有内容
+            if (!Long.toHexString(crc.getValue()).equals(reader.readLine()) || reader.readLine() != null) {
+                return null;
+            }
+            return infos.isEmpty() ? null : Collections.unmodifiableList(infos);
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Failed to read camera info snapshot", e);
+            return null;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * 先写入临时文件并同步, 再重命名为快照文件, 中途失败时不会留下不完整的快照
+     *
+     * @param infos
+     */
+    private void writeSnapshot(List<CameraInfo> infos) {
+        StringBuilder records = new StringBuilder();
+        for (CameraInfo info : infos) {
+            records.append(info.id)
+                    .append('\t').append(info.lensFacing)
+                    .append('\t').append(info.hardwareLevel);
+            for (Class<?> outputClass : PREVIEW_OUTPUT_CLASSES) {
+                records.append('\t').append(formatSizes(info.getPreviewSizes(outputClass)));
+            }
+            records.append('\t').append(formatSizes(info.pictureSizes)).append('\n');
+        }
+        CRC32 crc = new CRC32();
+        try {
+            crc.update(records.toString().getBytes(SNAPSHOT_CHARSET));
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+
+        File temp = new File(mSnapshotFile.getPath() + ".tmp");
+        PrintWriter writer = null;
+        boolean written = false;
+        try {
+            FileOutputStream outputStream = new FileOutputStream(temp);
+            writer = new PrintWriter(new OutputStreamWriter(outputStream, SNAPSHOT_CHARSET));
+            writer.print(SNAPSHOT_VERSION + '\n');
+            writer.print(Build.FINGERPRINT + '\n');
+            writer.print(infos.size() + "\n");
+            writer.print(records);
+            writer.print(Long.toHexString(crc.getValue()) + '\n');
+            writer.flush();
+            //PrintWriter不抛出IOException, 需要检查是否出错
+            if (writer.checkError()) {
+                throw new IOException("Failed to write " + temp);
+            }
+            outputStream.getFD().sync();
+            writer.close();
+            writer = null;
+            if (!temp.renameTo(mSnapshotFile)) {
+                throw new IOException("Failed to rename " + temp);
+            }
+            written = true;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write camera info snapshot", e);
+        } finally {
+            if (writer != null) {
+                writer.close();
+            }
+            if (!written) {
+                temp.delete();
+            }
+        }
+    }
+
+    private static String formatSizes(List<Size> sizes) {
+        StringBuilder builder = new StringBuilder();
+        for (Size size : sizes) {
+            if (builder.length() > 0) {
+                builder.append(',');
+            }
+            builder.append(size.getWidth()).append('x').append(size.getHeight());
+        }
+        return builder.toString();
+    }
+
+    private static List<Size> parseSizes(String s) {
+        List<Size> sizes = new ArrayList<Size>();
+        if (s.isEmpty()) {
+            return sizes;
+        }
+        for (String item : s.split(",")) {
+            int position = item.indexOf('x');
+            sizes.add(new Size(Integer.parseInt(item.substring(0, position)), Integer.parseInt(item.substring(position + 1))));
+        }
+        return Collections.unmodifiableList(sizes);
+    }
+}
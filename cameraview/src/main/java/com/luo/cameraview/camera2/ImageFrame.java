@@ -0,0 +1,88 @@
+package com.luo.cameraview.camera2;
+
+import android.annotation.TargetApi;
+import android.media.Image;
+
+import com.luo.cameraview.frame.IFrame;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 把android.media.Image包装成{@link IFrame}
+ */
+@TargetApi(21)
+class ImageFrame implements IFrame {
+
+    private final Image mImage;
+    private final Plane[] mPlanes;
+    private final SharedImageReader mReader;
+
+    ImageFrame(Image image) {
+        this(image, null);
+    }
+
+    /**
+     * @param image
+     * @param reader image所属的ImageReader, 关闭时释放它的引用, 可以为null
+     */
+    ImageFrame(Image image, SharedImageReader reader) {
+        mImage = image;
+        mReader = reader;
+        Image.Plane[] planes = image.getPlanes();
+        mPlanes = new Plane[planes.length];
+        for (int i = 0; i < planes.length; i++) {
+            mPlanes[i] = new ImagePlane(planes[i]);
+        }
+    }
+
+    @Override
+    public int getWidth() {
+        return mImage.getWidth();
+    }
+
+    @Override
+    public int getHeight() {
+        return mImage.getHeight();
+    }
+
+    @Override
+    public long getTimestamp() {
+        return mImage.getTimestamp();
+    }
+
+    @Override
+    public Plane[] getPlanes() {
+        return mPlanes;
+    }
+
+    @Override
+    public void close() {
+        mImage.close();
+        if (mReader != null) {
+            mReader.release();
+        }
+    }
+
+    private static class ImagePlane implements Plane {
+        private final Image.Plane mPlane;
+
+        ImagePlane(Image.Plane plane) {
+            mPlane = plane;
+        }
+
+        @Override
+        public ByteBuffer getBuffer() {
+            return mPlane.getBuffer();
+        }
+
+        @Override
+        public int getRowStride() {
+            return mPlane.getRowStride();
+        }
+
+        @Override
+        public int getPixelStride() {
+            return mPlane.getPixelStride();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.luo.cameraview.camera2;
+
+import android.annotation.TargetApi;
+import android.media.ImageReader;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 引用计数的ImageReader.
+ * <p>
+ * ImageReader.close()会回收所有还没关闭的Image的缓冲区, 其他线程正在读的数据会失效.
+ * 摄像头使用中占一个引用, 每张取出后还没关闭的Image各占一个引用,
+ * 摄像头不再使用后, 等最后一张Image关闭了才真正关闭ImageReader.
+ */
+@TargetApi(21)
+class SharedImageReader {
+
+    final ImageReader reader;
+    private final AtomicInteger mReferences = new AtomicInteger(1);
+
+    SharedImageReader(ImageReader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * 取出Image前增加引用
+     *
+     * @return 已经关闭时返回false
+     */
+    boolean retain() {
+        for (; ; ) {
+            int references = mReferences.get();
+            if (references <= 0) {
+                return false;
+            }
+            if (mReferences.compareAndSet(references, references + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Image关闭后释放引用
+     */
+    void release() {
+        if (mReferences.decrementAndGet() == 0) {
+            reader.close();
+        }
+    }
+
+    /**
+     * 刚取出的Image能否继续持有, 持有后仍然留一个空位给acquireNextImage().
+     * 只在ImageReader的回调线程中调用, 只有这里会增加引用
+     *
+     * @return
+     */
+    boolean hasSpareImage() {
+        //引用数 = 1 + 持有的Image(包括刚取出的一张)
+        return mReferences.get() <= reader.getMaxImages();
+    }
+
+    /**
+     * 摄像头不再使用, 不再接收新的图片, 持有的Image都关闭后关闭ImageReader
+     */
+    void close() {
+        reader.setOnImageAvailableListener(null, null);
+        release();
+    }
+}
@@ -0,0 +1,198 @@
+package com.luo.cameraview.camera2;
+
+import android.annotation.TargetApi;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.util.Log;
+import android.view.Surface;
+
+import com.luo.cameraview.metrics.RecordingStats;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 把摄像头输出直接编码为MP4.
+ * <p>
+ * 编码器的输入Surface作为CaptureSession的一个输出, 帧从摄像头到编码器不经过CPU拷贝;
+ * 封装线程从编码器取出H.264数据写入MediaMuxer, 同时统计丢帧和码率.
+ * 只录制视频, 没有音轨.
+ */
+@TargetApi(21)
+class VideoRecorder {
+
+    private static final String TAG = "VideoRecorder";
+
+    private static final String MIME_TYPE = MediaFormat.MIMETYPE_VIDEO_AVC;
+    private static final int I_FRAME_INTERVAL = 1;
+    private static final long DEQUEUE_TIMEOUT_US = 10000;
+
+    interface Callback {
+        /**
+         * 文件写入完成, 在封装线程中回调
+         */
+        void onFinished(VideoRecorder recorder, RecordingStats stats);
+
+        void onFailed(VideoRecorder recorder, IOException e);
+    }
+
+    private final File mFile;
+    private final RecordingStats mStats;
+    private final MediaCodec mEncoder;
+    private final MediaMuxer mMuxer;
+    private final Surface mInputSurface;
+    private final Callback mCallback;
+    private volatile boolean mStopRequested;
+
+    /**
+     * 创建并启动编码器, 之后摄像头可以向{@link #getInputSurface()}输出
+     *
+     * @param file
+     * @param width
+     * @param height
+     * @param frameRate
+     * @param bitRate           单位bit/s
+     * @param orientationDegree 播放时需要旋转的角度
+     * @param callback
+     * @throws IOException
+     */
+    VideoRecorder(File file, int width, int height, int frameRate, int bitRate, int orientationDegree,
+                  Callback callback) throws IOException {
+        mFile = file;
+        mCallback = callback;
+        mStats = new RecordingStats(frameRate);
+        MediaFormat format = MediaFormat.createVideoFormat(MIME_TYPE, width, height);
+        format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, bitRate);
+        format.setInteger(MediaFormat.KEY_FRAME_RATE, frameRate);
+        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, I_FRAME_INTERVAL);
+        MediaCodec encoder = MediaCodec.createEncoderByType(MIME_TYPE);
+        Surface inputSurface = null;
+        MediaMuxer muxer = null;
+        try {
+            encoder.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            inputSurface = encoder.createInputSurface();
+            muxer = new MediaMuxer(file.getPath(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+            muxer.setOrientationHint(orientationDegree);
+            encoder.start();
+        } catch (IOException | RuntimeException e) {
+            //任何一步失败都要释放已经创建的编码器, 输入Surface和MediaMuxer
+            encoder.release();
+            if (inputSurface != null) {
+                inputSurface.release();
+            }
+            if (muxer != null) {
+                muxer.release();
+            }
+            throw e instanceof IOException ? (IOException) e : new IOException(e);
+        }
+        mEncoder = encoder;
+        mInputSurface = inputSurface;
+        mMuxer = muxer;
+        Thread muxerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "VideoMuxer");
+        muxerThread.start();
+    }
+
+    File getFile() {
+        return mFile;
+    }
+
+    Surface getInputSurface() {
+        return mInputSurface;
+    }
+
+    /**
+     * 结束录像, 应该在摄像头停止向输入Surface输出之后调用.
+     * 不等待文件写完, 结果通过回调通知
+     */
+    void stop() {
+        if (mStopRequested) {
+            return;
+        }
+        mStopRequested = true;
+        try {
+            mEncoder.signalEndOfInputStream();
+        } catch (IllegalStateException e) {
+            //编码器已经出错, 封装线程会结束
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 封装线程: 从编码器取出数据写入文件, 直到收到结束标志
+     */
+    private void drain() {
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        int track = -1;
+        boolean muxerStarted = false;
+        IOException failure = null;
+        try {
+            while (true) {
+                int index = mEncoder.dequeueOutputBuffer(info, DEQUEUE_TIMEOUT_US);
+                if (index == MediaCodec.INFO_TRY_AGAIN_LATER) {
+                    continue;
+                } else if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                    track = mMuxer.addTrack(mEncoder.getOutputFormat());
+                    mMuxer.start();
+                    muxerStarted = true;
+                    continue;
+                } else if (index < 0) {
+                    continue;
+                }
+                ByteBuffer buffer = mEncoder.getOutputBuffer(index);
+                boolean config = (info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0;
+                if (buffer != null && info.size > 0 && !config && muxerStarted) {
+                    buffer.position(info.offset);
+                    buffer.limit(info.offset + info.size);
+                    mMuxer.writeSampleData(track, buffer, info);
+                    mStats.onFrameEncoded(info.presentationTimeUs, info.size);
+                }
+                mEncoder.releaseOutputBuffer(index, false);
+                if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                    break;
+                }
+            }
+        } catch (RuntimeException e) {
+            //编码器出错是IllegalStateException, 写入MediaMuxer出错可能是IllegalArgumentException等
+            Log.e(TAG, "Encoder failed", e);
+            failure = new IOException("Encoder failed", e);
+        } finally {
+            release(muxerStarted);
+        }
+        if (failure == null && !muxerStarted) {
+            failure = new IOException("No frames were recorded");
+        }
+        if (failure != null) {
+            mCallback.onFailed(this, failure);
+        } else {
+            Log.d(TAG, mStats.toString());
+            mCallback.onFinished(this, mStats);
+        }
+    }
+
+    private void release(boolean muxerStarted) {
+        try {
+            mEncoder.stop();
+        } catch (IllegalStateException e) {
+            e.printStackTrace();
+        }
+        mEncoder.release();
+        mInputSurface.release();
+        try {
+            if (muxerStarted) {
+                mMuxer.stop();
+            }
+        } catch (IllegalStateException e) {
+            e.printStackTrace();
+        }
+        mMuxer.release();
+    }
+}
@@ -0,0 +1,262 @@
+package com.luo.cameraview.camera2;
+
+import android.annotation.TargetApi;
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.graphics.YuvImage;
+import android.media.Image;
+
+import com.luo.cameraview.frame.FrameBufferPool;
+import com.luo.cameraview.frame.YuvConverter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 零延时拍照(ZSL)的环形缓冲区.
+ * <p>
+ * 持续保存最近N帧全分辨率的YUV_420_888图片, 拍照时直接取出时间戳最接近按下快门时刻的一帧,
+ * 在后台线程编码为JPEG, 不再需要锁定对焦和预拍照.
+ * 每一帧占ImageReader的一个引用, 关闭后释放, 正在编码的帧关闭前ImageReader不会真正关闭.
+ */
+@TargetApi(21)
+class ZeroShutterLag {
+
+    /**
+     * 环形缓冲区最多保存的帧数
+     */
+    static final int MAX_CAPACITY = 10;
+
+    private static final int JPEG_QUALITY = 95;
+
+    /**
+     * 等待编码的最大帧数, 每一帧都占着ImageReader的一张图片, 超过时拒绝拍照
+     */
+    private static final int MAX_QUEUED_ENCODES = 2;
+
+    interface EncodeCallback {
+        void onEncoded(byte[] jpeg);
+
+        void onEncodeFailed(IOException e);
+    }
+
+    private final int mCapacity;
+    private final SharedImageReader mReader;
+    private final ArrayDeque<Image> mImages;
+    private boolean mClosed;
+    private final ThreadPoolExecutor mEncodeExecutor;
+    private final YuvConverter mYuvConverter = new YuvConverter();
+    /**
+     * NV21的缓冲区, YuvImage只接受byte[], 使用堆上的缓冲区.
+     * 只有一个编码线程并且会话中分辨率不变, 同一时间只用一个缓冲区, 不需要限制总大小
+     */
+    private final FrameBufferPool mNv21Pool = new FrameBufferPool(Long.MAX_VALUE, false, false);
+
+    /**
+     * @param capacity
+     * @param reader   帧所属的ImageReader, 可以为null
+     */
+    ZeroShutterLag(int capacity, SharedImageReader reader) {
+        mCapacity = capacity;
+        mReader = reader;
+        mImages = new ArrayDeque<Image>(capacity);
+        mEncodeExecutor = new ThreadPoolExecutor(1, 1, 5, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(MAX_QUEUED_ENCODES), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ZslEncoder");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mEncodeExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * 根据内存预算计算可以保存的帧数
+     *
+     * @param memoryBudget 内存预算, 单位字节
+     * @param width
+     * @param height
+     * @return 至少为1, 最多为{@link #MAX_CAPACITY}
+     */
+    static int capacityFor(long memoryBudget, int width, int height) {
+        long frameBytes = (long) width * height * 3 / 2;
+        long capacity = memoryBudget / frameBytes;
+        return (int) Math.max(1, Math.min(MAX_CAPACITY, capacity));
+    }
+
+    /**
+     * 保存一帧, 缓冲区已满时关闭最旧的一帧, 已经关闭时直接关闭该帧
+     *
+     * @param image
+     */
+    synchronized void add(Image image) {
+        if (mClosed) {
+            close(image);
+            return;
+        }
+        if (mImages.size() == mCapacity) {
+            close(mImages.pollFirst());
+        }
+        mImages.addLast(image);
+    }
+
+    /**
+     * 取出时间戳最接近timestamp的一帧, 交给{@link #encode}编码后关闭
+     *
+     * @param timestamp 按下快门时刻, 小于0时取最新的一帧
+     * @return 缓冲区为空时返回null
+     */
+    synchronized Image take(long timestamp) {
+        if (mImages.isEmpty()) {
+            return null;
+        }
+        if (timestamp < 0) {
+            return mImages.pollLast();
+        }
+        Image best = null;
+        long bestDistance = Long.MAX_VALUE;
+        for (Image image : mImages) {
+            long distance = Math.abs(image.getTimestamp() - timestamp);
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = image;
+            }
+        }
+        mImages.remove(best);
+        return best;
+    }
+
+    /**
+     * 关闭缓冲区中所有的帧, 之后加入的帧直接关闭. 正在编码的帧编码完后关闭
+     */
+    synchronized void close() {
+        mClosed = true;
+        Iterator<Image> iterator = mImages.iterator();
+        while (iterator.hasNext()) {
+            close(iterator.next());
+            iterator.remove();
+        }
+    }
+
+    private void close(Image image) {
+        image.close();
+        if (mReader != null) {
+            mReader.release();
+        }
+    }
+
+    /**
+     * 在后台线程把图片编码为JPEG, 编码后关闭图片.
+     * 等待编码的帧太多或者编码失败时关闭图片, 回调{@link EncodeCallback#onEncodeFailed}
+     *
+     * @param image
+     * @param orientation JPEG方向, 写入EXIF
+     * @param quality     JPEG质量, 0时使用默认质量
+     * @param callback
+     */
+    void encode(final Image image, final int orientation, int quality, final EncodeCallback callback) {
+        final int jpegQuality = quality > 0 ? quality : JPEG_QUALITY;
+        try {
+            mEncodeExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    byte[] jpeg;
+                    try {
+                        jpeg = compress(image, jpegQuality);
+                    } catch (RuntimeException e) {
+                        callback.onEncodeFailed(new IOException("Failed to encode picture", e));
+                        return;
+                    }
+                    callback.onEncoded(insertExifOrientation(jpeg, orientation));
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            close(image);
+            callback.onEncodeFailed(new IOException("Too many pictures being encoded", e));
+        }
+    }
+
+    /**
+     * 把图片转换为NV21后压缩为JPEG, 返回前关闭图片
+     *
+     * @param image
+     * @param quality
+     * @return
+     */
+    private byte[] compress(Image image, int quality) {
+        FrameBufferPool.PooledBuffer nv21 = null;
+        boolean closed = false;
+        try {
+            int width = image.getWidth();
+            int height = image.getHeight();
+            nv21 = mNv21Pool.acquire(YuvConverter.nv21Size(width, height));
+            try {
+                mYuvConverter.toNv21(new ImageFrame(image), nv21.getBuffer().array());
+            } finally {
+                close(image);
+                closed = true;
+            }
+            //compressToJpeg()返回后YuvImage不再使用数组, 可以归还缓冲区
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream(width * height / 4);
+            new YuvImage(nv21.getBuffer().array(), ImageFormat.NV21, width, height, null)
+                    .compressToJpeg(new Rect(0, 0, width, height), quality, outputStream);
+            return outputStream.toByteArray();
+        } finally {
+            if (!closed) {
+                //申请缓冲区失败时还没有关闭
+                close(image);
+            }
+            if (nv21 != null) {
+                nv21.release();
+            }
+        }
+    }
+
+    /**
+     * 在SOI之后插入只包含Orientation标签的EXIF段
+     *
+     * @param jpeg
+     * @param orientation 0, 90, 180, 270
+     * @return
+     */
+    static byte[] insertExifOrientation(byte[] jpeg, int orientation) {
+        int value;
+        switch ((orientation % 360 + 360) % 360) {
+            case 90:
+                value = 6;
+                break;
+            case 180:
+                value = 3;
+                break;
+            case 270:
+                value = 8;
+                break;
+            default:
+                return jpeg;
+        }
+        byte[] exif = {
+                (byte) 0xFF, (byte) 0xE1, 0x00, 0x22,           // APP1, 长度34
+                'E', 'x', 'i', 'f', 0x00, 0x00,                 // Exif头
+                'M', 'M', 0x00, 0x2A, 0x00, 0x00, 0x00, 0x08,   // TIFF头, 大端, IFD0偏移8
+                0x00, 0x01,                                     // IFD0只有一个标签
+                0x01, 0x12, 0x00, 0x03, 0x00, 0x00, 0x00, 0x01, // Orientation, SHORT, 1个
+                0x00, (byte) value, 0x00, 0x00,
+                0x00, 0x00, 0x00, 0x00                          // 没有下一个IFD
+        };
+        byte[] result = new byte[jpeg.length + exif.length];
+        result[0] = jpeg[0];
+        result[1] = jpeg[1];
+        System.arraycopy(exif, 0, result, 2, exif.length);
+        System.arraycopy(jpeg, 2, result, 2 + exif.length, jpeg.length - 2);
+        return result;
+    }
+}
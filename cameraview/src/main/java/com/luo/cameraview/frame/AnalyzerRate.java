@@ -0,0 +1,79 @@
+package com.luo.cameraview.frame;
+
+/**
+ * 分析器的目标帧率.
+ * <p>
+ * 调度在分发帧时按帧的时间戳决定是否交给分析器, 跳过的帧不会被该分析器持有.
+ * 所有模式都会参考分析器最近的平均处理耗时: 处理一帧的时间比目标间隔长时, 按处理耗时降低帧率,
+ * 帧不会在队列中等待后再被替换掉.
+ */
+public final class AnalyzerRate {
+
+    /**
+     * 每一帧都分析, 跟不上时按处理耗时跳帧
+     */
+    public static final int MODE_EVERY_FRAME = 0;
+    /**
+     * 按固定帧率分析
+     */
+    public static final int MODE_FIXED_RATE = 1;
+    /**
+     * 尽可能快地分析, 但分析器空闲时才交给它新的帧, 从不排队
+     */
+    public static final int MODE_NO_QUEUEING = 2;
+
+    private static final AnalyzerRate EVERY_FRAME = new AnalyzerRate(MODE_EVERY_FRAME, 0);
+    private static final AnalyzerRate NO_QUEUEING = new AnalyzerRate(MODE_NO_QUEUEING, 0);
+
+    private final int mMode;
+    private final long mIntervalNanos;
+
+    private AnalyzerRate(int mode, long intervalNanos) {
+        mMode = mode;
+        mIntervalNanos = intervalNanos;
+    }
+
+    public static AnalyzerRate everyFrame() {
+        return EVERY_FRAME;
+    }
+
+    /**
+     * @param fps 每秒分析的帧数, 超过预览帧率时等同于{@link #everyFrame()}
+     * @return
+     */
+    public static AnalyzerRate fps(float fps) {
+        if (!(fps > 0)) {
+            throw new IllegalArgumentException("fps must be positive: " + fps);
+        }
+        return new AnalyzerRate(MODE_FIXED_RATE, (long) (1000000000L / fps));
+    }
+
+    public static AnalyzerRate noQueueing() {
+        return NO_QUEUEING;
+    }
+
+    public int getMode() {
+        return mMode;
+    }
+
+    /**
+     * 目标帧间隔, 只有{@link #MODE_FIXED_RATE}不为0
+     *
+     * @return 单位纳秒
+     */
+    public long getIntervalNanos() {
+        return mIntervalNanos;
+    }
+
+    @Override
+    public String toString() {
+        switch (mMode) {
+            case MODE_FIXED_RATE:
+                return "AnalyzerRate{" + 1000000000f / mIntervalNanos + "fps}";
+            case MODE_NO_QUEUEING:
+                return "AnalyzerRate{noQueueing}";
+            default:
+                return "AnalyzerRate{everyFrame}";
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.luo.cameraview.frame;
+
+import com.luo.cameraview.metrics.LatencyHistogram;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 单个分析器的统计, 由{@link FrameDispatcher}在分析线程中更新, 可以在任意线程读取
+ */
+public class AnalyzerStats {
+
+    private final AtomicInteger mQueueDepth = new AtomicInteger();
+    private final AtomicInteger mMaxQueueDepth = new AtomicInteger();
+    private final AtomicLong mProcessedFrames = new AtomicLong();
+    private final AtomicLong mDroppedFrames = new AtomicLong();
+    private final AtomicLong mSkippedFrames = new AtomicLong();
+    private final LatencyHistogram mProcessingTime = new LatencyHistogram();
+    /**
+     * 处理耗时的指数加权平均, 只在分析线程中写入
+     */
+    private volatile long mAverageProcessingNanos;
+
+    /**
+     * 该分析器当前持有的帧数, 包括正在分析的一帧和等待分析的一帧
+     *
+     * @return
+     */
+    public int getQueueDepth() {
+        return mQueueDepth.get();
+    }
+
+    /**
+     * 出现过的最大{@link #getQueueDepth()}
+     *
+     * @return
+     */
+    public int getMaxQueueDepth() {
+        return mMaxQueueDepth.get();
+    }
+
+    /**
+     * 已经分析的帧数
+     *
+     * @return
+     */
+    public long getProcessedFrames() {
+        return mProcessedFrames.get();
+    }
+
+    /**
+     * 还没分析就被新帧替换掉的帧数
+     *
+     * @return
+     */
+    public long getDroppedFrames() {
+        return mDroppedFrames.get();
+    }
+
+    /**
+     * 按{@link AnalyzerRate}调度跳过, 没有交给该分析器的帧数
+     *
+     * @return
+     */
+    public long getSkippedFrames() {
+        return mSkippedFrames.get();
+    }
+
+    /**
+     * 最近的平均处理耗时, 用于调度
+     *
+     * @return 单位纳秒, 还没有处理过帧时返回0
+     */
+    public long getAverageProcessingNanos() {
+        return mAverageProcessingNanos;
+    }
+
+    /**
+     * 每帧{@link IFrameAnalyzer#analyze(IFrame)}的耗时分布
+     *
+     * @return
+     */
+    public LatencyHistogram getProcessingTime() {
+        return mProcessingTime;
+    }
+
+    void onEnqueued() {
+        int depth = mQueueDepth.incrementAndGet();
+        int max;
+        while (depth > (max = mMaxQueueDepth.get())) {
+            if (mMaxQueueDepth.compareAndSet(max, depth)) {
+                break;
+            }
+        }
+    }
+
+    void onDropped() {
+        mQueueDepth.decrementAndGet();
+        mDroppedFrames.incrementAndGet();
+    }
+
+    void onSkipped() {
+        mSkippedFrames.incrementAndGet();
+    }
+
+    void onProcessed(long durationNanos) {
+        long average = mAverageProcessingNanos;
+        //权重1/8, 大约反映最近8帧
+        mAverageProcessingNanos = average == 0 ? durationNanos : average + (durationNanos - average) / 8;
+        mQueueDepth.decrementAndGet();
+        mProcessedFrames.incrementAndGet();
+        mProcessingTime.record(durationNanos);
+    }
+
+    /**
+     * 分析器移除或清空时关闭的帧, 不计入丢帧
+     */
+    void onDiscarded() {
+        mQueueDepth.decrementAndGet();
+    }
+
+    @Override
+    public String toString() {
+        return "AnalyzerStats{depth=" + getQueueDepth() + ", processed=" + getProcessedFrames()
+                + ", dropped=" + getDroppedFrames() + ", skipped=" + getSkippedFrames()
+                + ", p50=" + mProcessingTime.getPercentile(50) + "us, p95=" + mProcessingTime.getPercentile(95) + "us}";
+    }
+}
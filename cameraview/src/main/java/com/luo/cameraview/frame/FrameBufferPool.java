@@ -0,0 +1,350 @@
+package com.luo.cameraview.frame;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 按容量复用的ByteBuffer池, 用于拷贝预览帧.
+ * <p>
+ * 默认分配direct ByteBuffer; 需要交给YuvImage等只接受byte[]的API时使用堆上的缓冲区, 通过array()取得数组.
+ * <p>
+ * 每个容量对应一个桶, 帧大小不变时稳定状态下不再分配新的缓冲区.
+ * 池中所有缓冲区(使用中和空闲)的总大小不会超过maxBytes, 超出时先回收其他容量的空闲缓冲区,
+ * 仍然不够则{@link #acquire(int)}返回null, 调用者应丢弃这一帧.
+ * <p>
+ * 打开泄漏检测后, 没有release就被回收的缓冲区会打印申请时的调用栈, 每次申请会多分配一个引用和调用栈.
+ * 泄漏检测默认关闭; 库的BuildConfig.DEBUG在release AAR中总是false, 应用应该传入自己的BuildConfig.DEBUG,
+ * 只在debug版本中打开.
+ */
+public class FrameBufferPool {
+
+    private final long mMaxBytes;
+    private final boolean mDirect;
+    private boolean mLeakDetection;
+    private final List<Bucket> mBuckets = new ArrayList<Bucket>();
+    private long mResidentBytes;
+    private long mAllocations;
+    private long mLeaks;
+
+    private final ReferenceQueue<PooledBuffer> mLeakQueue = new ReferenceQueue<PooledBuffer>();
+    private final Set<LeakReference> mLeakReferences =
+            Collections.newSetFromMap(new IdentityHashMap<LeakReference, Boolean>());
+
+    public FrameBufferPool(long maxBytes) {
+        this(maxBytes, false);
+    }
+
+    public FrameBufferPool(long maxBytes, boolean leakDetection) {
+        this(maxBytes, leakDetection, true);
+    }
+
+    /**
+     * @param maxBytes
+     * @param leakDetection
+     * @param direct        false时分配堆上的缓冲区
+     */
+    public FrameBufferPool(long maxBytes, boolean leakDetection, boolean direct) {
+        mMaxBytes = maxBytes;
+        mLeakDetection = leakDetection;
+        mDirect = direct;
+    }
+
+    /**
+     * 打开或关闭泄漏检测, 只影响之后申请的缓冲区
+     *
+     * @param leakDetection
+     */
+    public synchronized void setLeakDetection(boolean leakDetection) {
+        mLeakDetection = leakDetection;
+    }
+
+    /**
+     * 获取一个容量为capacity的缓冲区, position为0, limit为capacity
+     *
+     * @param capacity
+     * @return 超出内存上限时返回null
+     */
+    public synchronized PooledBuffer acquire(int capacity) {
+        reportLeaks();
+        Bucket bucket = bucket(capacity);
+        PooledBuffer buffer = bucket.mFree.pollLast();
+        if (buffer == null) {
+            if (!reserve(capacity)) {
+                return null;
+            }
+            buffer = new PooledBuffer(this, mDirect ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity));
+            mResidentBytes += capacity;
+            mAllocations++;
+        }
+        buffer.mInUse = true;
+        buffer.mBuffer.clear();
+        if (mLeakDetection) {
+            LeakReference reference = new LeakReference(buffer, mLeakQueue);
+            mLeakReferences.add(reference);
+            buffer.mLeakReference = reference;
+        }
+        return buffer;
+    }
+
+    synchronized void release(PooledBuffer buffer) {
+        if (!buffer.mInUse) {
+            throw new IllegalStateException("PooledBuffer released twice");
+        }
+        buffer.mInUse = false;
+        if (buffer.mLeakReference != null) {
+            mLeakReferences.remove(buffer.mLeakReference);
+            buffer.mLeakReference.clear();
+            buffer.mLeakReference = null;
+        }
+        bucket(buffer.capacity()).mFree.addLast(buffer);
+    }
+
+    /**
+     * 把frame的各个平面拷贝到池中的缓冲区, 返回的帧在close()时归还缓冲区
+     *
+     * @param frame
+     * @return 超出内存上限时返回null
+     */
+    public IFrame copyOf(IFrame frame) {
+        IFrame.Plane[] planes = frame.getPlanes();
+        PooledBuffer[] buffers = new PooledBuffer[planes.length];
+        for (int i = 0; i < planes.length; i++) {
+            //duplicate()只创建视图, 不影响其他线程读取同一个平面
+            ByteBuffer source = planes[i].getBuffer().duplicate();
+            source.rewind();
+            buffers[i] = acquire(source.remaining());
+            if (buffers[i] == null) {
+                for (int j = 0; j < i; j++) {
+                    buffers[j].release();
+                }
+                return null;
+            }
+            ByteBuffer target = buffers[i].getBuffer();
+            target.put(source);
+            target.flip();
+        }
+        return new PooledFrame(frame, buffers);
+    }
+
+    /**
+     * 释放所有空闲的缓冲区
+     */
+    public synchronized void trim() {
+        for (Bucket bucket : mBuckets) {
+            PooledBuffer buffer;
+            while ((buffer = bucket.mFree.pollFirst()) != null) {
+                mResidentBytes -= buffer.capacity();
+            }
+        }
+    }
+
+    /**
+     * 池中所有缓冲区的总大小, 包括使用中和空闲的
+     *
+     * @return
+     */
+    public synchronized long getResidentBytes() {
+        return mResidentBytes;
+    }
+
+    /**
+     * 分配过的缓冲区数量, 稳定状态下不再增长
+     *
+     * @return
+     */
+    public synchronized long getAllocationCount() {
+        return mAllocations;
+    }
+
+    /**
+     * 检测到的泄漏次数
+     *
+     * @return
+     */
+    public synchronized long getLeakCount() {
+        reportLeaks();
+        return mLeaks;
+    }
+
+    private Bucket bucket(int capacity) {
+        for (int i = 0, size = mBuckets.size(); i < size; i++) {
+            Bucket bucket = mBuckets.get(i);
+            if (bucket.mCapacity == capacity) {
+                return bucket;
+            }
+        }
+        Bucket bucket = new Bucket(capacity);
+        mBuckets.add(bucket);
+        return bucket;
+    }
+
+    /**
+     * 保证还能再分配capacity字节, 不够时回收其他容量的空闲缓冲区
+     */
+    private boolean reserve(int capacity) {
+        if (mResidentBytes + capacity <= mMaxBytes) {
+            return true;
+        }
+        for (Bucket bucket : mBuckets) {
+            if (bucket.mCapacity == capacity) {
+                continue;
+            }
+            PooledBuffer buffer;
+            while ((buffer = bucket.mFree.pollFirst()) != null) {
+                mResidentBytes -= buffer.capacity();
+                if (mResidentBytes + capacity <= mMaxBytes) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void reportLeaks() {
+        LeakReference reference;
+        while ((reference = (LeakReference) mLeakQueue.poll()) != null) {
+            if (mLeakReferences.remove(reference)) {
+                mLeaks++;
+                mResidentBytes -= reference.mCapacity;
+                new IllegalStateException("PooledBuffer(" + reference.mCapacity
+                        + ") was garbage collected without release()", reference.mAcquireSite).printStackTrace();
+            }
+        }
+    }
+
+    private static class Bucket {
+        final int mCapacity;
+        final ArrayDeque<PooledBuffer> mFree = new ArrayDeque<PooledBuffer>();
+
+        Bucket(int capacity) {
+            mCapacity = capacity;
+        }
+    }
+
+    private static class LeakReference extends WeakReference<PooledBuffer> {
+        final int mCapacity;
+        final Throwable mAcquireSite;
+
+        LeakReference(PooledBuffer buffer, ReferenceQueue<PooledBuffer> queue) {
+            super(buffer, queue);
+            mCapacity = buffer.capacity();
+            mAcquireSite = new Throwable("acquired here");
+        }
+    }
+
+    /**
+     * 池中的一个缓冲区, 使用完后调用{@link #release()}归还
+     */
+    public static class PooledBuffer {
+        private final FrameBufferPool mPool;
+        private final ByteBuffer mBuffer;
+        private boolean mInUse;
+        private LeakReference mLeakReference;
+
+        PooledBuffer(FrameBufferPool pool, ByteBuffer buffer) {
+            mPool = pool;
+            mBuffer = buffer;
+        }
+
+        public ByteBuffer getBuffer() {
+            return mBuffer;
+        }
+
+        public int capacity() {
+            return mBuffer.capacity();
+        }
+
+        public void release() {
+            mPool.release(this);
+        }
+    }
+
+    /**
+     * 拷贝到池中缓冲区的帧
+     */
+    private static class PooledFrame implements IFrame {
+        private final int mWidth;
+        private final int mHeight;
+        private final long mTimestamp;
+        private final PooledBuffer[] mBuffers;
+        private final Plane[] mPlanes;
+        private boolean mClosed;
+
+        PooledFrame(IFrame source, PooledBuffer[] buffers) {
+            mWidth = source.getWidth();
+            mHeight = source.getHeight();
+            mTimestamp = source.getTimestamp();
+            mBuffers = buffers;
+            IFrame.Plane[] planes = source.getPlanes();
+            mPlanes = new Plane[planes.length];
+            for (int i = 0; i < planes.length; i++) {
+                mPlanes[i] = new PooledPlane(buffers[i].getBuffer(), planes[i].getRowStride(), planes[i].getPixelStride());
+            }
+        }
+
+        @Override
+        public int getWidth() {
+            return mWidth;
+        }
+
+        @Override
+        public int getHeight() {
+            return mHeight;
+        }
+
+        @Override
+        public long getTimestamp() {
+            return mTimestamp;
+        }
+
+        @Override
+        public Plane[] getPlanes() {
+            return mPlanes;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            for (PooledBuffer buffer : mBuffers) {
+                buffer.release();
+            }
+        }
+    }
+
+    private static class PooledPlane implements IFrame.Plane {
+        private final ByteBuffer mBuffer;
+        private final int mRowStride;
+        private final int mPixelStride;
+
+        PooledPlane(ByteBuffer buffer, int rowStride, int pixelStride) {
+            mBuffer = buffer;
+            mRowStride = rowStride;
+            mPixelStride = pixelStride;
+        }
+
+        @Override
+        public ByteBuffer getBuffer() {
+            return mBuffer;
+        }
+
+        @Override
+        public int getRowStride() {
+            return mRowStride;
+        }
+
+        @Override
+        public int getPixelStride() {
+            return mPixelStride;
+        }
+    }
+}
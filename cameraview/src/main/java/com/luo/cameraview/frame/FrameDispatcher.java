@@ -0,0 +1,265 @@
+package com.luo.cameraview.frame;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 把预览帧同时分发给已注册的{@link IFrameAnalyzer}.
+ * <p>
+ * 每帧包装成引用计数的{@link SharedFrame}, 每个分析器持有一个引用, 在共享的线程池中各自并行分析,
+ * 最后一个分析器处理完后才关闭Image. 所有分析器共用同一路ImageReader输出, 不拷贝帧数据.
+ * <p>
+ * 每个分析器独立执行只保留最新一帧的背压策略: 分析器还在处理上一帧时, 新到的帧会替换掉它还没开始处理的帧.
+ * 因此慢的分析器只会让自己丢帧, 不会拖慢其他分析器, 也不会阻塞摄像头, 每个分析器最多持有两帧(处理中和等待中).
+ * 每个分析器的队列深度, 丢帧数和处理耗时见{@link #getAnalyzerStats(IFrameAnalyzer)}.
+ * <p>
+ * 在此之前先按每个分析器的{@link AnalyzerRate}和最近的平均处理耗时决定是否交给它,
+ * 跳过的帧不占用引用, 所有分析器都跳过时帧立即关闭, 归还给ImageReader.
+ * 调度只比较时间戳, 不会阻塞分发的线程.
+ */
+public class FrameDispatcher {
+
+    private final Executor mExecutor;
+    private final CopyOnWriteArrayList<Slot> mSlots = new CopyOnWriteArrayList<Slot>();
+
+    public FrameDispatcher() {
+        this(createDefaultExecutor());
+    }
+
+    public FrameDispatcher(Executor executor) {
+        mExecutor = executor;
+    }
+
+    /**
+     * 默认的分析线程池, 空闲时退出线程
+     *
+     * @return
+     */
+    static ThreadPoolExecutor createDefaultExecutor() {
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 5, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicLong mCount = new AtomicLong();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "FrameAnalyzer-" + mCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    public void addAnalyzer(IFrameAnalyzer analyzer) {
+        addAnalyzer(analyzer, AnalyzerRate.everyFrame());
+    }
+
+    /**
+     * 添加分析器, 已经添加过时只修改帧率
+     *
+     * @param analyzer
+     * @param rate
+     */
+    public synchronized void addAnalyzer(IFrameAnalyzer analyzer, AnalyzerRate rate) {
+        if (rate == null) {
+            throw new NullPointerException("rate == null");
+        }
+        Slot slot = findSlot(analyzer);
+        if (slot == null) {
+            mSlots.add(new Slot(analyzer, rate));
+        } else {
+            slot.mRate = rate;
+        }
+    }
+
+    public synchronized void removeAnalyzer(IFrameAnalyzer analyzer) {
+        Slot slot = findSlot(analyzer);
+        if (slot != null) {
+            mSlots.remove(slot);
+            slot.remove();
+        }
+    }
+
+    public boolean hasAnalyzers() {
+        return !mSlots.isEmpty();
+    }
+
+    public int getAnalyzerCount() {
+        return mSlots.size();
+    }
+
+    /**
+     * 分析器的统计
+     *
+     * @param analyzer
+     * @return 没有注册该分析器时返回null
+     */
+    public AnalyzerStats getAnalyzerStats(IFrameAnalyzer analyzer) {
+        Slot slot = findSlot(analyzer);
+        return slot == null ? null : slot.mStats;
+    }
+
+    /**
+     * 所有分析器被丢弃的帧数之和
+     *
+     * @return
+     */
+    public long getDroppedFrames() {
+        long dropped = 0;
+        for (Slot slot : mSlots) {
+            dropped += slot.mStats.getDroppedFrames();
+        }
+        return dropped;
+    }
+
+    /**
+     * 提交一帧, 由同一个调用者线程(ImageReader的回调线程)调用, 不会阻塞
+     *
+     * @param frame
+     */
+    public void dispatch(IFrame frame) {
+        SharedFrame shared = new SharedFrame(frame);
+        try {
+            long timestamp = frame.getTimestamp();
+            for (Slot slot : mSlots) {
+                if (slot.accept(timestamp)) {
+                    slot.offer(shared.retain());
+                } else {
+                    slot.mStats.onSkipped();
+                }
+            }
+        } finally {
+            //释放分发时持有的引用, 没有分析器时直接关闭
+            shared.close();
+        }
+    }
+
+    /**
+     * 关闭还没处理的帧, 在ImageReader关闭前调用.
+     * 不等待正在分析的帧, 它们在分析完后照常关闭, 帧的提供者需要保证那时底层资源仍然有效
+     */
+    public void clear() {
+        for (Slot slot : mSlots) {
+            slot.clear();
+        }
+    }
+
+    private Slot findSlot(IFrameAnalyzer analyzer) {
+        for (Slot slot : mSlots) {
+            if (slot.mAnalyzer == analyzer) {
+                return slot;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 一个分析器的帧率, 等待帧和统计
+     */
+    private class Slot implements Runnable {
+        final IFrameAnalyzer mAnalyzer;
+        final AnalyzerStats mStats = new AnalyzerStats();
+        final AtomicReference<SharedFrame> mPending = new AtomicReference<SharedFrame>();
+        final AtomicBoolean mScheduled = new AtomicBoolean();
+        volatile AnalyzerRate mRate;
+        volatile boolean mRemoved;
+        /**
+         * 上一次交给分析器的帧的时间戳, 只在分发线程中访问
+         */
+        long mLastAcceptedTimestamp;
+        boolean mAccepted;
+
+        Slot(IFrameAnalyzer analyzer, AnalyzerRate rate) {
+            mAnalyzer = analyzer;
+            mRate = rate;
+        }
+
+        /**
+         * 是否把该时间戳的帧交给分析器.
+         * 最小间隔取目标间隔和平均处理耗时中较大的一个, 留1/8的余量容忍时间戳抖动
+         */
+        boolean accept(long timestamp) {
+            AnalyzerRate rate = mRate;
+            if (rate.getMode() == AnalyzerRate.MODE_NO_QUEUEING) {
+                if (mStats.getQueueDepth() > 0) {
+                    return false;
+                }
+            } else if (mAccepted) {
+                long interval = Math.max(rate.getIntervalNanos(), mStats.getAverageProcessingNanos());
+                if (timestamp - mLastAcceptedTimestamp < interval - interval / 8) {
+                    return false;
+                }
+            }
+            mAccepted = true;
+            mLastAcceptedTimestamp = timestamp;
+            return true;
+        }
+
+        void offer(SharedFrame frame) {
+            if (mRemoved) {
+                frame.close();
+                return;
+            }
+            mStats.onEnqueued();
+            SharedFrame dropped = mPending.getAndSet(frame);
+            if (dropped != null) {
+                mStats.onDropped();
+                dropped.close();
+            }
+            if (mScheduled.compareAndSet(false, true)) {
+                mExecutor.execute(this);
+            }
+        }
+
+        void clear() {
+            SharedFrame pending = mPending.getAndSet(null);
+            if (pending != null) {
+                mStats.onDiscarded();
+                pending.close();
+            }
+        }
+
+        void remove() {
+            mRemoved = true;
+            clear();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                SharedFrame frame = mPending.getAndSet(null);
+                if (frame == null) {
+                    mScheduled.set(false);
+                    //释放标记后又有新帧到达, 并且没有其他线程接手, 继续处理
+                    if (mPending.get() != null && mScheduled.compareAndSet(false, true)) {
+                        continue;
+                    }
+                    return;
+                }
+                if (mRemoved) {
+                    mStats.onDiscarded();
+                    frame.close();
+                    continue;
+                }
+                long start = System.nanoTime();
+                try {
+                    mAnalyzer.analyze(frame);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                } finally {
+                    mStats.onProcessed(System.nanoTime() - start);
+                    frame.close();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,351 @@
+package com.luo.cameraview.frame;
+
+import android.support.annotation.RequiresApi;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 一次完成裁剪, 缩放, 旋转和YUV转RGB, 直接从YUV_420_888平面生成模型输入.
+ * <p>
+ * 每个输出像素按预先计算的采样表从源平面读取少量像素, 耗时只和输出大小有关, 和传感器分辨率无关,
+ * 不需要先转换整帧, 再旋转和缩放.
+ * <p>
+ * 水平和垂直方向分别计算采样点和权重(定点数, 每个方向权重之和为256), 旋转90/270度时两个方向互换:
+ * <ul>
+ * <li>{@link #FILTER_BILINEAR}: 每个方向2个采样点</li>
+ * <li>{@link #FILTER_BOX}: 每个输出像素覆盖的源区域内均匀取点平均, 每个方向最多{@link #MAX_BOX_TAPS}个采样点</li>
+ * </ul>
+ * 亮度按采样表加权, 色度取采样区域中心最近的一点, 输出远小于传感器时对结果的影响可以忽略.
+ * 采样表在帧的尺寸或参数变化时重新生成, 不是线程安全的, 每个分析线程使用自己的实例.
+ * 颜色转换和{@link YuvConverter}相同, 不依赖Android, 可以在JVM上测试和做基准测试.
+ */
+@RequiresApi(21)
+public class FrameResampler {
+
+    public static final int FILTER_BILINEAR = 0;
+    public static final int FILTER_BOX = 1;
+
+    /**
+     * 盒式滤波每个方向最多的采样点数, 保证耗时只和输出大小有关
+     */
+    public static final int MAX_BOX_TAPS = 4;
+
+    private static final int WEIGHT_BITS = 8;
+    private static final int WEIGHT_ONE = 1 << WEIGHT_BITS;
+
+    private final int mOutputWidth;
+    private final int mOutputHeight;
+    private int mFilter = FILTER_BILINEAR;
+    private int mRotation;
+    private boolean mMirror;
+    private int mCropLeft;
+    private int mCropTop;
+    private int mCropWidth;
+    private int mCropHeight;
+    private float mScale = 1f / 255;
+    private float mBias;
+
+    /**
+     * 采样表对应的帧尺寸, 参数修改后置为-1
+     */
+    private int mTableWidth = -1;
+    private int mTableHeight = -1;
+    private Axis mSourceX;
+    private Axis mSourceY;
+
+    /**
+     * @param outputWidth  输出宽度, 例如224
+     * @param outputHeight 输出高度
+     */
+    public FrameResampler(int outputWidth, int outputHeight) {
+        if (outputWidth <= 0 || outputHeight <= 0) {
+            throw new IllegalArgumentException("Invalid output size: " + outputWidth + "x" + outputHeight);
+        }
+        mOutputWidth = outputWidth;
+        mOutputHeight = outputHeight;
+    }
+
+    /**
+     * 预览帧需要顺时针旋转的角度, 和JPEG方向的计算方式相同
+     *
+     * @param sensorOrientation  CameraCharacteristics.SENSOR_ORIENTATION
+     * @param displayOrientation 屏幕旋转角度
+     * @param front              是否为前置摄像头
+     * @return 0, 90, 180或270
+     */
+    public static int computeRotation(int sensorOrientation, int displayOrientation, boolean front) {
+        return (sensorOrientation + displayOrientation * (front ? 1 : -1) + 360) % 360;
+    }
+
+    public FrameResampler setFilter(int filter) {
+        if (filter != FILTER_BILINEAR && filter != FILTER_BOX) {
+            throw new IllegalArgumentException("Unknown filter: " + filter);
+        }
+        mFilter = filter;
+        invalidate();
+        return this;
+    }
+
+    /**
+     * @param degrees 把裁剪区域顺时针旋转的角度, 0, 90, 180或270
+     * @return
+     */
+    public FrameResampler setRotation(int degrees) {
+        if (degrees % 90 != 0) {
+            throw new IllegalArgumentException("Rotation must be a multiple of 90: " + degrees);
+        }
+        mRotation = (degrees % 360 + 360) % 360;
+        invalidate();
+        return this;
+    }
+
+    /**
+     * 旋转后再水平翻转, 用于前置摄像头
+     *
+     * @param mirror
+     * @return
+     */
+    public FrameResampler setMirror(boolean mirror) {
+        mMirror = mirror;
+        invalidate();
+        return this;
+    }
+
+    /**
+     * 设置感兴趣的区域, 使用帧的坐标(旋转前). 宽或高为0时使用整帧
+     *
+     * @param left
+     * @param top
+     * @param width
+     * @param height
+     * @return
+     */
+    public FrameResampler setCrop(int left, int top, int width, int height) {
+        if (left < 0 || top < 0 || width < 0 || height < 0) {
+            throw new IllegalArgumentException("Invalid crop: " + left + "," + top + " " + width + "x" + height);
+        }
+        mCropLeft = left;
+        mCropTop = top;
+        mCropWidth = width;
+        mCropHeight = height;
+        invalidate();
+        return this;
+    }
+
+    /**
+     * 浮点输出的归一化: (value - mean) / std, value为0~255. 默认归一化到0~1
+     *
+     * @param mean
+     * @param std
+     * @return
+     */
+    public FrameResampler setNormalization(float mean, float std) {
+        if (std == 0) {
+            throw new IllegalArgumentException("std must not be 0");
+        }
+        mScale = 1 / std;
+        mBias = -mean / std;
+        return this;
+    }
+
+    public int getOutputWidth() {
+        return mOutputWidth;
+    }
+
+    public int getOutputHeight() {
+        return mOutputHeight;
+    }
+
+    /**
+     * 输出RGB, 每像素3字节, 按行排列(HWC)
+     *
+     * @param frame
+     * @param out   长度不小于outputWidth * outputHeight * 3
+     */
+    public void toRgb(IFrame frame, byte[] out) {
+        checkLength(out.length);
+        resample(frame, out, null);
+    }
+
+    /**
+     * 输出归一化的RGB浮点数, 按行排列(HWC)
+     *
+     * @param frame
+     * @param out   长度不小于outputWidth * outputHeight * 3
+     */
+    public void toFloat(IFrame frame, float[] out) {
+        checkLength(out.length);
+        resample(frame, null, out);
+    }
+
+    private void checkLength(int length) {
+        int required = mOutputWidth * mOutputHeight * 3;
+        if (length < required) {
+            throw new IllegalArgumentException("Output buffer too small: " + length + " < " + required);
+        }
+    }
+
+    private void invalidate() {
+        mTableWidth = -1;
+        mTableHeight = -1;
+    }
+
+    private void resample(IFrame frame, byte[] rgb, float[] values) {
+        prepare(frame.getWidth(), frame.getHeight());
+        IFrame.Plane[] planes = frame.getPlanes();
+        ByteBuffer y = planes[0].getBuffer();
+        ByteBuffer u = planes[1].getBuffer();
+        ByteBuffer v = planes[2].getBuffer();
+        int yRowStride = planes[0].getRowStride();
+        int uRowStride = planes[1].getRowStride();
+        int uPixelStride = planes[1].getPixelStride();
+        int vRowStride = planes[2].getRowStride();
+        int vPixelStride = planes[2].getPixelStride();
+        //旋转90/270度时, 输出的行决定源的x, 输出的列决定源的y
+        boolean transposed = mRotation == 90 || mRotation == 270;
+        int taps = mSourceX.mTaps;
+        float scale = mScale;
+        float bias = mBias;
+        int out = 0;
+        for (int oy = 0; oy < mOutputHeight; oy++) {
+            for (int ox = 0; ox < mOutputWidth; ox++) {
+                int xIndex = transposed ? oy : ox;
+                int yIndex = transposed ? ox : oy;
+                int luma = 0;
+                int xBase = xIndex * taps;
+                int yBase = yIndex * taps;
+                for (int j = 0; j < taps; j++) {
+                    int rowOffset = mSourceY.mPositions[yBase + j] * yRowStride;
+                    int rowSum = 0;
+                    for (int i = 0; i < taps; i++) {
+                        rowSum += (y.get(rowOffset + mSourceX.mPositions[xBase + i]) & 0xFF)
+                                * mSourceX.mWeights[xBase + i];
+                    }
+                    luma += rowSum * mSourceY.mWeights[yBase + j];
+                }
+                luma = (luma + (1 << (WEIGHT_BITS * 2 - 1))) >> (WEIGHT_BITS * 2);
+                int chromaX = mSourceX.mChroma[xIndex];
+                int chromaY = mSourceY.mChroma[yIndex];
+                int argb = YuvConverter.yuvToArgb(luma,
+                        u.get(chromaY * uRowStride + chromaX * uPixelStride) & 0xFF,
+                        v.get(chromaY * vRowStride + chromaX * vPixelStride) & 0xFF);
+                int r = (argb >> 16) & 0xFF;
+                int g = (argb >> 8) & 0xFF;
+                int b = argb & 0xFF;
+                if (rgb != null) {
+                    rgb[out] = (byte) r;
+                    rgb[out + 1] = (byte) g;
+                    rgb[out + 2] = (byte) b;
+                } else {
+                    values[out] = r * scale + bias;
+                    values[out + 1] = g * scale + bias;
+                    values[out + 2] = b * scale + bias;
+                }
+                out += 3;
+            }
+        }
+    }
+
+    /**
+     * 帧尺寸或参数变化时重新生成两个方向的采样表
+     */
+    private void prepare(int width, int height) {
+        if (width == mTableWidth && height == mTableHeight) {
+            return;
+        }
+        int cropLeft = Math.min(mCropLeft, width - 1);
+        int cropTop = Math.min(mCropTop, height - 1);
+        int cropWidth = mCropWidth == 0 ? width - cropLeft : Math.min(mCropWidth, width - cropLeft);
+        int cropHeight = mCropHeight == 0 ? height - cropTop : Math.min(mCropHeight, height - cropTop);
+        boolean transposed = mRotation == 90 || mRotation == 270;
+        //源的x方向对应的输出像素数, 以及输出方向是否和源相反
+        int xCount = transposed ? mOutputHeight : mOutputWidth;
+        int yCount = transposed ? mOutputWidth : mOutputHeight;
+        boolean xReversed;
+        boolean yReversed;
+        switch (mRotation) {
+            case 90:
+                //输出的列从下往上对应源的行
+                xReversed = false;
+                yReversed = true;
+                break;
+            case 180:
+                xReversed = true;
+                yReversed = true;
+                break;
+            case 270:
+                xReversed = true;
+                yReversed = false;
+                break;
+            default:
+                xReversed = false;
+                yReversed = false;
+                break;
+        }
+        if (mMirror) {
+            //水平翻转输出, 对应源中决定输出列的方向
+            if (transposed) {
+                yReversed = !yReversed;
+            } else {
+                xReversed = !xReversed;
+            }
+        }
+        int taps = mFilter == FILTER_BILINEAR ? 2
+                : Math.max(1, Math.min(MAX_BOX_TAPS, Math.max(ceilDiv(cropWidth, xCount), ceilDiv(cropHeight, yCount))));
+        mSourceX = new Axis(cropLeft, cropWidth, xCount, taps, xReversed, mFilter);
+        mSourceY = new Axis(cropTop, cropHeight, yCount, taps, yReversed, mFilter);
+        mTableWidth = width;
+        mTableHeight = height;
+    }
+
+    private static int ceilDiv(int a, int b) {
+        return (a + b - 1) / b;
+    }
+
+    /**
+     * 一个方向的采样表: 每个输出位置有taps个源坐标和权重, 以及色度平面上的坐标
+     */
+    private static class Axis {
+        final int mTaps;
+        final int[] mPositions;
+        final int[] mWeights;
+        final int[] mChroma;
+
+        Axis(int start, int length, int count, int taps, boolean reversed, int filter) {
+            mTaps = taps;
+            mPositions = new int[count * taps];
+            mWeights = new int[count * taps];
+            mChroma = new int[count];
+            int last = start + length - 1;
+            double step = (double) length / count;
+            for (int i = 0; i < count; i++) {
+                int index = reversed ? count - 1 - i : i;
+                //输出像素在源中覆盖[begin, begin + step)
+                double begin = start + index * step;
+                double center = begin + step / 2;
+                int base = i * taps;
+                if (filter == FILTER_BILINEAR) {
+                    //像素中心对齐
+                    double position = Math.max(start, Math.min(last, center - 0.5));
+                    int p0 = (int) position;
+                    int weight = (int) Math.round((position - p0) * WEIGHT_ONE);
+                    mPositions[base] = p0;
+                    mPositions[base + 1] = Math.min(last, p0 + 1);
+                    mWeights[base] = WEIGHT_ONE - weight;
+                    mWeights[base + 1] = weight;
+                } else {
+                    int remaining = WEIGHT_ONE;
+                    for (int t = 0; t < taps; t++) {
+                        double position = begin + (t + 0.5) * step / taps;
+                        mPositions[base + t] = Math.max(start, Math.min(last, (int) position));
+                        //最后一个采样点补齐取整误差
+                        int weight = t == taps - 1 ? remaining : WEIGHT_ONE / taps;
+                        mWeights[base + t] = weight;
+                        remaining -= weight;
+                    }
+                }
+                mChroma[i] = Math.max(start, Math.min(last, (int) center)) / 2;
+            }
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.luo.cameraview.frame;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 一帧YUV_420_888格式的预览数据.
+ * <p>
+ * 不依赖android.media.Image, 可以在PC的JVM上构造测试数据.
+ */
+public interface IFrame {
+
+    /**
+     * 一个像素平面, 对应Image.Plane
+     */
+    interface Plane {
+        ByteBuffer getBuffer();
+
+        /**
+         * 相邻两行同一列像素之间的字节数
+         *
+         * @return
+         */
+        int getRowStride();
+
+        /**
+         * 同一行相邻两个像素之间的字节数
+         *
+         * @return
+         */
+        int getPixelStride();
+    }
+
+    int getWidth();
+
+    int getHeight();
+
+    /**
+     * 帧的时间戳, 单位纳秒
+     *
+     * @return
+     */
+    long getTimestamp();
+
+    /**
+     * 依次为Y, U, V三个平面
+     *
+     * @return
+     */
+    Plane[] getPlanes();
+
+    /**
+     * 释放该帧, 之后不能再访问平面数据
+     */
+    void close();
+}
@@ -0,0 +1,15 @@
+package com.luo.cameraview.frame;
+
+/**
+ * 预览帧分析器
+ */
+public interface IFrameAnalyzer {
+
+    /**
+     * 在分析线程池中回调, 多个分析器并行分析同一帧, 同一个分析器不会并发回调.
+     * frame只在该方法执行期间有效, 不要调用{@link IFrame#close()}
+     *
+     * @param frame
+     */
+    void analyze(IFrame frame);
+}
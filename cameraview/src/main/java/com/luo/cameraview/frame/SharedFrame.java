@@ -0,0 +1,64 @@
+package com.luo.cameraview.frame;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 多个分析器共享的一帧.
+ * <p>
+ * 每个持有者各占一个引用, {@link #close()}释放一个引用, 最后一个引用释放时才关闭底层的帧(Image),
+ * 所以同一帧可以同时交给多个分析器, 不需要拷贝, 也不需要多路ImageReader输出.
+ */
+final class SharedFrame implements IFrame {
+
+    private final IFrame mFrame;
+    private final AtomicInteger mReferences = new AtomicInteger(1);
+
+    SharedFrame(IFrame frame) {
+        mFrame = frame;
+    }
+
+    /**
+     * 增加一个引用, 必须在释放最后一个引用之前调用
+     *
+     * @return
+     */
+    SharedFrame retain() {
+        if (mReferences.getAndIncrement() <= 0) {
+            throw new IllegalStateException("Frame already closed");
+        }
+        return this;
+    }
+
+    @Override
+    public int getWidth() {
+        return mFrame.getWidth();
+    }
+
+    @Override
+    public int getHeight() {
+        return mFrame.getHeight();
+    }
+
+    @Override
+    public long getTimestamp() {
+        return mFrame.getTimestamp();
+    }
+
+    @Override
+    public Plane[] getPlanes() {
+        return mFrame.getPlanes();
+    }
+
+    /**
+     * 释放一个引用
+     */
+    @Override
+    public void close() {
+        int references = mReferences.decrementAndGet();
+        if (references == 0) {
+            mFrame.close();
+        } else if (references < 0) {
+            throw new IllegalStateException("Frame closed too many times");
+        }
+    }
+}
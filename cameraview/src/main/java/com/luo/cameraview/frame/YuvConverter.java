@@ -0,0 +1,360 @@
+package com.luo.cameraview.frame;
+
+import android.support.annotation.RequiresApi;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * YUV_420_888转换为NV21, I420和ARGB_8888, 结果写入调用者提供的数组.
+ * <p>
+ * 按行跨度和像素跨度读取平面, 每行先整体拷贝到线程复用的行缓冲区, 再按像素跨度取值,
+ * 像素跨度为1的平面直接整行拷贝到输出. 宽高为奇数时色度按(width + 1) / 2, (height + 1) / 2计算.
+ * <p>
+ * 像素数达到并行阈值时, 按色度行(两行亮度)切分给fork-join线程池, 各任务写入互不重叠的行.
+ * 不分配和帧大小相关的内存, 每次转换只创建几个ByteBuffer视图和fork-join任务对象.
+ * 不依赖Android, 可以在JVM上测试和做基准测试.
+ */
+@RequiresApi(21)
+public class YuvConverter {
+
+    /**
+     * 默认的并行阈值, 大约640x480, 更小的帧拆分任务的开销超过收益
+     */
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 640 * 480;
+
+    private static final int FORMAT_NV21 = 0;
+    private static final int FORMAT_I420 = 1;
+    private static final int FORMAT_ARGB = 2;
+
+    /**
+     * 查表截断到0~255, 噪声多的画面用比较分支会频繁预测失败.
+     * 分量范围约为-227~480, 表覆盖-256~767
+     */
+    private static final int CLAMP_OFFSET = 256;
+    private static final int[] CLAMP = new int[1024];
+
+    static {
+        for (int i = 0; i < CLAMP.length; i++) {
+            CLAMP[i] = Math.max(0, Math.min(255, i - CLAMP_OFFSET));
+        }
+    }
+
+    /**
+     * 每个线程复用的行缓冲区
+     */
+    private static final ThreadLocal<RowBuffers> sRowBuffers = new ThreadLocal<RowBuffers>() {
+        @Override
+        protected RowBuffers initialValue() {
+            return new RowBuffers();
+        }
+    };
+
+    private final ForkJoinPool mPool;
+    private final int mParallelThreshold;
+
+    /**
+     * 使用共享的线程池, 线程数等于CPU核数
+     */
+    public YuvConverter() {
+        this(DefaultPool.INSTANCE, DEFAULT_PARALLEL_THRESHOLD);
+    }
+
+    /**
+     * @param pool              并行转换的线程池, 为null时总是在调用者线程中转换
+     * @param parallelThreshold 像素数不小于该值时并行转换
+     */
+    public YuvConverter(ForkJoinPool pool, int parallelThreshold) {
+        mPool = pool;
+        mParallelThreshold = parallelThreshold;
+    }
+
+    public static int nv21Size(int width, int height) {
+        return width * height + 2 * ((width + 1) / 2) * ((height + 1) / 2);
+    }
+
+    public static int i420Size(int width, int height) {
+        return nv21Size(width, height);
+    }
+
+    /**
+     * 转换为NV21: Y平面之后是VU交错的色度平面
+     *
+     * @param frame
+     * @param out   长度不小于{@link #nv21Size(int, int)}
+     */
+    public void toNv21(IFrame frame, byte[] out) {
+        checkLength(out.length, nv21Size(frame.getWidth(), frame.getHeight()));
+        convert(new Job(frame, FORMAT_NV21, out, null));
+    }
+
+    /**
+     * 转换为I420: Y, U, V三个连续的平面
+     *
+     * @param frame
+     * @param out   长度不小于{@link #i420Size(int, int)}
+     */
+    public void toI420(IFrame frame, byte[] out) {
+        checkLength(out.length, i420Size(frame.getWidth(), frame.getHeight()));
+        convert(new Job(frame, FORMAT_I420, out, null));
+    }
+
+    /**
+     * 转换为ARGB_8888, 可以直接用于Bitmap.setPixels(). 按BT.601全范围(JFIF)转换
+     *
+     * @param frame
+     * @param out   长度不小于width * height
+     */
+    public void toArgb(IFrame frame, int[] out) {
+        checkLength(out.length, frame.getWidth() * frame.getHeight());
+        convert(new Job(frame, FORMAT_ARGB, null, out));
+    }
+
+    private void convert(Job job) {
+        int chromaRows = (job.mHeight + 1) / 2;
+        if (mPool == null || mPool.getParallelism() == 1 || job.mWidth * job.mHeight < mParallelThreshold) {
+            job.convertRows(0, chromaRows);
+            return;
+        }
+        //每个线程大约分到4个任务, 平衡各核的速度差异
+        int grain = Math.max(8, chromaRows / (mPool.getParallelism() * 4));
+        mPool.invoke(new RowTask(job, 0, chromaRows, grain));
+    }
+
+    private static void checkLength(int length, int required) {
+        if (length < required) {
+            throw new IllegalArgumentException("Output buffer too small: " + length + " < " + required);
+        }
+    }
+
+    /**
+     * @param r 放大1024倍的红色分量
+     * @param g
+     * @param b
+     * @return
+     */
+    private static int toArgb(int r, int g, int b) {
+        return 0xFF000000 | (CLAMP[(r >> 10) + CLAMP_OFFSET] << 16)
+                | (CLAMP[(g >> 10) + CLAMP_OFFSET] << 8) | CLAMP[(b >> 10) + CLAMP_OFFSET];
+    }
+
+    /**
+     * 转换单个像素, 系数和{@link #convertArgbRow}相同, 供{@link FrameResampler}使用
+     *
+     * @param y
+     * @param u
+     * @param v
+     * @return
+     */
+    static int yuvToArgb(int y, int u, int v) {
+        int cb = u - 128;
+        int cr = v - 128;
+        int luma = y << 10;
+        return toArgb(luma + 1436 * cr + 512, luma - 352 * cb - 731 * cr + 512, luma + 1815 * cb + 512);
+    }
+
+    /**
+     * 转换一行像素. 单独的小方法可以被JIT完整优化, 不受外层循环的影响
+     */
+    private static void convertArgbRow(byte[] yRow, byte[] uRow, byte[] vRow, int uPixelStride, int vPixelStride,
+                                       int[] argb, int out, int width) {
+        //相邻两个像素共用一组色度, 色度项只计算一次
+        for (int col = 0, uIndex = 0, vIndex = 0; col < width;
+             col += 2, uIndex += uPixelStride, vIndex += vPixelStride) {
+            int cb = (uRow[uIndex] & 0xFF) - 128;
+            int cr = (vRow[vIndex] & 0xFF) - 128;
+            //系数放大1024倍: 1.402, 0.344, 0.714, 1.772
+            int red = 1436 * cr + 512;
+            int green = -352 * cb - 731 * cr + 512;
+            int blue = 1815 * cb + 512;
+            int luma = (yRow[col] & 0xFF) << 10;
+            argb[out + col] = toArgb(luma + red, luma + green, luma + blue);
+            if (col + 1 < width) {
+                luma = (yRow[col + 1] & 0xFF) << 10;
+                argb[out + col + 1] = toArgb(luma + red, luma + green, luma + blue);
+            }
+        }
+    }
+
+    /**
+     * 一次转换的参数, 所有任务共享, 只读
+     */
+    private static class Job {
+        final int mWidth;
+        final int mHeight;
+        final int mChromaWidth;
+        final int mFormat;
+        final byte[] mOut;
+        final int[] mArgb;
+        final IFrame.Plane mY;
+        final IFrame.Plane mU;
+        final IFrame.Plane mV;
+
+        Job(IFrame frame, int format, byte[] out, int[] argb) {
+            mWidth = frame.getWidth();
+            mHeight = frame.getHeight();
+            mChromaWidth = (mWidth + 1) / 2;
+            mFormat = format;
+            mOut = out;
+            mArgb = argb;
+            IFrame.Plane[] planes = frame.getPlanes();
+            mY = planes[0];
+            mU = planes[1];
+            mV = planes[2];
+        }
+
+        /**
+         * 转换色度行[start, end), 以及对应的亮度行
+         */
+        void convertRows(int start, int end) {
+            //ByteBuffer的相对读取会修改position, 每个任务使用自己的视图
+            ByteBuffer y = mY.getBuffer().duplicate();
+            ByteBuffer u = mU.getBuffer().duplicate();
+            ByteBuffer v = mV.getBuffer().duplicate();
+            RowBuffers rows = sRowBuffers.get();
+            int uPixelStride = mU.getPixelStride();
+            int vPixelStride = mV.getPixelStride();
+            rows.ensure(mWidth, (mChromaWidth - 1) * Math.max(uPixelStride, vPixelStride) + 1);
+            for (int row = start; row < end; row++) {
+                int lumaRow = row * 2;
+                int lumaRows = Math.min(2, mHeight - lumaRow);
+                switch (mFormat) {
+                    case FORMAT_NV21:
+                        copyLuma(y, lumaRow, lumaRows);
+                        convertNv21Chroma(u, v, row, rows, uPixelStride, vPixelStride);
+                        break;
+                    case FORMAT_I420:
+                        copyLuma(y, lumaRow, lumaRows);
+                        int offset = mWidth * mHeight + row * mChromaWidth;
+                        copyChroma(u, mU.getRowStride(), uPixelStride, row, offset, rows.mU);
+                        copyChroma(v, mV.getRowStride(), vPixelStride, row,
+                                offset + mChromaWidth * ((mHeight + 1) / 2), rows.mV);
+                        break;
+                    default:
+                        convertArgb(y, u, v, row, lumaRow, lumaRows, rows, uPixelStride, vPixelStride);
+                        break;
+                }
+            }
+        }
+
+        private void copyLuma(ByteBuffer y, int lumaRow, int lumaRows) {
+            int rowStride = mY.getRowStride();
+            if (rowStride == mWidth) {
+                y.position(lumaRow * rowStride);
+                y.get(mOut, lumaRow * mWidth, mWidth * lumaRows);
+                return;
+            }
+            for (int i = 0; i < lumaRows; i++) {
+                y.position((lumaRow + i) * rowStride);
+                y.get(mOut, (lumaRow + i) * mWidth, mWidth);
+            }
+        }
+
+        /**
+         * 像素跨度为1时直接拷贝到输出, 否则先整行拷贝到行缓冲区再按跨度取值
+         */
+        private void copyChroma(ByteBuffer plane, int rowStride, int pixelStride, int row, int offset, byte[] scratch) {
+            plane.position(row * rowStride);
+            if (pixelStride == 1) {
+                plane.get(mOut, offset, mChromaWidth);
+                return;
+            }
+            plane.get(scratch, 0, (mChromaWidth - 1) * pixelStride + 1);
+            for (int col = 0, index = 0; col < mChromaWidth; col++, index += pixelStride) {
+                mOut[offset + col] = scratch[index];
+            }
+        }
+
+        private void convertNv21Chroma(ByteBuffer u, ByteBuffer v, int row, RowBuffers rows,
+                                       int uPixelStride, int vPixelStride) {
+            byte[] uRow = readChromaRow(u, mU.getRowStride(), uPixelStride, row, rows.mU);
+            byte[] vRow = readChromaRow(v, mV.getRowStride(), vPixelStride, row, rows.mV);
+            int offset = mWidth * mHeight + row * mChromaWidth * 2;
+            if (uPixelStride == 2 && vPixelStride == 2) {
+                //最常见的半平面布局
+                for (int col = 0, index = 0; col < mChromaWidth; col++, index += 2) {
+                    mOut[offset++] = vRow[index];
+                    mOut[offset++] = uRow[index];
+                }
+                return;
+            }
+            for (int col = 0, uIndex = 0, vIndex = 0; col < mChromaWidth;
+                 col++, uIndex += uPixelStride, vIndex += vPixelStride) {
+                mOut[offset++] = vRow[vIndex];
+                mOut[offset++] = uRow[uIndex];
+            }
+        }
+
+        private void convertArgb(ByteBuffer y, ByteBuffer u, ByteBuffer v, int row, int lumaRow, int lumaRows,
+                                 RowBuffers rows, int uPixelStride, int vPixelStride) {
+            byte[] uRow = readChromaRow(u, mU.getRowStride(), uPixelStride, row, rows.mU);
+            byte[] vRow = readChromaRow(v, mV.getRowStride(), vPixelStride, row, rows.mV);
+            byte[] yRow = rows.mY;
+            int[] argb = mArgb;
+            int width = mWidth;
+            int yRowStride = mY.getRowStride();
+            for (int i = 0; i < lumaRows; i++) {
+                y.position((lumaRow + i) * yRowStride);
+                y.get(yRow, 0, width);
+                int out = (lumaRow + i) * width;
+                convertArgbRow(yRow, uRow, vRow, uPixelStride, vPixelStride, argb, out, width);
+            }
+        }
+
+        private byte[] readChromaRow(ByteBuffer plane, int rowStride, int pixelStride, int row, byte[] scratch) {
+            plane.position(row * rowStride);
+            plane.get(scratch, 0, (mChromaWidth - 1) * pixelStride + 1);
+            return scratch;
+        }
+    }
+
+    private static class RowTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Job mJob;
+        private final int mStart;
+        private final int mEnd;
+        private final int mGrain;
+
+        RowTask(Job job, int start, int end, int grain) {
+            mJob = job;
+            mStart = start;
+            mEnd = end;
+            mGrain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if (mEnd - mStart <= mGrain) {
+                mJob.convertRows(mStart, mEnd);
+                return;
+            }
+            int middle = (mStart + mEnd) >>> 1;
+            invokeAll(new RowTask(mJob, mStart, middle, mGrain), new RowTask(mJob, middle, mEnd, mGrain));
+        }
+    }
+
+    private static class RowBuffers {
+        byte[] mY = new byte[0];
+        byte[] mU = new byte[0];
+        byte[] mV = new byte[0];
+
+        void ensure(int lumaLength, int chromaLength) {
+            if (mY.length < lumaLength) {
+                mY = new byte[lumaLength];
+            }
+            if (mU.length < chromaLength) {
+                mU = new byte[chromaLength];
+                mV = new byte[chromaLength];
+            }
+        }
+    }
+
+    /**
+     * 第一次使用时才创建线程池
+     */
+    private static class DefaultPool {
+        static final ForkJoinPool INSTANCE = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    }
+}
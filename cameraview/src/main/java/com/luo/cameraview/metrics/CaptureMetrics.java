@@ -0,0 +1,139 @@
+package com.luo.cameraview.metrics;
+
+/**
+ * 拍照各阶段的耗时统计.
+ * <p>
+ * 使用单调时钟(System.nanoTime)计时, 每个阶段对应一个{@link LatencyHistogram},
+ * 记录时不分配内存, 可以在正式版本中一直打开.
+ */
+public class CaptureMetrics {
+
+    /**
+     * 锁定对焦, 对应STATE_LOCKING
+     */
+    public static final int STAGE_LOCKING = 0;
+    /**
+     * 自动曝光预拍照, 对应STATE_LOCKED和STATE_PRECAPTURE
+     */
+    public static final int STAGE_PRECAPTURE = 1;
+    /**
+     * 等待曝光收敛, 对应STATE_WAITING
+     */
+    public static final int STAGE_WAITING = 2;
+    /**
+     * 拍照中, 对应STATE_CAPTURING
+     */
+    public static final int STAGE_CAPTURING = 3;
+    /**
+     * captureStillPicture()提交请求到拍照完成
+     */
+    public static final int STAGE_STILL_CAPTURE = 4;
+    /**
+     * captureStillPicture()提交请求到ImageReader返回图片
+     */
+    public static final int STAGE_IMAGE_AVAILABLE = 5;
+    /**
+     * 图片交给回调Executor到回调执行完成
+     */
+    public static final int STAGE_DISPATCH = 6;
+    /**
+     * takePicture()到回调执行完成
+     */
+    public static final int STAGE_TOTAL = 7;
+
+    public static final int STAGE_COUNT = 8;
+
+    private static final String[] STAGE_NAMES = {
+            "locking", "precapture", "waiting", "capturing",
+            "still_capture", "image_available", "dispatch", "total"
+    };
+
+    private final LatencyHistogram[] mHistograms = new LatencyHistogram[STAGE_COUNT];
+    private volatile CaptureMetricsListener mListener;
+
+    public CaptureMetrics() {
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            mHistograms[i] = new LatencyHistogram();
+        }
+    }
+
+    public static String getStageName(int stage) {
+        return STAGE_NAMES[stage];
+    }
+
+    public void setListener(CaptureMetricsListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * 当前时间, 和各个record方法使用同一个时钟
+     *
+     * @return
+     */
+    public static long now() {
+        return System.nanoTime();
+    }
+
+    /**
+     * 拍照结束, 记录{@link #STAGE_TOTAL}.
+     * 排队的拍照和连拍会同时进行, 开始时间由每次拍照自己保存
+     *
+     * @param captureStartNanos takePicture()时{@link #now()}返回的时间
+     */
+    public void markCaptureEnd(long captureStartNanos) {
+        recordSince(STAGE_TOTAL, captureStartNanos);
+    }
+
+    /**
+     * 记录从startNanos到现在的耗时
+     *
+     * @param stage
+     * @param startNanos {@link #now()}返回的时间
+     */
+    public void recordSince(int stage, long startNanos) {
+        if (startNanos != 0) {
+            record(stage, now() - startNanos);
+        }
+    }
+
+    public void record(int stage, long durationNanos) {
+        mHistograms[stage].record(durationNanos);
+        CaptureMetricsListener listener = mListener;
+        if (listener != null) {
+            listener.onStageCompleted(stage, durationNanos);
+        }
+    }
+
+    public LatencyHistogram getHistogram(int stage) {
+        return mHistograms[stage];
+    }
+
+    public void reset() {
+        for (LatencyHistogram histogram : mHistograms) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * 各阶段的p50/p95/p99, 单位毫秒, 用于打印日志
+     *
+     * @return
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("CaptureMetrics{");
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            LatencyHistogram histogram = mHistograms[i];
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append(STAGE_NAMES[i])
+                    .append("(n=").append(histogram.getCount())
+                    .append(" p50=").append(histogram.getPercentile(50) / 1000f)
+                    .append(" p95=").append(histogram.getPercentile(95) / 1000f)
+                    .append(" p99=").append(histogram.getPercentile(99) / 1000f)
+                    .append(')');
+        }
+        return builder.append('}').toString();
+    }
+}
@@ -0,0 +1,14 @@
+package com.luo.cameraview.metrics;
+
+/**
+ * 拍照各阶段耗时的监听.
+ * 在记录耗时的线程(摄像头线程, I/O线程或回调线程)中直接回调, 不能做耗时操作
+ */
+public interface CaptureMetricsListener {
+
+    /**
+     * @param stage         {@link CaptureMetrics}中的STAGE_*常量
+     * @param durationNanos 该阶段的耗时, 单位纳秒
+     */
+    void onStageCompleted(int stage, long durationNanos);
+}
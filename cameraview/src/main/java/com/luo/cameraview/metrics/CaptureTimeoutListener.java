@@ -0,0 +1,15 @@
+package com.luo.cameraview.metrics;
+
+/**
+ * 拍照等待对焦或曝光超时的监听.
+ * 超时后会直接拍照, 照片可能没有对准焦点或者曝光不准确
+ */
+public interface CaptureTimeoutListener {
+
+    /**
+     * @param stage        超时的阶段, {@link CaptureMetrics#STAGE_LOCKING},
+     *                     {@link CaptureMetrics#STAGE_PRECAPTURE}或{@link CaptureMetrics#STAGE_WAITING}
+     * @param elapsedNanos 按传感器时间戳计算的等待时间, 单位纳秒
+     */
+    void onCaptureTimeout(int stage, long elapsedNanos);
+}
@@ -0,0 +1,92 @@
+package com.luo.cameraview.metrics;
+
+/**
+ * 一次录像的统计: 编码的帧数, 丢帧数和码率.
+ * <p>
+ * 丢帧按编码输出的时间戳计算: 相邻两帧的间隔超过期望帧间隔的1.5倍时,
+ * 中间缺少的帧都算作丢帧, 不论是摄像头没有输出还是编码器丢弃.
+ * 由封装线程写入, 可以在任意线程读取
+ */
+public class RecordingStats {
+
+    private final long mExpectedIntervalUs;
+
+    private long mFrames;
+    private long mDroppedFrames;
+    private long mBytes;
+    private long mFirstTimestampUs = -1;
+    private long mLastTimestampUs;
+
+    /**
+     * @param frameRate 期望的帧率
+     */
+    public RecordingStats(int frameRate) {
+        mExpectedIntervalUs = 1000000L / frameRate;
+    }
+
+    /**
+     * 记录编码输出的一帧
+     *
+     * @param timestampUs 显示时间戳, 单位微秒
+     * @param bytes       编码后的大小
+     */
+    public synchronized void onFrameEncoded(long timestampUs, int bytes) {
+        if (mFirstTimestampUs < 0) {
+            mFirstTimestampUs = timestampUs;
+        } else {
+            long interval = timestampUs - mLastTimestampUs;
+            if (interval * 2 > mExpectedIntervalUs * 3) {
+                //四舍五入得到间隔中的帧数, 减去当前帧
+                mDroppedFrames += (interval + mExpectedIntervalUs / 2) / mExpectedIntervalUs - 1;
+            }
+        }
+        mLastTimestampUs = timestampUs;
+        mFrames++;
+        mBytes += bytes;
+    }
+
+    public synchronized long getFrames() {
+        return mFrames;
+    }
+
+    public synchronized long getDroppedFrames() {
+        return mDroppedFrames;
+    }
+
+    public synchronized long getBytes() {
+        return mBytes;
+    }
+
+    /**
+     * 第一帧到最后一帧再加一个帧间隔
+     *
+     * @return 单位微秒
+     */
+    public synchronized long getDurationUs() {
+        return mFrames == 0 ? 0 : mLastTimestampUs - mFirstTimestampUs + mExpectedIntervalUs;
+    }
+
+    /**
+     * 平均码率
+     *
+     * @return 单位bit/s
+     */
+    public synchronized long getBitrate() {
+        long duration = getDurationUs();
+        return duration == 0 ? 0 : mBytes * 8 * 1000000L / duration;
+    }
+
+    /**
+     * 实际帧率
+     */
+    public synchronized float getFrameRate() {
+        long duration = getDurationUs();
+        return duration == 0 ? 0 : mFrames * 1000000f / duration;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "RecordingStats{frames=" + mFrames + ", dropped=" + mDroppedFrames
+                + ", fps=" + getFrameRate() + ", bitrate=" + getBitrate() + "}";
+    }
+}
@@ -0,0 +1,138 @@
+package com.luo.cameraview.metrics;
+
+/**
+ * 一次摄像头启动的各阶段耗时.
+ * <p>
+ * 各阶段可能互相重叠(例如打开摄像头和准备ImageReader同时进行),
+ * 所以分别记录每个阶段相对启动时刻的开始和结束时间, 单位纳秒.
+ * 由摄像头线程写入, 完成后交给回调线程读取.
+ */
+public class StartupTrace {
+
+    /**
+     * 选择摄像头ID并获取摄像头特性
+     */
+    public static final int PHASE_CHOOSE_CAMERA = 0;
+    /**
+     * openCamera()到onOpened()
+     */
+    public static final int PHASE_OPEN_CAMERA = 1;
+    /**
+     * 收集预览大小和图片大小
+     */
+    public static final int PHASE_COLLECT_INFO = 2;
+    /**
+     * 创建拍照用的ImageReader
+     */
+    public static final int PHASE_PREPARE_IMAGE_READER = 3;
+    /**
+     * 摄像头已经打开, 等待预览Surface创建
+     */
+    public static final int PHASE_WAIT_SURFACE = 4;
+    /**
+     * createCaptureSession()到onConfigured()
+     */
+    public static final int PHASE_CONFIGURE_SESSION = 5;
+    /**
+     * setRepeatingRequest()到第一帧预览完成
+     */
+    public static final int PHASE_FIRST_FRAME = 6;
+
+    public static final int PHASE_COUNT = 7;
+
+    private static final String[] PHASE_NAMES = {
+            "choose_camera", "open_camera", "collect_info", "prepare_image_reader",
+            "wait_surface", "configure_session", "first_frame"
+    };
+
+    private final long mStartNanos;
+    private final long[] mBegin = new long[PHASE_COUNT];
+    private final long[] mEnd = new long[PHASE_COUNT];
+    private long mFirstFrameNanos;
+
+    public StartupTrace() {
+        mStartNanos = System.nanoTime();
+    }
+
+    public static String getPhaseName(int phase) {
+        return PHASE_NAMES[phase];
+    }
+
+    /**
+     * 阶段开始, 重复调用只记录第一次
+     *
+     * @param phase
+     */
+    public void begin(int phase) {
+        if (mBegin[phase] == 0) {
+            mBegin[phase] = System.nanoTime();
+        }
+    }
+
+    /**
+     * 阶段结束, 没有开始的阶段忽略
+     *
+     * @param phase
+     */
+    public void end(int phase) {
+        if (mBegin[phase] != 0 && mEnd[phase] == 0) {
+            mEnd[phase] = System.nanoTime();
+        }
+    }
+
+    /**
+     * 第一帧预览完成, 启动结束
+     */
+    public void finish() {
+        end(PHASE_FIRST_FRAME);
+        mFirstFrameNanos = System.nanoTime();
+    }
+
+    public boolean isFinished() {
+        return mFirstFrameNanos != 0;
+    }
+
+    /**
+     * 阶段的耗时, 没有经过该阶段时返回0
+     *
+     * @param phase
+     * @return 单位纳秒
+     */
+    public long getDurationNanos(int phase) {
+        return mEnd[phase] == 0 ? 0 : mEnd[phase] - mBegin[phase];
+    }
+
+    /**
+     * 阶段开始时刻相对start()的偏移
+     *
+     * @param phase
+     * @return 单位纳秒, 没有经过该阶段时返回-1
+     */
+    public long getOffsetNanos(int phase) {
+        return mBegin[phase] == 0 ? -1 : mBegin[phase] - mStartNanos;
+    }
+
+    /**
+     * start()到第一帧预览完成的时间
+     *
+     * @return 单位纳秒
+     */
+    public long getTimeToFirstFrameNanos() {
+        return mFirstFrameNanos == 0 ? 0 : mFirstFrameNanos - mStartNanos;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("StartupTrace{ttff=")
+                .append(getTimeToFirstFrameNanos() / 1000000f).append("ms");
+        for (int i = 0; i < PHASE_COUNT; i++) {
+            if (mBegin[i] == 0) {
+                continue;
+            }
+            builder.append(", ").append(PHASE_NAMES[i])
+                    .append("(+").append(getOffsetNanos(i) / 1000000f)
+                    .append("ms ").append(getDurationNanos(i) / 1000000f).append("ms)");
+        }
+        return builder.append('}').toString();
+    }
+}
@@ -0,0 +1,676 @@
+package com.luo.cameraview.store;
+
+import com.luo.cameraview.base.PictureBuffer;
+import com.luo.cameraview.metrics.LatencyHistogram;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * 持续拍照时持久化每一张图片.
+ * <p>
+ * 图片先进入有界的内存队列, 由单独的写线程顺序追加到预分配的段文件中, 每批记录只同步一次(fsync),
+ * 同步完成后才回调{@link Callback#onPersisted(long, int, long)}. 存储跟不上时按背压模式处理:
+ * <ul>
+ * <li>{@link #BACKPRESSURE_BLOCK}: 阻塞调用线程直到队列有空间, 拍照流程随之变慢</li>
+ * <li>{@link #BACKPRESSURE_DROP}: 丢弃新的图片</li>
+ * <li>{@link #BACKPRESSURE_DEGRADE}: 队列超过一半后逐步降低{@link #getJpegQuality()}, 让之后的图片变小,
+ * 队列满时丢弃</li>
+ * </ul>
+ * 打开时检查所有段文件, 截掉崩溃时写了一半的记录, 之后的记录写入新的段文件, 序号接着已有的记录.
+ * 不依赖Android, 可以在JVM上测试吞吐量.
+ */
+public class CaptureStore implements Closeable {
+
+    public static final int BACKPRESSURE_BLOCK = 0;
+    public static final int BACKPRESSURE_DROP = 1;
+    public static final int BACKPRESSURE_DEGRADE = 2;
+
+    public static final int DEFAULT_MAX_QUEUED_RECORDS = 16;
+    public static final long DEFAULT_MAX_QUEUED_BYTES = 64 * 1024 * 1024;
+    public static final long DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+    public static final int DEFAULT_MAX_BATCH_RECORDS = 8;
+    public static final int DEFAULT_MAX_JPEG_QUALITY = 95;
+    public static final int DEFAULT_MIN_JPEG_QUALITY = 60;
+
+    /**
+     * 持久化结果的回调
+     */
+    public interface Callback {
+        /**
+         * 记录已经同步到存储
+         *
+         * @param sequence     {@link #append(byte[])}返回的序号
+         * @param length       JPEG数据的长度
+         * @param latencyNanos 从加入队列到同步完成的耗时
+         */
+        void onPersisted(long sequence, int length, long latencyNanos);
+
+        void onPersistFailed(long sequence, IOException e);
+    }
+
+    /**
+     * 读取已持久化记录的回调
+     */
+    public interface RecordVisitor {
+        void visit(long sequence, long timestamp, byte[] jpeg);
+    }
+
+    private final File mDirectory;
+    private int mBackpressure = BACKPRESSURE_BLOCK;
+    private int mMaxQueuedRecords = DEFAULT_MAX_QUEUED_RECORDS;
+    private long mMaxQueuedBytes = DEFAULT_MAX_QUEUED_BYTES;
+    private long mSegmentSize = DEFAULT_SEGMENT_SIZE;
+    private int mMaxBatchRecords = DEFAULT_MAX_BATCH_RECORDS;
+    private long mBatchDelayNanos;
+    private int mMaxJpegQuality = DEFAULT_MAX_JPEG_QUALITY;
+    private int mMinJpegQuality = DEFAULT_MIN_JPEG_QUALITY;
+    private Callback mCallback;
+    private Executor mCallbackExecutor;
+
+    private final Object mLock = new Object();
+    private final ArrayDeque<Record> mQueue = new ArrayDeque<Record>();
+    /**
+     * 队列中和写线程正在写的字节数, 同步完成后才减去
+     */
+    private long mQueuedBytes;
+    private int mQueuedRecords;
+    private long mNextSequence;
+    private boolean mOpened;
+    private boolean mClosed;
+    private Thread mWriterThread;
+
+    /**
+     * 只在写线程中访问
+     */
+    private Segment mSegment;
+    /**
+     * 打开时段文件的第一条记录的序号, 按顺序排列, 用于{@link #trim(long)}
+     */
+    private final List<Long> mSegments = new ArrayList<Long>();
+
+    private long mRecoveredRecords;
+    private long mTruncatedBytes;
+    private volatile long mPersistedRecords;
+    private volatile long mPersistedBytes;
+    private volatile long mDroppedRecords;
+    private volatile long mSyncCount;
+    private volatile long mLastPersistedSequence = -1;
+    private final LatencyHistogram mSyncTime = new LatencyHistogram();
+
+    /**
+     * @param directory 段文件所在的目录, 只能由一个CaptureStore使用
+     */
+    public CaptureStore(File directory) {
+        mDirectory = directory;
+    }
+
+    public CaptureStore setBackpressure(int backpressure) {
+        if (backpressure != BACKPRESSURE_BLOCK && backpressure != BACKPRESSURE_DROP
+                && backpressure != BACKPRESSURE_DEGRADE) {
+            throw new IllegalArgumentException("Unknown backpressure: " + backpressure);
+        }
+        mBackpressure = backpressure;
+        return this;
+    }
+
+    /**
+     * 内存队列的上限, 记录数和字节数任意一个达到时认为队列已满
+     *
+     * @param maxRecords
+     * @param maxBytes
+     * @return
+     */
+    public CaptureStore setQueueCapacity(int maxRecords, long maxBytes) {
+        if (maxRecords <= 0 || maxBytes <= 0) {
+            throw new IllegalArgumentException("Invalid capacity: " + maxRecords + ", " + maxBytes);
+        }
+        mMaxQueuedRecords = maxRecords;
+        mMaxQueuedBytes = maxBytes;
+        return this;
+    }
+
+    /**
+     * @param segmentSize 每个段文件预分配的大小, 也是单张图片的上限
+     * @return
+     */
+    public CaptureStore setSegmentSize(long segmentSize) {
+        if (segmentSize <= Segment.HEADER_SIZE + Segment.RECORD_HEADER_SIZE) {
+            throw new IllegalArgumentException("Segment too small: " + segmentSize);
+        }
+        mSegmentSize = segmentSize;
+        return this;
+    }
+
+    /**
+     * 每次同步最多包含的记录数. 写线程取走队列中已有的记录, 不足时最多再等batchDelayMillis
+     *
+     * @param maxRecords       为1时每条记录都单独同步
+     * @param batchDelayMillis 为0时不等待, 同步期间到达的记录自然进入下一批
+     * @return
+     */
+    public CaptureStore setBatch(int maxRecords, long batchDelayMillis) {
+        if (maxRecords <= 0 || batchDelayMillis < 0) {
+            throw new IllegalArgumentException("Invalid batch: " + maxRecords + ", " + batchDelayMillis);
+        }
+        mMaxBatchRecords = maxRecords;
+        mBatchDelayNanos = batchDelayMillis * 1000000L;
+        return this;
+    }
+
+    /**
+     * {@link #BACKPRESSURE_DEGRADE}模式下JPEG质量的范围
+     *
+     * @param min
+     * @param max
+     * @return
+     */
+    public CaptureStore setJpegQualityRange(int min, int max) {
+        if (min < 1 || max > 100 || min > max) {
+            throw new IllegalArgumentException("Invalid quality range: " + min + "-" + max);
+        }
+        mMinJpegQuality = min;
+        mMaxJpegQuality = max;
+        return this;
+    }
+
+    /**
+     * @param callback
+     * @param executor 执行回调的Executor
+     * @return
+     */
+    public CaptureStore setCallback(Callback callback, Executor executor) {
+        mCallback = callback;
+        mCallbackExecutor = executor;
+        return this;
+    }
+
+    /**
+     * 恢复已有的段文件并启动写线程, 设置只能在打开前修改
+     *
+     * @throws IOException
+     */
+    public void open() throws IOException {
+        synchronized (mLock) {
+            if (mOpened) {
+                throw new IllegalStateException("CaptureStore already opened");
+            }
+            if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+                throw new IOException("Can't create " + mDirectory);
+            }
+            recover();
+            mOpened = true;
+            mWriterThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    writeLoop();
+                }
+            }, "CaptureStore");
+            mWriterThread.start();
+        }
+    }
+
+    /**
+     * 按序号检查所有段文件: 截掉写了一半的记录和没用到的预分配空间, 删除文件头无效的段
+     */
+    private void recover() throws IOException {
+        long nextSequence = 0;
+        for (File file : listSegments(mDirectory)) {
+            final long[] last = {-1};
+            long valid = Segment.read(file, new Segment.RecordReader() {
+                @Override
+                public void onRecord(long sequence, long timestamp, byte[] jpeg) {
+                    last[0] = sequence;
+                }
+            });
+            if (valid == 0 || last[0] < 0) {
+                //创建时崩溃或者没有有效记录
+                if (!file.delete()) {
+                    throw new IOException("Can't delete " + file);
+                }
+                continue;
+            }
+            mTruncatedBytes += file.length() - valid;
+            Segment.truncate(file, valid);
+            long first = Segment.parseFirstSequence(file);
+            mRecoveredRecords += last[0] - first + 1;
+            mSegments.add(first);
+            nextSequence = Math.max(nextSequence, last[0] + 1);
+        }
+        mNextSequence = nextSequence;
+        mLastPersistedSequence = nextSequence - 1;
+    }
+
+    private static File[] listSegments(File directory) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return new File[0];
+        }
+        List<File> segments = new ArrayList<File>();
+        for (File file : files) {
+            if (Segment.parseFirstSequence(file) >= 0) {
+                segments.add(file);
+            }
+        }
+        File[] result = segments.toArray(new File[segments.size()]);
+        //文件名是补零的序号, 按名称排序即按序号排序
+        Arrays.sort(result);
+        return result;
+    }
+
+    /**
+     * 拷贝图片数据后立即释放picture, 不占用ImageReader的Image
+     *
+     * @param picture
+     * @return 记录的序号, 被丢弃时返回-1
+     */
+    public long append(PictureBuffer picture) {
+        byte[] jpeg;
+        try {
+            jpeg = picture.toByteArray();
+        } finally {
+            picture.release();
+        }
+        return append(jpeg);
+    }
+
+    /**
+     * 加入写队列, 队列满时按背压模式阻塞或丢弃.
+     * 阻塞时被中断会丢弃这张图片并保留中断状态
+     *
+     * @param jpeg 加入后不能再修改, 不能为空
+     * @return 记录的序号, 被丢弃时返回-1
+     * @throws IllegalArgumentException jpeg为空或者一个段放不下
+     */
+    public long append(byte[] jpeg) {
+        if (jpeg.length == 0) {
+            throw new IllegalArgumentException("Empty record");
+        }
+        if (jpeg.length > mSegmentSize - Segment.HEADER_SIZE - Segment.RECORD_HEADER_SIZE) {
+            throw new IllegalArgumentException("Record larger than segment: " + jpeg.length);
+        }
+        synchronized (mLock) {
+            if (!mOpened || mClosed) {
+                throw new IllegalStateException("CaptureStore is not open");
+            }
+            //单张图片超过字节上限时只在队列为空时接受
+            while (mQueuedRecords > 0 && (mQueuedRecords >= mMaxQueuedRecords
+                    || mQueuedBytes + jpeg.length > mMaxQueuedBytes)) {
+                if (mBackpressure != BACKPRESSURE_BLOCK || mClosed) {
+                    mDroppedRecords++;
+                    return -1;
+                }
+                try {
+                    mLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    mDroppedRecords++;
+                    return -1;
+                }
+            }
+            if (mClosed) {
+                mDroppedRecords++;
+                return -1;
+            }
+            long sequence = mNextSequence++;
+            mQueue.add(new Record(sequence, jpeg));
+            mQueuedRecords++;
+            mQueuedBytes += jpeg.length;
+            mLock.notifyAll();
+            return sequence;
+        }
+    }
+
+    /**
+     * 建议的JPEG质量. {@link #BACKPRESSURE_DEGRADE}模式下队列超过一半后线性降低, 其他模式为最高质量
+     *
+     * @return
+     */
+    public int getJpegQuality() {
+        if (mBackpressure != BACKPRESSURE_DEGRADE) {
+            return mMaxJpegQuality;
+        }
+        float fill;
+        synchronized (mLock) {
+            fill = Math.max((float) mQueuedRecords / mMaxQueuedRecords, (float) mQueuedBytes / mMaxQueuedBytes);
+        }
+        if (fill <= 0.5f) {
+            return mMaxJpegQuality;
+        }
+        float ratio = Math.min(1f, (fill - 0.5f) * 2);
+        return Math.round(mMaxJpegQuality - (mMaxJpegQuality - mMinJpegQuality) * ratio);
+    }
+
+    private void writeLoop() {
+        List<Record> batch = new ArrayList<Record>();
+        while (true) {
+            synchronized (mLock) {
+                try {
+                    while (mQueue.isEmpty() && !mClosed) {
+                        mLock.wait();
+                    }
+                    if (mQueue.isEmpty()) {
+                        break;
+                    }
+                    if (mBatchDelayNanos > 0 && mQueue.size() < mMaxBatchRecords && !mClosed) {
+                        long deadline = System.nanoTime() + mBatchDelayNanos;
+                        long remaining;
+                        while (mQueue.size() < mMaxBatchRecords && !mClosed
+                                && (remaining = deadline - System.nanoTime()) > 0) {
+                            mLock.wait(remaining / 1000000L, (int) (remaining % 1000000L));
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    //写线程不会被中断, 按关闭处理, 写完剩下的记录再退出
+                    mClosed = true;
+                }
+                while (!mQueue.isEmpty() && batch.size() < mMaxBatchRecords) {
+                    batch.add(mQueue.poll());
+                }
+            }
+            try {
+                writeBatch(batch);
+            } finally {
+                //写线程不能在释放队列空间前退出, 否则阻塞模式下append()会一直等待
+                synchronized (mLock) {
+                    for (Record record : batch) {
+                        mQueuedRecords--;
+                        mQueuedBytes -= record.mJpeg.length;
+                    }
+                    mLock.notifyAll();
+                }
+            }
+            batch.clear();
+        }
+        if (mSegment != null) {
+            //正常关闭时截掉没用到的预分配空间
+            try {
+                mSegment.finish();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            mSegment = null;
+        }
+    }
+
+    /**
+     * 顺序写入一批记录, 最后只同步一次. 写满的段在切换前同步并截掉空闲空间.
+     * 只有写入和同步失败时这一批记录才回调失败
+     */
+    private void writeBatch(List<Record> batch) {
+        long end;
+        try {
+            for (Record record : batch) {
+                int size = Segment.RECORD_HEADER_SIZE + record.mJpeg.length;
+                if (mSegment != null && mSegment.getRemaining() < size) {
+                    mSegment.finish();
+                    mSegment = null;
+                }
+                if (mSegment == null) {
+                    mSegment = Segment.create(mDirectory, record.mSequence, mSegmentSize);
+                    synchronized (mSegments) {
+                        mSegments.add(record.mSequence);
+                    }
+                }
+                mSegment.append(record.mSequence, System.currentTimeMillis(), record.mJpeg);
+            }
+            long start = System.nanoTime();
+            mSegment.sync();
+            end = System.nanoTime();
+            mSyncTime.record(end - start);
+        } catch (IOException e) {
+            e.printStackTrace();
+            failBatch(batch, e);
+            return;
+        } catch (RuntimeException e) {
+            //写线程不能退出, 按写入失败处理
+            e.printStackTrace();
+            failBatch(batch, new IOException("Failed to write records", e));
+            return;
+        }
+        mSyncCount++;
+        long bytes = 0;
+        for (Record record : batch) {
+            bytes += record.mJpeg.length;
+        }
+        mPersistedRecords += batch.size();
+        mPersistedBytes += bytes;
+        mLastPersistedSequence = batch.get(batch.size() - 1).mSequence;
+        for (Record record : batch) {
+            dispatchPersisted(record, end - record.mEnqueueNanos);
+        }
+    }
+
+    /**
+     * 这一批记录都回调失败
+     */
+    private void failBatch(List<Record> batch, IOException e) {
+        //段的状态未知, 之后的记录写入以下一条记录的序号命名的新段, 已经写入但没有同步的记录可能在恢复时保留
+        if (mSegment != null) {
+            mSegment.close();
+            mSegment = null;
+        }
+        for (Record record : batch) {
+            dispatchFailed(record, e);
+        }
+    }
+
+    private void dispatchPersisted(final Record record, final long latencyNanos) {
+        final Callback callback = mCallback;
+        if (callback == null) {
+            return;
+        }
+        dispatch(new Runnable() {
+            @Override
+            public void run() {
+                callback.onPersisted(record.mSequence, record.mJpeg.length, latencyNanos);
+            }
+        });
+    }
+
+    private void dispatchFailed(final Record record, final IOException e) {
+        final Callback callback = mCallback;
+        if (callback == null) {
+            return;
+        }
+        dispatch(new Runnable() {
+            @Override
+            public void run() {
+                callback.onPersistFailed(record.mSequence, e);
+            }
+        });
+    }
+
+    /**
+     * 回调抛出的异常只打印, 不影响写线程和这一批的其他记录
+     */
+    private void dispatch(final Runnable callback) {
+        try {
+            mCallbackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        callback.run();
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            //Executor拒绝执行
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 读取所有已持久化的记录, 可以和写入同时进行, 还没同步的记录可能读不到
+     *
+     * @param visitor
+     * @throws IOException
+     */
+    public void scan(final RecordVisitor visitor) throws IOException {
+        for (File file : listSegments(mDirectory)) {
+            Segment.read(file, new Segment.RecordReader() {
+                @Override
+                public void onRecord(long sequence, long timestamp, byte[] jpeg) {
+                    visitor.visit(sequence, timestamp, jpeg);
+                }
+            });
+        }
+    }
+
+    /**
+     * 删除所有记录都不晚于sequence的段文件, 例如已经上传的记录. 正在写入的段不会删除
+     *
+     * @param sequence
+     * @return 删除的段文件数
+     */
+    public int trim(long sequence) {
+        int deleted = 0;
+        synchronized (mSegments) {
+            //最后一个段可能正在写入, 只看它之前的段, 段i的最后一条记录是段i+1的第一条记录的前一条
+            while (mSegments.size() > 1 && mSegments.get(1) - 1 <= sequence) {
+                File file = Segment.fileFor(mDirectory, mSegments.get(0));
+                if (file.exists() && !file.delete()) {
+                    break;
+                }
+                mSegments.remove(0);
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * 写完队列中的记录后关闭, 阻塞直到写线程退出
+     */
+    @Override
+    public void close() {
+        Thread writer;
+        synchronized (mLock) {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            mLock.notifyAll();
+            writer = mWriterThread;
+        }
+        if (writer == null) {
+            return;
+        }
+        boolean interrupted = false;
+        while (writer.isAlive()) {
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public File getDirectory() {
+        return mDirectory;
+    }
+
+    public int getBackpressure() {
+        return mBackpressure;
+    }
+
+    /**
+     * 打开时从已有段文件中恢复的记录数
+     *
+     * @return
+     */
+    public long getRecoveredRecords() {
+        return mRecoveredRecords;
+    }
+
+    /**
+     * 打开时截掉的字节数, 包括写了一半的记录和没用到的预分配空间
+     *
+     * @return
+     */
+    public long getTruncatedBytes() {
+        return mTruncatedBytes;
+    }
+
+    public int getQueuedRecords() {
+        synchronized (mLock) {
+            return mQueuedRecords;
+        }
+    }
+
+    public long getQueuedBytes() {
+        synchronized (mLock) {
+            return mQueuedBytes;
+        }
+    }
+
+    public long getPersistedRecords() {
+        return mPersistedRecords;
+    }
+
+    public long getPersistedBytes() {
+        return mPersistedBytes;
+    }
+
+    public long getDroppedRecords() {
+        return mDroppedRecords;
+    }
+
+    /**
+     * 调用者放弃加入的记录也计入丢弃数, 例如{@link #append(byte[])}因为记录无效抛出异常时
+     */
+    public void markDropped() {
+        synchronized (mLock) {
+            mDroppedRecords++;
+        }
+    }
+
+    /**
+     * 同步次数, 和{@link #getPersistedRecords()}的比值是平均每批的记录数
+     *
+     * @return
+     */
+    public long getSyncCount() {
+        return mSyncCount;
+    }
+
+    /**
+     * 最后一条已同步记录的序号
+     *
+     * @return 还没有记录时返回-1
+     */
+    public long getLastPersistedSequence() {
+        return mLastPersistedSequence;
+    }
+
+    /**
+     * 每次同步的耗时
+     *
+     * @return
+     */
+    public LatencyHistogram getSyncTime() {
+        return mSyncTime;
+    }
+
+    private static class Record {
+        final long mSequence;
+        final byte[] mJpeg;
+        final long mEnqueueNanos = System.nanoTime();
+
+        Record(long sequence, byte[] jpeg) {
+            mSequence = sequence;
+            mJpeg = jpeg;
+        }
+    }
+}
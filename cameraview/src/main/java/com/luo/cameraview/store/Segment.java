@@ -0,0 +1,289 @@
+package com.luo.cameraview.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+/**
+ * 一个预分配的段文件, 创建时写满0, 之后的写入只覆盖已经分配的块.
+ * <p>
+ * 文件头: magic(4) + version(4) + 第一条记录的序号(8).
+ * 记录: magic(4) + 长度(4) + 序号(8) + 时间戳(8) + CRC32(4) + JPEG数据, CRC覆盖长度, 序号, 时间戳和数据.
+ * 段内记录的序号连续, 读取时遇到magic, 序号或CRC不对的记录就认为到了末尾,
+ * 预分配区域中的0和写了一半的记录都会在这里停下.
+ */
+class Segment {
+
+    static final String SUFFIX = ".seg";
+    static final int HEADER_SIZE = 16;
+    static final int RECORD_HEADER_SIZE = 28;
+
+    private static final int SEGMENT_MAGIC = 0x43534547;
+    private static final int RECORD_MAGIC = 0x43415054;
+    private static final int VERSION = 1;
+    /**
+     * 创建时写0的缓冲区大小
+     */
+    private static final int ZERO_FILL_CHUNK = 256 * 1024;
+
+    /**
+     * 读取时遇到有效记录的回调
+     */
+    interface RecordReader {
+        void onRecord(long sequence, long timestamp, byte[] jpeg) throws IOException;
+    }
+
+    private final File mFile;
+    private final long mFirstSequence;
+    private RandomAccessFile mRandomAccessFile;
+    private FileChannel mChannel;
+    private long mPosition;
+    private long mNextSequence;
+    private final ByteBuffer mRecordHeader = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+    private final CRC32 mCrc = new CRC32();
+
+    private Segment(File file, long firstSequence) {
+        mFile = file;
+        mFirstSequence = firstSequence;
+        mNextSequence = firstSequence;
+    }
+
+    static File fileFor(File directory, long firstSequence) {
+        return new File(directory, String.format(Locale.US, "%019d", firstSequence) + SUFFIX);
+    }
+
+    /**
+     * 从文件名解析第一条记录的序号
+     *
+     * @param file
+     * @return 不是段文件时返回-1
+     */
+    static long parseFirstSequence(File file) {
+        String name = file.getName();
+        if (!name.endsWith(SUFFIX)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 创建新的段文件并预分配空间.
+     * 只调用setLength()得到的是稀疏文件, 写入记录时才分配块, fdatasync仍要提交块分配的元数据.
+     * 所以创建时写满0并同步一次, 之后文件大小和块分配都不再变化, 每批记录写完只需要同步数据(fdatasync)
+     *
+     * @param directory
+     * @param firstSequence
+     * @param size          预分配的大小
+     * @return
+     * @throws IOException
+     */
+    static Segment create(File directory, long firstSequence, long size) throws IOException {
+        Segment segment = new Segment(fileFor(directory, firstSequence), firstSequence);
+        segment.mRandomAccessFile = new RandomAccessFile(segment.mFile, "rw");
+        try {
+            segment.mRandomAccessFile.setLength(size);
+            segment.mChannel = segment.mRandomAccessFile.getChannel();
+            ByteBuffer zeros = ByteBuffer.allocateDirect((int) Math.min(ZERO_FILL_CHUNK, size));
+            for (long position = HEADER_SIZE; position < size; position += ZERO_FILL_CHUNK) {
+                zeros.clear();
+                zeros.limit((int) Math.min(zeros.capacity(), size - position));
+                writeFully(segment.mChannel, zeros, position);
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(SEGMENT_MAGIC).putInt(VERSION).putLong(firstSequence);
+            header.flip();
+            writeFully(segment.mChannel, header, 0);
+            //新文件的大小和目录项也要落盘, ext4和f2fs在fsync新文件时会一起提交
+            segment.mChannel.force(true);
+        } catch (IOException e) {
+            segment.close();
+            throw e;
+        }
+        segment.mPosition = HEADER_SIZE;
+        return segment;
+    }
+
+    /**
+     * 读取段文件中连续有效的记录
+     *
+     * @param file
+     * @param reader 可以为null, 只统计
+     * @return 有效数据的末尾位置, 文件头无效时返回0
+     * @throws IOException
+     */
+    static long read(File file, RecordReader reader) throws IOException {
+        long firstSequence = parseFirstSequence(file);
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            long size = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+            header.limit(HEADER_SIZE);
+            if (size < HEADER_SIZE || !readFully(channel, header, 0)) {
+                return 0;
+            }
+            header.flip();
+            if (header.getInt() != SEGMENT_MAGIC || header.getInt() != VERSION || header.getLong() != firstSequence) {
+                return 0;
+            }
+            CRC32 crc = new CRC32();
+            long position = HEADER_SIZE;
+            long expected = firstSequence;
+            while (position + RECORD_HEADER_SIZE <= size) {
+                header.clear();
+                if (!readFully(channel, header, position)) {
+                    break;
+                }
+                header.flip();
+                int magic = header.getInt();
+                int length = header.getInt();
+                long sequence = header.getLong();
+                long timestamp = header.getLong();
+                int checksum = header.getInt();
+                if (magic != RECORD_MAGIC || sequence != expected || length < 0
+                        || position + RECORD_HEADER_SIZE + length > size) {
+                    break;
+                }
+                byte[] jpeg = new byte[length];
+                if (!readFully(channel, ByteBuffer.wrap(jpeg), position + RECORD_HEADER_SIZE)) {
+                    break;
+                }
+                crc.reset();
+                crc.update(header.array(), 4, 20);
+                crc.update(jpeg, 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                if (reader != null) {
+                    reader.onRecord(sequence, timestamp, jpeg);
+                }
+                position += RECORD_HEADER_SIZE + length;
+                expected++;
+            }
+            return position;
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * 恢复时截掉写了一半的记录和没用到的预分配空间, 之后不再写入
+     *
+     * @param file
+     * @param validLength
+     * @throws IOException
+     */
+    static void truncate(File file, long validLength) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            if (randomAccessFile.length() != validLength) {
+                randomAccessFile.setLength(validLength);
+                randomAccessFile.getChannel().force(true);
+            }
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    File getFile() {
+        return mFile;
+    }
+
+    long getFirstSequence() {
+        return mFirstSequence;
+    }
+
+    long getNextSequence() {
+        return mNextSequence;
+    }
+
+    long getRemaining() throws IOException {
+        return mChannel.size() - mPosition;
+    }
+
+    /**
+     * 顺序写入一条记录, 不同步
+     *
+     * @param sequence  必须是{@link #getNextSequence()}
+     * @param timestamp
+     * @param jpeg
+     * @throws IOException
+     */
+    void append(long sequence, long timestamp, byte[] jpeg) throws IOException {
+        if (sequence != mNextSequence) {
+            throw new IllegalStateException("Expected sequence " + mNextSequence + " but was " + sequence);
+        }
+        ByteBuffer header = mRecordHeader;
+        header.clear();
+        header.putInt(RECORD_MAGIC).putInt(jpeg.length).putLong(sequence).putLong(timestamp);
+        mCrc.reset();
+        mCrc.update(header.array(), 4, 20);
+        mCrc.update(jpeg, 0, jpeg.length);
+        header.putInt((int) mCrc.getValue());
+        header.flip();
+        //头和数据一次写入; 同步前崩溃时落盘的顺序不确定, 由CRC发现只写了一部分的记录
+        ByteBuffer[] buffers = {header, ByteBuffer.wrap(jpeg)};
+        mChannel.position(mPosition);
+        while (header.hasRemaining() || buffers[1].hasRemaining()) {
+            mChannel.write(buffers);
+        }
+        mPosition += RECORD_HEADER_SIZE + jpeg.length;
+        mNextSequence++;
+    }
+
+    /**
+     * 把已写入的记录同步到存储, 只同步数据, 预分配的文件大小不变
+     *
+     * @throws IOException
+     */
+    void sync() throws IOException {
+        mChannel.force(false);
+    }
+
+    /**
+     * 写满后截掉没用到的预分配空间并关闭
+     *
+     * @throws IOException
+     */
+    void finish() throws IOException {
+        try {
+            mRandomAccessFile.setLength(mPosition);
+            mChannel.force(true);
+        } finally {
+            close();
+        }
+    }
+
+    void close() {
+        try {
+            mRandomAccessFile.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                return false;
+            }
+            position += read;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,87 @@
+package com.luo.cameraview.backend;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PictureQueueTest {
+
+    private final PictureQueue<PictureQueue.Picture> mQueue = new PictureQueue<PictureQueue.Picture>();
+
+    @Test
+    public void enqueue_rejectsWhenFull() {
+        for (int i = 0; i < PictureQueue.MAX_QUEUED_PICTURES; i++) {
+            assertTrue(mQueue.enqueue(new PictureQueue.Picture()));
+        }
+        PictureQueue.Picture rejected = new PictureQueue.Picture();
+        assertFalse(mQueue.enqueue(rejected));
+        //没有加入的照片不等待图像
+        assertFalse(mQueue.removePending(rejected));
+    }
+
+    @Test
+    public void finishCapture_continuesInOrder() {
+        PictureQueue.Picture first = new PictureQueue.Picture();
+        PictureQueue.Picture second = new PictureQueue.Picture();
+        mQueue.add(first);
+        mQueue.startCapture(first);
+        assertTrue(mQueue.enqueue(second));
+        assertSame(second, mQueue.finishCapture());
+        assertNull(mQueue.finishCapture());
+        //图像按拍照顺序对应
+        assertSame(first, mQueue.pollImage());
+        assertSame(second, mQueue.pollImage());
+        assertNull(mQueue.pollImage());
+    }
+
+    @Test
+    public void onCaptureFailed_dropsPictureWithoutImage() {
+        PictureQueue.Picture failed = new PictureQueue.Picture();
+        PictureQueue.Picture next = new PictureQueue.Picture();
+        mQueue.add(failed);
+        mQueue.startCapture(failed);
+        assertTrue(mQueue.enqueue(next));
+        assertSame(failed, mQueue.onCaptureSubmitted(1));
+        assertTrue(mQueue.onCaptureFailed(failed, false));
+        //下一张照片的图像不会错配给失败的照片
+        assertSame(next, mQueue.pollImage());
+    }
+
+    @Test
+    public void onCaptureFailed_keepsPictureWithImage() {
+        PictureQueue.Picture picture = new PictureQueue.Picture();
+        mQueue.add(picture);
+        mQueue.startCapture(picture);
+        mQueue.onCaptureSubmitted(1);
+        assertFalse(mQueue.onCaptureFailed(picture, true));
+        assertSame(picture, mQueue.pollImage());
+    }
+
+    @Test
+    public void requeueAborted_restartsOnlyUnsubmittedPicture() {
+        PictureQueue.Picture unsubmitted = new PictureQueue.Picture();
+        mQueue.add(unsubmitted);
+        mQueue.startCapture(unsubmitted);
+        mQueue.requeueAborted();
+        assertSame(unsubmitted, mQueue.pollQueued());
+
+        PictureQueue.Picture submitted = new PictureQueue.Picture();
+        mQueue.add(submitted);
+        mQueue.startCapture(submitted);
+        mQueue.onCaptureSubmitted(1);
+        mQueue.requeueAborted();
+        assertNull(mQueue.pollQueued());
+    }
+
+    @Test
+    public void pollRejected_stopsWaitingForImage() {
+        PictureQueue.Picture queued = new PictureQueue.Picture();
+        assertTrue(mQueue.enqueue(queued));
+        assertSame(queued, mQueue.pollRejected());
+        assertFalse(mQueue.hasPendingImages());
+        assertFalse(mQueue.hasQueuedPictures());
+    }
+}
@@ -0,0 +1,151 @@
+package com.luo.cameraview.backend;
+
+import com.luo.cameraview.frame.IFrame;
+import com.luo.cameraview.metrics.CaptureMetrics;
+import com.luo.cameraview.metrics.CaptureTimeoutListener;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StillCaptureControllerTest {
+
+    private StillCaptureController mController;
+
+    @After
+    public void tearDown() {
+        if (mController != null) {
+            mController.stop();
+        }
+    }
+
+    private StillCaptureController start(FakeCameraBackend backend) throws InterruptedException {
+        backend.setOpenLatency(0)
+                .setFrameInterval(TimeUnit.MILLISECONDS.toNanos(1))
+                .setImageLatency(TimeUnit.MILLISECONDS.toNanos(1))
+                .setImageBytes(1024);
+        final CountDownLatch opened = new CountDownLatch(1);
+        mController = new StillCaptureController(backend);
+        mController.start(new ICameraBackend.StateCallback() {
+            @Override
+            public void onOpened() {
+                opened.countDown();
+            }
+
+            @Override
+            public void onClosed() {
+            }
+
+            @Override
+            public void onError(String message) {
+            }
+        });
+        assertTrue(opened.await(5, TimeUnit.SECONDS));
+        return mController;
+    }
+
+    private static int takePictures(StillCaptureController controller, int count) throws InterruptedException {
+        final AtomicInteger pictures = new AtomicInteger();
+        for (int i = 0; i < count; i++) {
+            final CountDownLatch taken = new CountDownLatch(1);
+            assertTrue(controller.takePicture(new StillCaptureController.PictureCallback() {
+                @Override
+                public void onPictureTaken(IFrame image, long latencyNanos) {
+                    pictures.incrementAndGet();
+                    taken.countDown();
+                }
+            }));
+            assertTrue(taken.await(5, TimeUnit.SECONDS));
+        }
+        //多拍的图片会在这段时间内到达
+        Thread.sleep(50);
+        return pictures.get();
+    }
+
+    @Test
+    public void takePicture_convergedScene() throws InterruptedException {
+        StillCaptureController controller = start(new FakeCameraBackend());
+        assertEquals(3, takePictures(controller, 3));
+        CaptureMetrics metrics = controller.getCaptureMetrics();
+        assertEquals(3, metrics.getHistogram(CaptureMetrics.STAGE_TOTAL).getCount());
+        assertEquals(3, metrics.getHistogram(CaptureMetrics.STAGE_LOCKING).getCount());
+        assertEquals(0, metrics.getHistogram(CaptureMetrics.STAGE_PRECAPTURE).getCount());
+    }
+
+    @Test
+    public void takePicture_flashRequiredRunsPrecapture() throws InterruptedException {
+        StillCaptureController controller = start(new FakeCameraBackend().setFlashRequired(true));
+        assertEquals(2, takePictures(controller, 2));
+        CaptureMetrics metrics = controller.getCaptureMetrics();
+        assertEquals(2, metrics.getHistogram(CaptureMetrics.STAGE_WAITING).getCount());
+        assertTrue(metrics.getHistogram(CaptureMetrics.STAGE_PRECAPTURE).getCount() >= 2);
+    }
+
+    @Test
+    public void takePicture_queuesConcurrentCapture() throws InterruptedException {
+        StillCaptureController controller = start(new FakeCameraBackend().setAfScanFrames(20));
+        final CountDownLatch taken = new CountDownLatch(1 + PictureQueue.MAX_QUEUED_PICTURES);
+        StillCaptureController.PictureCallback callback = new StillCaptureController.PictureCallback() {
+            @Override
+            public void onPictureTaken(IFrame image, long latencyNanos) {
+                taken.countDown();
+            }
+        };
+        assertTrue(controller.takePicture(callback));
+        for (int i = 0; i < PictureQueue.MAX_QUEUED_PICTURES; i++) {
+            assertTrue(controller.takePicture(callback));
+        }
+        assertFalse(controller.takePicture(callback));
+        assertTrue(taken.await(5, TimeUnit.SECONDS));
+        CaptureMetrics metrics = controller.getCaptureMetrics();
+        assertEquals(1 + PictureQueue.MAX_QUEUED_PICTURES,
+                metrics.getHistogram(CaptureMetrics.STAGE_TOTAL).getCount());
+    }
+
+    @Test
+    public void takePicture_failedCaptureContinuesQueue() throws InterruptedException {
+        StillCaptureController controller = start(new FakeCameraBackend().setFailedStillCaptures(1));
+        final AtomicInteger pictures = new AtomicInteger();
+        final CountDownLatch taken = new CountDownLatch(1);
+        StillCaptureController.PictureCallback callback = new StillCaptureController.PictureCallback() {
+            @Override
+            public void onPictureTaken(IFrame image, long latencyNanos) {
+                pictures.incrementAndGet();
+                taken.countDown();
+            }
+        };
+        assertTrue(controller.takePicture(callback));
+        assertTrue(controller.takePicture(callback));
+        assertTrue(taken.await(5, TimeUnit.SECONDS));
+        Thread.sleep(50);
+        //第一张失败后被丢弃, 排队的第二张照片照常拍摄
+        assertEquals(1, pictures.get());
+        CaptureMetrics metrics = controller.getCaptureMetrics();
+        assertEquals(2, metrics.getHistogram(CaptureMetrics.STAGE_STILL_CAPTURE).getCount());
+        assertEquals(1, metrics.getHistogram(CaptureMetrics.STAGE_TOTAL).getCount());
+    }
+
+    @Test
+    public void takePicture_focusTimeoutForcesCapture() throws InterruptedException {
+        StillCaptureController controller = start(new FakeCameraBackend().setAfStateReported(false));
+        final AtomicInteger timeouts = new AtomicInteger();
+        controller.setTimeouts(TimeUnit.MILLISECONDS.toNanos(20), 0);
+        controller.setTimeoutListener(new CaptureTimeoutListener() {
+            @Override
+            public void onCaptureTimeout(int stage, long elapsedNanos) {
+                assertEquals(CaptureMetrics.STAGE_LOCKING, stage);
+                assertTrue(elapsedNanos >= TimeUnit.MILLISECONDS.toNanos(20));
+                timeouts.incrementAndGet();
+            }
+        });
+        assertEquals(1, takePictures(controller, 1));
+        assertEquals(1, timeouts.get());
+    }
+}
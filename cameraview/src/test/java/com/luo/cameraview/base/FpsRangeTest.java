@@ -0,0 +1,33 @@
+package com.luo.cameraview.base;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class FpsRangeTest {
+
+    private static final List<FpsRange> RANGES = Arrays.asList(
+            new FpsRange(15, 15), new FpsRange(7, 30), new FpsRange(30, 30),
+            new FpsRange(15, 60), new FpsRange(60, 60), new FpsRange(24, 24));
+
+    @Test
+    public void chooseFixedHigh_prefersHighestFixedRange() {
+        assertEquals(new FpsRange(60, 60), FpsRange.chooseFixedHigh(RANGES));
+        assertEquals(new FpsRange(7, 30), FpsRange.chooseFixedHigh(Collections.singletonList(new FpsRange(7, 30))));
+        assertNull(FpsRange.chooseFixedHigh(Collections.<FpsRange>emptyList()));
+    }
+
+    @Test
+    public void chooseHighSpeed() {
+        List<FpsRange> ranges = Arrays.asList(
+                new FpsRange(30, 120), new FpsRange(120, 120), new FpsRange(30, 240), new FpsRange(240, 240));
+        assertEquals(new FpsRange(30, 240), FpsRange.chooseHighSpeed(ranges, 240, false));
+        assertEquals(new FpsRange(120, 120), FpsRange.chooseHighSpeed(ranges, 120, true));
+        assertNull(FpsRange.chooseHighSpeed(ranges, 960, false));
+    }
+}
@@ -0,0 +1,138 @@
+package com.luo.cameraview.base;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class JpegHeadersTest {
+
+    private static final byte[] THUMBNAIL = {(byte) 0xFF, (byte) 0xD8, 1, 2, 3, 4, (byte) 0xFF, (byte) 0xD9};
+
+    @Test
+    public void parse_sizeOrientationAndThumbnail() {
+        for (ByteOrder order : new ByteOrder[]{ByteOrder.LITTLE_ENDIAN, ByteOrder.BIG_ENDIAN}) {
+            ByteBuffer jpeg = ByteBuffer.wrap(jpeg(exif(order, 6, THUMBNAIL), 4032, 3024));
+            JpegHeaders headers = JpegHeaders.parse(jpeg);
+            assertEquals(4032, headers.getWidth());
+            assertEquals(3024, headers.getHeight());
+            assertEquals(90, headers.getOrientation());
+            assertTrue(headers.hasThumbnail());
+            ByteBuffer thumbnail = headers.getThumbnail(jpeg);
+            byte[] data = new byte[thumbnail.remaining()];
+            thumbnail.get(data);
+            assertArrayEquals(THUMBNAIL, data);
+            assertEquals(0, jpeg.position());
+        }
+    }
+
+    @Test
+    public void parse_withoutExif() {
+        JpegHeaders headers = JpegHeaders.parse(ByteBuffer.wrap(jpeg(null, 640, 480)));
+        assertEquals(640, headers.getWidth());
+        assertEquals(0, headers.getOrientation());
+        assertFalse(headers.hasThumbnail());
+    }
+
+    @Test
+    public void parse_thumbnailOutOfBounds_ignored() {
+        byte[] exif = exif(ByteOrder.BIG_ENDIAN, 1, THUMBNAIL);
+        //截掉缩略图的最后一个字节, 长度字段超出APP1段
+        byte[] truncated = new byte[exif.length - 1];
+        System.arraycopy(exif, 0, truncated, 0, truncated.length);
+        JpegHeaders headers = JpegHeaders.parse(ByteBuffer.wrap(jpeg(truncated, 640, 480)));
+        assertFalse(headers.hasThumbnail());
+    }
+
+    @Test
+    public void parse_notJpeg() {
+        assertNull(JpegHeaders.parse(ByteBuffer.wrap(new byte[]{0x50, 0x4B, 3, 4, 0, 0})));
+    }
+
+    @Test
+    public void computeSampleSize() {
+        assertEquals(8, JpegHeaders.computeSampleSize(4032, 3024, 320));
+        assertEquals(8, JpegHeaders.computeSampleSize(4032, 3024, 504));
+        assertEquals(4, JpegHeaders.computeSampleSize(4032, 3024, 505));
+        assertEquals(1, JpegHeaders.computeSampleSize(320, 240, 320));
+        assertEquals(1, JpegHeaders.computeSampleSize(160, 120, 320));
+    }
+
+    /**
+     * SOI, APP1(可选), SOF0, SOS
+     */
+    private static byte[] jpeg(byte[] app1, int width, int height) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0xFF);
+        out.write(0xD8);
+        if (app1 != null) {
+            out.write(0xFF);
+            out.write(0xE1);
+            writeShort(out, app1.length + 2);
+            out.write(app1, 0, app1.length);
+        }
+        out.write(0xFF);
+        out.write(0xC0);
+        writeShort(out, 11);
+        out.write(8);
+        writeShort(out, height);
+        writeShort(out, width);
+        out.write(1);
+        out.write(1);
+        out.write(0x11);
+        out.write(0);
+        out.write(0xFF);
+        out.write(0xDA);
+        writeShort(out, 2);
+        return out.toByteArray();
+    }
+
+    /**
+     * "Exif\0\0"和TIFF头, IFD0只有方向, IFD1是缩略图的位置
+     */
+    private static byte[] exif(ByteOrder order, int orientation, byte[] thumbnail) {
+        int ifd0 = 8;
+        int ifd1 = ifd0 + 2 + 12 + 4;
+        int data = ifd1 + 2 + 12 * 2 + 4;
+        ByteBuffer tiff = ByteBuffer.allocate(data + thumbnail.length).order(order);
+        tiff.putShort(order == ByteOrder.LITTLE_ENDIAN ? (short) 0x4949 : (short) 0x4D4D);
+        tiff.putShort((short) 42);
+        tiff.putInt(ifd0);
+        tiff.putShort((short) 1);
+        putEntry(tiff, 0x0112, 3, orientation);
+        tiff.putInt(ifd1);
+        tiff.putShort((short) 2);
+        putEntry(tiff, 0x0201, 4, data);
+        putEntry(tiff, 0x0202, 4, thumbnail.length);
+        tiff.putInt(0);
+        tiff.put(thumbnail);
+        byte[] exif = new byte[6 + tiff.capacity()];
+        System.arraycopy(new byte[]{'E', 'x', 'i', 'f', 0, 0}, 0, exif, 0, 6);
+        System.arraycopy(tiff.array(), 0, exif, 6, tiff.capacity());
+        return exif;
+    }
+
+    private static void putEntry(ByteBuffer tiff, int tag, int type, int value) {
+        tiff.putShort((short) tag);
+        tiff.putShort((short) type);
+        tiff.putInt(1);
+        if (type == 3) {
+            tiff.putShort((short) value);
+            tiff.putShort((short) 0);
+        } else {
+            tiff.putInt(value);
+        }
+    }
+
+    private static void writeShort(ByteArrayOutputStream out, int value) {
+        out.write(value >> 8);
+        out.write(value);
+    }
+}
@@ -0,0 +1,81 @@
+package com.luo.cameraview.base;
+
+import org.junit.Test;
+
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SizeMapTest {
+
+    private static SizeMap create() {
+        SizeMap map = new SizeMap();
+        map.add(new Size(1920, 1080));
+        map.add(new Size(640, 480));
+        map.add(new Size(1280, 720));
+        map.add(new Size(1440, 1080));
+        map.add(new Size(800, 600));
+        map.add(new Size(960, 540));
+        return map;
+    }
+
+    @Test
+    public void add_groupsByReducedRatio() {
+        SizeMap map = create();
+        assertEquals(2, map.ratios().size());
+        assertFalse(map.add(new Size(1280, 720)));
+        assertEquals(3, map.sizes(AspectRatio.of(16, 9)).size());
+        assertEquals(new Size(960, 540), map.sizes(AspectRatio.of(16, 9)).first());
+    }
+
+    @Test
+    public void smallestCovering() {
+        SizeMap map = create();
+        AspectRatio ratio = AspectRatio.of(16, 9);
+        assertEquals(new Size(1280, 720), map.smallestCovering(ratio, 1000, 700));
+        assertEquals(new Size(960, 540), map.smallestCovering(ratio, 1, 1));
+        assertNull(map.smallestCovering(ratio, 2000, 1080));
+    }
+
+    @Test
+    public void largestWithin() {
+        SizeMap map = create();
+        AspectRatio ratio = AspectRatio.of(4, 3);
+        assertEquals(new Size(800, 600), map.largestWithin(ratio, 1000000));
+        assertEquals(new Size(1440, 1080), map.largest(ratio));
+        assertNull(map.largestWithin(ratio, 1000));
+    }
+
+    @Test
+    public void ratios_isSnapshot() {
+        SizeMap map = create();
+        Set<AspectRatio> ratios = map.ratios();
+        map.remove(AspectRatio.of(4, 3));
+        assertEquals(2, ratios.size());
+        assertEquals(1, map.ratios().size());
+        assertTrue(map.ratios().contains(AspectRatio.of(16, 9)));
+    }
+
+    @Test
+    public void retainRatios() {
+        SizeMap map = create();
+        SizeMap pictures = new SizeMap();
+        pictures.add(new Size(4032, 3024));
+        pictures.add(new Size(1000, 1000));
+        assertTrue(map.retainRatios(pictures));
+        assertEquals(1, map.ratios().size());
+        assertTrue(map.ratios().contains(AspectRatio.of(4, 3)));
+        assertFalse(map.retainRatios(pictures));
+    }
+
+    @Test
+    public void chooseOptimalSize_ignoresOrientation() {
+        SizeMap map = create();
+        AspectRatio ratio = AspectRatio.of(16, 9);
+        assertEquals(new Size(1280, 720), map.chooseOptimalSize(ratio, 700, 1000));
+        assertEquals(map.largest(ratio), map.chooseOptimalSize(ratio, 1440, 2560));
+    }
+}
@@ -0,0 +1,79 @@
+package com.luo.cameraview.frame;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class FrameBufferPoolTest {
+
+    @Test
+    public void acquire_reusesReleasedBuffer() {
+        FrameBufferPool pool = new FrameBufferPool(1024, false);
+        FrameBufferPool.PooledBuffer first = pool.acquire(100);
+        first.release();
+        FrameBufferPool.PooledBuffer second = pool.acquire(100);
+        assertSame(first, second);
+        assertEquals(1, pool.getAllocationCount());
+        assertEquals(100, pool.getResidentBytes());
+    }
+
+    @Test
+    public void acquire_returnsNullOverBudget() {
+        FrameBufferPool pool = new FrameBufferPool(150, false);
+        assertNotNull(pool.acquire(100));
+        assertNull(pool.acquire(100));
+    }
+
+    @Test
+    public void acquire_evictsOtherFreeBuckets() {
+        FrameBufferPool pool = new FrameBufferPool(150, false);
+        pool.acquire(100).release();
+        assertNotNull(pool.acquire(120));
+        assertEquals(120, pool.getResidentBytes());
+    }
+
+    @Test
+    public void getLeakCount_reportsCollectedBuffer() throws InterruptedException {
+        FrameBufferPool pool = new FrameBufferPool(1024, true);
+        acquireAndDrop(pool, 100);
+        pool.acquire(16).release();
+        for (int i = 0; i < 100 && pool.getLeakCount() == 0; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertEquals(1, pool.getLeakCount());
+        //泄漏的缓冲区不再计入总大小
+        assertEquals(16, pool.getResidentBytes());
+    }
+
+    @Test
+    public void getLeakCount_ignoresReleasedBuffer() throws InterruptedException {
+        FrameBufferPool pool = new FrameBufferPool(1024, true);
+        pool.acquire(100).release();
+        System.gc();
+        Thread.sleep(10);
+        assertEquals(0, pool.getLeakCount());
+    }
+
+    private static void acquireAndDrop(FrameBufferPool pool, int capacity) {
+        assertNotNull(pool.acquire(capacity));
+    }
+
+    @Test
+    public void acquire_heapBufferHasArray() {
+        FrameBufferPool pool = new FrameBufferPool(1024, false, false);
+        FrameBufferPool.PooledBuffer buffer = pool.acquire(100);
+        assertEquals(100, buffer.getBuffer().array().length);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void release_twiceThrows() {
+        FrameBufferPool pool = new FrameBufferPool(1024, false);
+        FrameBufferPool.PooledBuffer buffer = pool.acquire(16);
+        buffer.release();
+        buffer.release();
+    }
+}
@@ -0,0 +1,259 @@
+package com.luo.cameraview.frame;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FrameDispatcherTest {
+
+    private static final long FRAME_INTERVAL = TimeUnit.MILLISECONDS.toNanos(33);
+    private static final AtomicLong sTimestamp = new AtomicLong();
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Test
+    public void dispatch_closesFrameAfterLastAnalyzer() {
+        FrameDispatcher dispatcher = new FrameDispatcher(DIRECT);
+        final TestFrame frame = nextFrame();
+        IFrameAnalyzer checkOpen = new IFrameAnalyzer() {
+            @Override
+            public void analyze(IFrame f) {
+                assertEquals(0, frame.mCloseCount.get());
+            }
+        };
+        dispatcher.addAnalyzer(checkOpen);
+        dispatcher.addAnalyzer(new IFrameAnalyzer() {
+            @Override
+            public void analyze(IFrame f) {
+                assertEquals(0, frame.mCloseCount.get());
+            }
+        });
+        dispatcher.dispatch(frame);
+        assertEquals(1, frame.mCloseCount.get());
+        assertEquals(1, dispatcher.getAnalyzerStats(checkOpen).getProcessedFrames());
+        assertEquals(0, dispatcher.getAnalyzerStats(checkOpen).getQueueDepth());
+    }
+
+    @Test
+    public void dispatch_withoutAnalyzers_closesFrame() {
+        FrameDispatcher dispatcher = new FrameDispatcher(DIRECT);
+        TestFrame frame = nextFrame();
+        dispatcher.dispatch(frame);
+        assertEquals(1, frame.mCloseCount.get());
+    }
+
+    @Test
+    public void analyzers_runInParallel() throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            FrameDispatcher dispatcher = new FrameDispatcher(executor);
+            //两个分析器互相等待, 串行执行时会超时
+            final CountDownLatch first = new CountDownLatch(1);
+            final CountDownLatch second = new CountDownLatch(1);
+            final AtomicInteger parallel = new AtomicInteger();
+            dispatcher.addAnalyzer(new IFrameAnalyzer() {
+                @Override
+                public void analyze(IFrame frame) {
+                    first.countDown();
+                    if (await(second)) {
+                        parallel.incrementAndGet();
+                    }
+                }
+            });
+            dispatcher.addAnalyzer(new IFrameAnalyzer() {
+                @Override
+                public void analyze(IFrame frame) {
+                    second.countDown();
+                    if (await(first)) {
+                        parallel.incrementAndGet();
+                    }
+                }
+            });
+            TestFrame frame = nextFrame();
+            dispatcher.dispatch(frame);
+            assertTrue(frame.awaitClosed());
+            assertEquals(2, parallel.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void slowAnalyzer_dropsOnlyItsOwnFrames() throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            FrameDispatcher dispatcher = new FrameDispatcher(executor);
+            final CountDownLatch release = new CountDownLatch(1);
+            final CountDownLatch started = new CountDownLatch(1);
+            IFrameAnalyzer slow = new IFrameAnalyzer() {
+                @Override
+                public void analyze(IFrame frame) {
+                    started.countDown();
+                    await(release);
+                }
+            };
+            final Semaphore fastProcessed = new Semaphore(0);
+            IFrameAnalyzer fast = new IFrameAnalyzer() {
+                @Override
+                public void analyze(IFrame frame) {
+                    fastProcessed.release();
+                }
+            };
+            dispatcher.addAnalyzer(slow);
+            dispatcher.addAnalyzer(fast);
+            TestFrame[] frames = {nextFrame(), nextFrame(), nextFrame()};
+            dispatcher.dispatch(frames[0]);
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            for (int i = 1; i < frames.length; i++) {
+                assertTrue(fastProcessed.tryAcquire(5, TimeUnit.SECONDS));
+                dispatcher.dispatch(frames[i]);
+            }
+            assertTrue(fastProcessed.tryAcquire(5, TimeUnit.SECONDS));
+            //慢的分析器处理第一帧时, 第二帧被第三帧替换
+            assertTrue(frames[1].awaitClosed());
+            AnalyzerStats stats = dispatcher.getAnalyzerStats(slow);
+            assertEquals(1, stats.getDroppedFrames());
+            assertEquals(2, stats.getQueueDepth());
+            assertEquals(0, dispatcher.getAnalyzerStats(fast).getDroppedFrames());
+            release.countDown();
+            assertTrue(frames[0].awaitClosed());
+            assertTrue(frames[2].awaitClosed());
+            assertEquals(1, frames[2].mCloseCount.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void removeAnalyzer_closesPendingFrame() {
+        //分析任务先不执行, 模拟分析器移除时帧还在等待
+        final Runnable[] task = new Runnable[1];
+        FrameDispatcher dispatcher = new FrameDispatcher(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                task[0] = command;
+            }
+        });
+        IFrameAnalyzer analyzer = new IFrameAnalyzer() {
+            @Override
+            public void analyze(IFrame frame) {
+                throw new AssertionError("Removed analyzer must not run");
+            }
+        };
+        dispatcher.addAnalyzer(analyzer);
+        TestFrame frame = nextFrame();
+        dispatcher.dispatch(frame);
+        dispatcher.removeAnalyzer(analyzer);
+        assertEquals(1, frame.mCloseCount.get());
+        assertNull(dispatcher.getAnalyzerStats(analyzer));
+        task[0].run();
+        assertEquals(1, frame.mCloseCount.get());
+    }
+
+    @Test
+    public void fixedRate_skipsFramesBetweenIntervals() {
+        FrameDispatcher dispatcher = new FrameDispatcher(DIRECT);
+        final AtomicInteger analyzed = new AtomicInteger();
+        IFrameAnalyzer analyzer = new IFrameAnalyzer() {
+            @Override
+            public void analyze(IFrame frame) {
+                analyzed.incrementAndGet();
+            }
+        };
+        dispatcher.addAnalyzer(analyzer, AnalyzerRate.fps(10));
+        //30fps下1秒的帧, 10fps只分析其中每3帧的1帧
+        long start = 1000000000L;
+        for (int i = 0; i < 30; i++) {
+            TestFrame frame = TestFrame.at(start + i * 1000000000L / 30);
+            dispatcher.dispatch(frame);
+            assertEquals(1, frame.mCloseCount.get());
+        }
+        assertEquals(10, analyzed.get());
+        assertEquals(20, dispatcher.getAnalyzerStats(analyzer).getSkippedFrames());
+        assertEquals(0, dispatcher.getAnalyzerStats(analyzer).getDroppedFrames());
+    }
+
+    @Test
+    public void everyFrame_throttledByProcessingTime() {
+        FrameDispatcher dispatcher = new FrameDispatcher(DIRECT);
+        IFrameAnalyzer slow = new IFrameAnalyzer() {
+            @Override
+            public void analyze(IFrame frame) {
+                long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(60);
+                while (System.nanoTime() < end) {
+                    Thread.yield();
+                }
+            }
+        };
+        dispatcher.addAnalyzer(slow);
+        for (int i = 0; i < 9; i++) {
+            dispatcher.dispatch(TestFrame.at(i * FRAME_INTERVAL));
+        }
+        //处理一帧至少60ms, 30fps下最多每隔一帧分析一次
+        AnalyzerStats stats = dispatcher.getAnalyzerStats(slow);
+        assertTrue(stats.getAverageProcessingNanos() >= TimeUnit.MILLISECONDS.toNanos(60));
+        assertTrue(stats.getProcessedFrames() <= 5);
+        assertEquals(9, stats.getProcessedFrames() + stats.getSkippedFrames());
+    }
+
+    @Test
+    public void noQueueing_onlyWhenIdle() {
+        final Runnable[] task = new Runnable[1];
+        FrameDispatcher dispatcher = new FrameDispatcher(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                task[0] = command;
+            }
+        });
+        IFrameAnalyzer analyzer = new IFrameAnalyzer() {
+            @Override
+            public void analyze(IFrame frame) {
+            }
+        };
+        dispatcher.addAnalyzer(analyzer, AnalyzerRate.noQueueing());
+        TestFrame first = nextFrame();
+        TestFrame second = nextFrame();
+        dispatcher.dispatch(first);
+        //第一帧还没处理, 第二帧直接跳过而不是替换第一帧
+        dispatcher.dispatch(second);
+        assertEquals(0, first.mCloseCount.get());
+        assertEquals(1, second.mCloseCount.get());
+        task[0].run();
+        assertEquals(1, first.mCloseCount.get());
+        AnalyzerStats stats = dispatcher.getAnalyzerStats(analyzer);
+        assertEquals(1, stats.getSkippedFrames());
+        assertEquals(0, stats.getDroppedFrames());
+        assertEquals(1, stats.getMaxQueueDepth());
+    }
+
+    private static boolean await(CountDownLatch latch) {
+        try {
+            return latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 30fps的连续帧
+     */
+    private static TestFrame nextFrame() {
+        return TestFrame.at(sTimestamp.addAndGet(FRAME_INTERVAL));
+    }
+}
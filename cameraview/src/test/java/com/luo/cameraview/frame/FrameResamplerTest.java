@@ -0,0 +1,149 @@
+package com.luo.cameraview.frame;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FrameResamplerTest {
+
+    private static final YuvConverter CONVERTER = new YuvConverter(null, 0);
+
+    @Test
+    public void identity_matchesFullConversion() {
+        TestFrame frame = TestFrame.random(48, 32, 1);
+        int[] argb = convert(frame);
+        byte[] rgb = new byte[48 * 32 * 3];
+        new FrameResampler(48, 32).toRgb(frame, rgb);
+        for (int y = 0; y < 32; y++) {
+            for (int x = 0; x < 48; x++) {
+                assertPixel(argb[y * 48 + x], rgb, y * 48 + x);
+            }
+        }
+    }
+
+    @Test
+    public void rotation_matchesRotatedFullConversion() {
+        TestFrame frame = TestFrame.random(48, 32, 2);
+        int[] argb = convert(frame);
+        for (int rotation = 0; rotation < 360; rotation += 90) {
+            for (boolean mirror : new boolean[]{false, true}) {
+                boolean transposed = rotation % 180 != 0;
+                int width = transposed ? 32 : 48;
+                int height = transposed ? 48 : 32;
+                byte[] rgb = new byte[width * height * 3];
+                new FrameResampler(width, height).setRotation(rotation).setMirror(mirror).toRgb(frame, rgb);
+                for (int oy = 0; oy < height; oy++) {
+                    for (int ox = 0; ox < width; ox++) {
+                        int x = mirror ? width - 1 - ox : ox;
+                        //顺时针旋转后的(x, oy)在源中的位置
+                        int sx;
+                        int sy;
+                        switch (rotation) {
+                            case 90:
+                                sx = oy;
+                                sy = 31 - x;
+                                break;
+                            case 180:
+                                sx = 47 - x;
+                                sy = 31 - oy;
+                                break;
+                            case 270:
+                                sx = 47 - oy;
+                                sy = x;
+                                break;
+                            default:
+                                sx = x;
+                                sy = oy;
+                                break;
+                        }
+                        assertPixel(argb[sy * 48 + sx], rgb, oy * width + ox);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void crop_matchesRegionOfFullConversion() {
+        TestFrame frame = TestFrame.random(48, 32, 3);
+        int[] argb = convert(frame);
+        byte[] rgb = new byte[16 * 8 * 3];
+        new FrameResampler(16, 8).setCrop(10, 6, 16, 8).toRgb(frame, rgb);
+        for (int y = 0; y < 8; y++) {
+            for (int x = 0; x < 16; x++) {
+                //裁剪从奇数列开始, 色度仍然按源坐标取
+                assertPixel(argb[(y + 6) * 48 + x + 10], rgb, y * 16 + x);
+            }
+        }
+    }
+
+    @Test
+    public void box_averagesCoveredPixels() {
+        //色度为128时RGB都等于亮度
+        TestFrame frame = TestFrame.gray(64, 32, 4);
+        byte[] rgb = new byte[16 * 8 * 3];
+        new FrameResampler(16, 8).setFilter(FrameResampler.FILTER_BOX).toRgb(frame, rgb);
+        for (int oy = 0; oy < 8; oy++) {
+            for (int ox = 0; ox < 16; ox++) {
+                int sum = 0;
+                for (int y = 0; y < 4; y++) {
+                    for (int x = 0; x < 4; x++) {
+                        sum += frame.y(ox * 4 + x, oy * 4 + y);
+                    }
+                }
+                int actual = rgb[(oy * 16 + ox) * 3] & 0xFF;
+                assertTrue(sum / 16f + " != " + actual, Math.abs(sum / 16f - actual) <= 1);
+            }
+        }
+    }
+
+    @Test
+    public void box_limitsTaps() {
+        //缩小16倍时只取MAX_BOX_TAPS个点, 均匀的图像结果不变
+        TestFrame frame = TestFrame.uniform(256, 128, 200);
+        byte[] rgb = new byte[16 * 8 * 3];
+        new FrameResampler(16, 8).setFilter(FrameResampler.FILTER_BOX).toRgb(frame, rgb);
+        for (byte value : rgb) {
+            assertEquals(200, value & 0xFF);
+        }
+    }
+
+    @Test
+    public void toFloat_normalizes() {
+        TestFrame frame = TestFrame.random(48, 32, 5);
+        FrameResampler resampler = new FrameResampler(24, 16).setNormalization(127.5f, 127.5f);
+        byte[] rgb = new byte[24 * 16 * 3];
+        float[] values = new float[rgb.length];
+        resampler.toRgb(frame, rgb);
+        resampler.toFloat(frame, values);
+        for (int i = 0; i < rgb.length; i++) {
+            assertEquals(((rgb[i] & 0xFF) - 127.5f) / 127.5f, values[i], 1e-5f);
+        }
+    }
+
+    @Test
+    public void computeRotation() {
+        assertEquals(90, FrameResampler.computeRotation(90, 0, false));
+        assertEquals(0, FrameResampler.computeRotation(90, 90, false));
+        assertEquals(0, FrameResampler.computeRotation(270, 90, true));
+        assertEquals(180, FrameResampler.computeRotation(270, 270, true));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void toRgb_bufferTooSmall() {
+        new FrameResampler(16, 16).toRgb(TestFrame.random(16, 16, 6), new byte[16 * 16]);
+    }
+
+    private static int[] convert(IFrame frame) {
+        int[] argb = new int[frame.getWidth() * frame.getHeight()];
+        CONVERTER.toArgb(frame, argb);
+        return argb;
+    }
+
+    private static void assertPixel(int expected, byte[] rgb, int index) {
+        int actual = 0xFF000000 | (rgb[index * 3] & 0xFF) << 16 | (rgb[index * 3 + 1] & 0xFF) << 8
+                | rgb[index * 3 + 2] & 0xFF;
+        assertEquals("pixel " + index, Integer.toHexString(expected), Integer.toHexString(actual));
+    }
+}
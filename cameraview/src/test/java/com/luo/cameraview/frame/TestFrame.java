@@ -0,0 +1,238 @@
+package com.luo.cameraview.frame;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 测试用的YUV_420_888帧, 各测试共用.
+ * 保存紧凑的Y, U, V数据作为参考, 平面按给定的行跨度和像素跨度布局, 并记录关闭的次数
+ */
+class TestFrame implements IFrame {
+    private final int mWidth;
+    private final int mHeight;
+    private final int mRowStride;
+    private final int mPixelStride;
+    private final long mTimestamp;
+    private final byte[] mYData;
+    private final byte[] mUData;
+    private final byte[] mVData;
+    private final Plane[] mPlanes;
+
+    final AtomicInteger mCloseCount = new AtomicInteger();
+    private final CountDownLatch mClosed = new CountDownLatch(1);
+
+    /**
+     * @param rowStride   亮度平面的行跨度, 不小于width
+     * @param pixelStride 色度的像素跨度, 2时U和V在同一块内存中交错, 和设备上常见的布局相同
+     * @param y           紧凑的亮度数据
+     * @param u           紧凑的U数据
+     * @param v           紧凑的V数据
+     * @param timestamp
+     */
+    TestFrame(int width, int height, int rowStride, int pixelStride, byte[] y, byte[] u, byte[] v, long timestamp) {
+        mWidth = width;
+        mHeight = height;
+        mRowStride = rowStride;
+        mPixelStride = pixelStride;
+        mTimestamp = timestamp;
+        mYData = y;
+        mUData = u;
+        mVData = v;
+        int chromaWidth = (width + 1) / 2;
+        int chromaHeight = (height + 1) / 2;
+
+        ByteBuffer yPlane = ByteBuffer.allocateDirect(rowStride * (height - 1) + width);
+        for (int row = 0; row < height; row++) {
+            yPlane.position(row * rowStride);
+            yPlane.put(y, row * width, width);
+        }
+        yPlane.clear();
+        int chromaRowStride = pixelStride == 1 ? rowStride / 2 : rowStride;
+        if (pixelStride == 1 && chromaRowStride < chromaWidth) {
+            //奇数宽度没有行填充时, 色度的一行比亮度的一半多一个像素
+            chromaRowStride = chromaWidth;
+        }
+        int chromaLength = chromaRowStride * (chromaHeight - 1) + (chromaWidth - 1) * pixelStride + 1;
+        ByteBuffer uPlane;
+        ByteBuffer vPlane;
+        if (pixelStride == 1) {
+            uPlane = ByteBuffer.allocateDirect(chromaLength);
+            vPlane = ByteBuffer.allocateDirect(chromaLength);
+        } else {
+            //V在U之后一个字节, 两个平面共享内存
+            ByteBuffer uv = ByteBuffer.allocateDirect(chromaLength + 1);
+            uPlane = uv.duplicate();
+            uPlane.limit(chromaLength);
+            uPlane = uPlane.slice();
+            vPlane = uv.duplicate();
+            vPlane.position(1);
+            vPlane = vPlane.slice();
+        }
+        for (int row = 0; row < chromaHeight; row++) {
+            for (int col = 0; col < chromaWidth; col++) {
+                int index = row * chromaRowStride + col * pixelStride;
+                uPlane.put(index, u[row * chromaWidth + col]);
+                vPlane.put(index, v[row * chromaWidth + col]);
+            }
+        }
+        mPlanes = new Plane[]{
+                new TestPlane(yPlane, rowStride, 1),
+                new TestPlane(uPlane, chromaRowStride, pixelStride),
+                new TestPlane(vPlane, chromaRowStride, pixelStride),
+        };
+    }
+
+    /**
+     * 随机内容的帧
+     */
+    static TestFrame random(int width, int height, int rowStride, int pixelStride, long seed) {
+        Random random = new Random(seed);
+        byte[] y = new byte[width * height];
+        byte[] u = new byte[chromaSize(width, height)];
+        byte[] v = new byte[u.length];
+        random.nextBytes(y);
+        random.nextBytes(u);
+        random.nextBytes(v);
+        return new TestFrame(width, height, rowStride, pixelStride, y, u, v, 0);
+    }
+
+    /**
+     * 随机内容的平面布局的帧, 没有行填充
+     */
+    static TestFrame random(int width, int height, long seed) {
+        return random(width, height, width, 1, seed);
+    }
+
+    /**
+     * 随机亮度, 色度为128, RGB都等于亮度
+     */
+    static TestFrame gray(int width, int height, long seed) {
+        Random random = new Random(seed);
+        byte[] y = new byte[width * height];
+        random.nextBytes(y);
+        return new TestFrame(width, height, width, 1, y, neutral(width, height), neutral(width, height), 0);
+    }
+
+    /**
+     * 亮度都等于luma的灰色帧
+     */
+    static TestFrame uniform(int width, int height, int luma) {
+        byte[] y = new byte[width * height];
+        Arrays.fill(y, (byte) luma);
+        return new TestFrame(width, height, width, 1, y, neutral(width, height), neutral(width, height), 0);
+    }
+
+    /**
+     * 时间戳为timestamp的4x4小帧, 只关心时间戳和关闭的测试使用
+     */
+    static TestFrame at(long timestamp) {
+        return new TestFrame(4, 4, 4, 1, new byte[16], neutral(4, 4), neutral(4, 4), timestamp);
+    }
+
+    private static int chromaSize(int width, int height) {
+        return ((width + 1) / 2) * ((height + 1) / 2);
+    }
+
+    private static byte[] neutral(int width, int height) {
+        byte[] chroma = new byte[chromaSize(width, height)];
+        Arrays.fill(chroma, (byte) 128);
+        return chroma;
+    }
+
+    int y(int col, int row) {
+        return mYData[row * mWidth + col] & 0xFF;
+    }
+
+    int u(int col, int row) {
+        return mUData[row * ((mWidth + 1) / 2) + col] & 0xFF;
+    }
+
+    int v(int col, int row) {
+        return mVData[row * ((mWidth + 1) / 2) + col] & 0xFF;
+    }
+
+    byte[] referenceNv21() {
+        byte[] out = new byte[YuvConverter.nv21Size(mWidth, mHeight)];
+        System.arraycopy(mYData, 0, out, 0, mYData.length);
+        int offset = mYData.length;
+        for (int i = 0; i < mUData.length; i++) {
+            out[offset++] = mVData[i];
+            out[offset++] = mUData[i];
+        }
+        return out;
+    }
+
+    byte[] referenceI420() {
+        byte[] out = new byte[YuvConverter.i420Size(mWidth, mHeight)];
+        System.arraycopy(mYData, 0, out, 0, mYData.length);
+        System.arraycopy(mUData, 0, out, mYData.length, mUData.length);
+        System.arraycopy(mVData, 0, out, mYData.length + mUData.length, mVData.length);
+        return out;
+    }
+
+    boolean awaitClosed() throws InterruptedException {
+        return mClosed.await(5, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public int getWidth() {
+        return mWidth;
+    }
+
+    @Override
+    public int getHeight() {
+        return mHeight;
+    }
+
+    @Override
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    @Override
+    public Plane[] getPlanes() {
+        return mPlanes;
+    }
+
+    @Override
+    public void close() {
+        mCloseCount.incrementAndGet();
+        mClosed.countDown();
+    }
+
+    @Override
+    public String toString() {
+        return mWidth + "x" + mHeight + " rowStride=" + mRowStride + " pixelStride=" + mPixelStride;
+    }
+
+    private static class TestPlane implements IFrame.Plane {
+        private final ByteBuffer mBuffer;
+        private final int mRowStride;
+        private final int mPixelStride;
+
+        TestPlane(ByteBuffer buffer, int rowStride, int pixelStride) {
+            mBuffer = buffer;
+            mRowStride = rowStride;
+            mPixelStride = pixelStride;
+        }
+
+        @Override
+        public ByteBuffer getBuffer() {
+            return mBuffer;
+        }
+
+        @Override
+        public int getRowStride() {
+            return mRowStride;
+        }
+
+        @Override
+        public int getPixelStride() {
+            return mPixelStride;
+        }
+    }
+}
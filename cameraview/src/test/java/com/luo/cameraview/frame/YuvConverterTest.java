@@ -0,0 +1,97 @@
+package com.luo.cameraview.frame;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class YuvConverterTest {
+
+    private static final ForkJoinPool POOL = new ForkJoinPool(4);
+
+    /**
+     * 阈值为0时总是并行
+     */
+    private static final YuvConverter PARALLEL = new YuvConverter(POOL, 0);
+    private static final YuvConverter SERIAL = new YuvConverter(null, 0);
+
+    @AfterClass
+    public static void tearDown() {
+        POOL.shutdown();
+    }
+
+    @Test
+    public void toNv21_matchesReference() {
+        for (TestFrame frame : frames()) {
+            byte[] expected = frame.referenceNv21();
+            for (YuvConverter converter : new YuvConverter[]{SERIAL, PARALLEL}) {
+                byte[] out = new byte[YuvConverter.nv21Size(frame.getWidth(), frame.getHeight())];
+                converter.toNv21(frame, out);
+                assertArrayEquals(frame.toString(), expected, out);
+            }
+        }
+    }
+
+    @Test
+    public void toI420_matchesReference() {
+        for (TestFrame frame : frames()) {
+            byte[] expected = frame.referenceI420();
+            for (YuvConverter converter : new YuvConverter[]{SERIAL, PARALLEL}) {
+                byte[] out = new byte[YuvConverter.i420Size(frame.getWidth(), frame.getHeight())];
+                converter.toI420(frame, out);
+                assertArrayEquals(frame.toString(), expected, out);
+            }
+        }
+    }
+
+    @Test
+    public void toArgb_withinRounding() {
+        for (TestFrame frame : frames()) {
+            int[] serial = new int[frame.getWidth() * frame.getHeight()];
+            int[] parallel = new int[serial.length];
+            SERIAL.toArgb(frame, serial);
+            PARALLEL.toArgb(frame, parallel);
+            assertArrayEquals(serial, parallel);
+            for (int row = 0; row < frame.getHeight(); row++) {
+                for (int col = 0; col < frame.getWidth(); col++) {
+                    int argb = serial[row * frame.getWidth() + col];
+                    assertEquals(0xFF, argb >>> 24);
+                    double y = frame.y(col, row);
+                    double cb = frame.u(col / 2, row / 2) - 128;
+                    double cr = frame.v(col / 2, row / 2) - 128;
+                    assertChannel(y + 1.402 * cr, (argb >> 16) & 0xFF);
+                    assertChannel(y - 0.344136 * cb - 0.714136 * cr, (argb >> 8) & 0xFF);
+                    assertChannel(y + 1.772 * cb, argb & 0xFF);
+                }
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void toNv21_bufferTooSmall() {
+        TestFrame frame = TestFrame.random(16, 16, 16, 1, 1);
+        SERIAL.toNv21(frame, new byte[16 * 16]);
+    }
+
+    private static void assertChannel(double expected, int actual) {
+        double clamped = Math.max(0, Math.min(255, expected));
+        assertTrue(expected + " != " + actual, Math.abs(clamped - actual) <= 1.5);
+    }
+
+    /**
+     * 平面布局(像素跨度1), 半平面布局(像素跨度2), 带行填充, 奇数宽高
+     */
+    private static TestFrame[] frames() {
+        return new TestFrame[]{
+                TestFrame.random(64, 48, 64, 1, 1),
+                TestFrame.random(64, 48, 64, 2, 2),
+                TestFrame.random(640, 480, 704, 2, 3),
+                TestFrame.random(37, 23, 48, 1, 4),
+                TestFrame.random(37, 23, 40, 2, 5),
+        };
+    }
+}
@@ -0,0 +1,37 @@
+package com.luo.cameraview.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void percentile_withinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000000L);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertWithin(500000, histogram.getPercentile(50));
+        assertWithin(950000, histogram.getPercentile(95));
+        assertWithin(990000, histogram.getPercentile(99));
+    }
+
+    @Test
+    public void indexOf_isMonotonic() {
+        int last = -1;
+        for (long value = 0; value < 1 << 20; value++) {
+            int index = LatencyHistogram.indexOf(value);
+            assertTrue(index >= last);
+            assertTrue(LatencyHistogram.highestValueAt(index) >= value);
+            last = index;
+        }
+    }
+
+    private static void assertWithin(long expectedMicros, long actualMicros) {
+        assertTrue("expected ~" + expectedMicros + " but was " + actualMicros,
+                Math.abs(actualMicros - expectedMicros) <= expectedMicros / 25);
+    }
+}
@@ -0,0 +1,43 @@
+package com.luo.cameraview.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class RecordingStatsTest {
+
+    @Test
+    public void droppedFrames_countedFromTimestampGaps() {
+        RecordingStats stats = new RecordingStats(30);
+        long interval = 1000000L / 30;
+        long timestamp = 0;
+        for (int i = 0; i < 10; i++) {
+            stats.onFrameEncoded(timestamp, 1000);
+            //第5帧之后缺少两帧
+            timestamp += i == 4 ? interval * 3 : interval;
+        }
+        assertEquals(10, stats.getFrames());
+        assertEquals(2, stats.getDroppedFrames());
+    }
+
+    @Test
+    public void jitter_isNotDropped() {
+        RecordingStats stats = new RecordingStats(30);
+        long interval = 1000000L / 30;
+        stats.onFrameEncoded(0, 1000);
+        stats.onFrameEncoded(interval * 14 / 10, 1000);
+        stats.onFrameEncoded(interval * 24 / 10, 1000);
+        assertEquals(0, stats.getDroppedFrames());
+    }
+
+    @Test
+    public void bitrate() {
+        RecordingStats stats = new RecordingStats(10);
+        for (int i = 0; i < 10; i++) {
+            stats.onFrameEncoded(i * 100000L, 12500);
+        }
+        assertEquals(1000000L, stats.getDurationUs());
+        assertEquals(1000000L, stats.getBitrate());
+        assertEquals(10f, stats.getFrameRate(), 0.001f);
+    }
+}
@@ -0,0 +1,278 @@
+package com.luo.cameraview.store;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CaptureStoreTest {
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void append_persistsInOrderAcrossSegments() throws IOException {
+        File directory = mFolder.newFolder();
+        //每个段只放得下两条记录
+        CaptureStore store = new CaptureStore(directory).setSegmentSize(Segment.HEADER_SIZE + 2 * (Segment.RECORD_HEADER_SIZE + 100));
+        store.open();
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i, store.append(jpeg(i, 100)));
+        }
+        store.close();
+        assertEquals(5, store.getPersistedRecords());
+        assertEquals(4, store.getLastPersistedSequence());
+        assertEquals(3, directory.listFiles().length);
+        assertEquals(Arrays.asList(0L, 1L, 2L, 3L, 4L), scan(store));
+
+        //前两个段的记录都不晚于3, 最后一个段不删除
+        assertEquals(2, store.trim(4));
+        assertEquals(Arrays.asList(4L), scan(store));
+    }
+
+    @Test
+    public void open_truncatesTornRecord() throws IOException {
+        File directory = mFolder.newFolder();
+        CaptureStore store = new CaptureStore(directory);
+        store.open();
+        for (int i = 0; i < 3; i++) {
+            store.append(jpeg(i, 1000));
+        }
+        store.close();
+        //模拟最后一条记录只写了一半
+        File segment = directory.listFiles()[0];
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        file.setLength(file.length() - 10);
+        file.close();
+
+        CaptureStore recovered = new CaptureStore(directory);
+        recovered.open();
+        assertEquals(2, recovered.getRecoveredRecords());
+        assertEquals(Segment.RECORD_HEADER_SIZE + 1000 - 10, recovered.getTruncatedBytes());
+        assertEquals(2, recovered.append(jpeg(5, 1000)));
+        recovered.close();
+        final List<byte[]> data = new ArrayList<byte[]>();
+        recovered.scan(new CaptureStore.RecordVisitor() {
+            @Override
+            public void visit(long sequence, long timestamp, byte[] jpeg) {
+                data.add(jpeg);
+            }
+        });
+        assertEquals(3, data.size());
+        assertArrayEquals(jpeg(1, 1000), data.get(1));
+        assertArrayEquals(jpeg(5, 1000), data.get(2));
+    }
+
+    @Test
+    public void open_stopsAtCorruptedRecord() throws IOException {
+        File directory = mFolder.newFolder();
+        CaptureStore store = new CaptureStore(directory);
+        store.open();
+        for (int i = 0; i < 3; i++) {
+            store.append(jpeg(i, 1000));
+        }
+        store.close();
+        //第二条记录的数据损坏, 之后的记录都不再可信
+        File segment = directory.listFiles()[0];
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        file.seek(Segment.HEADER_SIZE + (Segment.RECORD_HEADER_SIZE + 1000) + Segment.RECORD_HEADER_SIZE + 500);
+        file.write(0xFF);
+        file.close();
+
+        CaptureStore recovered = new CaptureStore(directory);
+        recovered.open();
+        recovered.close();
+        assertEquals(1, recovered.getRecoveredRecords());
+        assertEquals(Arrays.asList(0L), scan(recovered));
+    }
+
+    @Test
+    public void drop_rejectsWhenQueueFull() throws Exception {
+        BlockingExecutor executor = new BlockingExecutor();
+        CaptureStore store = new CaptureStore(mFolder.newFolder())
+                .setBackpressure(CaptureStore.BACKPRESSURE_DROP)
+                .setQueueCapacity(2, Long.MAX_VALUE)
+                .setCallback(new NoOpCallback(), executor);
+        store.open();
+        assertEquals(0, store.append(jpeg(0, 100)));
+        assertEquals(1, store.append(jpeg(1, 100)));
+        //写线程停在回调上, 两条记录都还占着队列
+        assertEquals(-1, store.append(jpeg(2, 100)));
+        executor.mRelease.countDown();
+        store.close();
+        assertEquals(1, store.getDroppedRecords());
+        assertEquals(2, store.getPersistedRecords());
+    }
+
+    @Test
+    public void degrade_lowersQualityAsQueueFills() throws Exception {
+        BlockingExecutor executor = new BlockingExecutor();
+        CaptureStore store = new CaptureStore(mFolder.newFolder())
+                .setBackpressure(CaptureStore.BACKPRESSURE_DEGRADE)
+                .setQueueCapacity(4, Long.MAX_VALUE)
+                .setJpegQualityRange(60, 90)
+                .setCallback(new NoOpCallback(), executor);
+        store.open();
+        assertEquals(90, store.getJpegQuality());
+        store.append(jpeg(0, 100));
+        store.append(jpeg(1, 100));
+        assertEquals(90, store.getJpegQuality());
+        store.append(jpeg(2, 100));
+        assertEquals(75, store.getJpegQuality());
+        store.append(jpeg(3, 100));
+        assertEquals(60, store.getJpegQuality());
+        assertEquals(-1, store.append(jpeg(4, 100)));
+        executor.mRelease.countDown();
+        store.close();
+        assertEquals(90, store.getJpegQuality());
+    }
+
+    @Test
+    public void block_waitsForSpace() throws Exception {
+        BlockingExecutor executor = new BlockingExecutor();
+        final CaptureStore store = new CaptureStore(mFolder.newFolder())
+                .setQueueCapacity(1, Long.MAX_VALUE)
+                .setCallback(new NoOpCallback(), executor);
+        store.open();
+        store.append(jpeg(0, 100));
+        final long[] sequence = {-2};
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                sequence[0] = store.append(jpeg(1, 100));
+            }
+        });
+        producer.start();
+        producer.join(100);
+        assertTrue(producer.isAlive());
+        executor.mRelease.countDown();
+        producer.join(5000);
+        assertEquals(1, sequence[0]);
+        store.close();
+        assertEquals(0, store.getDroppedRecords());
+        assertEquals(2, store.getPersistedRecords());
+    }
+
+    @Test
+    public void callbackException_doesNotFailBatch() throws Exception {
+        final List<String> events = new ArrayList<String>();
+        CaptureStore store = new CaptureStore(mFolder.newFolder())
+                //三条记录在同一批中写入
+                .setBatch(3, 1000)
+                .setCallback(new CaptureStore.Callback() {
+                    @Override
+                    public void onPersisted(long sequence, int length, long latencyNanos) {
+                        events.add("ok" + sequence);
+                        if (sequence == 0) {
+                            throw new IllegalStateException("callback failed");
+                        }
+                    }
+
+                    @Override
+                    public void onPersistFailed(long sequence, IOException e) {
+                        events.add("fail" + sequence);
+                    }
+                }, new Executor() {
+                    @Override
+                    public void execute(Runnable command) {
+                        command.run();
+                    }
+                });
+        store.open();
+        for (int i = 0; i < 3; i++) {
+            assertEquals(i, store.append(jpeg(i, 100)));
+        }
+        store.close();
+        assertEquals(Arrays.asList("ok0", "ok1", "ok2"), events);
+        assertEquals(1, store.getSyncCount());
+        assertEquals(Arrays.asList(0L, 1L, 2L), scan(store));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void append_rejectsEmptyRecord() throws IOException {
+        CaptureStore store = new CaptureStore(mFolder.newFolder());
+        store.open();
+        try {
+            store.append(new byte[0]);
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void segment_writesHeaderOfEmptyRecord() throws IOException {
+        File directory = mFolder.newFolder();
+        Segment segment = Segment.create(directory, 0, 4096);
+        segment.append(0, 0, jpeg(0, 10));
+        segment.append(1, 0, new byte[0]);
+        segment.append(2, 0, jpeg(2, 10));
+        segment.finish();
+        final List<Long> sequences = new ArrayList<Long>();
+        Segment.read(Segment.fileFor(directory, 0), new Segment.RecordReader() {
+            @Override
+            public void onRecord(long sequence, long timestamp, byte[] jpeg) {
+                sequences.add(sequence);
+            }
+        });
+        assertEquals(Arrays.asList(0L, 1L, 2L), sequences);
+    }
+
+    private static List<Long> scan(CaptureStore store) throws IOException {
+        final List<Long> sequences = new ArrayList<Long>();
+        store.scan(new CaptureStore.RecordVisitor() {
+            @Override
+            public void visit(long sequence, long timestamp, byte[] jpeg) {
+                sequences.add(sequence);
+            }
+        });
+        return sequences;
+    }
+
+    private static byte[] jpeg(int seed, int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (seed * 31 + i);
+        }
+        return data;
+    }
+
+    /**
+     * 在写线程中执行回调, 直到放行前都阻塞写线程
+     */
+    private static class BlockingExecutor implements Executor {
+        final CountDownLatch mRelease = new CountDownLatch(1);
+
+        @Override
+        public void execute(Runnable command) {
+            try {
+                mRelease.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            command.run();
+        }
+    }
+
+    private static class NoOpCallback implements CaptureStore.Callback {
+        @Override
+        public void onPersisted(long sequence, int length, long latencyNanos) {
+        }
+
+        @Override
+        public void onPersistFailed(long sequence, IOException e) {
+        }
+    }
+}